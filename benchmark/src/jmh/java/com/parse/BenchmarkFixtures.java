@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Payloads shared by the benchmarks. Everything is generated from a fixed seed, so every run sees
+ * the same data.
+ */
+final class BenchmarkFixtures {
+
+    static final String CLASS_NAME = "GameScore";
+
+    static final long SEED = 42;
+    private static final String[] TAGS = {"daily", "ranked", "casual", "event", "bonus", "coop"};
+
+    private BenchmarkFixtures() {
+        // do nothing
+    }
+
+    private static String objectId(Random random) {
+        String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        StringBuilder builder = new StringBuilder(10);
+        for (int i = 0; i < 10; i++) {
+            builder.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return builder.toString();
+    }
+
+    private static String date(Random random) {
+        // Somewhere in 2015-2020
+        return ParseDateFormat.getInstance()
+                .format(new Date(1420070400000L + (long) (random.nextDouble() * 1.6e11)));
+    }
+
+    /** A find result as the server sends it, with most of the field types a class can have. */
+    static JSONObject serverObject(Random random, int index) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("objectId", objectId(random));
+        json.put("createdAt", date(random));
+        json.put("updatedAt", date(random));
+        json.put("playerName", "player" + index);
+        json.put("score", random.nextInt(100000));
+        json.put("ratio", random.nextDouble());
+        json.put("cheatMode", random.nextBoolean());
+
+        JSONArray tags = new JSONArray();
+        for (int i = 0, count = random.nextInt(4); i < count; i++) {
+            tags.put(TAGS[random.nextInt(TAGS.length)]);
+        }
+        json.put("tags", tags);
+
+        JSONObject playedAt = new JSONObject();
+        playedAt.put("__type", "Date");
+        playedAt.put("iso", date(random));
+        json.put("playedAt", playedAt);
+
+        JSONObject location = new JSONObject();
+        location.put("__type", "GeoPoint");
+        location.put("latitude", random.nextDouble() * 180 - 90);
+        location.put("longitude", random.nextDouble() * 360 - 180);
+        json.put("location", location);
+
+        JSONObject player = new JSONObject();
+        player.put("__type", "Pointer");
+        player.put("className", "Player");
+        player.put("objectId", objectId(random));
+        json.put("player", player);
+
+        JSONObject stats = new JSONObject();
+        stats.put("kills", random.nextInt(50));
+        stats.put("deaths", random.nextInt(50));
+        stats.put("level", "level" + random.nextInt(10));
+        json.put("stats", stats);
+        return json;
+    }
+
+    /** {@code count} server objects. */
+    static JSONArray serverObjects(int count) throws JSONException {
+        Random random = new Random(SEED);
+        JSONArray objects = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            objects.put(serverObject(random, i));
+        }
+        return objects;
+    }
+
+    /** The body of a find response with {@code count} results. */
+    static String findResponse(int count) throws JSONException {
+        JSONObject response = new JSONObject();
+        response.put("results", serverObjects(count));
+        return response.toString();
+    }
+
+    /** {@code count} objects decoded from {@link #serverObjects(int)}. */
+    static List<ParseObject> parseObjects(int count) throws JSONException {
+        JSONArray objects = serverObjects(count);
+        List<ParseObject> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(
+                    ParseObject.fromJSON(objects.getJSONObject(i), CLASS_NAME, ParseDecoder.get()));
+        }
+        return results;
+    }
+}
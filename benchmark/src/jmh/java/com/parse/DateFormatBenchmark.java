@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing and formatting {@code COUNT} dates with {@link ParseDateFormat}, and with one {@link
+ * SimpleDateFormat} shared behind a lock, as {@link ParseDateFormat} used to do. The nested classes
+ * run the same benchmarks from 1, 4 and 8 threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public abstract class DateFormatBenchmark {
+
+    private static final int COUNT = 100;
+
+    private final Object lock = new Object();
+    private DateFormat dateFormat;
+    private Date[] dates;
+    private String[] strings;
+
+    @Setup
+    public void setUp() {
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        dateFormat.setTimeZone(new SimpleTimeZone(0, "GMT"));
+
+        Random random = new Random(BenchmarkFixtures.SEED);
+        dates = new Date[COUNT];
+        strings = new String[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            // Anywhere from 2000 to 2030
+            dates[i] = new Date(946684800000L + (long) (random.nextDouble() * 946728000000L));
+            strings[i] = dateFormat.format(dates[i]);
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String string : strings) {
+            blackhole.consume(ParseDateFormat.getInstance().parse(string));
+        }
+    }
+
+    @Benchmark
+    public void parseSynchronized(Blackhole blackhole) throws Exception {
+        for (String string : strings) {
+            synchronized (lock) {
+                blackhole.consume(dateFormat.parse(string));
+            }
+        }
+    }
+
+    @Benchmark
+    public void format(Blackhole blackhole) {
+        for (Date date : dates) {
+            blackhole.consume(ParseDateFormat.getInstance().format(date));
+        }
+    }
+
+    @Benchmark
+    public void formatSynchronized(Blackhole blackhole) {
+        for (Date date : dates) {
+            synchronized (lock) {
+                blackhole.consume(dateFormat.format(date));
+            }
+        }
+    }
+
+    @Threads(1)
+    public static class OneThread extends DateFormatBenchmark {}
+
+    @Threads(4)
+    public static class FourThreads extends DateFormatBenchmark {}
+
+    @Threads(8)
+    public static class EightThreads extends DateFormatBenchmark {}
+}
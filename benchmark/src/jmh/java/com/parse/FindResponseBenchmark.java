@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.util.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Turning a find response into {@link ParseObject}s, by buffering and parsing the whole body first,
+ * or by decoding it as a stream with {@link ParseFindResponseDecoder}.
+ *
+ * <p>The {@code first} benchmarks stop once the first result is a {@link ParseObject}, which is how
+ * long a caller showing results as they arrive would wait before it could show anything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FindResponseBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int count;
+
+    private ParseQuery.State<ParseObject> state;
+    private NetworkQueryController controller;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws Exception {
+        state = new ParseQuery.State.Builder<>(BenchmarkFixtures.CLASS_NAME).build();
+        controller = new NetworkQueryController(null);
+        response = BenchmarkFixtures.findResponse(count).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public List<ParseObject> buffered() throws Exception {
+        // What ParseRESTCommand and NetworkQueryController do without a ContentDecoder
+        JSONObject json =
+                new JSONObject(
+                        new String(
+                                ParseIOUtils.toByteArray(new ByteArrayInputStream(response)),
+                                "UTF-8"));
+        return controller.convertFindResponse(state, json);
+    }
+
+    @Benchmark
+    public List<ParseObject> streaming() throws Exception {
+        ParseFindResponseDecoder<ParseObject> decoder =
+                new ParseFindResponseDecoder<>(state, ParseDecoder.get());
+        decoder.decode(new ByteArrayInputStream(response));
+        return decoder.getResults();
+    }
+
+    @Benchmark
+    public ParseObject bufferedFirst() throws Exception {
+        // The whole body has to be read and parsed before any result can be decoded
+        JSONObject json =
+                new JSONObject(
+                        new String(
+                                ParseIOUtils.toByteArray(new ByteArrayInputStream(response)),
+                                "UTF-8"));
+        JSONObject first = json.getJSONArray("results").getJSONObject(0);
+        return ParseObject.fromJSON(first, state.className(), ParseDecoder.get());
+    }
+
+    @Benchmark
+    public ParseObject streamingFirst() throws Exception {
+        JsonReader reader =
+                new JsonReader(new InputStreamReader(new ByteArrayInputStream(response), "UTF-8"));
+        try {
+            reader.beginObject();
+            // The fixtures only have a results array
+            reader.nextName();
+            reader.beginArray();
+            JSONObject first = ParseFindResponseDecoder.readObject(reader);
+            return ParseObject.fromJSON(first, state.className(), ParseDecoder.get());
+        } finally {
+            reader.close();
+        }
+    }
+}
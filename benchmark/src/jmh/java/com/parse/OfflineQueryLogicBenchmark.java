@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import com.parse.OfflineQueryLogic.ConstraintMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Matching objects against a query the way the local datastore does for each candidate, and sorting
+ * the ones that match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OfflineQueryLogicBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int count;
+
+    private OfflineQueryLogic logic;
+    private ParseQuery.State<ParseObject> state;
+    private ParseQuery.State<ParseObject> sortState;
+    private ConstraintMatcher<ParseObject> compiledMatcher;
+    private List<ParseObject> objects;
+
+    @Setup
+    public void setUp() throws Exception {
+        logic = new OfflineQueryLogic(null);
+        state =
+                new ParseQuery.State.Builder<>(BenchmarkFixtures.CLASS_NAME)
+                        .addCondition("score", "$gte", 1000)
+                        .addCondition("tags", "$in", Arrays.asList("ranked", "event"))
+                        .addCondition("playerName", "$regex", "^player1")
+                        .addCondition("stats.kills", "$lt", 40)
+                        .build();
+        sortState =
+                new ParseQuery.State.Builder<>(BenchmarkFixtures.CLASS_NAME)
+                        .addDescendingOrder("score")
+                        .addAscendingOrder("playerName")
+                        .build();
+        compiledMatcher = logic.createMatcher(state, null);
+        objects = BenchmarkFixtures.parseObjects(count);
+    }
+
+    /** Compiles the query and matches every object, like a single find. */
+    @Benchmark
+    public int match() throws Exception {
+        return match(logic.createMatcher(state, null));
+    }
+
+    /** Matches every object with a matcher compiled in setup, leaving only the per-object cost. */
+    @Benchmark
+    public int matchCompiled() throws Exception {
+        return match(compiledMatcher);
+    }
+
+    @Benchmark
+    public List<ParseObject> sort() throws Exception {
+        List<ParseObject> results = new ArrayList<>(objects);
+        OfflineQueryLogic.sort(results, sortState);
+        return results;
+    }
+
+    private int match(ConstraintMatcher<ParseObject> matcher) throws Exception {
+        int matches = 0;
+        for (ParseObject object : objects) {
+            if (ParseTaskUtils.wait(matcher.matchesAsync(object, null))) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
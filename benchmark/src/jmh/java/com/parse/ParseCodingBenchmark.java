@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Encoding and decoding of values between their JSON and Java forms. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseCodingBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int count;
+
+    private JSONArray encoded;
+    private List<?> decoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        encoded = BenchmarkFixtures.serverObjects(count);
+        decoded = (List<?>) ParseDecoder.get().decode(encoded);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return ParseDecoder.get().decode(encoded);
+    }
+
+    @Benchmark
+    public Object encode() {
+        return PointerEncoder.get().encode(decoded);
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        return ParseDecoder.get().decode(PointerEncoder.get().encode(decoded));
+    }
+}
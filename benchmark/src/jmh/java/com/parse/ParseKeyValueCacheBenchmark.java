@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Reading and writing entries of a key-value cache that holds {@code count} entries. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseKeyValueCacheBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int count;
+
+    private File directory;
+    private String[] keys;
+    private String value;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = File.createTempFile("ParseKeyValueCache", "");
+        directory.delete();
+        ParseKeyValueCache.initialize(directory);
+        // Keep every entry, so reads don't miss
+        ParseKeyValueCache.maxKeyValueCacheFiles = Integer.MAX_VALUE;
+        ParseKeyValueCache.maxKeyValueCacheBytes = Integer.MAX_VALUE;
+
+        value = BenchmarkFixtures.findResponse(1);
+        keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "query" + i;
+            ParseKeyValueCache.saveToKeyValueCache(keys[i], value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ParseKeyValueCache.clearKeyValueCacheDir();
+        ParseKeyValueCache.maxKeyValueCacheFiles =
+                ParseKeyValueCache.DEFAULT_MAX_KEY_VALUE_CACHE_FILES;
+        ParseKeyValueCache.maxKeyValueCacheBytes =
+                ParseKeyValueCache.DEFAULT_MAX_KEY_VALUE_CACHE_BYTES;
+        ParseFileUtils.deleteQuietly(directory);
+    }
+
+    private String nextKey() {
+        String key = keys[next];
+        next = (next + 1) % count;
+        return key;
+    }
+
+    @Benchmark
+    public String get() {
+        return ParseKeyValueCache.loadFromKeyValueCache(nextKey(), Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void put() {
+        ParseKeyValueCache.saveToKeyValueCache(nextKey(), value);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Turning server JSON into {@link ParseObject}s and back into the REST format. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseObjectBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int count;
+
+    private JSONArray json;
+    private List<ParseObject> objects;
+
+    @Setup
+    public void setUp() throws Exception {
+        json = BenchmarkFixtures.serverObjects(count);
+        objects = BenchmarkFixtures.parseObjects(count);
+    }
+
+    @Benchmark
+    public List<ParseObject> fromJSON() throws Exception {
+        List<ParseObject> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(
+                    ParseObject.fromJSON(
+                            json.getJSONObject(i),
+                            BenchmarkFixtures.CLASS_NAME,
+                            ParseDecoder.get()));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<JSONObject> toRest() {
+        List<JSONObject> results = new ArrayList<>(count);
+        for (ParseObject object : objects) {
+            results.add(object.toRest(PointerEncoder.get()));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Building the parameters of a find request. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseRESTQueryCommandBenchmark {
+
+    /** How many object ids the query is constrained to. */
+    @Param({"1", "100", "10000"})
+    public int count;
+
+    private ParseQuery.State<ParseObject> state;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<ParseObject> objects = BenchmarkFixtures.parseObjects(count);
+        List<String> objectIds = new ArrayList<>(count);
+        for (ParseObject object : objects) {
+            objectIds.add(object.getObjectId());
+        }
+        state =
+                new ParseQuery.State.Builder<>(BenchmarkFixtures.CLASS_NAME)
+                        .addCondition("objectId", "$in", objectIds)
+                        .whereEqualTo("cheatMode", false)
+                        .whereEqualTo("player", objects.get(0).getParseObject("player"))
+                        .addCondition("score", "$gt", 1000)
+                        .orderByDescending("score")
+                        .addAscendingOrder("playerName")
+                        .include("player")
+                        .selectKeys(Arrays.asList("playerName", "score", "player"))
+                        .setLimit(count)
+                        .build();
+    }
+
+    @Benchmark
+    public Map<String, String> encode() {
+        return ParseRESTQueryCommand.encode(state, false);
+    }
+}
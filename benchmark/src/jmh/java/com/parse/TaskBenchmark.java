@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Chains of {@code count} continuations, like the ones every SDK operation is built from. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int count;
+
+    /** Continuations added to a task that has already completed run right away. */
+    @Benchmark
+    public Integer completedChain() {
+        Task<Integer> task = Task.forResult(0);
+        for (int i = 0; i < count; i++) {
+            task = task.onSuccess(t -> t.getResult() + 1);
+        }
+        return task.getResult();
+    }
+
+    /** Continuations added before the task completes are queued and run when it does. */
+    @Benchmark
+    public Integer pendingChain() {
+        TaskCompletionSource<Integer> tcs = new TaskCompletionSource<>();
+        Task<Integer> task = tcs.getTask();
+        for (int i = 0; i < count; i++) {
+            task = task.continueWithTask(t -> Task.forResult(t.getResult() + 1));
+        }
+        tcs.setResult(0);
+        return task.getResult();
+    }
+}
@@ -4,6 +4,11 @@ package com.parse.coroutines
 
 import com.parse.ParseObject
 import com.parse.ParseQuery
+import com.parse.ParseQueryPager
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.transform
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
@@ -75,3 +80,37 @@ internal suspend fun <T : ParseObject> ParseQuery<T>.countInternal(): Int {
         }
     }
 }
+
+/**
+ * Emits the objects that satisfy this query, fetching them [pageSize] at a time with a
+ * [ParseQueryPager], so memory stays bounded however many objects there are. Up to
+ * [prefetch] pages are fetched ahead of the collector. Cancelling the collection calls [cancel].
+ */
+fun <T : ParseObject> ParseQuery<T>.findAsFlow(pageSize: Int = 100, prefetch: Int = 1): Flow<T> {
+    require(prefetch >= 0) { "prefetch must not be negative" }
+    return flow {
+        val pager = pager(pageSize)
+        while (pager.hasNextPage()) {
+            emit(nextPageInternal(pager))
+        }
+    }.buffer(prefetch).transform { page ->
+        page.forEach { emit(it) }
+    }
+}
+
+internal suspend fun <T : ParseObject> ParseQuery<T>.nextPageInternal(pager: ParseQueryPager<T>): List<T> {
+    return suspendCancellableCoroutine { continuation ->
+        continuation.invokeOnCancellation {
+            cancel()
+        }
+
+        pager.nextPageInBackground().continueWith { task ->
+            when {
+                task.isCancelled -> continuation.cancel()
+                task.isFaulted -> continuation.resumeWithException(task.error)
+                else -> continuation.resume(task.result)
+            }
+            null
+        }
+    }
+}
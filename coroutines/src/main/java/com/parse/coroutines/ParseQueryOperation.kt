@@ -1,8 +1,11 @@
 package com.parse.coroutines
 
+import kotlinx.coroutines.flow.Flow
+
 interface ParseQueryOperation<out T> {
     suspend fun find(): List<T>
     suspend fun get(id: String): T
     suspend fun first(): T
     suspend fun count(): Int
+    fun findAsFlow(pageSize: Int = 100, prefetch: Int = 1): Flow<T>
 }
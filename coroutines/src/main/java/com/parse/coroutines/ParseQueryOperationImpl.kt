@@ -2,6 +2,7 @@ package com.parse.coroutines
 
 import com.parse.ParseObject
 import com.parse.ParseQuery
+import kotlinx.coroutines.flow.Flow
 
 class ParseQueryOperationImpl<T : ParseObject>(private val query: ParseQuery<T>) :
     ParseQueryOperation<T> {
@@ -13,4 +14,7 @@ class ParseQueryOperationImpl<T : ParseObject>(private val query: ParseQuery<T>)
     override suspend fun first(): T = query.firstInternal()
 
     override suspend fun count(): Int = query.countInternal()
+
+    override fun findAsFlow(pageSize: Int, prefetch: Int): Flow<T> =
+        query.findAsFlow(pageSize, prefetch)
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the latency of local queries while objects are being pinned, with and without
+ * write-ahead logging. This needs a device, since the concurrency comes from the SQLite connection
+ * pool of the platform:
+ *
+ * <pre>
+ * ./gradlew :parse:connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.parse.OfflineStoreConcurrencyBenchmark
+ * </pre>
+ *
+ * The percentiles are logged with the tag {@value #TAG} and reported as instrumentation status.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OfflineStoreConcurrencyBenchmark {
+
+    private static final String TAG = "OfflineStoreBenchmark";
+    private static final String CLASS_NAME = "BenchmarkObject";
+
+    private static final int INITIAL_OBJECTS = 2000;
+    private static final int OBJECTS_PER_PIN = 200;
+    private static final int GROUPS = 20;
+    private static final int QUERIES = 200;
+
+    @After
+    public void tearDown() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        if (Parse.getLocalDatastore() != null) {
+            Parse.getLocalDatastore().clearDatabase(context);
+        }
+        Parse.destroy();
+    }
+
+    private static void initialize(boolean writeAheadLogging) {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Parse.Configuration.Builder builder =
+                new Parse.Configuration.Builder(context)
+                        .applicationId("benchmark")
+                        .server("http://localhost/parse/")
+                        .enableLocalDataStore()
+                        .addLocalDataStoreIndex(CLASS_NAME, "group");
+        if (writeAheadLogging) {
+            builder.enableLocalDataStoreWriteAheadLogging();
+        }
+        Parse.initialize(builder.build());
+    }
+
+    private static List<ParseObject> createObjects(int offset, int count) {
+        List<ParseObject> objects = new ArrayList<>(count);
+        for (int i = offset; i < offset + count; i++) {
+            ParseObject object = ParseObject.create(CLASS_NAME);
+            object.put("group", i % GROUPS);
+            object.put("name", "object" + i);
+            object.put("payload", "Lorem ipsum dolor sit amet, consectetur adipiscing elit " + i);
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    private void run(String name, boolean writeAheadLogging) throws Exception {
+        initialize(writeAheadLogging);
+        ParseObject.pinAll(createObjects(0, INITIAL_OBJECTS));
+
+        // Keep pinning new objects for as long as the queries run.
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread writer =
+                new Thread(
+                        () -> {
+                            int offset = INITIAL_OBJECTS;
+                            while (!done.get()) {
+                                try {
+                                    ParseObject.pinAll(createObjects(offset, OBJECTS_PER_PIN));
+                                } catch (ParseException e) {
+                                    throw new RuntimeException(e);
+                                }
+                                offset += OBJECTS_PER_PIN;
+                            }
+                        });
+        writer.start();
+
+        long[] latencies = new long[QUERIES];
+        try {
+            for (int i = 0; i < QUERIES; i++) {
+                ParseQuery<ParseObject> query =
+                        ParseQuery.getQuery(CLASS_NAME)
+                                .fromLocalDatastore()
+                                .whereEqualTo("group", i % GROUPS)
+                                .setLimit(10);
+                long start = System.nanoTime();
+                query.find();
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+        report(name, latencies);
+    }
+
+    private static void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        Bundle status = new Bundle();
+        StringBuilder sb = new StringBuilder(name).append(" find latency (ms):");
+        for (int percentile : new int[] {50, 90, 99}) {
+            double millis = latencies[latencies.length * percentile / 100] / 1e6;
+            status.putDouble(name + "_p" + percentile + "_ms", millis);
+            sb.append(String.format(" p%d=%.2f", percentile, millis));
+        }
+        Log.i(TAG, sb.toString());
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    @Test
+    public void findWhilePinning() throws Exception {
+        run("rollbackJournal", false);
+    }
+
+    @Test
+    public void findWhilePinningWithWriteAheadLogging() throws Exception {
+        run("writeAheadLogging", true);
+    }
+}
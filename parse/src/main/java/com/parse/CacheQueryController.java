@@ -77,21 +77,45 @@ class CacheQueryController extends AbstractQueryController {
                 ParseRESTQueryCommand.findCommand(state, sessionToken).getCacheKey();
         return Task.call(
                 () -> {
-                    JSONObject cached =
-                            ParseKeyValueCache.jsonFromKeyValueCache(cacheKey, state.maxCacheAge());
-                    if (cached == null) {
+                    List<T> results = ParseQueryMemoryCache.get(cacheKey, state.maxCacheAge());
+                    if (results != null) {
+                        addKnownObjectsToRelation(state, results);
+                        return results;
+                    }
+
+                    // Read the timestamp first, so the results are never taken for newer than
+                    // they are
+                    long timestamp = ParseKeyValueCache.timestampFromKeyValueCache(cacheKey);
+                    String raw =
+                            ParseKeyValueCache.loadFromKeyValueCache(cacheKey, state.maxCacheAge());
+                    if (raw == null) {
                         throw new ParseException(ParseException.CACHE_MISS, "results not cached");
                     }
                     try {
-                        return networkController.convertFindResponse(state, cached);
+                        results = networkController.convertFindResponse(state, new JSONObject(raw));
                     } catch (JSONException e) {
+                        ParseKeyValueCache.clearFromKeyValueCache(cacheKey);
                         throw new ParseException(
                                 ParseException.CACHE_MISS, "the cache contains corrupted json");
                     }
+                    ParseQueryMemoryCache.put(cacheKey, results, timestamp, raw.length());
+                    return results;
                 },
                 Task.BACKGROUND_EXECUTOR);
     }
 
+    // Objects from the memory cache skip convertFindResponse, which does this for the others
+    private static <T extends ParseObject> void addKnownObjectsToRelation(
+            ParseQuery.State<T> state, List<T> results) {
+        ParseQuery.RelationConstraint relation =
+                (ParseQuery.RelationConstraint) state.constraints().get("$relatedTo");
+        if (relation != null) {
+            for (T object : results) {
+                relation.getRelation().addKnownObject(object);
+            }
+        }
+    }
+
     /**
      * Retrieves the results of the last time {@link ParseQuery#count()} was called on a query
      * identical to this one.
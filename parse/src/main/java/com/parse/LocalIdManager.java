@@ -8,8 +8,17 @@
  */
 package com.parse;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -17,17 +26,50 @@ import org.json.JSONObject;
 /**
  * Manages a set of local ids and possible mappings to global Parse objectIds. This class is
  * thread-safe.
+ *
+ * <p>The map is kept in memory and every change to it is appended to a journal, which is compacted
+ * once it holds more redundant operations than live entries. Changes return once they're written to
+ * the journal, and changes made concurrently are written together (group commit), so retaining the
+ * local ids of a large object graph doesn't cost a file write per id. Changes that can't be written
+ * are logged and written along with the next one.
  */
 class LocalIdManager {
 
-    // Path to the local id storage on disk.
+    private static final String TAG = "LocalIdManager";
+
+    private static final String JOURNAL_NAME = "LocalId.journal";
+    private static final String JOURNAL_MAGIC = "com.parse.LocalIdManager";
+    private static final String JOURNAL_VERSION = "1";
+    private static final String JOURNAL_SET = "SET";
+    private static final String JOURNAL_DEL = "DEL";
+    private static final int MIN_REDUNDANT_OPS_TO_COMPACT = 1000;
+
+    // Path to the legacy local id storage on disk, one file per local id.
     private final File diskPath;
+    private final File journalFile;
     // Random generator for inventing new ids.
     private final Random random;
 
+    /**
+     * Held while writing to the journal. Always acquired before {@code this}, which guards the
+     * in-memory map and the operations that haven't been written yet.
+     */
+    private final Object journalLock = new Object();
+
+    // Guarded by this. Lazily loaded.
+    private Map<String, MapEntry> entries;
+    private StringBuilder pending = new StringBuilder();
+    private long appendedOps;
+    private int redundantOps;
+
+    // Guarded by journalLock. Null until the journal has been rewritten by this instance.
+    private Writer journalWriter;
+    private long committedOps;
+
     /** Creates a new LocalIdManager with default options. */
     /* package for tests */ LocalIdManager(File root) {
         diskPath = new File(root, "LocalId");
+        journalFile = new File(root, JOURNAL_NAME);
         random = new Random();
     }
 
@@ -45,59 +87,220 @@ class LocalIdManager {
         return true;
     }
 
-    /** Grabs one entry in the local id map off the disk. */
-    private synchronized MapEntry getMapEntry(String localId) {
-        if (!isLocalId(localId)) {
-            throw new IllegalStateException("Tried to get invalid local id: \"" + localId + "\".");
+    // Must be called while holding this.
+    private Map<String, MapEntry> getEntries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            redundantOps = 0;
+            if (journalFile.exists()) {
+                readJournal();
+            } else {
+                // First start after an upgrade, so pick up the entries of the legacy files. They
+                // are deleted once the journal has been written.
+                readLegacyEntries();
+            }
         }
+        return entries;
+    }
 
+    // Must be called while holding this.
+    private void readJournal() {
+        BufferedReader reader = null;
         try {
-            JSONObject json = ParseFileUtils.readFileToJSONObject(new File(diskPath, localId));
+            reader =
+                    new BufferedReader(
+                            new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            if (!JOURNAL_MAGIC.equals(magic) || !JOURNAL_VERSION.equals(version)) {
+                throw new IOException("Unexpected journal header: " + magic + ", " + version);
+            }
 
-            MapEntry entry = new MapEntry();
-            entry.retainCount = json.optInt("retainCount", 0);
-            entry.objectId = json.optString("objectId", null);
-            return entry;
-        } catch (IOException | JSONException e) {
-            return new MapEntry();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (JOURNAL_SET.equals(parts[0]) && (parts.length == 3 || parts.length == 4)) {
+                    // SET <localId> <retainCount> [<objectId>]
+                    MapEntry entry = new MapEntry();
+                    entry.retainCount = Integer.parseInt(parts[2]);
+                    entry.objectId = parts.length == 4 ? parts[3] : null;
+                    entries.put(parts[1], entry);
+                } else if (JOURNAL_DEL.equals(parts[0]) && parts.length == 2) {
+                    // DEL <localId>
+                    entries.remove(parts[1]);
+                } else {
+                    // Most likely the last line, cut short by the process dying mid-write
+                    throw new IOException("Unexpected journal line: " + line);
+                }
+                redundantOps++;
+            }
+        } catch (IOException | RuntimeException e) {
+            PLog.w(TAG, "Unable to read the whole journal, keeping the entries read so far", e);
+        } finally {
+            ParseIOUtils.closeQuietly(reader);
         }
+        redundantOps = Math.max(0, redundantOps - entries.size());
     }
 
-    /** Writes one entry to the local id map on disk. */
-    private synchronized void putMapEntry(String localId, MapEntry entry) {
+    // Must be called while holding this.
+    private void readLegacyEntries() {
+        String[] localIds = diskPath.list();
+        if (localIds == null) {
+            return;
+        }
+        for (String localId : localIds) {
+            if (!isLocalId(localId)) {
+                continue;
+            }
+            try {
+                JSONObject json = ParseFileUtils.readFileToJSONObject(new File(diskPath, localId));
+                MapEntry entry = new MapEntry();
+                entry.retainCount = json.optInt("retainCount", 0);
+                entry.objectId = json.optString("objectId", null);
+                if (entry.retainCount > 0) {
+                    entries.put(localId, entry);
+                }
+            } catch (IOException | JSONException e) {
+                // Same as an entry that was never written
+            }
+        }
+    }
+
+    /** Grabs one entry in the local id map. */
+    private synchronized MapEntry getMapEntry(String localId) {
         if (!isLocalId(localId)) {
             throw new IllegalStateException("Tried to get invalid local id: \"" + localId + "\".");
         }
+        MapEntry entry = getEntries().get(localId);
+        return entry != null ? entry.copy() : new MapEntry();
+    }
 
-        JSONObject json = new JSONObject();
-        try {
-            json.put("retainCount", entry.retainCount);
+    /**
+     * Updates one entry in the local id map, removing it if it's no longer retained.
+     *
+     * @return the number of operations the journal has to hold for this one to be committed.
+     */
+    private synchronized long putMapEntry(String localId, MapEntry entry) {
+        if (!isLocalId(localId)) {
+            throw new IllegalStateException("Tried to get invalid local id: \"" + localId + "\".");
+        }
+        if (entry.retainCount > 0) {
+            getEntries().put(localId, entry);
+            pending.append(JOURNAL_SET).append(' ').append(localId).append(' ');
+            pending.append(entry.retainCount);
             if (entry.objectId != null) {
-                json.put("objectId", entry.objectId);
+                pending.append(' ').append(entry.objectId);
             }
-        } catch (JSONException je) {
-            throw new IllegalStateException("Error creating local id map entry.", je);
+        } else {
+            getEntries().remove(localId);
+            pending.append(JOURNAL_DEL).append(' ').append(localId);
         }
+        pending.append('\n');
+        redundantOps++;
+        return ++appendedOps;
+    }
+
+    /**
+     * Writes the journal up to the given operation. Whoever gets the journal lock first writes the
+     * operations of everyone waiting behind it, who then find they have nothing left to do.
+     *
+     * <p>Operations stay pending until they've been written, so if this throws, the next commit
+     * writes them again.
+     */
+    private void commit(long ops) throws IOException {
+        synchronized (journalLock) {
+            if (committedOps >= ops) {
+                return;
+            }
 
-        File file = new File(diskPath, localId);
-        if (!diskPath.exists()) {
-            diskPath.mkdirs();
+            String lines;
+            boolean compact;
+            synchronized (this) {
+                lines = pending.toString();
+                ops = appendedOps;
+                compact =
+                        journalWriter == null
+                                || (redundantOps >= MIN_REDUNDANT_OPS_TO_COMPACT
+                                        && redundantOps >= entries.size());
+            }
+            if (compact) {
+                rebuildJournal();
+            } else {
+                try {
+                    journalWriter.write(lines);
+                    journalWriter.flush();
+                    synchronized (this) {
+                        pending.delete(0, lines.length());
+                    }
+                } catch (IOException e) {
+                    // Part of the lines may have made it to the file, so replace it instead
+                    PLog.w(TAG, "Unable to append to journal, rebuilding it", e);
+                    rebuildJournal();
+                }
+            }
+            committedOps = ops;
         }
+    }
+
+    // Replaces the journal with the minimal one describing the map, and deletes any legacy files
+    // it replaces. Must be called while holding journalLock.
+    private void rebuildJournal() throws IOException {
+        ParseIOUtils.closeQuietly(journalWriter);
+        journalWriter = null;
 
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        Writer writer = null;
         try {
-            ParseFileUtils.writeJSONObjectToFile(file, json);
+            writer = openJournalWriter(tempFile, false);
+            writer.write(JOURNAL_MAGIC);
+            writer.write('\n');
+            writer.write(JOURNAL_VERSION);
+            writer.write('\n');
+            int pendingLength;
+            int writtenRedundantOps;
+            synchronized (this) {
+                for (Map.Entry<String, MapEntry> entry : getEntries().entrySet()) {
+                    writer.write(JOURNAL_SET + ' ' + entry.getKey() + ' ');
+                    writer.write(String.valueOf(entry.getValue().retainCount));
+                    if (entry.getValue().objectId != null) {
+                        writer.write(' ' + entry.getValue().objectId);
+                    }
+                    writer.write('\n');
+                }
+                // Everything pending so far is part of the map we just wrote
+                pendingLength = pending.length();
+                writtenRedundantOps = redundantOps;
+            }
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + journalFile);
+            }
+            synchronized (this) {
+                pending.delete(0, pendingLength);
+                redundantOps -= writtenRedundantOps;
+            }
+            ParseFileUtils.deleteQuietly(diskPath);
+            journalWriter = openJournalWriter(journalFile, true);
         } catch (IOException e) {
-            // TODO (grantland): We should do something if this fails...
+            ParseIOUtils.closeQuietly(writer);
+            tempFile.delete();
+            throw e;
         }
     }
 
-    /** Removes an entry from the local id map on disk. */
-    private synchronized void removeMapEntry(String localId) {
-        if (!isLocalId(localId)) {
-            throw new IllegalStateException("Tried to get invalid local id: \"" + localId + "\".");
+    private static Writer openJournalWriter(File file, boolean append) throws IOException {
+        return new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"));
+    }
+
+    // The change is already in the map, and the next commit writes it if this one can't.
+    private void commitQuietly(long ops) {
+        try {
+            commit(ops);
+        } catch (IOException e) {
+            PLog.w(TAG, "Unable to write journal", e);
         }
-        File file = new File(diskPath, localId);
-        ParseFileUtils.deleteQuietly(file);
     }
 
     /** Creates a new local id. */
@@ -117,25 +320,28 @@ class LocalIdManager {
     }
 
     /** Increments the retain count of a local id on disk. */
-    synchronized void retainLocalIdOnDisk(String localId) {
-        MapEntry entry = getMapEntry(localId);
-        entry.retainCount++;
-        putMapEntry(localId, entry);
+    void retainLocalIdOnDisk(String localId) {
+        long ops;
+        synchronized (this) {
+            MapEntry entry = getMapEntry(localId);
+            entry.retainCount++;
+            ops = putMapEntry(localId, entry);
+        }
+        commitQuietly(ops);
     }
 
     /**
      * Decrements the retain count of a local id on disk. If the retain count hits zero, the id is
      * forgotten forever.
      */
-    synchronized void releaseLocalIdOnDisk(String localId) {
-        MapEntry entry = getMapEntry(localId);
-        entry.retainCount--;
-
-        if (entry.retainCount > 0) {
-            putMapEntry(localId, entry);
-        } else {
-            removeMapEntry(localId);
+    void releaseLocalIdOnDisk(String localId) {
+        long ops;
+        synchronized (this) {
+            MapEntry entry = getMapEntry(localId);
+            entry.retainCount--;
+            ops = putMapEntry(localId, entry);
         }
+        commitQuietly(ops);
     }
 
     /**
@@ -148,39 +354,54 @@ class LocalIdManager {
     }
 
     /** Sets the objectId associated with a given local id. */
-    synchronized void setObjectId(String localId, String objectId) {
-        MapEntry entry = getMapEntry(localId);
-        if (entry.retainCount > 0) {
+    void setObjectId(String localId, String objectId) {
+        long ops;
+        synchronized (this) {
+            MapEntry entry = getMapEntry(localId);
+            if (entry.retainCount <= 0) {
+                return;
+            }
             if (entry.objectId != null) {
                 throw new IllegalStateException(
                         "Tried to set an objectId for a localId that already has one.");
             }
             entry.objectId = objectId;
-            putMapEntry(localId, entry);
+            ops = putMapEntry(localId, entry);
         }
+        commitQuietly(ops);
     }
 
     /** Clears all local ids from the map. Returns true is the cache was already empty. */
-    synchronized boolean clear() throws IOException {
-        String[] files = diskPath.list();
-        if (files == null) {
-            return false;
-        }
-        if (files.length == 0) {
-            return false;
-        }
-        for (String fileName : files) {
-            File file = new File(diskPath, fileName);
-            if (!file.delete()) {
-                throw new IOException("Unable to delete file " + fileName + " in localId cache.");
+    boolean clear() throws IOException {
+        synchronized (journalLock) {
+            boolean hadEntries;
+            synchronized (this) {
+                hadEntries = !getEntries().isEmpty();
+                entries = new HashMap<>();
+                pending = new StringBuilder();
+                redundantOps = 0;
+                committedOps = appendedOps;
             }
+            ParseIOUtils.closeQuietly(journalWriter);
+            journalWriter = null;
+            ParseFileUtils.deleteQuietly(diskPath);
+            if (journalFile.exists() && !journalFile.delete()) {
+                throw new IOException("Unable to delete localId journal " + journalFile);
+            }
+            return hadEntries;
         }
-        return true;
     }
 
     /** Internal class representing all the information we know about a local id. */
     private static class MapEntry {
         String objectId;
         int retainCount;
+
+        MapEntry copy() {
+            MapEntry copy = new MapEntry();
+            copy.objectId = objectId;
+            copy.retainCount = retainCount;
+            return copy;
+        }
     }
 }
@@ -17,10 +17,16 @@ class NetworkObjectController implements ParseObjectController {
 
     private final ParseHttpClient client;
     private final ParseObjectCoder coder;
+    private final ParseRequestCoalescer coalescer;
 
     public NetworkObjectController(ParseHttpClient client) {
+        this(client, null);
+    }
+
+    public NetworkObjectController(ParseHttpClient client, ParseRequestCoalescer coalescer) {
         this.client = client;
         this.coder = ParseObjectCoder.get();
+        this.coalescer = coalescer;
     }
 
     @Override
@@ -30,15 +36,21 @@ class NetworkObjectController implements ParseObjectController {
                 ParseRESTObjectCommand.getObjectCommand(
                         state.objectId(), state.className(), sessionToken);
 
-        return command.executeAsync(client)
-                .onSuccess(
-                        task -> {
-                            JSONObject result = task.getResult();
-                            // Copy and clear to create an new empty instance of the same type as
-                            // `state`
-                            ParseObject.State.Init<?> builder = state.newBuilder().clear();
-                            return coder.decode(builder, result, decoder).isComplete(true).build();
-                        });
+        // Every caller decodes the shared response into a state of its own
+        Task<JSONObject> responseTask =
+                coalescer != null
+                        ? coalescer.executeAsync(
+                                command.getCacheKey(),
+                                null,
+                                token -> command.executeAsync(client, token))
+                        : command.executeAsync(client);
+        return responseTask.onSuccess(
+                task -> {
+                    JSONObject result = task.getResult();
+                    // Copy and clear to create an new empty instance of the same type as `state`
+                    ParseObject.State.Init<?> builder = state.newBuilder().clear();
+                    return coder.decode(builder, result, decoder).isComplete(true).build();
+                });
     }
 
     @Override
@@ -20,9 +20,15 @@ class NetworkQueryController extends AbstractQueryController {
     private static final String TAG = "NetworkQueryController";
 
     private final ParseHttpClient restClient;
+    private final ParseRequestCoalescer coalescer;
 
     public NetworkQueryController(ParseHttpClient restClient) {
+        this(restClient, null);
+    }
+
+    public NetworkQueryController(ParseHttpClient restClient, ParseRequestCoalescer coalescer) {
         this.restClient = restClient;
+        this.coalescer = coalescer;
     }
 
     @Override
@@ -50,24 +56,45 @@ class NetworkQueryController extends AbstractQueryController {
 
         final ParseRESTCommand command = ParseRESTQueryCommand.findCommand(state, sessionToken);
 
+        // Cache the results, unless we are ignoring the cache
+        ParseQuery.CachePolicy policy = state.cachePolicy();
+        final boolean shouldCache =
+                policy != null && (policy != ParseQuery.CachePolicy.IGNORE_CACHE);
+
+        // The cache and other callers of a shared request need the raw response, otherwise the
+        // results can be decoded while they're being received
+        final ParseFindResponseDecoder<T> decoder =
+                !shouldCache && coalescer == null && ParseFindResponseDecoder.canDecode(state)
+                        ? new ParseFindResponseDecoder<>(state, ParseDecoder.get())
+                        : null;
+        command.setContentDecoder(decoder);
+
         final long querySent = System.nanoTime();
-        return command.executeAsync(restClient, ct)
+        return executeAsync(command, ct)
                 .onSuccess(
                         task -> {
                             JSONObject json = task.getResult();
-                            // Cache the results, unless we are ignoring the cache
-                            ParseQuery.CachePolicy policy = state.cachePolicy();
-                            if (policy != null && (policy != ParseQuery.CachePolicy.IGNORE_CACHE)) {
-                                ParseKeyValueCache.saveToKeyValueCache(
-                                        command.getCacheKey(), json.toString());
+                            long cachedAt = System.currentTimeMillis();
+                            String raw = null;
+                            if (shouldCache) {
+                                raw = json.toString();
+                                ParseKeyValueCache.saveToKeyValueCache(command.getCacheKey(), raw);
                             }
 
                             long queryReceived = System.nanoTime();
 
-                            List<T> response = convertFindResponse(state, task.getResult());
+                            List<T> response =
+                                    decoder != null
+                                            ? decoder.getResults()
+                                            : convertFindResponse(state, json);
 
                             long objectsParsed = System.nanoTime();
 
+                            if (raw != null) {
+                                ParseQueryMemoryCache.put(
+                                        command.getCacheKey(), response, cachedAt, raw.length());
+                            }
+
                             if (json.has("trace")) {
                                 Object serverTrace = json.get("trace");
                                 PLog.d(
@@ -90,7 +117,7 @@ class NetworkQueryController extends AbstractQueryController {
             final ParseQuery.State<T> state, String sessionToken, Task<Void> ct) {
         final ParseRESTCommand command = ParseRESTQueryCommand.countCommand(state, sessionToken);
 
-        return command.executeAsync(restClient, ct)
+        return executeAsync(command, ct)
                 .onSuccessTask(
                         task -> {
                             // Cache the results, unless we are ignoring the cache
@@ -110,6 +137,15 @@ class NetworkQueryController extends AbstractQueryController {
                         });
     }
 
+    // Runs the command, or waits for an identical one that's already in flight
+    private Task<JSONObject> executeAsync(final ParseRESTCommand command, Task<Void> ct) {
+        if (coalescer == null) {
+            return command.executeAsync(restClient, ct);
+        }
+        return coalescer.executeAsync(
+                command.getCacheKey(), ct, token -> command.executeAsync(restClient, token));
+    }
+
     // Converts the JSONArray that represents the results of a find command to an
     // ArrayList<ParseObject>.
     /* package */ <T extends ParseObject> List<T> convertFindResponse(
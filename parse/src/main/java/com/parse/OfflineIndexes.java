@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.content.ContentValues;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The keys that are indexed in the offline store, by class name. For each indexed key the store
+ * keeps the values of every object in {@link OfflineSQLiteOpenHelper#TABLE_VALUES}, so local
+ * queries with constraints on the key only have to look at the objects that can match.
+ *
+ * <p>Keys that hold {@link ParseGeoPoint}s can be indexed as geo keys instead, in which case the
+ * store keeps their points in {@link OfflineSQLiteOpenHelper#TABLE_GEO_POINTS}, so local geo
+ * queries only have to look at the objects within the bounding box of the constraint.
+ */
+class OfflineIndexes {
+
+    /* package */ static final OfflineIndexes NONE =
+            new OfflineIndexes(Collections.<String, Set<String>>emptyMap());
+
+    private final Map<String, Set<String>> keysByClassName;
+    private final Map<String, Set<String>> geoKeysByClassName;
+
+    /* package */ OfflineIndexes(Map<String, ? extends Collection<String>> keysByClassName) {
+        this(keysByClassName, Collections.<String, Set<String>>emptyMap());
+    }
+
+    /* package */ OfflineIndexes(
+            Map<String, ? extends Collection<String>> keysByClassName,
+            Map<String, ? extends Collection<String>> geoKeysByClassName) {
+        this.keysByClassName = copyKeys(keysByClassName);
+        this.geoKeysByClassName = copyKeys(geoKeysByClassName);
+    }
+
+    private static Map<String, Set<String>> copyKeys(
+            Map<String, ? extends Collection<String>> keysByClassName) {
+        Map<String, Set<String>> copy = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : keysByClassName.entrySet()) {
+            for (String key : entry.getValue()) {
+                if (!OfflineQueryPlan.isSimpleKey(key)) {
+                    throw new IllegalArgumentException("Key " + key + " can't be indexed.");
+                }
+            }
+            copy.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Returns whether the stored value of a key may not be the one the query sees, because the
+     * object is incomplete or has pending operations on the key.
+     */
+    private static boolean isStale(JSONObject json, String key) {
+        if (!json.optBoolean(ParseObject.KEY_COMPLETE, false)) {
+            return true;
+        }
+        JSONArray operations = json.optJSONArray(ParseObject.KEY_OPERATIONS);
+        if (operations != null) {
+            for (int i = 0; i < operations.length(); i++) {
+                JSONObject operationSet = operations.optJSONObject(i);
+                if (operationSet != null && operationSet.has(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the values to index for a key of an object, given the JSON it is stored as. A {@code
+     * null} value means the object could match any constraint on the key, because the stored value
+     * may not be the one the query sees: the object is incomplete or has pending operations on the
+     * key.
+     */
+    /* package */
+    static List<Object> getValues(JSONObject json, String key) {
+        if (isStale(json, key)) {
+            return Collections.singletonList(null);
+        }
+
+        List<Object> values = new ArrayList<>();
+        Object value = json.opt(key);
+        if (value instanceof JSONArray) {
+            // Arrays match constraints on any of their elements
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                addValue(values, array.opt(i));
+            }
+        } else {
+            addValue(values, value);
+        }
+        return values;
+    }
+
+    private static void addValue(List<Object> values, Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            // Missing and null values don't match any constraint we index
+            return;
+        }
+        if (value instanceof String) {
+            values.add(value);
+        } else if (value instanceof Integer
+                || value instanceof Long
+                || value instanceof Short
+                || value instanceof Byte) {
+            values.add(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            values.add(((Number) value).doubleValue());
+        } else {
+            // Booleans, pointers, dates, etc. are left to the matcher
+            values.add(null);
+        }
+    }
+
+    /**
+     * Builds the rows of {@link OfflineSQLiteOpenHelper#TABLE_VALUES} for an object.
+     *
+     * @param uuid The uuid of the object's row.
+     * @param className The class of the object.
+     * @param json The JSON the object is stored as.
+     * @return the rows for all the indexed keys of the object's class.
+     */
+    /* package */ List<ContentValues> getRows(String uuid, String className, JSONObject json) {
+        List<ContentValues> rows = new ArrayList<>();
+        for (String key : getKeys(className)) {
+            for (Object value : getValues(json, key)) {
+                ContentValues row = new ContentValues();
+                row.put(OfflineSQLiteOpenHelper.KEY_UUID, uuid);
+                row.put(OfflineSQLiteOpenHelper.KEY_CLASS_NAME, className);
+                row.put(OfflineSQLiteOpenHelper.KEY_KEY, key);
+                if (value instanceof String) {
+                    row.put(OfflineSQLiteOpenHelper.KEY_VALUE, (String) value);
+                } else if (value instanceof Long) {
+                    row.put(OfflineSQLiteOpenHelper.KEY_VALUE, (Long) value);
+                } else if (value instanceof Double) {
+                    row.put(OfflineSQLiteOpenHelper.KEY_VALUE, (Double) value);
+                } else {
+                    row.putNull(OfflineSQLiteOpenHelper.KEY_VALUE);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the point to index for a geo key of an object, given the JSON it is stored as. Like
+     * with {@link #getValues}, a {@code null} point means the object could match any constraint on
+     * the key. That's also the case for values that aren't points, since those are left to the
+     * matcher. Objects without a value have no point, since they can't match a geo constraint.
+     */
+    /* package */
+    static List<ParseGeoPoint> getGeoPoints(JSONObject json, String key) {
+        if (isStale(json, key)) {
+            return Collections.singletonList(null);
+        }
+        Object value = json.opt(key);
+        if (value == null || value == JSONObject.NULL) {
+            return Collections.emptyList();
+        }
+        if (value instanceof JSONObject
+                && "GeoPoint".equals(((JSONObject) value).optString("__type"))) {
+            JSONObject point = (JSONObject) value;
+            try {
+                return Collections.singletonList(
+                        new ParseGeoPoint(
+                                point.getDouble("latitude"), point.getDouble("longitude")));
+            } catch (JSONException | IllegalArgumentException e) {
+                // Not a point we can decode, so leave it to the matcher
+            }
+        }
+        return Collections.singletonList(null);
+    }
+
+    /**
+     * Builds the rows of {@link OfflineSQLiteOpenHelper#TABLE_GEO_POINTS} for an object.
+     *
+     * @param uuid The uuid of the object's row.
+     * @param className The class of the object.
+     * @param json The JSON the object is stored as.
+     * @return the rows for all the geo keys of the object's class.
+     */
+    /* package */ List<ContentValues> getGeoRows(String uuid, String className, JSONObject json) {
+        List<ContentValues> rows = new ArrayList<>();
+        for (String key : getGeoKeys(className)) {
+            for (ParseGeoPoint point : getGeoPoints(json, key)) {
+                ContentValues row = new ContentValues();
+                row.put(OfflineSQLiteOpenHelper.KEY_UUID, uuid);
+                row.put(OfflineSQLiteOpenHelper.KEY_CLASS_NAME, className);
+                row.put(OfflineSQLiteOpenHelper.KEY_KEY, key);
+                if (point != null) {
+                    row.put(OfflineSQLiteOpenHelper.KEY_LATITUDE, point.getLatitude());
+                    row.put(OfflineSQLiteOpenHelper.KEY_LONGITUDE, point.getLongitude());
+                } else {
+                    row.putNull(OfflineSQLiteOpenHelper.KEY_LATITUDE);
+                    row.putNull(OfflineSQLiteOpenHelper.KEY_LONGITUDE);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /** @return whether the key of objects of the class is indexed. */
+    /* package */ boolean isIndexed(String className, String key) {
+        return getKeys(className).contains(key);
+    }
+
+    /** @return the indexed keys of objects of the class. */
+    /* package */ Set<String> getKeys(String className) {
+        Set<String> keys = keysByClassName.get(className);
+        return keys != null ? keys : Collections.<String>emptySet();
+    }
+
+    /** @return the names of all classes that have indexed keys. */
+    /* package */ Set<String> getClassNames() {
+        return keysByClassName.keySet();
+    }
+
+    /** @return whether the key of objects of the class is indexed as a geo key. */
+    /* package */ boolean isGeoIndexed(String className, String key) {
+        return getGeoKeys(className).contains(key);
+    }
+
+    /** @return the keys of objects of the class that are indexed as geo keys. */
+    /* package */ Set<String> getGeoKeys(String className) {
+        Set<String> keys = geoKeysByClassName.get(className);
+        return keys != null ? keys : Collections.<String>emptySet();
+    }
+
+    /** @return the names of all classes that have keys indexed as geo keys. */
+    /* package */ Set<String> getGeoClassNames() {
+        return geoKeysByClassName.keySet();
+    }
+}
@@ -15,10 +15,14 @@ import com.parse.boltsinternal.Task;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -27,6 +31,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 class OfflineQueryLogic {
+    // Sort keys the server accepts, besides _created_at and _updated_at
+    private static final Pattern SORT_KEY_PATTERN = Pattern.compile("^-?[A-Za-z][A-Za-z0-9_]*$");
+    private static final Pattern REGEX_OPTIONS_PATTERN = Pattern.compile("^[imxs]*$");
+
     private final OfflineStore store;
 
     /* package */ OfflineQueryLogic(OfflineStore store) {
@@ -34,44 +42,10 @@ class OfflineQueryLogic {
     }
 
     /**
-     * Returns an Object's value for a given key, handling any special keys like objectId. Also
-     * handles dot-notation for traversing into objects.
+     * Returns an Object's value for a given key, handling any special keys like objectId. Doesn't
+     * handle dot-notation, see {@link KeyPath} for that.
      */
-    private static Object getValue(Object container, String key) throws ParseException {
-        return getValue(container, key, 0);
-    }
-
-    private static Object getValue(Object container, String key, int depth) throws ParseException {
-        if (key.contains(".")) {
-            String[] parts = key.split("\\.", 2);
-            Object value = getValue(container, parts[0], depth + 1);
-            /*
-             * Only Maps and JSONObjects can be dotted into for getting values, so we should reject
-             * anything like ParseObjects and arrays.
-             */
-            if (!(value == null
-                    || value == JSONObject.NULL
-                    || value instanceof Map
-                    || value instanceof JSONObject)) {
-                // Technically, they can search inside the REST representation of some nested
-                // objects.
-                if (depth > 0) {
-                    Object restFormat = null;
-                    try {
-                        restFormat = PointerEncoder.get().encode(value);
-                    } catch (Exception e) {
-                        // Well, if we couldn't encode it, it's not searchable.
-                    }
-                    if (restFormat instanceof JSONObject) {
-                        return getValue(restFormat, parts[1], depth + 1);
-                    }
-                }
-                throw new ParseException(
-                        ParseException.INVALID_QUERY, String.format("Key %s is invalid.", key));
-            }
-            return getValue(value, parts[1], depth + 1);
-        }
-
+    private static Object getFieldValue(Object container, String key) throws ParseException {
         if (container instanceof ParseObject) {
             final ParseObject object = (ParseObject) container;
 
@@ -369,7 +343,8 @@ class OfflineQueryLogic {
     }
 
     /**
-     * Creates a regex pattern to match a substring at the beginning of another string.
+     * Creates a regex pattern to match a substring at the beginning of another string. The given
+     * constraint is left as it is, since it belongs to the query.
      *
      * <p>If given string is not a regex to match a string at the beginning of another string, then
      * null is returned.
@@ -389,8 +364,9 @@ class OfflineQueryLogic {
                         .replaceAll("([^'])'", "$1''")
                         .replaceAll("^'([^'])", "''$1");
 
-        regex.put("$regex", literalizedString + ".*");
-        return regex;
+        KeyConstraints cleanedRegex = new KeyConstraints();
+        cleanedRegex.put("$regex", literalizedString + ".*");
+        return cleanedRegex;
     }
 
     /** Check if given constraint is a regex to match strings that starts with another string. */
@@ -412,11 +388,18 @@ class OfflineQueryLogic {
             return false;
         }
 
+        Pattern pattern = compileRegex((String) constraint, options);
+        Matcher matcher = pattern.matcher((String) value);
+        return matcher.find();
+    }
+
+    /** Compiles the pattern of a $regex constraint with the given $options. */
+    private static Pattern compileRegex(String regex, String options) throws ParseException {
         if (options == null) {
             options = "";
         }
 
-        if (!options.matches("^[imxs]*$")) {
+        if (!REGEX_OPTIONS_PATTERN.matcher(options).matches()) {
             throw new ParseException(
                     ParseException.INVALID_QUERY,
                     String.format("Invalid regex options: %s", options));
@@ -436,10 +419,7 @@ class OfflineQueryLogic {
             flags = flags | Pattern.DOTALL;
         }
 
-        String regex = (String) constraint;
-        Pattern pattern = Pattern.compile(regex, flags);
-        Matcher matcher = pattern.matcher((String) value);
-        return matcher.find();
+        return Pattern.compile(regex, flags);
     }
 
     /** Matches $exists constraints. */
@@ -482,7 +462,17 @@ class OfflineQueryLogic {
         ParseGeoPoint southwest = box.get(0);
         ParseGeoPoint northeast = box.get(1);
         ParseGeoPoint target = (ParseGeoPoint) value;
+        checkGeoBox(southwest, northeast);
 
+        return (target.getLatitude() >= southwest.getLatitude()
+                && target.getLatitude() <= northeast.getLatitude()
+                && target.getLongitude() >= southwest.getLongitude()
+                && target.getLongitude() <= northeast.getLongitude());
+    }
+
+    /** Throws if the corners of a $within box can't be handled. */
+    private static void checkGeoBox(ParseGeoPoint southwest, ParseGeoPoint northeast)
+            throws ParseException {
         if (northeast.getLongitude() < southwest.getLongitude()) {
             throw new ParseException(
                     ParseException.INVALID_QUERY,
@@ -499,11 +489,6 @@ class OfflineQueryLogic {
                     "Geo box queries larger than 180 degrees in longitude are not supported. "
                             + "Please check point order.");
         }
-
-        return (target.getLatitude() >= southwest.getLatitude()
-                && target.getLatitude() <= northeast.getLatitude()
-                && target.getLongitude() >= southwest.getLongitude()
-                && target.getLongitude() <= northeast.getLongitude());
     }
 
     /** Matches $geoIntersects constraints. */
@@ -603,6 +588,242 @@ class OfflineQueryLogic {
         }
     }
 
+    /**
+     * Compiles a constraint, so the work that only depends on the query, like compiling patterns
+     * and checking geo boxes, is done once instead of for every object. Constraints that can't be
+     * compiled fall back to {@link #matchesStatelessConstraint}, which reports their errors once
+     * there's a value to match, just like before.
+     */
+    private static ValueMatcher compileStatelessConstraint(
+            final String operator,
+            final Object constraint,
+            final KeyConstraints allKeyConstraints) {
+        switch (operator) {
+            case "$ne":
+                final ValueMatcher equalMatcher = compileEqualConstraint(constraint);
+                return value -> !equalMatcher.matches(value);
+
+            case "$lt":
+                return value -> matchesLessThanConstraint(constraint, value);
+
+            case "$lte":
+                return value -> matchesLessThanOrEqualToConstraint(constraint, value);
+
+            case "$gt":
+                return value -> matchesGreaterThanConstraint(constraint, value);
+
+            case "$gte":
+                return value -> matchesGreaterThanOrEqualToConstraint(constraint, value);
+
+            case "$in":
+                if (constraint instanceof Collection) {
+                    return compileInConstraint((Collection<?>) constraint);
+                }
+                break;
+
+            case "$nin":
+                if (constraint instanceof Collection) {
+                    final ValueMatcher inMatcher = compileInConstraint((Collection<?>) constraint);
+                    return value -> !inMatcher.matches(value);
+                }
+                break;
+
+            case "$all":
+                if (constraint instanceof Collection) {
+                    ValueMatcher allMatcher = compileAllConstraint((Collection<?>) constraint);
+                    if (allMatcher != null) {
+                        return allMatcher;
+                    }
+                }
+                break;
+
+            case "$regex":
+                try {
+                    final Pattern pattern =
+                            compileRegex(
+                                    (String) constraint,
+                                    (String) allKeyConstraints.get("$options"));
+                    return value -> {
+                        if (value == null || value == JSONObject.NULL) {
+                            return false;
+                        }
+                        return pattern.matcher((String) value).find();
+                    };
+                } catch (ParseException | RuntimeException e) {
+                    break;
+                }
+
+            case "$options":
+            case "$maxDistance":
+                // No need to do anything. These are handled by $regex and $nearSphere.
+                return value -> true;
+
+            case "$exists":
+                return value -> matchesExistsConstraint(constraint, value);
+
+            case "$nearSphere":
+                final Object maxDistance = allKeyConstraints.get("$maxDistance");
+                if (maxDistance == null || maxDistance instanceof Double) {
+                    return value ->
+                            matchesNearSphereConstraint(constraint, value, (Double) maxDistance);
+                }
+                break;
+
+            case "$within":
+                try {
+                    @SuppressWarnings("unchecked")
+                    List<ParseGeoPoint> box =
+                            ((HashMap<String, List<ParseGeoPoint>>) constraint).get("$box");
+                    final ParseGeoPoint southwest = box.get(0);
+                    final ParseGeoPoint northeast = box.get(1);
+                    checkGeoBox(southwest, northeast);
+                    return value -> {
+                        if (value == null || value == JSONObject.NULL) {
+                            return false;
+                        }
+                        ParseGeoPoint target = (ParseGeoPoint) value;
+                        return (target.getLatitude() >= southwest.getLatitude()
+                                && target.getLatitude() <= northeast.getLatitude()
+                                && target.getLongitude() >= southwest.getLongitude()
+                                && target.getLongitude() <= northeast.getLongitude());
+                    };
+                } catch (ParseException | RuntimeException e) {
+                    break;
+                }
+
+            case "$geoWithin":
+                try {
+                    @SuppressWarnings("unchecked")
+                    List<ParseGeoPoint> points =
+                            ((HashMap<String, List<ParseGeoPoint>>) constraint).get("$polygon");
+                    final ParsePolygon polygon = new ParsePolygon(points);
+                    return value -> {
+                        if (value == null || value == JSONObject.NULL) {
+                            return false;
+                        }
+                        return polygon.containsPoint((ParseGeoPoint) value);
+                    };
+                } catch (RuntimeException e) {
+                    break;
+                }
+
+            case "$geoIntersects":
+                return value -> matchesGeoIntersectsConstraint(constraint, value);
+
+            default:
+                break;
+        }
+        return value -> matchesStatelessConstraint(operator, constraint, value, allKeyConstraints);
+    }
+
+    /** Compiles an equality constraint, like {@link #matchesEqualConstraint} applies it. */
+    private static ValueMatcher compileEqualConstraint(final Object constraint) {
+        if (isStartsWithRegex(constraint)) {
+            final Pattern pattern;
+            try {
+                pattern = Pattern.compile((String) ((KeyConstraints) constraint).get("$regex"));
+            } catch (RuntimeException e) {
+                return value -> matchesEqualConstraint(constraint, value);
+            }
+            final Decider decider =
+                    (constraint1, value1) -> pattern.matcher((String) value1).matches();
+            return value -> value != null && compare(constraint, value, decider);
+        }
+        return value -> matchesEqualConstraint(constraint, value);
+    }
+
+    /**
+     * Compiles a $in constraint. When every item is a string, which is most of the time, the value
+     * is looked up in a set instead of being compared against each item.
+     */
+    private static ValueMatcher compileInConstraint(Collection<?> constraint) {
+        boolean isAllStrings = true;
+        for (Object requiredItem : constraint) {
+            if (!(requiredItem instanceof String)) {
+                isAllStrings = false;
+                break;
+            }
+        }
+
+        if (isAllStrings) {
+            final Set<Object> requiredItems = new HashSet<>(constraint);
+            return value -> containsAny(requiredItems, value);
+        }
+
+        final List<ValueMatcher> itemMatchers = new ArrayList<>(constraint.size());
+        for (Object requiredItem : constraint) {
+            itemMatchers.add(compileEqualConstraint(requiredItem));
+        }
+        return value -> {
+            for (ValueMatcher itemMatcher : itemMatchers) {
+                if (itemMatcher.matches(value)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Returns true if the set contains the value or, if it's an array, any of its items. This is
+     * what matching the value against each item of the set for equality comes down to, when they
+     * are items whose equals() doesn't do anything more than matchesEqualConstraint does, like
+     * strings and ParseObjects.
+     */
+    private static boolean containsAny(Set<?> items, Object value) {
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (items.contains(item)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                if (items.contains(array.opt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return value != null && items.contains(value);
+    }
+
+    /**
+     * Compiles a $all constraint, or returns {@code null} if it mixes starts-with regexes with
+     * other values.
+     */
+    private static ValueMatcher compileAllConstraint(Collection<?> constraint) {
+        if (isAnyValueRegexStartsWith(constraint)) {
+            constraint = cleanRegexStartsWith(constraint);
+            if (constraint == null) {
+                return null;
+            }
+        }
+
+        final List<ValueMatcher> itemMatchers = new ArrayList<>(constraint.size());
+        for (Object requiredItem : constraint) {
+            itemMatchers.add(compileEqualConstraint(requiredItem));
+        }
+        return value -> {
+            if (value == null || value == JSONObject.NULL) {
+                return false;
+            }
+
+            if (!(value instanceof Collection)) {
+                throw new IllegalArgumentException("Value type not supported for $all queries.");
+            }
+
+            for (ValueMatcher itemMatcher : itemMatchers) {
+                if (!itemMatcher.matches(value)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
     /** Returns true iff the object is visible based on its read ACL and the given user objectId. */
     /* package */
     static <T extends ParseObject> boolean hasReadAccess(ParseUser user, T object) {
@@ -643,10 +864,21 @@ class OfflineQueryLogic {
     /* package */
     static <T extends ParseObject> void sort(List<T> results, ParseQuery.State<T> state)
             throws ParseException {
+        sort(results, state, -1);
+    }
+
+    /**
+     * Sorts the given array based on the parameters of the given query, and drops everything past
+     * the first {@code keep} results, unless {@code keep} is -1. Only keeping a few results picks
+     * them out with a bounded heap, rather than sorting everything.
+     */
+    /* package */
+    static <T extends ParseObject> void sort(List<T> results, ParseQuery.State<T> state, int keep)
+            throws ParseException {
         final List<String> keys = state.order();
         // Do some error checking just for maximum compatibility with the server.
         for (String key : state.order()) {
-            if (!key.matches("^-?[A-Za-z][A-Za-z0-9_]*$")) {
+            if (!SORT_KEY_PATTERN.matcher(key).matches()) {
                 if (!"_created_at".equals(key) && !"_updated_at".equals(key)) {
                     throw new ParseException(
                             ParseException.INVALID_KEY_NAME,
@@ -668,7 +900,8 @@ class OfflineQueryLogic {
                 }
             }
         }
-        final String nearSphereKey = mutableNearSphereKey;
+        final KeyPath nearSphereKey =
+                mutableNearSphereKey != null ? new KeyPath(mutableNearSphereKey) : null;
         final ParseGeoPoint nearSphereValue = mutableNearSphereValue;
 
         // If there's nothing to sort based on, then don't do anything.
@@ -676,43 +909,49 @@ class OfflineQueryLogic {
             return;
         }
 
+        // Work the keys out once, rather than for every comparison.
+        final int keyCount = keys.size();
+        final KeyPath[] keyPaths = new KeyPath[keyCount];
+        final boolean[] isDescending = new boolean[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            String key = keys.get(i);
+            if (key.startsWith("-")) {
+                isDescending[i] = true;
+                key = key.substring(1);
+            }
+            keyPaths[i] = new KeyPath(key);
+        }
+
         /*
          * TODO(klimt): Test whether we allow dotting into objects for sorting.
          */
 
-        Collections.sort(
-                results,
-                (lhs, rhs) -> {
-                    if (nearSphereKey != null) {
-                        ParseGeoPoint lhsPoint;
-                        ParseGeoPoint rhsPoint;
-                        try {
-                            lhsPoint = (ParseGeoPoint) getValue(lhs, nearSphereKey);
-                            rhsPoint = (ParseGeoPoint) getValue(rhs, nearSphereKey);
-                        } catch (ParseException e) {
-                            throw new RuntimeException(e);
-                        }
+        // Work the distances out once, rather than for every comparison.
+        List<SortEntry<T>> entries = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            T object = results.get(i);
+            double distance = 0;
+            if (nearSphereKey != null) {
+                // GeoPoints can't be null if there's a $nearSphere.
+                ParseGeoPoint point = (ParseGeoPoint) nearSphereKey.getValue(object);
+                distance = point.distanceInRadiansTo(nearSphereValue);
+            }
+            entries.add(new SortEntry<>(object, distance, i));
+        }
 
-                        // GeoPoints can't be null if there's a $nearSphere.
-                        double lhsDistance = lhsPoint.distanceInRadiansTo(nearSphereValue);
-                        double rhsDistance = rhsPoint.distanceInRadiansTo(nearSphereValue);
-                        if (lhsDistance != rhsDistance) {
-                            return (lhsDistance - rhsDistance > 0) ? 1 : -1;
-                        }
+        Comparator<SortEntry<T>> comparator =
+                (lhs, rhs) -> {
+                    if (lhs.distance != rhs.distance) {
+                        return (lhs.distance - rhs.distance > 0) ? 1 : -1;
                     }
 
-                    for (String key : keys) {
-                        boolean descending = false;
-                        if (key.startsWith("-")) {
-                            descending = true;
-                            key = key.substring(1);
-                        }
-
+                    for (int i = 0; i < keyCount; i++) {
+                        KeyPath keyPath = keyPaths[i];
                         Object lhsValue;
                         Object rhsValue;
                         try {
-                            lhsValue = getValue(lhs, key);
-                            rhsValue = getValue(rhs, key);
+                            lhsValue = keyPath.getValue(lhs.object);
+                            rhsValue = keyPath.getValue(rhs.object);
                         } catch (ParseException e) {
                             throw new RuntimeException(e);
                         }
@@ -722,95 +961,134 @@ class OfflineQueryLogic {
                             result = compareTo(lhsValue, rhsValue);
                         } catch (IllegalArgumentException e) {
                             throw new IllegalArgumentException(
-                                    String.format("Unable to sort by key %s.", key), e);
+                                    String.format("Unable to sort by key %s.", keyPath), e);
                         }
                         if (result != 0) {
-                            return descending ? -result : result;
+                            return isDescending[i] ? -result : result;
                         }
                     }
-                    return 0;
-                });
+                    // Keep the order the results were found in, like a stable sort would.
+                    return lhs.index - rhs.index;
+                };
+
+        if (keep >= 0 && keep < entries.size()) {
+            // The head of the queue is the worst of the results kept so far.
+            PriorityQueue<SortEntry<T>> kept =
+                    new PriorityQueue<>(Math.max(keep, 1), Collections.reverseOrder(comparator));
+            for (SortEntry<T> entry : entries) {
+                if (kept.size() < keep) {
+                    kept.add(entry);
+                } else if (keep > 0 && comparator.compare(entry, kept.peek()) < 0) {
+                    kept.poll();
+                    kept.add(entry);
+                }
+            }
+            entries = new ArrayList<>(kept);
+        }
+        Collections.sort(entries, comparator);
+
+        results.clear();
+        for (SortEntry<T> entry : entries) {
+            results.add(entry.object);
+        }
+    }
+
+    /** A result being sorted, along with what it's sorted by that is worked out up front. */
+    private static class SortEntry<T> {
+        private final T object;
+        private final double distance;
+        private final int index;
+
+        /* package */ SortEntry(T object, double distance, int index) {
+            this.object = object;
+            this.distance = distance;
+            this.index = index;
+        }
     }
 
-    /** Makes sure that the object specified by path, relative to container, is fetched. */
+    /**
+     * Makes sure that the objects specified by path, relative to each of the containers, are
+     * fetched. The objects at each level of the path are fetched together, before descending into
+     * them.
+     */
     private static Task<Void> fetchIncludeAsync(
             final OfflineStore store,
-            final Object container,
+            List<?> containers,
             final String path,
             final ParseSQLiteDatabase db) {
-        // If there's no object to include, that's fine.
-        if (container == null) {
+        // If the container is a list or array, fetch all the sub-items. If there's no object to
+        // include, that's fine.
+        final List<Object> items = new ArrayList<>();
+        addIncludeItems(containers, items);
+        if (items.isEmpty()) {
             return Task.forResult(null);
         }
 
-        // If the container is a list or array, fetch all the sub-items.
-        if (container instanceof Collection) {
-            Collection<?> collection = (Collection<?>) container;
-            // We do the fetches in series because it makes it easier to fail on the first error.
-            Task<Void> task = Task.forResult(null);
-            for (final Object item : collection) {
-                task = task.onSuccessTask(task1 -> fetchIncludeAsync(store, item, path, db));
-            }
-            return task;
-        } else if (container instanceof JSONArray) {
-            final JSONArray array = (JSONArray) container;
-            // We do the fetches in series because it makes it easier to fail on the first error.
-            Task<Void> task = Task.forResult(null);
-            for (int i = 0; i < array.length(); ++i) {
-                final int index = i;
-                task =
-                        task.onSuccessTask(
-                                task12 -> fetchIncludeAsync(store, array.get(index), path, db));
-            }
-            return task;
-        }
-
-        // If we've reached the end of the path, then actually do the fetch.
-        if (path == null) {
-            if (JSONObject.NULL.equals(container)) {
+        Set<ParseObject> objects = new LinkedHashSet<>();
+        for (Object item : items) {
+            if (item instanceof ParseObject) {
+                objects.add((ParseObject) item);
+            } else if (JSONObject.NULL.equals(item)) {
                 // Accept JSONObject.NULL value in included field. We swallow it silently instead of
                 // throwing an exception.
-                return Task.forResult(null);
-            } else if (container instanceof ParseObject) {
-                ParseObject object = (ParseObject) container;
-                return store.fetchLocallyAsync(object, db).makeVoid();
-            } else {
+            } else if (path == null) {
                 return Task.forError(
                         new ParseException(
                                 ParseException.INVALID_NESTED_KEY,
                                 "include is invalid for non-ParseObjects"));
+            } else if (!(item instanceof Map) && !(item instanceof JSONObject)) {
+                return Task.forError(new IllegalStateException("include is invalid"));
             }
         }
 
-        // Descend into the container and try again.
+        // Make sure the objects are fetched, whether we've reached the end of the path or are
+        // about to descend into them.
+        Task<Void> task = Task.forResult(null);
+        if (!objects.isEmpty()) {
+            task = store.fetchAllLocallyAsync(new ArrayList<>(objects), db);
+        }
+        if (path == null) {
+            return task;
+        }
+
+        // Descend into the containers and try again.
 
         String[] parts = path.split("\\.", 2);
         final String key = parts[0];
         final String rest = (parts.length > 1 ? parts[1] : null);
 
-        // Make sure the container is fetched.
-        return Task.<Void>forResult(null)
-                .continueWithTask(
-                        task -> {
-                            if (container instanceof ParseObject) {
-                                // Make sure this object is fetched before descending into it.
-                                return fetchIncludeAsync(store, container, null, db)
-                                        .onSuccess(task13 -> ((ParseObject) container).get(key));
-                            } else if (container instanceof Map) {
-                                return Task.forResult(((Map) container).get(key));
-                            } else if (container instanceof JSONObject) {
-                                return Task.forResult(((JSONObject) container).opt(key));
-                            } else if (JSONObject.NULL.equals(container)) {
-                                // Accept JSONObject.NULL value in included field. We swallow it
-                                // silently instead of
-                                // throwing an exception.
-                                return null;
-                            } else {
-                                return Task.forError(
-                                        new IllegalStateException("include is invalid"));
-                            }
-                        })
-                .onSuccessTask(task -> fetchIncludeAsync(store, task.getResult(), rest, db));
+        return task.onSuccessTask(
+                task1 -> {
+                    List<Object> values = new ArrayList<>(items.size());
+                    for (Object item : items) {
+                        if (item instanceof ParseObject) {
+                            values.add(((ParseObject) item).get(key));
+                        } else if (item instanceof Map) {
+                            values.add(((Map<?, ?>) item).get(key));
+                        } else if (item instanceof JSONObject) {
+                            values.add(((JSONObject) item).opt(key));
+                        }
+                    }
+                    return fetchIncludeAsync(store, values, rest, db);
+                });
+    }
+
+    /** Adds the values to the items, with lists and arrays replaced by their items. */
+    private static void addIncludeItems(Collection<?> values, List<Object> items) {
+        for (Object value : values) {
+            if (value instanceof Collection) {
+                addIncludeItems((Collection<?>) value, items);
+            } else if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                List<Object> arrayItems = new ArrayList<>(array.length());
+                for (int i = 0; i < array.length(); ++i) {
+                    arrayItems.add(array.opt(i));
+                }
+                addIncludeItems(arrayItems, items);
+            } else if (value != null) {
+                items.add(value);
+            }
+        }
     }
 
     /** Makes sure all of the objects included by the given query get fetched. */
@@ -820,11 +1098,25 @@ class OfflineQueryLogic {
             final T object,
             ParseQuery.State<T> state,
             final ParseSQLiteDatabase db) {
+        return fetchIncludesAsync(store, Collections.singletonList(object), state, db);
+    }
+
+    /**
+     * Makes sure all of the objects included by the given query get fetched for all of the given
+     * results. Each include is resolved a level at a time across all of the results, so the objects
+     * they point to are looked up together rather than one by one.
+     */
+    /* package */
+    static <T extends ParseObject> Task<Void> fetchIncludesAsync(
+            final OfflineStore store,
+            final List<T> objects,
+            ParseQuery.State<T> state,
+            final ParseSQLiteDatabase db) {
         Set<String> includes = state.includes();
-        // We do the fetches in series because it makes it easier to fail on the first error.
+        // We do the includes in series because it makes it easier to fail on the first error.
         Task<Void> task = Task.forResult(null);
         for (final String include : includes) {
-            task = task.onSuccessTask(task1 -> fetchIncludeAsync(store, object, include, db));
+            task = task.onSuccessTask(task1 -> fetchIncludeAsync(store, objects, include, db));
         }
         return task;
     }
@@ -835,11 +1127,18 @@ class OfflineQueryLogic {
         // TODO(grantland): Convert builder to state t6941155
         @SuppressWarnings("unchecked")
         ParseQuery.State<T> query = ((ParseQuery.State.Builder<T>) constraint).build();
-        return new SubQueryMatcher<T>(user, query) {
+        final KeyPath keyPath = new KeyPath(key);
+        return new SubQueryMatcher<T, Set<Object>>(user, query) {
+            @Override
+            protected Set<Object> index(List<T> results) {
+                // ParseObjects are only equal to themselves, and the store keeps a single
+                // instance for each object, so they can be looked up by identity.
+                return new HashSet<Object>(results);
+            }
+
             @Override
-            protected boolean matches(T object, List<T> results) throws ParseException {
-                Object value = getValue(object, key);
-                return matchesInConstraint(results, value);
+            protected boolean matches(T object, Set<Object> results) throws ParseException {
+                return containsAny(results, keyPath.getValue(object));
             }
         };
     }
@@ -864,18 +1163,26 @@ class OfflineQueryLogic {
         @SuppressWarnings("unchecked")
         ParseQuery.State<T> query =
                 ((ParseQuery.State.Builder<T>) constraintMap.get("query")).build();
-        final String resultKey = (String) constraintMap.get("key");
-        return new SubQueryMatcher<T>(user, query) {
+        final KeyPath keyPath = new KeyPath(key);
+        final KeyPath resultKeyPath = new KeyPath((String) constraintMap.get("key"));
+        return new SubQueryMatcher<T, SelectedValues>(user, query) {
             @Override
-            protected boolean matches(T object, List<T> results) throws ParseException {
-                Object value = getValue(object, key);
+            protected SelectedValues index(List<T> results) {
+                SelectedValues values = new SelectedValues();
                 for (T result : results) {
-                    Object resultValue = getValue(result, resultKey);
-                    if (matchesEqualConstraint(value, resultValue)) {
-                        return true;
+                    try {
+                        values.add(resultKeyPath.getValue(result));
+                    } catch (ParseException e) {
+                        values.error = e;
+                        break;
                     }
                 }
-                return false;
+                return values;
+            }
+
+            @Override
+            protected boolean matches(T object, SelectedValues results) throws ParseException {
+                return results.contains(keyPath.getValue(object));
             }
         };
     }
@@ -918,17 +1225,13 @@ class OfflineQueryLogic {
                 /*
                  * All of the other operators we know about are stateless, so return a simple matcher.
                  */
-                return new ConstraintMatcher<T>(user) {
+                final KeyPath keyPath = new KeyPath(key);
+                final ValueMatcher valueMatcher =
+                        compileStatelessConstraint(operator, constraint, allKeyConstraints);
+                return new StatelessMatcher<T>(user) {
                     @Override
-                    public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
-                        try {
-                            Object value = getValue(object, key);
-                            return Task.forResult(
-                                    matchesStatelessConstraint(
-                                            operator, constraint, value, allKeyConstraints));
-                        } catch (ParseException e) {
-                            return Task.forError(e);
-                        }
+                    /* package */ boolean matches(T object) throws ParseException {
+                        return valueMatcher.matches(keyPath.getValue(object));
                     }
                 };
         }
@@ -946,15 +1249,60 @@ class OfflineQueryLogic {
         /*
          * Now OR together the constraints for each query.
          */
+        return combineMatchers(user, matchers, true);
+    }
+
+    /**
+     * Returns a ConstraintMatcher that returns true iff any of the given matchers do, if isOr is
+     * set, or iff all of them do otherwise. The matchers are evaluated in order, and no further
+     * than needed.
+     *
+     * <p>Stateless matchers are evaluated right away instead of being chained onto a task. If they
+     * all are, the result is stateless as well, so nested $or queries don't need tasks either.
+     */
+    private static <T extends ParseObject> ConstraintMatcher<T> combineMatchers(
+            ParseUser user, final List<ConstraintMatcher<T>> matchers, final boolean isOr) {
+        int statelessCount = 0;
+        while (statelessCount < matchers.size()
+                && matchers.get(statelessCount) instanceof StatelessMatcher) {
+            statelessCount++;
+        }
+
+        if (statelessCount == matchers.size()) {
+            return new StatelessMatcher<T>(user) {
+                @Override
+                /* package */ boolean matches(T object) throws ParseException {
+                    for (ConstraintMatcher<T> matcher : matchers) {
+                        if (((StatelessMatcher<T>) matcher).matches(object) == isOr) {
+                            return isOr;
+                        }
+                    }
+                    return !isOr;
+                }
+            };
+        }
+
+        final int firstStatefulIndex = statelessCount;
         return new ConstraintMatcher<T>(user) {
             @Override
             public Task<Boolean> matchesAsync(final T object, final ParseSQLiteDatabase db) {
-                Task<Boolean> task = Task.forResult(false);
-                for (final ConstraintMatcher<T> matcher : matchers) {
+                try {
+                    for (int i = 0; i < firstStatefulIndex; i++) {
+                        if (((StatelessMatcher<T>) matchers.get(i)).matches(object) == isOr) {
+                            return Task.forResult(isOr);
+                        }
+                    }
+                } catch (Exception e) {
+                    return Task.forError(e);
+                }
+
+                Task<Boolean> task = Task.forResult(!isOr);
+                for (int i = firstStatefulIndex; i < matchers.size(); i++) {
+                    final ConstraintMatcher<T> matcher = matchers.get(i);
                     task =
                             task.onSuccessTask(
                                     task1 -> {
-                                        if (task1.getResult()) {
+                                        if (task1.getResult() == isOr) {
                                             return task1;
                                         }
                                         return matcher.matchesAsync(object, db);
@@ -1004,11 +1352,10 @@ class OfflineQueryLogic {
                  */
                 final RelationConstraint relation = (RelationConstraint) queryConstraintValue;
                 matchers.add(
-                        new ConstraintMatcher<T>(user) {
+                        new StatelessMatcher<T>(user) {
                             @Override
-                            public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
-                                return Task.forResult(
-                                        relation.getRelation().hasKnownObject(object));
+                            /* package */ boolean matches(T object) {
+                                return relation.getRelation().hasKnownObject(object);
                             }
                         });
 
@@ -1016,18 +1363,13 @@ class OfflineQueryLogic {
                 /*
                  * It's not a set of constraints, so it's just a value to compare against.
                  */
+                final KeyPath keyPath = new KeyPath(key);
+                final ValueMatcher equalMatcher = compileEqualConstraint(queryConstraintValue);
                 matchers.add(
-                        new ConstraintMatcher<T>(user) {
+                        new StatelessMatcher<T>(user) {
                             @Override
-                            public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
-                                Object objectValue;
-                                try {
-                                    objectValue = getValue(object, key);
-                                } catch (ParseException e) {
-                                    return Task.forError(e);
-                                }
-                                return Task.forResult(
-                                        matchesEqualConstraint(queryConstraintValue, objectValue));
+                            /* package */ boolean matches(T object) throws ParseException {
+                                return equalMatcher.matches(keyPath.getValue(object));
                             }
                         });
             }
@@ -1036,23 +1378,7 @@ class OfflineQueryLogic {
         /*
          * Now AND together the constraints for each key.
          */
-        return new ConstraintMatcher<T>(user) {
-            @Override
-            public Task<Boolean> matchesAsync(final T object, final ParseSQLiteDatabase db) {
-                Task<Boolean> task = Task.forResult(true);
-                for (final ConstraintMatcher<T> matcher : matchers) {
-                    task =
-                            task.onSuccessTask(
-                                    task1 -> {
-                                        if (!task1.getResult()) {
-                                            return task1;
-                                        }
-                                        return matcher.matchesAsync(object, db);
-                                    });
-                }
-                return task;
-            }
-        };
+        return combineMatchers(user, matchers, false);
     }
 
     /**
@@ -1086,6 +1412,72 @@ class OfflineQueryLogic {
         boolean decide(Object constraint, Object value);
     }
 
+    /** Decides whether a value matches a constraint that was compiled ahead of time. */
+    private interface ValueMatcher {
+        boolean matches(Object value) throws ParseException;
+    }
+
+    /**
+     * A key that's been split on its dots once, so it can be looked up in any number of objects.
+     * Handles dot-notation by looking up each part in the value of the part before it.
+     */
+    private static class KeyPath {
+        private final String key;
+        private final String[] parts;
+        // The remainder of the key from each part on, which is what errors report
+        private final String[] remainders;
+
+        /* package */ KeyPath(String key) {
+            this.key = key;
+            parts = key.split("\\.", -1);
+            remainders = new String[parts.length];
+            int start = 0;
+            for (int i = 0; i < parts.length; i++) {
+                remainders[i] = key.substring(start);
+                start += parts[i].length() + 1;
+            }
+        }
+
+        /** Returns the value for this key in the given container. */
+        /* package */ Object getValue(Object container) throws ParseException {
+            Object value = getFieldValue(container, parts[0]);
+            for (int i = 1; i < parts.length; i++) {
+                /*
+                 * Only Maps and JSONObjects can be dotted into for getting values, so we should
+                 * reject anything like ParseObjects and arrays.
+                 */
+                if (value != null
+                        && value != JSONObject.NULL
+                        && !(value instanceof Map)
+                        && !(value instanceof JSONObject)) {
+                    // Technically, they can search inside the REST representation of some nested
+                    // objects.
+                    Object encoded = null;
+                    if (i > 1) {
+                        try {
+                            encoded = PointerEncoder.get().encode(value);
+                        } catch (Exception e) {
+                            // Well, if we couldn't encode it, it's not searchable.
+                        }
+                    }
+                    if (!(encoded instanceof JSONObject)) {
+                        throw new ParseException(
+                                ParseException.INVALID_QUERY,
+                                String.format("Key %s is invalid.", remainders[i - 1]));
+                    }
+                    value = encoded;
+                }
+                value = getFieldValue(value, parts[i]);
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
     /**
      * A query is converted into a complex hierarchy of ConstraintMatchers that evaluate whether a
      * ParseObject matches each part of the query. This is done because some parts of the query
@@ -1104,9 +1496,98 @@ class OfflineQueryLogic {
         abstract Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db);
     }
 
-    private abstract class SubQueryMatcher<T extends ParseObject> extends ConstraintMatcher<T> {
+    /**
+     * A matcher that doesn't need to do any preprocessing or I/O, so it can decide right away.
+     * Matchers that combine it with others call {@link #matches} directly, so no task is made for
+     * it.
+     */
+    private abstract static class StatelessMatcher<T extends ParseObject>
+            extends ConstraintMatcher<T> {
+
+        public StatelessMatcher(ParseUser user) {
+            super(user);
+        }
+
+        /* package */
+        abstract boolean matches(T object) throws ParseException;
+
+        @Override
+        public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
+            try {
+                return Task.forResult(matches(object));
+            } catch (Exception e) {
+                return Task.forError(e);
+            }
+        }
+    }
+
+    /**
+     * The values that a $select subquery selected, indexed so an object's value can be matched
+     * against them without comparing it to each one.
+     */
+    private static class SelectedValues {
+        // Values whose equals() is all matchesEqualConstraint does for them
+        private final Set<Object> hashedValues = new HashSet<>();
+        // Values that take more than equals(), like numbers of different types
+        private final List<Object> otherValues = new ArrayList<>();
+        private boolean hasUndefined;
+        // Set if getting a value failed, in which case the values after it aren't here
+        private ParseException error;
+
+        private static boolean isHashable(Object value) {
+            return value instanceof String
+                    || value instanceof Boolean
+                    || value instanceof Date
+                    || value instanceof ParseObject;
+        }
+
+        /* package */ void add(Object value) {
+            if (value == null) {
+                hasUndefined = true;
+            } else if (isHashable(value)) {
+                hashedValues.add(value);
+            } else if (value instanceof List) {
+                // Equals can mean containment, so a value matches any of the items in an array.
+                for (Object item : (List<?>) value) {
+                    if (!isHashable(item)) {
+                        otherValues.add(value);
+                        return;
+                    }
+                }
+                hashedValues.addAll((List<?>) value);
+            } else {
+                otherValues.add(value);
+            }
+        }
+
+        /** Returns true iff matchesEqualConstraint(value, v) holds for any selected value v. */
+        /* package */ boolean contains(Object value) throws ParseException {
+            if (value == null ? hasUndefined : hashedValues.contains(value)) {
+                return true;
+            }
+            for (Object otherValue : otherValues) {
+                if (matchesEqualConstraint(value, otherValue)) {
+                    return true;
+                }
+            }
+            // Only the values before the failed one could be checked, just like when comparing
+            // against them one by one.
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A matcher for a subquery. The subquery is run once, the first time it's needed, and its
+     * results are indexed once for matching every object against them.
+     *
+     * @param <I> The type of the index of the results.
+     */
+    private abstract class SubQueryMatcher<T extends ParseObject, I> extends ConstraintMatcher<T> {
         private final ParseQuery.State<T> subQuery;
-        private Task<List<T>> subQueryResults = null;
+        private Task<I> subQueryIndex = null;
 
         public SubQueryMatcher(ParseUser user, ParseQuery.State<T> subQuery) {
             super(user);
@@ -1119,15 +1600,32 @@ class OfflineQueryLogic {
              * As an optimization, we do this lazily. Then we may not have to do it at all, if this part
              * of the query gets short-circuited.
              */
-            if (subQueryResults == null) {
+            if (subQueryIndex == null) {
                 // TODO (grantland): We need to pass through the original pin we were limiting the
                 // parent
                 // query on.
-                subQueryResults = store.findAsync(subQuery, user, null, db);
+                // The subquery runs on the same connection, so it's planned and run in the same
+                // session as the query it's part of.
+                subQueryIndex =
+                        store.findAsync(subQuery, user, null, db)
+                                .onSuccess(task -> index(task.getResult()));
+            }
+            if (subQueryIndex.isCompleted()
+                    && !subQueryIndex.isFaulted()
+                    && !subQueryIndex.isCancelled()) {
+                // No need for a continuation once the index is there.
+                try {
+                    return Task.forResult(matches(object, subQueryIndex.getResult()));
+                } catch (Exception e) {
+                    return Task.forError(e);
+                }
             }
-            return subQueryResults.onSuccess(task -> matches(object, task.getResult()));
+            return subQueryIndex.onSuccess(task -> matches(object, task.getResult()));
         }
 
-        protected abstract boolean matches(T object, List<T> results) throws ParseException;
+        /** Indexes the results of the subquery. Called once, when they are first needed. */
+        protected abstract I index(List<T> results);
+
+        protected abstract boolean matches(T object, I index) throws ParseException;
     }
 }
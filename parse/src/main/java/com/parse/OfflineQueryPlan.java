@@ -0,0 +1,660 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import com.parse.ParseQuery.KeyConstraints;
+import com.parse.ParseQuery.QueryConstraints;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The part of a query's constraints that SQLite can evaluate, so that {@link OfflineStore} only has
+ * to load and match the rows that might match. Constraints on keys declared in {@link
+ * OfflineIndexes} are evaluated against {@link OfflineSQLiteOpenHelper#TABLE_VALUES}, geo
+ * constraints on geo keys against the bounding box of the constraint in {@link
+ * OfflineSQLiteOpenHelper#TABLE_GEO_POINTS}, and constraints on other keys against the JSON stored
+ * for each object, if SQLite has the JSON1 functions.
+ *
+ * <p>The plan only narrows down the rows to look at. Every row it keeps is still checked by the
+ * {@link OfflineQueryLogic.ConstraintMatcher}, so for each constraint it translates the SQL
+ * expression has to be true for every object the matcher would accept. Rows whose JSON may not
+ * reflect the object's current data (incomplete objects, objects with pending operations and
+ * objects that are currently in memory) are always kept.
+ */
+class OfflineQueryPlan {
+
+    private static final String TAG = "com.parse.OfflineQueryPlan";
+
+    // Keys we can address with a simple JSON path and which are stored as they're queried.
+    private static final Pattern SIMPLE_KEY = Pattern.compile("^[A-Za-z][A-Za-z0-9_]*$");
+    // Numbers within this range are compared the same way by SQLite and by Numbers.compare.
+    private static final long MAX_EXACT_NUMBER = 1L << 53;
+    // How much bounding boxes are widened by, in degrees, so rounding never drops a point that's
+    // just on their edge.
+    private static final double GEO_MARGIN = 1e-6;
+
+    private static Boolean jsonSupported;
+
+    private final List<String> predicates;
+    private final List<String> args;
+    private final Set<String> keys;
+    private final List<String> indexPredicates;
+    private final List<String> indexArgs;
+
+    private OfflineQueryPlan(
+            List<String> predicates,
+            List<String> args,
+            Set<String> keys,
+            List<String> indexPredicates,
+            List<String> indexArgs) {
+        this.predicates = predicates;
+        this.args = args;
+        this.keys = keys;
+        this.indexPredicates = indexPredicates;
+        this.indexArgs = indexArgs;
+    }
+
+    /**
+     * Creates a plan for the given constraints.
+     *
+     * @param className The class of the objects being queried.
+     * @param constraints The constraints of the query.
+     * @param indexes The keys that are indexed in the store.
+     * @param useJson Whether constraints on keys that aren't indexed can be evaluated against the
+     *     stored JSON. See {@link #isSupported()}.
+     * @return the plan, or {@code null} if none of the constraints can be evaluated by SQLite.
+     */
+    /* package */
+    static OfflineQueryPlan create(
+            String className,
+            QueryConstraints constraints,
+            OfflineIndexes indexes,
+            boolean useJson) {
+        List<String> predicates = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        Set<String> keys = new LinkedHashSet<>();
+        List<String> indexPredicates = new ArrayList<>();
+        List<String> indexArgs = new ArrayList<>();
+        for (String key : constraints.keySet()) {
+            if (!isSimpleKey(key)) {
+                continue;
+            }
+            boolean indexed = indexes.isIndexed(className, key);
+            boolean geoIndexed = indexes.isGeoIndexed(className, key);
+            int predicateCount = predicates.size();
+            Object constraint = constraints.get(key);
+            if (constraint instanceof KeyConstraints) {
+                KeyConstraints keyConstraints = (KeyConstraints) constraint;
+                for (String operator : keyConstraints.keySet()) {
+                    Object value = keyConstraints.get(operator);
+                    if (geoIndexed
+                            && addGeoPredicate(
+                                    className,
+                                    key,
+                                    operator,
+                                    value,
+                                    keyConstraints,
+                                    indexPredicates,
+                                    indexArgs)) {
+                        continue;
+                    }
+                    if (indexed
+                            && addIndexPredicate(
+                                    className, key, operator, value, indexPredicates, indexArgs)) {
+                        continue;
+                    }
+                    if (useJson) {
+                        addOperatorPredicate(key, operator, value, predicates, args);
+                    }
+                }
+            } else if (constraint != null && !(constraint instanceof Collection)) {
+                if (indexed
+                        && addIndexPredicate(
+                                className, key, "$eq", constraint, indexPredicates, indexArgs)) {
+                    continue;
+                }
+                if (useJson) {
+                    addEqualPredicate(key, constraint, predicates, args);
+                }
+            }
+            if (predicates.size() > predicateCount) {
+                keys.add(key);
+            }
+        }
+        if (predicates.isEmpty() && indexPredicates.isEmpty()) {
+            return null;
+        }
+        return new OfflineQueryPlan(predicates, args, keys, indexPredicates, indexArgs);
+    }
+
+    /**
+     * Whether the SQLite library on this device has the JSON1 functions the plans are built on.
+     * This is checked once against an in-memory database.
+     */
+    /* package */
+    static synchronized boolean isSupported() {
+        if (jsonSupported == null) {
+            SQLiteDatabase db = null;
+            try {
+                db = SQLiteDatabase.create(null);
+                db.compileStatement("SELECT json_extract('{}', '$.a')").close();
+                jsonSupported = true;
+            } catch (SQLiteException e) {
+                jsonSupported = false;
+            } catch (RuntimeException e) {
+                // The check itself failed, so don't use the plans this time and retry later.
+                PLog.w(TAG, "Unable to check for JSON1 support", e);
+                return false;
+            } finally {
+                if (db != null) {
+                    db.close();
+                }
+            }
+        }
+        return jsonSupported;
+    }
+
+    /**
+     * @return whether the key can be addressed with a simple JSON path and is stored the way it's
+     *     queried.
+     */
+    /* package */
+    static boolean isSimpleKey(String key) {
+        if (!SIMPLE_KEY.matcher(key).matches()) {
+            return false;
+        }
+        // These are either stored in a different format than they're queried with, or not stored
+        // under the key they're queried with.
+        switch (key) {
+            case "className":
+            case "createdAt":
+            case "updatedAt":
+            case "ACL":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static void addOperatorPredicate(
+            String key, String operator, Object value, List<String> predicates, List<String> args) {
+        switch (operator) {
+            case "$lt":
+                addRangePredicate(key, "<", value, predicates);
+                break;
+            case "$lte":
+                addRangePredicate(key, "<=", value, predicates);
+                break;
+            case "$gt":
+                addRangePredicate(key, ">", value, predicates);
+                break;
+            case "$gte":
+                addRangePredicate(key, ">=", value, predicates);
+                break;
+            case "$in":
+                addInPredicate(key, value, predicates, args);
+                break;
+            case "$exists":
+                if (value instanceof Boolean) {
+                    predicates.add(
+                            (Boolean) value
+                                    ? typeOf(key) + " IS NOT NULL"
+                                    : "("
+                                            + typeOf(key)
+                                            + " IS NULL OR "
+                                            + typeOf(key)
+                                            + "='null')");
+                }
+                break;
+            default:
+                // Everything else is left to the matcher.
+                break;
+        }
+    }
+
+    private static void addEqualPredicate(
+            String key, Object value, List<String> predicates, List<String> args) {
+        List<String> valueArgs = new ArrayList<>();
+        String equals = equalTo(key, value, valueArgs);
+        if (equals != null) {
+            // Arrays match if they contain the value, and objects are left to the matcher.
+            predicates.add("(" + typeOf(key) + " IN ('array','object') OR " + equals + ")");
+            args.addAll(valueArgs);
+        }
+    }
+
+    private static void addInPredicate(
+            String key, Object value, List<String> predicates, List<String> args) {
+        if (!(value instanceof Collection) || ((Collection<?>) value).isEmpty()) {
+            return;
+        }
+        StringBuilder sb =
+                new StringBuilder("(").append(typeOf(key)).append(" IN ('array','object')");
+        List<String> valueArgs = new ArrayList<>();
+        for (Object item : (Collection<?>) value) {
+            String equals = equalTo(key, item, valueArgs);
+            if (equals == null) {
+                return;
+            }
+            sb.append(" OR ").append(equals);
+        }
+        predicates.add(sb.append(")").toString());
+        args.addAll(valueArgs);
+    }
+
+    private static void addRangePredicate(
+            String key, String operator, Object value, List<String> predicates) {
+        String literal = numberLiteral(value);
+        if (literal == null) {
+            return;
+        }
+        // Values of other types either match or throw in the matcher, so we let them through.
+        predicates.add(
+                "("
+                        + typeOf(key)
+                        + " NOT IN ('integer','real') OR "
+                        + valueOf(key)
+                        + operator
+                        + literal
+                        + ")");
+    }
+
+    private static String equalTo(String key, Object value, List<String> args) {
+        if (value instanceof String) {
+            args.add((String) value);
+            return "(" + typeOf(key) + "='text' AND " + valueOf(key) + "=?)";
+        } else if (value instanceof Boolean) {
+            return typeOf(key) + "=" + ((Boolean) value ? "'true'" : "'false'");
+        }
+        String literal = numberLiteral(value);
+        if (literal == null) {
+            return null;
+        }
+        return "("
+                + typeOf(key)
+                + " IN ('integer','real') AND "
+                + valueOf(key)
+                + "="
+                + literal
+                + ")";
+    }
+
+    // Numbers are inlined since arguments are always bound as text.
+    private static String numberLiteral(Object value) {
+        if (value instanceof Integer || value instanceof Long) {
+            long number = ((Number) value).longValue();
+            if (Math.abs(number) <= MAX_EXACT_NUMBER) {
+                return Long.toString(number);
+            }
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            if (!Double.isNaN(number) && !Double.isInfinite(number)) {
+                return Double.toString(number);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the predicate for a constraint on an indexed key. Objects that may match any value have
+     * a {@code NULL} value, see {@link OfflineIndexes#getValues}.
+     *
+     * @return whether the constraint could be translated.
+     */
+    private static boolean addIndexPredicate(
+            String className,
+            String key,
+            String operator,
+            Object value,
+            List<String> predicates,
+            List<String> args) {
+        String condition;
+        List<String> valueArgs = new ArrayList<>();
+        switch (operator) {
+            case "$eq":
+                String equals = indexEqualTo(value, valueArgs);
+                condition = equals == null || equals.isEmpty() ? equals : " OR " + equals;
+                break;
+            case "$in":
+                if (!(value instanceof Collection) || ((Collection<?>) value).isEmpty()) {
+                    return false;
+                }
+                StringBuilder sb = new StringBuilder();
+                for (Object item : (Collection<?>) value) {
+                    String itemEquals = indexEqualTo(item, valueArgs);
+                    if (itemEquals == null) {
+                        return false;
+                    }
+                    if (!itemEquals.isEmpty()) {
+                        sb.append(" OR ").append(itemEquals);
+                    }
+                }
+                condition = sb.toString();
+                break;
+            case "$lt":
+                condition = indexRange("<", value);
+                break;
+            case "$lte":
+                condition = indexRange("<=", value);
+                break;
+            case "$gt":
+                condition = indexRange(">", value);
+                break;
+            case "$gte":
+                condition = indexRange(">=", value);
+                break;
+            default:
+                return false;
+        }
+        if (condition == null) {
+            return false;
+        }
+        predicates.add(
+                "IN (SELECT "
+                        + OfflineSQLiteOpenHelper.KEY_UUID
+                        + " FROM "
+                        + OfflineSQLiteOpenHelper.TABLE_VALUES
+                        + " WHERE "
+                        + OfflineSQLiteOpenHelper.KEY_CLASS_NAME
+                        + "=? AND "
+                        + OfflineSQLiteOpenHelper.KEY_KEY
+                        + "=? AND ("
+                        + OfflineSQLiteOpenHelper.KEY_VALUE
+                        + " IS NULL"
+                        + condition
+                        + "))");
+        args.add(className);
+        args.add(key);
+        args.addAll(valueArgs);
+        return true;
+    }
+
+    // Booleans aren't indexed, so only objects without a definite value can be equal to them.
+    private static String indexEqualTo(Object value, List<String> args) {
+        if (value instanceof String) {
+            args.add((String) value);
+            return OfflineSQLiteOpenHelper.KEY_VALUE + "=?";
+        } else if (value instanceof Boolean) {
+            return "";
+        }
+        String literal = numberLiteral(value);
+        if (literal == null) {
+            return null;
+        }
+        return OfflineSQLiteOpenHelper.KEY_VALUE + "=" + literal;
+    }
+
+    private static String indexRange(String operator, Object value) {
+        String literal = numberLiteral(value);
+        if (literal == null) {
+            return null;
+        }
+        // Values of other types either match or throw in the matcher, so we let them through.
+        return " OR typeof("
+                + OfflineSQLiteOpenHelper.KEY_VALUE
+                + ") NOT IN ('integer','real') OR "
+                + OfflineSQLiteOpenHelper.KEY_VALUE
+                + operator
+                + literal;
+    }
+
+    /**
+     * Adds the predicate for a geo constraint on a geo key, which keeps the objects whose point is
+     * within the bounding box of the area the constraint matches. Objects that may have any point
+     * have a {@code NULL} latitude, see {@link OfflineIndexes#getGeoPoints}.
+     *
+     * <p>Constraints the matcher rejects are left to it, so the query still fails the same way.
+     *
+     * @return whether the constraint could be translated.
+     */
+    private static boolean addGeoPredicate(
+            String className,
+            String key,
+            String operator,
+            Object value,
+            KeyConstraints keyConstraints,
+            List<String> predicates,
+            List<String> args) {
+        String condition;
+        try {
+            switch (operator) {
+                case "$within":
+                    condition = geoWithinBox(value);
+                    break;
+                case "$geoWithin":
+                    condition = geoWithinPolygon(value);
+                    break;
+                case "$nearSphere":
+                    condition = geoNear(value, keyConstraints.get("$maxDistance"));
+                    break;
+                default:
+                    return false;
+            }
+        } catch (RuntimeException e) {
+            // The constraint isn't one we understand, so it's left to the matcher.
+            return false;
+        }
+        if (condition == null) {
+            return false;
+        }
+        predicates.add(
+                "IN (SELECT "
+                        + OfflineSQLiteOpenHelper.KEY_UUID
+                        + " FROM "
+                        + OfflineSQLiteOpenHelper.TABLE_GEO_POINTS
+                        + " WHERE "
+                        + OfflineSQLiteOpenHelper.KEY_CLASS_NAME
+                        + "=? AND "
+                        + OfflineSQLiteOpenHelper.KEY_KEY
+                        + "=? AND ("
+                        + OfflineSQLiteOpenHelper.KEY_LATITUDE
+                        + " IS NULL OR ("
+                        + condition
+                        + ")))");
+        args.add(className);
+        args.add(key);
+        return true;
+    }
+
+    private static String geoWithinBox(Object value) {
+        @SuppressWarnings("unchecked")
+        List<ParseGeoPoint> box = ((Map<String, List<ParseGeoPoint>>) value).get("$box");
+        ParseGeoPoint southwest = box.get(0);
+        ParseGeoPoint northeast = box.get(1);
+        if (northeast.getLongitude() < southwest.getLongitude()
+                || northeast.getLatitude() < southwest.getLatitude()
+                || northeast.getLongitude() - southwest.getLongitude() > 180) {
+            return null;
+        }
+        return geoLatitudeBetween(southwest.getLatitude(), northeast.getLatitude())
+                + " AND "
+                + geoLongitudeBetween(southwest.getLongitude(), northeast.getLongitude());
+    }
+
+    private static String geoWithinPolygon(Object value) {
+        @SuppressWarnings("unchecked")
+        List<ParseGeoPoint> points = ((Map<String, List<ParseGeoPoint>>) value).get("$polygon");
+        if (points.size() < 3) {
+            return null;
+        }
+        // The same box ParsePolygon.containsPoint checks first.
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+        for (ParseGeoPoint point : points) {
+            minLatitude = Math.min(minLatitude, point.getLatitude());
+            maxLatitude = Math.max(maxLatitude, point.getLatitude());
+            minLongitude = Math.min(minLongitude, point.getLongitude());
+            maxLongitude = Math.max(maxLongitude, point.getLongitude());
+        }
+        return geoLatitudeBetween(minLatitude, maxLatitude)
+                + " AND "
+                + geoLongitudeBetween(minLongitude, maxLongitude);
+    }
+
+    private static String geoNear(Object value, Object maxDistance) {
+        if (!(maxDistance instanceof Double)) {
+            // Without a distance every point matches, and other distances fail in the matcher.
+            return null;
+        }
+        double distance = (Double) maxDistance;
+        if (Double.isNaN(distance) || distance < 0 || distance >= Math.PI) {
+            return null;
+        }
+        ParseGeoPoint center = (ParseGeoPoint) value;
+        double degrees = Math.toDegrees(distance);
+        String latitude =
+                geoLatitudeBetween(center.getLatitude() - degrees, center.getLatitude() + degrees);
+        if (center.getLatitude() - degrees <= -90 || center.getLatitude() + degrees >= 90) {
+            // The circle covers a pole, so it spans every longitude.
+            return latitude;
+        }
+
+        // Half the widest longitude span of the circle, which is where the great circles through
+        // the pole touch it.
+        double longitudeDegrees =
+                Math.toDegrees(
+                        Math.asin(
+                                Math.sin(distance)
+                                        / Math.cos(Math.toRadians(center.getLatitude()))));
+        if (Double.isNaN(longitudeDegrees) || longitudeDegrees + GEO_MARGIN >= 180) {
+            return latitude;
+        }
+        double minLongitude = center.getLongitude() - longitudeDegrees;
+        double maxLongitude = center.getLongitude() + longitudeDegrees;
+        if (minLongitude < -180) {
+            // The circle crosses the antimeridian, so the span wraps around.
+            return latitude
+                    + " AND ("
+                    + geoLongitudeAtLeast(minLongitude + 360)
+                    + " OR "
+                    + geoLongitudeAtMost(maxLongitude)
+                    + ")";
+        } else if (maxLongitude > 180) {
+            return latitude
+                    + " AND ("
+                    + geoLongitudeAtLeast(minLongitude)
+                    + " OR "
+                    + geoLongitudeAtMost(maxLongitude - 360)
+                    + ")";
+        }
+        return latitude + " AND " + geoLongitudeBetween(minLongitude, maxLongitude);
+    }
+
+    private static String geoLatitudeBetween(double min, double max) {
+        return OfflineSQLiteOpenHelper.KEY_LATITUDE
+                + ">="
+                + (min - GEO_MARGIN)
+                + " AND "
+                + OfflineSQLiteOpenHelper.KEY_LATITUDE
+                + "<="
+                + (max + GEO_MARGIN);
+    }
+
+    private static String geoLongitudeBetween(double min, double max) {
+        return geoLongitudeAtLeast(min) + " AND " + geoLongitudeAtMost(max);
+    }
+
+    private static String geoLongitudeAtLeast(double min) {
+        return OfflineSQLiteOpenHelper.KEY_LONGITUDE + ">=" + (min - GEO_MARGIN);
+    }
+
+    private static String geoLongitudeAtMost(double max) {
+        return OfflineSQLiteOpenHelper.KEY_LONGITUDE + "<=" + (max + GEO_MARGIN);
+    }
+
+    private static String typeOf(String key) {
+        return "json_type(" + OfflineSQLiteOpenHelper.KEY_JSON + ",'$." + key + "')";
+    }
+
+    private static String valueOf(String key) {
+        return "json_extract(" + OfflineSQLiteOpenHelper.KEY_JSON + ",'$." + key + "')";
+    }
+
+    /**
+     * Builds the SQL expression for this plan.
+     *
+     * @param uuidColumn The name the uuid column can be referred to by.
+     * @param keepUuids The uuids of rows that should be kept regardless of their JSON.
+     * @param keepObjectIds The objectIds of rows that should be kept regardless of their JSON.
+     * @return the expression. Its arguments are {@link #getArgs(List, List)}.
+     */
+    /* package */ String getWhere(
+            String uuidColumn, List<String> keepUuids, List<String> keepObjectIds) {
+        StringBuilder sb = new StringBuilder("((");
+        if (!predicates.isEmpty()) {
+            sb.append("((");
+            for (int i = 0; i < predicates.size(); i++) {
+                if (i > 0) {
+                    sb.append(" AND ");
+                }
+                sb.append(predicates.get(i));
+            }
+            sb.append(")");
+
+            // The stored JSON of these rows may not be what the matcher sees.
+            sb.append(" OR json_extract(")
+                    .append(OfflineSQLiteOpenHelper.KEY_JSON)
+                    .append(",'$.__complete') IS NOT 1");
+            for (String key : keys) {
+                // Operation sets are stored as objects keyed by the keys they change, and keys
+                // that need no escaping appear in the JSON text as is. Matching text anywhere
+                // else in the operations only keeps more rows than needed.
+                sb.append(" OR instr(json_extract(")
+                        .append(OfflineSQLiteOpenHelper.KEY_JSON)
+                        .append(",'$.__operations'),'\"")
+                        .append(key)
+                        .append("\":')>0");
+            }
+            sb.append(")");
+        }
+        for (int i = 0; i < indexPredicates.size(); i++) {
+            if (i > 0 || !predicates.isEmpty()) {
+                sb.append(" AND ");
+            }
+            sb.append(uuidColumn).append(" ").append(indexPredicates.get(i));
+        }
+        sb.append(")");
+
+        // Rows without data fail to load, which the query has to report.
+        sb.append(" OR ").append(OfflineSQLiteOpenHelper.KEY_JSON).append(" IS NULL");
+        appendIn(sb, uuidColumn, keepUuids.size());
+        appendIn(sb, OfflineSQLiteOpenHelper.KEY_OBJECT_ID, keepObjectIds.size());
+        return sb.append(")").toString();
+    }
+
+    /** @return the arguments for {@link #getWhere(String, List, List)}. */
+    /* package */ List<String> getArgs(List<String> keepUuids, List<String> keepObjectIds) {
+        List<String> whereArgs = new ArrayList<>(args);
+        whereArgs.addAll(indexArgs);
+        whereArgs.addAll(keepUuids);
+        whereArgs.addAll(keepObjectIds);
+        return Collections.unmodifiableList(whereArgs);
+    }
+
+    private static void appendIn(StringBuilder sb, String column, int count) {
+        if (count == 0) {
+            return;
+        }
+        sb.append(" OR ").append(column).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            sb.append(i > 0 ? ",?" : "?");
+        }
+        sb.append(")");
+    }
+}
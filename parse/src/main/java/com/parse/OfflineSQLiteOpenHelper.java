@@ -8,8 +8,17 @@
  */
 package com.parse;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 /**
  * This class just wraps a SQLiteDatabase with a better API. SQLite has a few limitations that this
@@ -40,14 +49,61 @@ class OfflineSQLiteOpenHelper extends ParseSQLiteOpenHelper {
     /* package */ static final String KEY_KEY = "key";
     // static final String KEY_UUID = "uuid";
 
+    /** The table that stores the values of indexed keys, see {@link OfflineIndexes}. */
+    /* package */ static final String TABLE_VALUES = "ParseObjectValues";
+
+    /** Various keys in the table of values. */
+    // static final String KEY_UUID = "uuid";
+    // static final String KEY_CLASS_NAME = "className";
+    // static final String KEY_KEY = "key";
+    /* package */ static final String KEY_VALUE = "value";
+
+    /** The table that stores which keys the table of values has been filled in for. */
+    /* package */ static final String TABLE_INDEXES = "ParseObjectIndexes";
+
+    /** Various keys in the table of indexes. */
+    // static final String KEY_CLASS_NAME = "className";
+    // static final String KEY_KEY = "key";
+
+    /** The table that stores the points of keys indexed as geo keys, see {@link OfflineIndexes}. */
+    /* package */ static final String TABLE_GEO_POINTS = "ParseObjectGeoPoints";
+
+    /** Various keys in the table of points. */
+    // static final String KEY_UUID = "uuid";
+    // static final String KEY_CLASS_NAME = "className";
+    // static final String KEY_KEY = "key";
+    /* package */ static final String KEY_LATITUDE = "latitude";
+    /* package */ static final String KEY_LONGITUDE = "longitude";
+
+    /** The table that stores which keys the table of points has been filled in for. */
+    /* package */ static final String TABLE_GEO_INDEXES = "ParseObjectGeoIndexes";
+
+    /** Various keys in the table of geo indexes. */
+    // static final String KEY_CLASS_NAME = "className";
+    // static final String KEY_KEY = "key";
+
     /** The SQLite Database name. */
     private static final String DATABASE_NAME = "ParseOfflineStore";
 
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 6;
+
+    private final OfflineIndexes indexes;
+    private volatile boolean indexesUpdated;
 
     /** Creates a new helper for the database. */
     public OfflineSQLiteOpenHelper(Context context) {
+        this(context, OfflineIndexes.NONE);
+    }
+
+    /** Creates a new helper for the database, which keeps the given indexes. */
+    public OfflineSQLiteOpenHelper(Context context, OfflineIndexes indexes) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.indexes = indexes;
+    }
+
+    /** @return the keys that are indexed in this database. */
+    /* package */ OfflineIndexes getIndexes() {
+        return indexes;
     }
 
     /** Initializes the schema for the database. */
@@ -91,6 +147,172 @@ class OfflineSQLiteOpenHelper extends ParseSQLiteOpenHelper {
                         + ")"
                         + ");";
         db.execSQL(sql);
+
+        createIndexSchema(db);
+        createGeoIndexSchema(db);
+    }
+
+    /** Initializes the tables for indexed values, which were added in version 5. */
+    private void createIndexSchema(SQLiteDatabase db) {
+        String sql;
+
+        sql =
+                "CREATE TABLE "
+                        + TABLE_VALUES
+                        + " ("
+                        + KEY_UUID
+                        + " TEXT NOT NULL, "
+                        + KEY_CLASS_NAME
+                        + " TEXT NOT NULL, "
+                        + KEY_KEY
+                        + " TEXT NOT NULL, "
+                        // No type, so values keep the storage class they're inserted with.
+                        + KEY_VALUE
+                        + ");";
+        db.execSQL(sql);
+
+        sql =
+                "CREATE INDEX "
+                        + TABLE_VALUES
+                        + "_"
+                        + KEY_VALUE
+                        + " ON "
+                        + TABLE_VALUES
+                        + " ("
+                        + KEY_CLASS_NAME
+                        + ", "
+                        + KEY_KEY
+                        + ", "
+                        + KEY_VALUE
+                        + ");";
+        db.execSQL(sql);
+
+        sql =
+                "CREATE INDEX "
+                        + TABLE_VALUES
+                        + "_"
+                        + KEY_UUID
+                        + " ON "
+                        + TABLE_VALUES
+                        + " ("
+                        + KEY_UUID
+                        + ");";
+        db.execSQL(sql);
+
+        // Values go away with their objects, however they're deleted.
+        sql =
+                "CREATE TRIGGER "
+                        + TABLE_VALUES
+                        + "_delete AFTER DELETE ON "
+                        + TABLE_OBJECTS
+                        + " BEGIN DELETE FROM "
+                        + TABLE_VALUES
+                        + " WHERE "
+                        + KEY_UUID
+                        + " = OLD."
+                        + KEY_UUID
+                        + "; END;";
+        db.execSQL(sql);
+
+        sql =
+                "CREATE TABLE "
+                        + TABLE_INDEXES
+                        + " ("
+                        + KEY_CLASS_NAME
+                        + " TEXT NOT NULL, "
+                        + KEY_KEY
+                        + " TEXT NOT NULL, "
+                        + "PRIMARY KEY("
+                        + KEY_CLASS_NAME
+                        + ", "
+                        + KEY_KEY
+                        + ")"
+                        + ");";
+        db.execSQL(sql);
+    }
+
+    /** Initializes the tables for indexed points, which were added in version 6. */
+    private void createGeoIndexSchema(SQLiteDatabase db) {
+        String sql;
+
+        sql =
+                "CREATE TABLE "
+                        + TABLE_GEO_POINTS
+                        + " ("
+                        + KEY_UUID
+                        + " TEXT NOT NULL, "
+                        + KEY_CLASS_NAME
+                        + " TEXT NOT NULL, "
+                        + KEY_KEY
+                        + " TEXT NOT NULL, "
+                        // Both are null for objects that could have any point.
+                        + KEY_LATITUDE
+                        + " REAL, "
+                        + KEY_LONGITUDE
+                        + " REAL"
+                        + ");";
+        db.execSQL(sql);
+
+        sql =
+                "CREATE INDEX "
+                        + TABLE_GEO_POINTS
+                        + "_"
+                        + KEY_LATITUDE
+                        + " ON "
+                        + TABLE_GEO_POINTS
+                        + " ("
+                        + KEY_CLASS_NAME
+                        + ", "
+                        + KEY_KEY
+                        + ", "
+                        + KEY_LATITUDE
+                        + ", "
+                        + KEY_LONGITUDE
+                        + ");";
+        db.execSQL(sql);
+
+        sql =
+                "CREATE INDEX "
+                        + TABLE_GEO_POINTS
+                        + "_"
+                        + KEY_UUID
+                        + " ON "
+                        + TABLE_GEO_POINTS
+                        + " ("
+                        + KEY_UUID
+                        + ");";
+        db.execSQL(sql);
+
+        // Points go away with their objects, however they're deleted.
+        sql =
+                "CREATE TRIGGER "
+                        + TABLE_GEO_POINTS
+                        + "_delete AFTER DELETE ON "
+                        + TABLE_OBJECTS
+                        + " BEGIN DELETE FROM "
+                        + TABLE_GEO_POINTS
+                        + " WHERE "
+                        + KEY_UUID
+                        + " = OLD."
+                        + KEY_UUID
+                        + "; END;";
+        db.execSQL(sql);
+
+        sql =
+                "CREATE TABLE "
+                        + TABLE_GEO_INDEXES
+                        + " ("
+                        + KEY_CLASS_NAME
+                        + " TEXT NOT NULL, "
+                        + KEY_KEY
+                        + " TEXT NOT NULL, "
+                        + "PRIMARY KEY("
+                        + KEY_CLASS_NAME
+                        + ", "
+                        + KEY_KEY
+                        + ")"
+                        + ");";
+        db.execSQL(sql);
     }
 
     /** Called when the database is first created. */
@@ -102,11 +324,140 @@ class OfflineSQLiteOpenHelper extends ParseSQLiteOpenHelper {
     /** Called when the version number in code doesn't match the one on disk. */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // do nothing
+        if (oldVersion < 5) {
+            createIndexSchema(db);
+        }
+        if (oldVersion < 6) {
+            createGeoIndexSchema(db);
+        }
+    }
+
+    /** Called every time the database is opened. */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!indexesUpdated && !db.isReadOnly()) {
+            updateIndexes(db);
+            indexesUpdated = true;
+        }
+    }
+
+    /**
+     * Makes the tables of values and points match the declared indexes: fills them in for keys that
+     * have been declared since the last time the database was opened, and removes the values of
+     * keys that aren't declared anymore.
+     */
+    private void updateIndexes(SQLiteDatabase db) {
+        Set<Pair<String, String>> declared = new HashSet<>();
+        for (String className : indexes.getClassNames()) {
+            for (String key : indexes.getKeys(className)) {
+                declared.add(new Pair<>(className, key));
+            }
+        }
+        updateIndexes(db, declared, false);
+
+        Set<Pair<String, String>> declaredGeo = new HashSet<>();
+        for (String className : indexes.getGeoClassNames()) {
+            for (String key : indexes.getGeoKeys(className)) {
+                declaredGeo.add(new Pair<>(className, key));
+            }
+        }
+        updateIndexes(db, declaredGeo, true);
+    }
+
+    private void updateIndexes(SQLiteDatabase db, Set<Pair<String, String>> declared, boolean geo) {
+        String indexTable = geo ? TABLE_GEO_INDEXES : TABLE_INDEXES;
+        String valuesTable = geo ? TABLE_GEO_POINTS : TABLE_VALUES;
+        Set<Pair<String, String>> existing = new HashSet<>();
+        Cursor cursor =
+                db.query(
+                        indexTable,
+                        new String[] {KEY_CLASS_NAME, KEY_KEY},
+                        null,
+                        null,
+                        null,
+                        null,
+                        null);
+        try {
+            while (cursor.moveToNext()) {
+                existing.add(new Pair<>(cursor.getString(0), cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (declared.equals(existing)) {
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            for (Pair<String, String> index : existing) {
+                if (!declared.contains(index)) {
+                    String[] args = {index.first, index.second};
+                    String where = KEY_CLASS_NAME + " = ? AND " + KEY_KEY + " = ?";
+                    db.delete(valuesTable, where, args);
+                    db.delete(indexTable, where, args);
+                }
+            }
+            for (Pair<String, String> index : declared) {
+                if (!existing.contains(index)) {
+                    fillIndex(db, index.first, index.second, geo);
+                    ContentValues values = new ContentValues();
+                    values.put(KEY_CLASS_NAME, index.first);
+                    values.put(KEY_KEY, index.second);
+                    db.insertOrThrow(indexTable, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Inserts the values or points of a key for all the stored objects of a class. */
+    private void fillIndex(SQLiteDatabase db, String className, String key, boolean geo) {
+        Map<String, Set<String>> keys =
+                Collections.singletonMap(className, Collections.singleton(key));
+        Map<String, Set<String>> none = Collections.emptyMap();
+        OfflineIndexes index = geo ? new OfflineIndexes(none, keys) : new OfflineIndexes(keys);
+        Cursor cursor =
+                db.query(
+                        TABLE_OBJECTS,
+                        new String[] {KEY_UUID, KEY_JSON},
+                        KEY_CLASS_NAME + " = ? AND " + KEY_JSON + " IS NOT NULL",
+                        new String[] {className},
+                        null,
+                        null,
+                        null);
+        try {
+            while (cursor.moveToNext()) {
+                JSONObject json;
+                try {
+                    json = new JSONObject(cursor.getString(1));
+                } catch (JSONException e) {
+                    // Loading the object fails anyway, so it's enough to not lose track of it.
+                    json = new JSONObject();
+                }
+                String uuid = cursor.getString(0);
+                if (geo) {
+                    for (ContentValues values : index.getGeoRows(uuid, className, json)) {
+                        db.insertOrThrow(TABLE_GEO_POINTS, null, values);
+                    }
+                } else {
+                    for (ContentValues values : index.getRows(uuid, className, json)) {
+                        db.insertOrThrow(TABLE_VALUES, null, values);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     /** Drops all tables and then recreates the schema. */
     public void clearDatabase(Context context) {
+        close();
         context.deleteDatabase(DATABASE_NAME);
+        indexesUpdated = false;
     }
 }
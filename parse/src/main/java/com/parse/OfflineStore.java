@@ -21,12 +21,17 @@ import com.parse.boltsinternal.Task;
 import com.parse.boltsinternal.TaskCompletionSource;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -34,6 +39,12 @@ class OfflineStore {
 
     /** SQLite has a max of 999 SQL variables in a single statement. */
     private static final int MAX_SQL_VARIABLES = 999;
+    /**
+     * How many times a find in a concurrent session starts over when rows vanish while it reads.
+     *
+     * @see ParseSQLiteDatabase#isConcurrent()
+     */
+    private static final int MAX_CONCURRENT_FIND_ATTEMPTS = 3;
     // Lock for all members of the store.
     private final Object lock = new Object();
     // Helper for accessing the database.
@@ -66,7 +77,25 @@ class OfflineStore {
 
     /** Used by the static method to create the singleton. */
     /* package */ OfflineStore(Context context) {
-        this(new OfflineSQLiteOpenHelper(context));
+        this(context, OfflineIndexes.NONE);
+    }
+
+    /** Used by the static method to create the singleton, with the indexes to keep. */
+    /* package */ OfflineStore(Context context, OfflineIndexes indexes) {
+        this(context, indexes, false);
+    }
+
+    /**
+     * Used by the static method to create the singleton.
+     *
+     * @param context The context of the application.
+     * @param indexes The keys to keep indexes for.
+     * @param writeAheadLogging Whether to use write-ahead logging, so that queries can run while
+     *     objects are being pinned.
+     */
+    /* package */ OfflineStore(Context context, OfflineIndexes indexes, boolean writeAheadLogging) {
+        this(new OfflineSQLiteOpenHelper(context, indexes));
+        helper.setWriteAheadLoggingEnabled(writeAheadLogging);
     }
 
     /* package */ OfflineStore(OfflineSQLiteOpenHelper helper) {
@@ -151,8 +180,7 @@ class OfflineStore {
                             cursor.moveToFirst();
                             if (cursor.isAfterLast()) {
                                 cursor.close();
-                                throw new IllegalStateException(
-                                        "Attempted to find non-existent uuid " + uuid);
+                                throw new RemovedObjectException(uuid);
                             }
 
                             synchronized (lock) {
@@ -186,6 +214,187 @@ class OfflineStore {
                         });
     }
 
+    /**
+     * Gets unfetched pointers to objects in the db, like {@link #getPointerAsync}, but looks up all
+     * of the objects that aren't in memory yet with one query for every {@link #MAX_SQL_VARIABLES}
+     * of them.
+     *
+     * @param uuids The objects to retrieve.
+     * @param db The database instance to retrieve from.
+     * @return A map of UUID -> finished Task for the object, as {@link OfflineDecoder} expects. If
+     *     the session is concurrent, the objects that were removed in the meantime are left out.
+     */
+    private Task<Map<String, Task<ParseObject>>> getPointersAsync(
+            Collection<String> uuids, ParseSQLiteDatabase db) {
+        final Map<String, Task<ParseObject>> pointers = new HashMap<>();
+        final List<String> missing = new ArrayList<>();
+        synchronized (lock) {
+            for (String uuid : uuids) {
+                ParseObject existing = uuidToObjectMap.get(uuid);
+                if (existing != null) {
+                    pointers.put(uuid, Task.forResult(existing));
+                } else {
+                    missing.add(uuid);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return Task.forResult(pointers);
+        }
+
+        String[] select = {
+            OfflineSQLiteOpenHelper.KEY_UUID,
+            OfflineSQLiteOpenHelper.KEY_CLASS_NAME,
+            OfflineSQLiteOpenHelper.KEY_OBJECT_ID
+        };
+        return queryByUuidsAsync(missing, select, db)
+                .onSuccess(
+                        task -> {
+                            synchronized (lock) {
+                                for (String[] row : task.getResult()) {
+                                    String uuid = row[0];
+                                    // Another task might have added it to the map in the meantime.
+                                    ParseObject pointer = uuidToObjectMap.get(uuid);
+                                    if (pointer == null) {
+                                        pointer = ParseObject.createWithoutData(row[1], row[2]);
+                                        // See getPointerAsync
+                                        if (row[2] == null) {
+                                            uuidToObjectMap.put(uuid, pointer);
+                                            objectToUuidMap.put(pointer, Task.forResult(uuid));
+                                        }
+                                    }
+                                    pointers.put(uuid, Task.forResult(pointer));
+                                }
+                            }
+                            // The objects that pointed to the ones that were removed in the
+                            // meantime fail to decode, see OfflineDecoder
+                            if (!db.isConcurrent()) {
+                                for (String uuid : missing) {
+                                    if (!pointers.containsKey(uuid)) {
+                                        throw new RemovedObjectException(uuid);
+                                    }
+                                }
+                            }
+                            return pointers;
+                        });
+    }
+
+    /**
+     * Gets the pointers to all of the objects that the given JSON of objects in the db refers to,
+     * so that the JSON can be decoded with an {@link OfflineDecoder}.
+     */
+    private Task<Map<String, Task<ParseObject>>> getOfflineObjectsAsync(
+            Collection<JSONObject> jsons, ParseSQLiteDatabase db) {
+        final Set<String> uuids = new HashSet<>();
+        ParseTraverser traverser =
+                new ParseTraverser() {
+                    @Override
+                    protected boolean visit(Object object) {
+                        if (object instanceof JSONObject
+                                && ((JSONObject) object)
+                                        .optString("__type")
+                                        .equals("OfflineObject")) {
+                            uuids.add(((JSONObject) object).optString("uuid"));
+                        }
+                        return true;
+                    }
+                }.setTraverseParseObjects(false).setYieldRoot(false);
+        for (JSONObject json : jsons) {
+            traverser.traverse(json);
+        }
+        return getPointersAsync(uuids, db);
+    }
+
+    /**
+     * Queries the given columns of the rows with the given uuids, with one query for every {@link
+     * #MAX_SQL_VARIABLES} uuids.
+     *
+     * @return The rows that were found, in no particular order.
+     */
+    private Task<List<String[]>> queryByUuidsAsync(
+            List<String> uuids, final String[] select, final ParseSQLiteDatabase db) {
+        return queryInAsync(
+                OfflineSQLiteOpenHelper.TABLE_OBJECTS,
+                null,
+                new String[0],
+                OfflineSQLiteOpenHelper.KEY_UUID,
+                uuids,
+                select,
+                db);
+    }
+
+    /**
+     * Queries the given columns of the rows of a class with the given objectIds, with one query for
+     * every {@link #MAX_SQL_VARIABLES} objectIds.
+     *
+     * @return The rows that were found, in no particular order.
+     */
+    private Task<List<String[]>> queryByObjectIdsAsync(
+            String className,
+            List<String> objectIds,
+            final String[] select,
+            final ParseSQLiteDatabase db) {
+        return queryInAsync(
+                OfflineSQLiteOpenHelper.TABLE_OBJECTS,
+                OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ?",
+                new String[] {className},
+                OfflineSQLiteOpenHelper.KEY_OBJECT_ID,
+                objectIds,
+                select,
+                db);
+    }
+
+    /**
+     * Queries the given columns of the rows that match {@code where} and have one of the given
+     * values in {@code column}, with as few queries as SQLite's limit on variables allows.
+     */
+    private Task<List<String[]>> queryInAsync(
+            final String table,
+            String where,
+            String[] whereArgs,
+            String column,
+            List<String> values,
+            final String[] select,
+            final ParseSQLiteDatabase db) {
+        final List<String[]> rows = new ArrayList<>();
+        Task<Void> task = Task.forResult(null);
+        int batchSize = MAX_SQL_VARIABLES - whereArgs.length;
+        for (int start = 0; start < values.size(); start += batchSize) {
+            List<String> batch = values.subList(start, Math.min(start + batchSize, values.size()));
+            final String[] args = new String[whereArgs.length + batch.size()];
+            System.arraycopy(whereArgs, 0, args, 0, whereArgs.length);
+            for (int i = 0; i < batch.size(); i++) {
+                args[whereArgs.length + i] = batch.get(i);
+            }
+            String[] placeholders = new String[batch.size()];
+            Arrays.fill(placeholders, "?");
+            final String batchWhere =
+                    (where != null ? where + " AND " : "")
+                            + column
+                            + " IN ("
+                            + TextUtils.join(",", placeholders)
+                            + ")";
+            task =
+                    task.onSuccessTask(task1 -> db.queryAsync(table, select, batchWhere, args))
+                            .onSuccess(
+                                    task1 -> {
+                                        Cursor cursor = task1.getResult();
+                                        for (cursor.moveToFirst();
+                                                !cursor.isAfterLast();
+                                                cursor.moveToNext()) {
+                                            String[] row = new String[select.length];
+                                            for (int i = 0; i < select.length; i++) {
+                                                row[i] = cursor.getString(i);
+                                            }
+                                            rows.add(row);
+                                        }
+                                        cursor.close();
+                                        return null;
+                                    });
+        }
+        return task.onSuccess(task1 -> rows);
+    }
+
     /**
      * Runs a ParseQuery against the store's contents.
      *
@@ -215,6 +424,41 @@ class OfflineStore {
             final ParsePin pin,
             final boolean isCount,
             final ParseSQLiteDatabase db) {
+        return findAsync(query, user, pin, isCount, db, 1);
+    }
+
+    /**
+     * Runs a ParseQuery against the store's contents. In a concurrent session, a row that's gone by
+     * the time it's read was removed after the query found it, or rewritten under a new UUID, as
+     * pinning does with the objects of a pin it saves again. Either way the results would be
+     * missing objects, so the find starts over, and fails with a {@link RemovedObjectException}
+     * once it has done so {@link #MAX_CONCURRENT_FIND_ATTEMPTS} times.
+     */
+    private <T extends ParseObject> Task<List<T>> findAsync(
+            final ParseQuery.State<T> query,
+            final ParseUser user,
+            final ParsePin pin,
+            final boolean isCount,
+            final ParseSQLiteDatabase db,
+            final int attempt) {
+        return findOnceAsync(query, user, pin, isCount, db)
+                .continueWithTask(
+                        task -> {
+                            if (db.isConcurrent()
+                                    && task.getError() instanceof RemovedObjectException
+                                    && attempt < MAX_CONCURRENT_FIND_ATTEMPTS) {
+                                return findAsync(query, user, pin, isCount, db, attempt + 1);
+                            }
+                            return task;
+                        });
+    }
+
+    private <T extends ParseObject> Task<List<T>> findOnceAsync(
+            final ParseQuery.State<T> query,
+            final ParseUser user,
+            final ParsePin pin,
+            final boolean isCount,
+            final ParseSQLiteDatabase db) {
         /*
          * This is currently unused, but is here to allow future querying across objects that are in the
          * process of being deleted eventually.
@@ -225,17 +469,47 @@ class OfflineStore {
 
         final List<T> results = new ArrayList<>();
 
-        Task<Cursor> queryTask;
+        // Let SQLite skip the rows that can't match, if it can.
+        final OfflineQueryPlan plan =
+                OfflineQueryPlan.create(
+                        query.className(),
+                        query.constraints(),
+                        helper.getIndexes(),
+                        OfflineQueryPlan.isSupported());
+        final List<String> keepUuids = new ArrayList<>();
+        final List<String> keepObjectIds = new ArrayList<>();
+        if (plan != null) {
+            collectObjectsInMemory(query.className(), keepUuids, keepObjectIds);
+        }
+
+        /*
+         * Without any sorting the results are in the order we check the objects, so we can stop
+         * once we've found enough of them. With sorting we still only have to keep that many.
+         */
+        final int kept =
+                !isCount && query.limit() >= 0 ? Math.max(query.skip(), 0) + query.limit() : -1;
+        final int wanted = isSorted(query) ? -1 : kept;
+
+        Task<List<String>> queryTask;
         if (pin == null) {
             String table = OfflineSQLiteOpenHelper.TABLE_OBJECTS;
-            String[] select = {OfflineSQLiteOpenHelper.KEY_UUID};
             String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + "=?";
             if (!includeIsDeletingEventually) {
                 where += " AND " + OfflineSQLiteOpenHelper.KEY_IS_DELETING_EVENTUALLY + "=0";
             }
             String[] args = {query.className()};
 
-            queryTask = db.queryAsync(table, select, where, args);
+            queryTask =
+                    queryUuidsAsync(
+                            table,
+                            OfflineSQLiteOpenHelper.KEY_UUID,
+                            "rowid",
+                            where,
+                            args,
+                            plan,
+                            keepUuids,
+                            keepObjectIds,
+                            db);
         } else {
             Task<String> uuidTask = objectToUuidMap.get(pin);
             if (uuidTask == null) {
@@ -258,7 +532,6 @@ class OfflineStore {
                                                 + OfflineSQLiteOpenHelper.KEY_UUID
                                                 + "=B."
                                                 + OfflineSQLiteOpenHelper.KEY_UUID;
-                                String[] select = {"A." + OfflineSQLiteOpenHelper.KEY_UUID};
                                 String where =
                                         OfflineSQLiteOpenHelper.KEY_CLASS_NAME
                                                 + "=?"
@@ -274,62 +547,34 @@ class OfflineStore {
                                 }
                                 String[] args = {query.className(), uuid};
 
-                                return db.queryAsync(table, select, where, args);
+                                return queryUuidsAsync(
+                                        table,
+                                        "A." + OfflineSQLiteOpenHelper.KEY_UUID,
+                                        "A.rowid",
+                                        where,
+                                        args,
+                                        plan,
+                                        keepUuids,
+                                        keepObjectIds,
+                                        db);
                             });
         }
 
         return queryTask
                 .onSuccessTask(
                         task -> {
-                            Cursor cursor = task.getResult();
-                            List<String> uuids = new ArrayList<>();
-                            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                                uuids.add(cursor.getString(0));
-                            }
-                            cursor.close();
+                            List<String> uuids = task.getResult();
 
                             // Find objects that match the where clause.
                             final ConstraintMatcher<T> matcher =
                                     queryLogic.createMatcher(query, user);
 
-                            Task<Void> checkedAllObjects = Task.forResult(null);
-                            for (final String uuid : uuids) {
-                                final Capture<T> object = new Capture<>();
-
-                                checkedAllObjects =
-                                        checkedAllObjects
-                                                .onSuccessTask(
-                                                        (Continuation<Void, Task<T>>)
-                                                                task16 -> getPointerAsync(uuid, db))
-                                                .onSuccessTask(
-                                                        task15 -> {
-                                                            object.set(task15.getResult());
-                                                            return fetchLocallyAsync(
-                                                                    object.get(), db);
-                                                        })
-                                                .onSuccessTask(
-                                                        task14 -> {
-                                                            if (!object.get().isDataAvailable()) {
-                                                                return Task.forResult(false);
-                                                            }
-                                                            return matcher.matchesAsync(
-                                                                    object.get(), db);
-                                                        })
-                                                .onSuccess(
-                                                        task13 -> {
-                                                            if (task13.getResult()) {
-                                                                results.add(object.get());
-                                                            }
-                                                            return null;
-                                                        });
-                            }
-
-                            return checkedAllObjects;
+                            return matchAsync(uuids, 0, matcher, wanted, results, db);
                         })
                 .onSuccessTask(
                         task -> {
                             // Sort by any sort operators.
-                            OfflineQueryLogic.sort(results, query);
+                            OfflineQueryLogic.sort(results, query, kept);
 
                             // Apply the skip.
                             List<T> trimmedResults = results;
@@ -347,23 +592,213 @@ class OfflineStore {
                             }
 
                             // Fetch the includes.
-                            Task<Void> fetchedIncludesTask = Task.forResult(null);
-                            for (final T object : trimmedResults) {
-                                fetchedIncludesTask =
-                                        fetchedIncludesTask.onSuccessTask(
-                                                task12 ->
-                                                        OfflineQueryLogic.fetchIncludesAsync(
-                                                                OfflineStore.this,
-                                                                object,
-                                                                query,
-                                                                db));
-                            }
+                            Task<Void> fetchedIncludesTask =
+                                    OfflineQueryLogic.fetchIncludesAsync(
+                                            OfflineStore.this, trimmedResults, query, db);
 
                             final List<T> finalTrimmedResults = trimmedResults;
                             return fetchedIncludesTask.onSuccess(task1 -> finalTrimmedResults);
                         });
     }
 
+    /**
+     * Fetches the objects with the given UUIDs, starting at {@code start}, in batches and adds the
+     * ones that match to the results, until there are {@code wanted} results if that isn't -1.
+     */
+    private <T extends ParseObject> Task<Void> matchAsync(
+            final List<String> uuids,
+            final int start,
+            final ConstraintMatcher<T> matcher,
+            final int wanted,
+            final List<T> results,
+            final ParseSQLiteDatabase db) {
+        if (start >= uuids.size() || (wanted >= 0 && results.size() >= wanted)) {
+            return Task.forResult(null);
+        }
+        // Don't fetch more objects than could be needed.
+        int count = MAX_SQL_VARIABLES;
+        if (wanted >= 0) {
+            count = Math.min(count, wanted - results.size());
+        }
+        final int end = Math.min(start + count, uuids.size());
+
+        return this.<T>fetchLocallyAsync(uuids.subList(start, end), db)
+                .onSuccessTask(task -> matchObjectsAsync(task.getResult(), 0, matcher, results, db))
+                .onSuccessTask(task -> matchAsync(uuids, end, matcher, wanted, results, db));
+    }
+
+    /**
+     * Matches the objects from {@code start} on, in order, and adds the ones that match to the
+     * results. Matchers that decide right away return completed tasks, so their results are used as
+     * they are instead of chaining a task for each object. Only matchers that still have to do some
+     * work, e.g. run a subquery, are waited for.
+     */
+    private <T extends ParseObject> Task<Void> matchObjectsAsync(
+            final List<T> objects,
+            final int start,
+            final ConstraintMatcher<T> matcher,
+            final List<T> results,
+            final ParseSQLiteDatabase db) {
+        for (int i = start; i < objects.size(); i++) {
+            final T object = objects.get(i);
+            if (!object.isDataAvailable()) {
+                continue;
+            }
+            Task<Boolean> matches = matcher.matchesAsync(object, db);
+            if (!matches.isCompleted()) {
+                final int next = i + 1;
+                return matches.onSuccessTask(
+                        task -> {
+                            if (task.getResult()) {
+                                results.add(object);
+                            }
+                            return matchObjectsAsync(objects, next, matcher, results, db);
+                        });
+            }
+            if (matches.isFaulted() || matches.isCancelled()) {
+                return matches.makeVoid();
+            }
+            if (matches.getResult()) {
+                results.add(object);
+            }
+        }
+        return Task.forResult(null);
+    }
+
+    /**
+     * Queries the uuids of the rows in {@code table} that match {@code where} and, if there is a
+     * plan, its expression. The rows of the objects in memory are kept either way. If there are too
+     * many of them for a single query, they're looked up on their own, with one query for every
+     * {@link #MAX_SQL_VARIABLES} of them.
+     *
+     * @return The uuids that were found, without duplicates, in the order of the rows in the table.
+     *     Queries without sort operators return their results in this order, so it mustn't depend
+     *     on how the rows were found.
+     */
+    private Task<List<String>> queryUuidsAsync(
+            final String table,
+            final String uuidColumn,
+            final String rowidColumn,
+            final String where,
+            final String[] whereArgs,
+            OfflineQueryPlan plan,
+            final List<String> keepUuids,
+            final List<String> keepObjectIds,
+            final ParseSQLiteDatabase db) {
+        final String[] select = {uuidColumn, rowidColumn};
+        List<String> args = new ArrayList<>(Arrays.asList(whereArgs));
+        String planWhere = where;
+        boolean keepSeparately = false;
+        if (plan != null) {
+            List<String> planArgs = plan.getArgs(keepUuids, keepObjectIds);
+            keepSeparately = args.size() + planArgs.size() > MAX_SQL_VARIABLES;
+            if (keepSeparately) {
+                List<String> none = Collections.emptyList();
+                planWhere += " AND " + plan.getWhere(uuidColumn, none, none);
+                planArgs = plan.getArgs(none, none);
+            } else {
+                planWhere += " AND " + plan.getWhere(uuidColumn, keepUuids, keepObjectIds);
+            }
+            args.addAll(planArgs);
+        }
+
+        final Map<String, Long> rowids = new HashMap<>();
+        Task<Void> task =
+                db.queryAsync(table, select, planWhere, args.toArray(new String[0]))
+                        .onSuccess(
+                                task1 -> {
+                                    Cursor cursor = task1.getResult();
+                                    for (cursor.moveToFirst();
+                                            !cursor.isAfterLast();
+                                            cursor.moveToNext()) {
+                                        rowids.put(cursor.getString(0), cursor.getLong(1));
+                                    }
+                                    cursor.close();
+                                    return null;
+                                });
+        if (keepSeparately) {
+            Continuation<List<String[]>, Void> addRows =
+                    task1 -> {
+                        for (String[] row : task1.getResult()) {
+                            rowids.put(row[0], Long.parseLong(row[1]));
+                        }
+                        return null;
+                    };
+            task =
+                    task.onSuccessTask(
+                                    task1 ->
+                                            queryInAsync(
+                                                    table,
+                                                    where,
+                                                    whereArgs,
+                                                    uuidColumn,
+                                                    keepUuids,
+                                                    select,
+                                                    db))
+                            .onSuccess(addRows)
+                            .onSuccessTask(
+                                    task1 ->
+                                            queryInAsync(
+                                                    table,
+                                                    where,
+                                                    whereArgs,
+                                                    OfflineSQLiteOpenHelper.KEY_OBJECT_ID,
+                                                    keepObjectIds,
+                                                    select,
+                                                    db))
+                            .onSuccess(addRows);
+        }
+        return task.onSuccess(
+                task1 -> {
+                    List<String> uuids = new ArrayList<>(rowids.keySet());
+                    Collections.sort(
+                            uuids, (lhs, rhs) -> rowids.get(lhs).compareTo(rowids.get(rhs)));
+                    return uuids;
+                });
+    }
+
+    /**
+     * Collects the objects of the given class that are in memory. Their data may differ from what
+     * is stored for them, so they can't be ruled out by looking at their rows.
+     */
+    private void collectObjectsInMemory(
+            String className, List<String> uuids, List<String> objectIds) {
+        synchronized (lock) {
+            for (Map.Entry<ParseObject, Task<String>> entry : objectToUuidMap.entrySet()) {
+                ParseObject object = entry.getKey();
+                Task<String> uuidTask = entry.getValue();
+                // Objects with an objectId are collected below
+                if (object != null
+                        && object.getObjectId() == null
+                        && className.equals(object.getClassName())
+                        && uuidTask.isCompleted()
+                        && uuidTask.getResult() != null) {
+                    uuids.add(uuidTask.getResult());
+                }
+            }
+            for (Pair<String, String> classNameAndObjectId :
+                    classNameAndObjectIdToObjectMap.keys()) {
+                if (className.equals(classNameAndObjectId.first)) {
+                    objectIds.add(classNameAndObjectId.second);
+                }
+            }
+        }
+    }
+
+    /** Returns whether the results of the query are sorted before skip and limit apply. */
+    private static boolean isSorted(ParseQuery.State<?> query) {
+        if (!query.order().isEmpty()) {
+            return true;
+        }
+        for (Object constraint : query.constraints().values()) {
+            if (constraint instanceof ParseQuery.KeyConstraints
+                    && ((ParseQuery.KeyConstraints) constraint).containsKey("$nearSphere")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Gets the data for the given object from the offline database. Returns a task that will be
      * completed if data for the object was available. If the object is not in the cache, the task
@@ -404,6 +839,8 @@ class OfflineStore {
          * into the existing object in memory.
          */
         Task<String> jsonStringTask = Task.forResult(null);
+        // Whether the data of the object is only in memory so far, so there's nothing to merge.
+        final Capture<Boolean> isInMemoryOnly = new Capture<>(false);
 
         if (objectId == null) {
             // This Object has never been saved to Parse.
@@ -442,9 +879,11 @@ class OfflineStore {
                                             cursor.moveToFirst();
                                             if (cursor.isAfterLast()) {
                                                 cursor.close();
-                                                throw new IllegalStateException(
-                                                        "Attempted to find non-existent uuid "
-                                                                + uuid.get());
+                                                if (isStillBeingStored(object, db)) {
+                                                    isInMemoryOnly.set(true);
+                                                    return null;
+                                                }
+                                                throw new RemovedObjectException(uuid.get());
                                             }
                                             String json = cursor.getString(0);
                                             cursor.close();
@@ -526,6 +965,9 @@ class OfflineStore {
                         (Continuation<String, Task<Void>>)
                                 task -> {
                                     String jsonString = task.getResult();
+                                    if (isInMemoryOnly.get()) {
+                                        return Task.forResult(null);
+                                    }
                                     if (jsonString == null) {
                                         /*
                                          * This means we tried to fetch an object from the database that was never actually saved
@@ -550,36 +992,15 @@ class OfflineStore {
                                     }
 
                                     // Fetch all the offline objects before we decode.
-                                    final Map<String, Task<ParseObject>> offlineObjects =
-                                            new HashMap<>();
-
-                                    (new ParseTraverser() {
-                                                @Override
-                                                protected boolean visit(Object object1) {
-                                                    if (object1 instanceof JSONObject
-                                                            && ((JSONObject) object1)
-                                                                    .optString("__type")
-                                                                    .equals("OfflineObject")) {
-                                                        String uuid =
-                                                                ((JSONObject) object1)
-                                                                        .optString("uuid");
-                                                        offlineObjects.put(
-                                                                uuid, getPointerAsync(uuid, db));
-                                                    }
-                                                    return true;
-                                                }
-                                            })
-                                            .setTraverseParseObjects(false)
-                                            .setYieldRoot(false)
-                                            .traverse(json);
-
-                                    return Task.whenAll(offlineObjects.values())
+                                    return getOfflineObjectsAsync(
+                                                    Collections.singletonList(json), db)
                                             .onSuccess(
                                                     task1 -> {
                                                         object.mergeREST(
                                                                 object.getState(),
                                                                 json,
-                                                                new OfflineDecoder(offlineObjects));
+                                                                new OfflineDecoder(
+                                                                        task1.getResult()));
                                                         return null;
                                                     });
                                 })
@@ -588,6 +1009,9 @@ class OfflineStore {
                             if (task.isCancelled()) {
                                 tcs.setCancelled();
                             } else if (task.isFaulted()) {
+                                if (task.getError() instanceof RemovedObjectException) {
+                                    forgetFetch(object, tcs.getTask());
+                                }
                                 tcs.setError(task.getError());
                             } else {
                                 tcs.setResult(object);
@@ -596,6 +1020,384 @@ class OfflineStore {
                         });
     }
 
+    /**
+     * Whether {@code object}'s row can't be found only because the session can't see it yet: its
+     * data is in memory, and it's being pinned while a concurrent session reads.
+     */
+    private boolean isStillBeingStored(ParseObject object, ParseSQLiteDatabase db) {
+        return db.isConcurrent() && object.isDataAvailable();
+    }
+
+    /**
+     * Forgets the fetch of an object whose row changed while it was read, so the next fetch reads
+     * it again instead of failing the same way.
+     */
+    private void forgetFetch(ParseObject object, Task<? extends ParseObject> fetchTask) {
+        synchronized (lock) {
+            if (fetchedObjects.get(object) == fetchTask) {
+                fetchedObjects.remove(object);
+            }
+        }
+    }
+
+    /**
+     * Gets the objects with the given UUIDs and fetches the data of the ones that haven't been
+     * fetched yet, like {@link #getPointerAsync} followed by {@link #fetchLocallyAsync(ParseObject,
+     * ParseSQLiteDatabase)}, but with one query for every {@link #MAX_SQL_VARIABLES} of them
+     * instead of a few queries per object.
+     *
+     * @param uuids The objects to fetch, which must be in the database.
+     * @param db A database connection to use.
+     * @return The objects, in the order of the UUIDs. Fails with a {@link RemovedObjectException}
+     *     if the row of one of them, or of an object it points to, can't be found.
+     */
+    private <T extends ParseObject> Task<List<T>> fetchLocallyAsync(
+            final List<String> uuids, final ParseSQLiteDatabase db) {
+        final Map<String, ParseObject> objects = new HashMap<>();
+        final Map<ParseObject, Task<ParseObject>> fetchTasks = new HashMap<>();
+        final List<String> unfetched = new ArrayList<>();
+        synchronized (lock) {
+            for (String uuid : uuids) {
+                ParseObject object = uuidToObjectMap.get(uuid);
+                Task<ParseObject> fetchTask = object != null ? fetchedObjects.get(object) : null;
+                if (fetchTask != null) {
+                    objects.put(uuid, object);
+                    fetchTasks.put(object, fetchTask);
+                } else {
+                    unfetched.add(uuid);
+                }
+            }
+        }
+
+        Task<Void> task = Task.forResult(null);
+        if (!unfetched.isEmpty()) {
+            String[] select = {
+                OfflineSQLiteOpenHelper.KEY_UUID,
+                OfflineSQLiteOpenHelper.KEY_CLASS_NAME,
+                OfflineSQLiteOpenHelper.KEY_OBJECT_ID,
+                OfflineSQLiteOpenHelper.KEY_JSON
+            };
+            task =
+                    queryByUuidsAsync(unfetched, select, db)
+                            .onSuccess(
+                                    task1 -> {
+                                        mergeRows(task1.getResult(), objects, fetchTasks, db);
+                                        return null;
+                                    });
+        }
+
+        return task.onSuccessTask(
+                        task1 -> Task.whenAll(fetchTasks.values()).continueWith(task2 -> null))
+                .onSuccess(
+                        task1 -> {
+                            List<T> results = new ArrayList<>(uuids.size());
+                            for (String uuid : uuids) {
+                                @SuppressWarnings("unchecked")
+                                T object = (T) objects.get(uuid);
+                                Task<ParseObject> fetchTask =
+                                        object != null ? fetchTasks.get(object) : null;
+                                if (fetchTask == null) {
+                                    throw new RemovedObjectException(uuid);
+                                }
+                                if (fetchTask.isCancelled()) {
+                                    throw new CancellationException();
+                                } else if (fetchTask.isFaulted()) {
+                                    throw fetchTask.getError();
+                                }
+                                results.add(object);
+                            }
+                            return results;
+                        });
+    }
+
+    /**
+     * Merges the data of the given rows into their objects, creating and registering the objects
+     * that aren't in memory yet. The rows of objects that are already being fetched are skipped.
+     *
+     * @param rows The uuid, className, objectId and json of the objects.
+     * @param objects The map to add the objects to, by UUID.
+     * @param fetchTasks The map to add the Tasks that finish once the objects are fetched to.
+     * @param db A database connection to use.
+     */
+    private void mergeRows(
+            List<String[]> rows,
+            Map<String, ParseObject> objects,
+            Map<ParseObject, Task<ParseObject>> fetchTasks,
+            ParseSQLiteDatabase db) {
+        final List<ParseObject> toMerge = new ArrayList<>();
+        final List<String> jsonStrings = new ArrayList<>();
+        final List<TaskCompletionSource<ParseObject>> sources = new ArrayList<>();
+
+        synchronized (lock) {
+            for (String[] row : rows) {
+                String uuid = row[0];
+                ParseObject object = uuidToObjectMap.get(uuid);
+                if (object == null) {
+                    object = ParseObject.createWithoutData(row[1], row[2]);
+                }
+                objects.put(uuid, object);
+
+                Task<ParseObject> fetchTask = fetchedObjects.get(object);
+                if (fetchTask != null) {
+                    fetchTasks.put(object, fetchTask);
+                    continue;
+                }
+
+                // Put a placeholder, like fetchLocallyAsync does for a single object.
+                TaskCompletionSource<ParseObject> tcs = new TaskCompletionSource<>();
+                fetchedObjects.put(object, tcs.getTask());
+                fetchTasks.put(object, tcs.getTask());
+                if (!objectToUuidMap.containsKey(object)) {
+                    objectToUuidMap.put(object, Task.forResult(uuid));
+                }
+                uuidToObjectMap.put(uuid, object);
+
+                toMerge.add(object);
+                jsonStrings.add(row[3]);
+                sources.add(tcs);
+            }
+        }
+
+        mergeJsonStrings(toMerge, jsonStrings, sources, db);
+    }
+
+    /**
+     * Merges the data stored for objects that are being fetched into them, decoding all of their
+     * pointers at once.
+     *
+     * @param toMerge The objects to merge the data into.
+     * @param jsonStrings The JSON stored for each object.
+     * @param sources The placeholders in {@link #fetchedObjects} to complete for each object.
+     * @param db A database connection to use.
+     */
+    private void mergeJsonStrings(
+            final List<ParseObject> toMerge,
+            List<String> jsonStrings,
+            final List<TaskCompletionSource<ParseObject>> sources,
+            ParseSQLiteDatabase db) {
+        final Map<ParseObject, JSONObject> jsons = new HashMap<>();
+        for (int i = 0; i < toMerge.size(); i++) {
+            String jsonString = jsonStrings.get(i);
+            if (jsonString == null) {
+                // See fetchLocallyAsync
+                sources.get(i)
+                        .setError(
+                                new ParseException(
+                                        ParseException.CACHE_MISS,
+                                        "Attempted to fetch an object offline which was never saved to the offline cache."));
+                continue;
+            }
+            try {
+                jsons.put(toMerge.get(i), new JSONObject(jsonString));
+            } catch (JSONException e) {
+                sources.get(i).setError(e);
+            }
+        }
+
+        getOfflineObjectsAsync(jsons.values(), db)
+                .continueWith(
+                        task -> {
+                            for (int i = 0; i < toMerge.size(); i++) {
+                                ParseObject object = toMerge.get(i);
+                                JSONObject json = jsons.get(object);
+                                if (json == null) {
+                                    continue;
+                                }
+                                TaskCompletionSource<ParseObject> tcs = sources.get(i);
+                                if (task.isCancelled()) {
+                                    tcs.setCancelled();
+                                    continue;
+                                } else if (task.isFaulted()) {
+                                    tcs.setError(task.getError());
+                                    continue;
+                                }
+                                try {
+                                    object.mergeREST(
+                                            object.getState(),
+                                            json,
+                                            new OfflineDecoder(task.getResult()));
+                                    tcs.setResult(object);
+                                } catch (RemovedObjectException e) {
+                                    // Its row changed after it was read, so read it again next time
+                                    forgetFetch(object, tcs.getTask());
+                                    tcs.setError(e);
+                                } catch (Exception e) {
+                                    tcs.setError(e);
+                                }
+                            }
+                            return null;
+                        });
+    }
+
+    /**
+     * Fetches the data of the given objects from the offline database, like {@link
+     * #fetchLocallyAsync(ParseObject, ParseSQLiteDatabase)} does for each of them, but with one
+     * query for every {@link #MAX_SQL_VARIABLES} pointers of a class and every {@link
+     * #MAX_SQL_VARIABLES} new objects instead of a few queries per object.
+     *
+     * @param objects The objects to fetch.
+     * @param db A database connection to use.
+     * @return A task that fails with the error of the first of the objects that couldn't be
+     *     fetched, once all of them are done.
+     */
+    /* package for OfflineQueryLogic */ Task<Void> fetchAllLocallyAsync(
+            Collection<? extends ParseObject> objects, final ParseSQLiteDatabase db) {
+        final List<Task<ParseObject>> fetchTasks = new ArrayList<>();
+        // Pointers by objectId, by class name, and new objects by uuid.
+        final Map<String, Map<String, ParseObject>> pointers = new HashMap<>();
+        final Map<String, ParseObject> newObjects = new HashMap<>();
+        final Map<ParseObject, TaskCompletionSource<ParseObject>> sources = new HashMap<>();
+        // Objects that aren't in either of the cases above, by their position in fetchTasks.
+        final Map<Integer, ParseObject> others = new HashMap<>();
+
+        synchronized (lock) {
+            for (ParseObject object : objects) {
+                Task<ParseObject> fetchTask = fetchedObjects.get(object);
+                if (fetchTask != null) {
+                    fetchTasks.add(fetchTask);
+                    continue;
+                }
+                Task<String> uuidTask = objectToUuidMap.get(object);
+                String objectId = object.getObjectId();
+                boolean isPointer = objectId != null && uuidTask == null;
+                boolean isNew =
+                        objectId == null
+                                && uuidTask != null
+                                && uuidTask.isCompleted()
+                                && uuidTask.getResult() != null;
+                if (!isPointer && !isNew) {
+                    others.put(fetchTasks.size(), object);
+                    fetchTasks.add(null);
+                    continue;
+                }
+
+                // Put a placeholder, like fetchLocallyAsync does for a single object.
+                TaskCompletionSource<ParseObject> tcs = new TaskCompletionSource<>();
+                fetchedObjects.put(object, tcs.getTask());
+                fetchTasks.add(tcs.getTask());
+                sources.put(object, tcs);
+                if (isPointer) {
+                    Map<String, ParseObject> classPointers = pointers.get(object.getClassName());
+                    if (classPointers == null) {
+                        classPointers = new HashMap<>();
+                        pointers.put(object.getClassName(), classPointers);
+                    }
+                    classPointers.put(objectId, object);
+                } else {
+                    newObjects.put(uuidTask.getResult(), object);
+                }
+            }
+        }
+        for (Map.Entry<Integer, ParseObject> entry : others.entrySet()) {
+            fetchTasks.set(entry.getKey(), fetchLocallyAsync(entry.getValue(), db));
+        }
+
+        final List<ParseObject> toMerge = new ArrayList<>();
+        final List<String> jsonStrings = new ArrayList<>();
+        Task<Void> task = Task.forResult(null);
+        for (final Map.Entry<String, Map<String, ParseObject>> entry : pointers.entrySet()) {
+            final Map<String, ParseObject> classPointers = entry.getValue();
+            String[] select = {
+                OfflineSQLiteOpenHelper.KEY_OBJECT_ID,
+                OfflineSQLiteOpenHelper.KEY_UUID,
+                OfflineSQLiteOpenHelper.KEY_JSON
+            };
+            task =
+                    task.onSuccessTask(
+                                    task1 ->
+                                            queryByObjectIdsAsync(
+                                                    entry.getKey(),
+                                                    new ArrayList<>(classPointers.keySet()),
+                                                    select,
+                                                    db))
+                            .onSuccess(
+                                    task1 -> {
+                                        for (String[] row : task1.getResult()) {
+                                            ParseObject object = classPointers.remove(row[0]);
+                                            synchronized (lock) {
+                                                // See fetchLocallyAsync
+                                                objectToUuidMap.put(object, Task.forResult(row[1]));
+                                                uuidToObjectMap.put(row[1], object);
+                                            }
+                                            toMerge.add(object);
+                                            jsonStrings.add(row[2]);
+                                        }
+                                        // Pointers to objects that were never stored
+                                        for (ParseObject object : classPointers.values()) {
+                                            sources.get(object)
+                                                    .setError(
+                                                            new ParseException(
+                                                                    ParseException.CACHE_MISS,
+                                                                    "This object is not available in the offline cache."));
+                                        }
+                                        return null;
+                                    });
+        }
+        if (!newObjects.isEmpty()) {
+            String[] select = {OfflineSQLiteOpenHelper.KEY_UUID, OfflineSQLiteOpenHelper.KEY_JSON};
+            task =
+                    task.onSuccessTask(
+                                    task1 ->
+                                            queryByUuidsAsync(
+                                                    new ArrayList<>(newObjects.keySet()),
+                                                    select,
+                                                    db))
+                            .onSuccess(
+                                    task1 -> {
+                                        for (String[] row : task1.getResult()) {
+                                            toMerge.add(newObjects.remove(row[0]));
+                                            jsonStrings.add(row[1]);
+                                        }
+                                        for (Map.Entry<String, ParseObject> missing :
+                                                newObjects.entrySet()) {
+                                            ParseObject object = missing.getValue();
+                                            if (isStillBeingStored(object, db)) {
+                                                sources.get(object).setResult(object);
+                                            } else {
+                                                forgetFetch(object, sources.get(object).getTask());
+                                                sources.get(object)
+                                                        .setError(
+                                                                new RemovedObjectException(
+                                                                        missing.getKey()));
+                                            }
+                                        }
+                                        return null;
+                                    });
+        }
+
+        return task.continueWithTask(
+                        task1 -> {
+                            if (task1.isFaulted() || task1.isCancelled()) {
+                                for (TaskCompletionSource<ParseObject> tcs : sources.values()) {
+                                    if (task1.isCancelled()) {
+                                        tcs.trySetCancelled();
+                                    } else {
+                                        tcs.trySetError(task1.getError());
+                                    }
+                                }
+                            } else {
+                                List<TaskCompletionSource<ParseObject>> mergeSources =
+                                        new ArrayList<>(toMerge.size());
+                                for (ParseObject object : toMerge) {
+                                    mergeSources.add(sources.get(object));
+                                }
+                                mergeJsonStrings(toMerge, jsonStrings, mergeSources, db);
+                            }
+                            return Task.whenAll(fetchTasks);
+                        })
+                .continueWithTask(
+                        task1 -> {
+                            for (Task<ParseObject> fetchTask : fetchTasks) {
+                                if (fetchTask.isFaulted()) {
+                                    return Task.forError(fetchTask.getError());
+                                } else if (fetchTask.isCancelled()) {
+                                    return Task.cancelled();
+                                }
+                            }
+                            return Task.forResult(null);
+                        });
+    }
+
     /**
      * Gets the data for the given object from the offline database. Returns a task that will be
      * completed if data for the object was available. If the object is not in the cache, the task
@@ -890,12 +1692,10 @@ class OfflineStore {
                                                                                     db
                                                                                             .setTransactionSuccessfulAsync())
                                                                     .continueWithTask(
-                                                                            task1 -> {
-                                                                                db
-                                                                                        .endTransactionAsync();
-                                                                                db.closeAsync();
-                                                                                return task1;
-                                                                            });
+                                                                            task1 ->
+                                                                                    endTransactionAsync(
+                                                                                            db,
+                                                                                            task1));
                                                         });
                                     });
                 });
@@ -951,10 +1751,63 @@ class OfflineStore {
                                             values,
                                             where,
                                             args)
-                                    .makeVoid();
+                                    .onSuccessTask(
+                                            task1 ->
+                                                    updateIndexedValuesAsync(
+                                                            uuid, className, json, db));
                         });
     }
 
+    /**
+     * Replaces the indexed values and points of an object with the ones in the JSON it's stored as.
+     */
+    private Task<Void> updateIndexedValuesAsync(
+            final String uuid,
+            final String className,
+            final JSONObject json,
+            final ParseSQLiteDatabase db) {
+        OfflineIndexes indexes = helper.getIndexes();
+        Task<Void> task = Task.forResult(null);
+        if (!indexes.getKeys(className).isEmpty()) {
+            task =
+                    replaceRowsAsync(
+                            task,
+                            OfflineSQLiteOpenHelper.TABLE_VALUES,
+                            uuid,
+                            indexes.getRows(uuid, className, json),
+                            db);
+        }
+        if (!indexes.getGeoKeys(className).isEmpty()) {
+            task =
+                    replaceRowsAsync(
+                            task,
+                            OfflineSQLiteOpenHelper.TABLE_GEO_POINTS,
+                            uuid,
+                            indexes.getGeoRows(uuid, className, json),
+                            db);
+        }
+        return task;
+    }
+
+    private Task<Void> replaceRowsAsync(
+            Task<Void> task,
+            final String table,
+            final String uuid,
+            List<ContentValues> rows,
+            final ParseSQLiteDatabase db) {
+        task =
+                task.onSuccessTask(
+                        task1 ->
+                                db.deleteAsync(
+                                        table,
+                                        OfflineSQLiteOpenHelper.KEY_UUID + " = ?",
+                                        new String[] {uuid}));
+        for (final ContentValues row : rows) {
+            task = task.onSuccessTask(task1 -> db.insertOrThrowAsync(table, row));
+        }
+        return task;
+    }
+
     /* package */ Task<Void> deleteDataForObjectAsync(final ParseObject object) {
         return helper.getWritableDatabaseAsync()
                 .continueWithTask(
@@ -970,11 +1823,9 @@ class OfflineStore {
                                                                         db
                                                                                 .setTransactionSuccessfulAsync())
                                                         .continueWithTask(
-                                                                task1 -> {
-                                                                    db.endTransactionAsync();
-                                                                    db.closeAsync();
-                                                                    return task1;
-                                                                });
+                                                                task1 ->
+                                                                        endTransactionAsync(
+                                                                                db, task1));
                                             });
                         });
     }
@@ -1233,7 +2084,7 @@ class OfflineStore {
 
     /* package */ <T extends ParseObject> Task<List<T>> findFromPinAsync(
             final String name, final ParseQuery.State<T> state, final ParseUser user) {
-        return runWithManagedConnection(db -> findFromPinAsync(name, state, user, db));
+        return runFindWithManagedConnection(db -> findFromPinAsync(name, state, user, db));
     }
 
     private <T extends ParseObject> Task<List<T>> findFromPinAsync(
@@ -1256,7 +2107,7 @@ class OfflineStore {
 
     /* package */ <T extends ParseObject> Task<Integer> countFromPinAsync(
             final String name, final ParseQuery.State<T> state, final ParseUser user) {
-        return runWithManagedConnection(db -> countFromPinAsync(name, state, user, db));
+        return runFindWithManagedConnection(db -> countFromPinAsync(name, state, user, db));
     }
 
     private <T extends ParseObject> Task<Integer> countFromPinAsync(
@@ -1366,18 +2217,64 @@ class OfflineStore {
         }
     }
 
-    /** Wraps SQLite operations with a managed SQLite connection. */
+    /**
+     * Wraps read-only SQLite operations with a managed SQLite connection. With write-ahead logging
+     * they run in parallel with other operations, and see the last committed transaction.
+     */
     private <T> Task<T> runWithManagedConnection(final SQLiteDatabaseCallable<Task<T>> callable) {
-        return helper.getWritableDatabaseAsync()
-                .onSuccessTask(
+        return runWithManagedConnection(helper.getReadableDatabaseAsync(), callable);
+    }
+
+    private static <T> Task<T> runWithManagedConnection(
+            Task<ParseSQLiteDatabase> dbTask, final SQLiteDatabaseCallable<Task<T>> callable) {
+        return dbTask.onSuccessTask(
+                task -> {
+                    final ParseSQLiteDatabase db = task.getResult();
+                    return callable.call(db)
+                            .continueWithTask(
+                                    task1 -> {
+                                        db.closeAsync();
+                                        return task1;
+                                    });
+                });
+    }
+
+    /**
+     * Wraps a find with a managed SQLite connection, like {@link #runWithManagedConnection}. If the
+     * find keeps running into rows that vanish in a concurrent session, it runs once more in a
+     * session that waits for the writes, so the rows can't change while it reads them.
+     */
+    private <T> Task<T> runFindWithManagedConnection(
+            final SQLiteDatabaseCallable<Task<T>> callable) {
+        final Capture<Boolean> concurrent = new Capture<>(false);
+        return runWithManagedConnection(
+                        db -> {
+                            concurrent.set(db.isConcurrent());
+                            return callable.call(db);
+                        })
+                .continueWithTask(
                         task -> {
-                            final ParseSQLiteDatabase db = task.getResult();
-                            return callable.call(db)
-                                    .continueWithTask(
-                                            task1 -> {
-                                                db.closeAsync();
-                                                return task1;
-                                            });
+                            if (concurrent.get()
+                                    && task.getError() instanceof RemovedObjectException) {
+                                return runWithManagedConnection(
+                                        helper.getWritableDatabaseAsync(), callable);
+                            }
+                            return task;
+                        });
+    }
+
+    /**
+     * Ends the transaction of a session and closes it. With write-ahead logging, readers don't wait
+     * for the session to be closed, so the returned task only completes once the changes are
+     * committed.
+     */
+    private static <T> Task<T> endTransactionAsync(
+            final ParseSQLiteDatabase db, final Task<T> result) {
+        return db.endTransactionAsync()
+                .continueWithTask(
+                        task -> {
+                            db.closeAsync();
+                            return result;
                         });
     }
 
@@ -1397,11 +2294,9 @@ class OfflineStore {
                                                                             db
                                                                                     .setTransactionSuccessfulAsync())
                                                             .continueWithTask(
-                                                                    task1 -> {
-                                                                        db.endTransactionAsync();
-                                                                        db.closeAsync();
-                                                                        return task1;
-                                                                    }));
+                                                                    task1 ->
+                                                                            endTransactionAsync(
+                                                                                    db, task1)));
                         });
     }
 
@@ -1430,6 +2325,18 @@ class OfflineStore {
      * Methods for testing.
      */
 
+    /**
+     * Thrown when the row of an object, or of an object it points to, can't be found. That's a bug,
+     * unless the session is concurrent and the object was unpinned after it was looked up.
+     *
+     * @see ParseSQLiteDatabase#isConcurrent()
+     */
+    private static class RemovedObjectException extends IllegalStateException {
+        RemovedObjectException(String uuid) {
+            super("Attempted to find non-existent uuid " + uuid);
+        }
+    }
+
     /**
      * Extends the normal JSON -> ParseObject decoding to also deal with placeholders for new
      * objects that have been saved offline.
@@ -1449,7 +2356,12 @@ class OfflineStore {
             if (object instanceof JSONObject
                     && ((JSONObject) object).optString("__type").equals("OfflineObject")) {
                 String uuid = ((JSONObject) object).optString("uuid");
-                return offlineObjects.get(uuid).getResult();
+                Task<ParseObject> pointer = offlineObjects.get(uuid);
+                if (pointer == null) {
+                    // It was unpinned after the object that points to it was read
+                    throw new RemovedObjectException(uuid);
+                }
+                return pointer.getResult();
             }
 
             /*
@@ -16,14 +16,18 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.parse.boltsinternal.Continuation;
 import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import okhttp3.OkHttpClient;
@@ -54,6 +58,10 @@ public class Parse {
     // endregion
     private static OfflineStore offlineStore;
     private static Set<ParseCallbacks> callbacks = new HashSet<>();
+    // The work on disk deferred by Configuration.Builder#enableBackgroundInitialization(), and the
+    // thread doing it
+    private static volatile Task<Void> initializationTask;
+    private static volatile Thread initializationThread;
 
     // Suppress constructor to prevent subclassing
     private Parse() {
@@ -145,8 +153,15 @@ public class Parse {
             PLog.w(TAG, "Parse is already initialized");
             return;
         }
-        // Perform old dir migration on initialize.
-        new ParseCacheDirMigrationUtils(configuration.context).runMigrations();
+        final Context context = configuration.context;
+        final boolean inBackground = configuration.backgroundInitializationEnabled;
+        final ParseStartupTimer timer = new ParseStartupTimer(configuration.startupListener);
+
+        if (!inBackground) {
+            // Perform old dir migration on initialize.
+            new ParseCacheDirMigrationUtils(context).runMigrations();
+            timer.phaseCompleted(ParseStartupListener.PHASE_MIGRATIONS);
+        }
 
         // NOTE (richardross): We will need this here, as ParsePlugins uses the return value of
         // isLocalDataStoreEnabled() to perform additional behavior.
@@ -154,49 +169,152 @@ public class Parse {
 
         allowCustomObjectId = configuration.allowCustomObjectId;
 
-        if (parsePlugins == null) {
-            ParsePlugins.initialize(configuration.context, configuration);
+        // Published before the plugins make isInitialized() true, so that whoever sees Parse as
+        // initialized also waits for the deferred work
+        final TaskCompletionSource<Void> initialization;
+        if (inBackground) {
+            initialization = new TaskCompletionSource<>();
+            initializationTask = initialization.getTask();
         } else {
-            ParsePlugins.set(parsePlugins);
+            initialization = null;
         }
 
         try {
-            ParseRESTCommand.server = new URL(configuration.server);
-        } catch (MalformedURLException ex) {
-            throw new RuntimeException(ex);
-        }
+            if (parsePlugins == null) {
+                ParsePlugins.initialize(context, configuration);
+            } else {
+                ParsePlugins.set(parsePlugins);
+            }
 
-        ParseObject.registerParseSubclasses();
+            try {
+                ParseRESTCommand.server = new URL(configuration.server);
+            } catch (MalformedURLException ex) {
+                throw new RuntimeException(ex);
+            }
+            timer.phaseCompleted(ParseStartupListener.PHASE_PLUGINS);
+
+            ParseObject.registerParseSubclasses();
+            ParseSaveScheduler.maxConcurrentBatches = configuration.maxConcurrentSaveBatches;
+            timer.phaseCompleted(ParseStartupListener.PHASE_SUBCLASSES);
+
+            if (configuration.localDataStoreEnabled) {
+                // The database isn't opened until it's first used
+                offlineStore =
+                        new OfflineStore(
+                                context,
+                                configuration.localDataStoreIndexes,
+                                configuration.localDataStoreWriteAheadLogging);
+                timer.phaseCompleted(ParseStartupListener.PHASE_LOCAL_DATASTORE);
+            } else {
+                ParseKeyValueCache.maxKeyValueCacheBytes = configuration.maxKeyValueCacheBytes;
+                ParseKeyValueCache.maxKeyValueCacheFiles = configuration.maxKeyValueCacheFiles;
+                ParseQueryMemoryCache.maxQueryMemoryCacheBytes =
+                        configuration.maxQueryMemoryCacheBytes;
+                if (!inBackground) {
+                    ParseKeyValueCache.initialize(context);
+                    timer.phaseCompleted(ParseStartupListener.PHASE_KEY_VALUE_CACHE);
+                }
+            }
+
+            if (!inBackground) {
+                // Make sure the data on disk for Parse is for the current
+                // application.
+                checkCacheApplicationId();
+                timer.phaseCompleted(ParseStartupListener.PHASE_CACHE_APPLICATION_ID);
+                Task.callInBackground(
+                        (Callable<Void>)
+                                () -> {
+                                    getEventuallyQueue(context);
+                                    return null;
+                                });
+            }
+
+            ParseFieldOperations.registerDefaultDecoders();
+
+            if (!allParsePushIntentReceiversInternal()) {
+                throw new SecurityException(
+                        "To prevent external tampering to your app's notifications, "
+                                + "all receivers registered to handle the following actions must have "
+                                + "their exported attributes set to false: com.parse.push.intent.RECEIVE, "
+                                + "com.parse.push.intent.OPEN, com.parse.push.intent.DELETE");
+            }
+            timer.phaseCompleted(ParseStartupListener.PHASE_PUSH_RECEIVERS);
+        } catch (RuntimeException e) {
+            if (initialization != null) {
+                initialization.setError(e);
+            }
+            throw e;
+        }
 
-        if (configuration.localDataStoreEnabled) {
-            offlineStore = new OfflineStore(configuration.context);
+        if (inBackground) {
+            initializeInBackground(configuration, timer, initialization);
         } else {
-            ParseKeyValueCache.maxKeyValueCacheBytes = configuration.maxKeyValueCacheBytes;
-            ParseKeyValueCache.maxKeyValueCacheFiles = configuration.maxKeyValueCacheFiles;
+            loadCurrentUserAndConfigAsync();
+            timer.completed();
+        }
+
+        dispatchOnParseInitialized();
+
+        // FYI we probably don't want to do this if we ever add other callbacks.
+        synchronized (MUTEX_CALLBACKS) {
+            Parse.callbacks = null;
+        }
+    }
+
+    /**
+     * Does the work on disk that {@link Configuration.Builder#enableBackgroundInitialization()}
+     * defers, then starts what depends on it.
+     */
+    private static void initializeInBackground(
+            final Configuration configuration,
+            final ParseStartupTimer timer,
+            final TaskCompletionSource<Void> initialization) {
+        final Context context = configuration.context;
+        Task.callInBackground(
+                        (Callable<Void>)
+                                () -> {
+                                    initializationThread = Thread.currentThread();
+                                    timer.startPhase();
+                                    runDeferredInitialization(configuration, timer);
+                                    return null;
+                                })
+                .continueWith(
+                        (Continuation<Void, Void>)
+                                t -> {
+                                    if (t.isFaulted()) {
+                                        PLog.e(
+                                                TAG,
+                                                "Failed to initialize Parse in the background",
+                                                t.getError());
+                                        initialization.setError(t.getError());
+                                    } else {
+                                        initialization.setResult(null);
+                                    }
+                                    getEventuallyQueue(context);
+                                    loadCurrentUserAndConfigAsync();
+                                    timer.completed();
+                                    return null;
+                                },
+                        Task.BACKGROUND_EXECUTOR);
+    }
+
+    private static void runDeferredInitialization(
+            Configuration configuration, ParseStartupTimer timer) {
+        new ParseCacheDirMigrationUtils(configuration.context).runMigrations();
+        timer.phaseCompleted(ParseStartupListener.PHASE_MIGRATIONS);
+
+        if (!configuration.localDataStoreEnabled) {
             ParseKeyValueCache.initialize(configuration.context);
+            timer.phaseCompleted(ParseStartupListener.PHASE_KEY_VALUE_CACHE);
         }
 
         // Make sure the data on disk for Parse is for the current
         // application.
         checkCacheApplicationId();
-        final Context context = configuration.context;
-        Task.callInBackground(
-                (Callable<Void>)
-                        () -> {
-                            getEventuallyQueue(context);
-                            return null;
-                        });
-
-        ParseFieldOperations.registerDefaultDecoders();
-
-        if (!allParsePushIntentReceiversInternal()) {
-            throw new SecurityException(
-                    "To prevent external tampering to your app's notifications, "
-                            + "all receivers registered to handle the following actions must have "
-                            + "their exported attributes set to false: com.parse.push.intent.RECEIVE, "
-                            + "com.parse.push.intent.OPEN, com.parse.push.intent.DELETE");
-        }
+        timer.phaseCompleted(ParseStartupListener.PHASE_CACHE_APPLICATION_ID);
+    }
 
+    private static void loadCurrentUserAndConfigAsync() {
         ParseUser.getCurrentUserAsync()
                 .makeVoid()
                 .continueWith(
@@ -207,15 +325,36 @@ public class Parse {
                                     return null;
                                 },
                         Task.BACKGROUND_EXECUTOR);
+    }
 
-        dispatchOnParseInitialized();
-
-        // FYI we probably don't want to do this if we ever add other callbacks.
-        synchronized (MUTEX_CALLBACKS) {
-            Parse.callbacks = null;
+    /**
+     * Blocks until the work deferred by {@link
+     * Configuration.Builder#enableBackgroundInitialization()} is done, so nothing reads the files
+     * it moves or checks before then. Returns right away if there's none, and on the thread doing
+     * it.
+     */
+    static void waitForInitialization() {
+        Task<Void> task = initializationTask;
+        if (task == null || task.isCompleted() || Thread.currentThread() == initializationThread) {
+            return;
+        }
+        try {
+            task.waitForCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Returns the {@link ParseRequestCoalescer} that shares identical requests in flight, with its
+     * counters, or {@code null} if {@link Configuration.Builder#enableRequestCoalescing()} wasn't
+     * used.
+     */
+    public static @Nullable ParseRequestCoalescer getRequestCoalescer() {
+        ParsePlugins plugins = ParsePlugins.get();
+        return plugins != null ? plugins.requestCoalescer() : null;
+    }
+
     // region Server URL
 
     /** Returns the current server URL. */
@@ -272,6 +411,10 @@ public class Parse {
      * this while server requests are in progress can cause undefined behavior.
      */
     public static void destroy() {
+        waitForInitialization();
+        initializationTask = null;
+        initializationThread = null;
+
         ParseObject.unregisterParseSubclasses();
 
         ParseEventuallyQueue queue;
@@ -331,6 +474,8 @@ public class Parse {
     }
 
     public static File getParseCacheDir(String subDir) {
+        // Before taking MUTEX, which checkCacheApplicationId() needs
+        waitForInitialization();
         synchronized (MUTEX) {
             File dir = new File(getParseCacheDir(), subDir);
             if (!dir.exists()) {
@@ -345,6 +490,7 @@ public class Parse {
     }
 
     static File getParseFilesDir(String subDir) {
+        waitForInitialization();
         synchronized (MUTEX) {
             File dir = new File(getParseFilesDir(), subDir);
             if (!dir.exists()) {
@@ -416,6 +562,7 @@ public class Parse {
     }
 
     private static ParseEventuallyQueue getEventuallyQueue(Context context) {
+        waitForInitialization();
         synchronized (MUTEX) {
             boolean isLocalDatastoreEnabled = Parse.isLocalDatastoreEnabled();
             if (eventuallyQueue == null
@@ -581,11 +728,21 @@ public class Parse {
         final String clientKey;
         final String server;
         final boolean localDataStoreEnabled;
+        final OfflineIndexes localDataStoreIndexes;
+        final boolean localDataStoreWriteAheadLogging;
         final boolean allowCustomObjectId;
         final OkHttpClient.Builder clientBuilder;
+        final boolean asyncRequestsEnabled;
+        final int maxRequestsPerHost;
+        final boolean requestCoalescingEnabled;
         final int maxRetries;
         final int maxKeyValueCacheBytes;
         final int maxKeyValueCacheFiles;
+        final int maxQueryMemoryCacheBytes;
+        final int maxFileCacheBytes;
+        final int maxConcurrentSaveBatches;
+        final boolean backgroundInitializationEnabled;
+        final ParseStartupListener startupListener;
 
         private Configuration(Builder builder) {
             this.context = builder.context;
@@ -593,11 +750,23 @@ public class Parse {
             this.clientKey = builder.clientKey;
             this.server = builder.server;
             this.localDataStoreEnabled = builder.localDataStoreEnabled;
+            this.localDataStoreIndexes =
+                    new OfflineIndexes(
+                            builder.localDataStoreIndexes, builder.localDataStoreGeoIndexes);
+            this.localDataStoreWriteAheadLogging = builder.localDataStoreWriteAheadLogging;
             this.allowCustomObjectId = builder.allowCustomObjectId;
             this.clientBuilder = builder.clientBuilder;
+            this.asyncRequestsEnabled = builder.asyncRequestsEnabled;
+            this.maxRequestsPerHost = builder.maxRequestsPerHost;
+            this.requestCoalescingEnabled = builder.requestCoalescingEnabled;
             this.maxRetries = builder.maxRetries;
             this.maxKeyValueCacheBytes = builder.maxKeyValueCacheBytes;
             this.maxKeyValueCacheFiles = builder.maxKeyValueCacheFiles;
+            this.maxQueryMemoryCacheBytes = builder.maxQueryMemoryCacheBytes;
+            this.maxFileCacheBytes = builder.maxFileCacheBytes;
+            this.maxConcurrentSaveBatches = builder.maxConcurrentSaveBatches;
+            this.backgroundInitializationEnabled = builder.backgroundInitializationEnabled;
+            this.startupListener = builder.startupListener;
         }
 
         /** Allows for simple constructing of a {@code Configuration} object. */
@@ -608,17 +777,34 @@ public class Parse {
             /** The default maximum number of files to store in the Parse cache on disk. */
             public static final int DEFAULT_MAX_KEY_VALUE_CACHE_FILES =
                     ParseKeyValueCache.DEFAULT_MAX_KEY_VALUE_CACHE_FILES;
+            /** The default maximum number of bytes to use for cached query results in memory. */
+            public static final int DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES =
+                    ParseQueryMemoryCache.DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES;
+            /** The default maximum number of batch requests a save sends at once. */
+            public static final int DEFAULT_MAX_CONCURRENT_SAVE_BATCHES =
+                    ParseSaveScheduler.DEFAULT_MAX_CONCURRENT_SAVE_BATCHES;
 
             private final Context context;
             private String applicationId;
             private String clientKey;
             private String server;
             private boolean localDataStoreEnabled;
+            private final Map<String, Set<String>> localDataStoreIndexes = new HashMap<>();
+            private final Map<String, Set<String>> localDataStoreGeoIndexes = new HashMap<>();
+            private boolean localDataStoreWriteAheadLogging;
             private boolean allowCustomObjectId;
             private OkHttpClient.Builder clientBuilder;
+            private boolean asyncRequestsEnabled;
+            private int maxRequestsPerHost;
+            private boolean requestCoalescingEnabled;
             private int maxRetries = DEFAULT_MAX_RETRIES;
             private int maxKeyValueCacheBytes = DEFAULT_MAX_KEY_VALUE_CACHE_BYTES;
             private int maxKeyValueCacheFiles = DEFAULT_MAX_KEY_VALUE_CACHE_FILES;
+            private int maxQueryMemoryCacheBytes = DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES;
+            private int maxFileCacheBytes;
+            private int maxConcurrentSaveBatches = DEFAULT_MAX_CONCURRENT_SAVE_BATCHES;
+            private boolean backgroundInitializationEnabled;
+            private ParseStartupListener startupListener;
 
             /**
              * Initialize a bulider with a given context.
@@ -681,6 +867,61 @@ public class Parse {
                 return this;
             }
 
+            /**
+             * Index keys of a class in the local datastore. Local queries with equality, {@code
+             * $in} or numeric range constraints on indexed keys only load the objects that can
+             * match, instead of every object of the class. Indexes are built the first time the
+             * local datastore is opened after they're added, and dropped once they're not added
+             * anymore.
+             *
+             * @param className The name of the class.
+             * @param keys The top-level keys to index. {@code createdAt}, {@code updatedAt} and
+             *     {@code ACL} can't be indexed.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder addLocalDataStoreIndex(String className, String... keys) {
+                Set<String> classKeys = localDataStoreIndexes.get(className);
+                if (classKeys == null) {
+                    classKeys = new HashSet<>();
+                    localDataStoreIndexes.put(className, classKeys);
+                }
+                Collections.addAll(classKeys, keys);
+                return this;
+            }
+
+            /**
+             * Index {@link ParseGeoPoint} keys of a class in the local datastore. Local queries
+             * with {@code whereWithinGeoBox}, {@code whereWithinPolygon} or {@code whereWithin*}
+             * distance constraints on indexed keys only load the objects within the bounding box of
+             * the area, instead of every object of the class. Indexes are built and dropped like
+             * the ones added with {@link #addLocalDataStoreIndex(String, String...)}.
+             *
+             * @param className The name of the class.
+             * @param keys The top-level keys to index.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder addLocalDataStoreGeoIndex(String className, String... keys) {
+                Set<String> classKeys = localDataStoreGeoIndexes.get(className);
+                if (classKeys == null) {
+                    classKeys = new HashSet<>();
+                    localDataStoreGeoIndexes.put(className, classKeys);
+                }
+                Collections.addAll(classKeys, keys);
+                return this;
+            }
+
+            /**
+             * Use write-ahead logging for the local datastore. Local queries and fetches then run
+             * in parallel with pins and unpins instead of waiting for them, and see the data of the
+             * pins and unpins that have completed when they start.
+             *
+             * @return The same builder, for easy chaining.
+             */
+            public Builder enableLocalDataStoreWriteAheadLogging() {
+                localDataStoreWriteAheadLogging = true;
+                return this;
+            }
+
             /**
              * Allow to set a custom objectId for ParseObjects.
              *
@@ -709,6 +950,52 @@ public class Parse {
                 return this;
             }
 
+            /**
+             * Send requests asynchronously with the dispatcher of the {@link okhttp3.OkHttpClient},
+             * instead of blocking a thread of the SDK's network pool while waiting for each
+             * response. The response is still read on a thread of that pool, and the call keeps a
+             * thread of the dispatcher while it's being sent and until the response arrives.
+             * Requests to a host beyond {@link #maxRequestsPerHost(int)} wait in the dispatcher's
+             * queue; over HTTP/2 the ones that run share a single connection.
+             *
+             * @return The same builder, for easy chaining.
+             */
+            public Builder enableAsyncRequests() {
+                asyncRequestsEnabled = true;
+                return this;
+            }
+
+            /**
+             * Set the maximum number of asynchronous requests to a single host that run at the same
+             * time. Defaults to the number of requests the SDK's network pool runs at once, which
+             * depends on the number of CPUs. Only applies when {@link #enableAsyncRequests()} is
+             * used.
+             *
+             * @param maxRequestsPerHost The maximum number of requests per host.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+                if (maxRequestsPerHost < 1) {
+                    throw new IllegalArgumentException("maxRequestsPerHost must be >= 1");
+                }
+                this.maxRequestsPerHost = maxRequestsPerHost;
+                return this;
+            }
+
+            /**
+             * Let identical queries and fetches that are in flight at the same time, such as the
+             * same query issued by several screens at once, share a single request. Each caller
+             * still gets objects of its own. Queries then no longer decode results while they're
+             * being received.
+             *
+             * @return The same builder, for easy chaining.
+             * @see Parse#getRequestCoalescer()
+             */
+            public Builder enableRequestCoalescing() {
+                requestCoalescingEnabled = true;
+                return this;
+            }
+
             /**
              * Set the max number of times to retry Parse operations before deeming them a failure
              *
@@ -752,6 +1039,85 @@ public class Parse {
                 return this;
             }
 
+            /**
+             * Set the maximum amount of bytes to use for cached query results kept in memory, in
+             * front of the Parse cache on disk. The size of results is estimated from the size of
+             * their JSON. Defaults to {@link Builder#DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES}, and 0
+             * keeps nothing in memory.
+             *
+             * @param maxQueryMemoryCacheBytes The maximum number of bytes to use for the cache.
+             * @return The same builder, for easy chaining.
+             * @see ParseQueryMemoryCache
+             */
+            public Builder maxQueryMemoryCacheBytes(int maxQueryMemoryCacheBytes) {
+                if (maxQueryMemoryCacheBytes < 0) {
+                    throw new IllegalArgumentException("maxQueryMemoryCacheBytes must be >= 0");
+                }
+                this.maxQueryMemoryCacheBytes = maxQueryMemoryCacheBytes;
+                return this;
+            }
+
+            /**
+             * Set the maximum amount of bytes to use for the {@link ParseFile}s kept on disk, i.e.
+             * the ones that were downloaded or saved. Once they take up more, the least recently
+             * used ones are deleted, so a {@link java.io.File} returned by {@link
+             * ParseFile#getFile()} may go away later on, even while it's being read. By default
+             * there's no limit, and the files are kept until they're deleted by the app.
+             *
+             * @param maxFileCacheBytes The maximum number of bytes to use for the cache.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder maxFileCacheBytes(int maxFileCacheBytes) {
+                if (maxFileCacheBytes <= 0) {
+                    throw new IllegalArgumentException("maxFileCacheBytes must be > 0");
+                }
+                this.maxFileCacheBytes = maxFileCacheBytes;
+                return this;
+            }
+
+            /**
+             * Set the maximum number of batch requests a save sends at once. Saving an object also
+             * saves the new and changed objects it points to, in batches that are sent as soon as
+             * the objects and files they point to are saved. Defaults to {@link
+             * Builder#DEFAULT_MAX_CONCURRENT_SAVE_BATCHES}.
+             *
+             * @param maxConcurrentSaveBatches The maximum number of batch requests per save.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder maxConcurrentSaveBatches(int maxConcurrentSaveBatches) {
+                if (maxConcurrentSaveBatches < 1) {
+                    throw new IllegalArgumentException("maxConcurrentSaveBatches must be >= 1");
+                }
+                this.maxConcurrentSaveBatches = maxConcurrentSaveBatches;
+                return this;
+            }
+
+            /**
+             * Let {@link Parse#initialize(Configuration)} only do the setup it needs in memory and
+             * move the rest, such as moving the files of older versions of the SDK, setting up the
+             * Parse cache on disk and checking that the data on disk is for this application, to a
+             * background thread. Calls that use the files Parse keeps on disk wait for it to be
+             * done, so they may block while the app starts.
+             *
+             * @return The same builder, for easy chaining.
+             */
+            public Builder enableBackgroundInitialization() {
+                backgroundInitializationEnabled = true;
+                return this;
+            }
+
+            /**
+             * Set a listener that is told how long each phase of {@link
+             * Parse#initialize(Configuration)} took.
+             *
+             * @param startupListener The listener, or {@code null} for none.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder startupListener(ParseStartupListener startupListener) {
+                this.startupListener = startupListener;
+                return this;
+            }
+
             /**
              * Construct this builder into a concrete {@code Configuration} instance.
              *
@@ -15,12 +15,17 @@ import com.parse.boltsinternal.Capture;
 import com.parse.boltsinternal.Continuation;
 import com.parse.boltsinternal.Task;
 import com.parse.boltsinternal.TaskCompletionSource;
+import com.parse.http.ParseHttpRequest;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,9 +34,10 @@ import org.json.JSONObject;
 
 /**
  * ParseCommandCache manages an on-disk cache of commands to be executed, and a thread with a
- * standard run loop that executes the commands. There should only ever be one instance of this
- * class, because multiple instances would be running separate threads trying to read and execute
- * the same commands.
+ * standard run loop that executes the commands. The commands are stored in a {@link
+ * ParseCommandLog}, so enqueueing one doesn't have to look at the ones that are already queued.
+ * There should only ever be one instance of this class, because multiple instances would be running
+ * separate threads trying to read and execute the same commands.
  */
 class ParseCommandCache extends ParseEventuallyQueue {
     private static final String TAG = "com.parse.ParseCommandCache";
@@ -45,8 +51,8 @@ class ParseCommandCache extends ParseEventuallyQueue {
     // more
     // commands.
     private static final Object lock = new Object();
-    // order.
-    private static int filenameCounter = 0; // Appended to temp file names so we know their creation
+    // The log of commands, shared by all instances. Guarded by lock.
+    private static ParseCommandLog commandLog;
     final ConnectivityNotifier.ConnectivityListener listener =
             (context, intent) -> {
                 final boolean connectionLost =
@@ -81,11 +87,10 @@ class ParseCommandCache extends ParseEventuallyQueue {
     // runningLock to then also try to acquire the other lock.
     private final Object runningLock;
     private final ParseHttpClient httpClient;
-    private final File cachePath; // Where the cache is stored on disk.
-    // Map of filename to TaskCompletionSource, for all commands that are in the queue from this run
-    // of the program. This is necessary so that the original objects can be notified after their
-    // saves complete.
-    private final HashMap<File, TaskCompletionSource<JSONObject>> pendingTasks = new HashMap<>();
+    // Map of command id to TaskCompletionSource, for all commands that are in the queue from this
+    // run of the program. This is necessary so that the original objects can be notified after
+    // their saves complete.
+    private final HashMap<Long, TaskCompletionSource<JSONObject>> pendingTasks = new HashMap<>();
     private final Logger log; // Why is there a custom logger? To prevent Mockito deadlock!
     ConnectivityNotifier notifier;
     private int timeoutMaxRetries =
@@ -110,7 +115,10 @@ class ParseCommandCache extends ParseEventuallyQueue {
 
         log = Logger.getLogger(TAG);
 
-        cachePath = getCacheDir();
+        synchronized (lock) {
+            // Opens the log, which migrates any commands stored by older versions.
+            getLog();
+        }
 
         if (!Parse.hasPermission(Manifest.permission.ACCESS_NETWORK_STATE)) {
             // The command cache only works if the user has granted us permission to monitor the
@@ -125,18 +133,26 @@ class ParseCommandCache extends ParseEventuallyQueue {
         resume();
     }
 
-    private static File getCacheDir() {
+    // Must be called while holding lock.
+    private static ParseCommandLog getLog() {
         // Construct the path to the cache directory.
         File cacheDir = new File(Parse.getParseCacheDir(), "CommandCache");
-        cacheDir.mkdirs();
-
-        return cacheDir;
+        if (commandLog != null
+                && (!commandLog.getDirectory().equals(cacheDir) || !cacheDir.exists())) {
+            // The cache moved or was deleted along with the app's data.
+            commandLog.close();
+            commandLog = null;
+        }
+        if (commandLog == null) {
+            cacheDir.mkdirs();
+            commandLog = new ParseCommandLog(cacheDir);
+        }
+        return commandLog;
     }
 
     public static int getPendingCount() {
         synchronized (lock) {
-            String[] files = getCacheDir().list();
-            return files == null ? 0 : files.length;
+            return getLog().size();
         }
     }
 
@@ -214,28 +230,44 @@ class ParseCommandCache extends ParseEventuallyQueue {
                 }
             }
         }
+        synchronized (lock) {
+            // The run loop won't sync the commands that are enqueued while it's paused.
+            syncLog();
+        }
+    }
+
+    // Must be called while holding lock.
+    private static JSONObject readCommand(long id) throws IOException, JSONException {
+        return new JSONObject(new String(getLog().read(id), "UTF-8"));
+    }
+
+    // Must be called while holding lock.
+    private void releaseLocalIds(long id) {
+        try {
+            ParseRESTCommand command = commandFromJSON(readCommand(id));
+            command.releaseLocalIds();
+        } catch (Exception e) {
+            // Well, we did our best. We'll just have to leak a localId.
+        }
     }
 
-    /** Removes a file from the file system and any internal caches. */
-    private void removeFile(File file) {
+    /** Removes a command from the log and any internal caches. */
+    private void removeCommand(long id) {
         synchronized (lock) {
             // Remove the data in memory for this command.
-            pendingTasks.remove(file);
+            pendingTasks.remove(id);
 
             // Release all the localIds referenced by the command.
-            // Read one command from the cache.
-            JSONObject json;
-            try {
-                json = ParseFileUtils.readFileToJSONObject(file);
+            releaseLocalIds(id);
 
-                ParseRESTCommand command = commandFromJSON(json);
-                command.releaseLocalIds();
-            } catch (Exception e) {
-                // Well, we did our best. We'll just have to leak a localId.
+            // Remove the command from the log itself.
+            try {
+                getLog().remove(id);
+            } catch (IOException e) {
+                if (Parse.LOG_LEVEL_WARNING >= Parse.getLogLevel()) {
+                    log.log(Level.WARNING, "Unable to remove command from cache.", e);
+                }
             }
-
-            // Delete the command file itself.
-            ParseFileUtils.deleteQuietly(file);
         }
     }
 
@@ -309,65 +341,30 @@ class ParseCommandCache extends ParseEventuallyQueue {
         synchronized (lock) {
             try {
                 // Is there enough free storage space?
-                String[] fileNames = cachePath.list();
-                if (fileNames != null) {
-                    Arrays.sort(fileNames);
-                    int size = 0;
-                    for (String fileName : fileNames) {
-                        File file = new File(cachePath, fileName);
-                        // Should be safe to convert long to int, because we don't allow
-                        // files larger than 2GB.
-                        size += (int) file.length();
-                    }
-                    size += json.length;
-                    if (size > maxCacheSizeBytes) {
-                        if (preferOldest) {
-                            if (Parse.LOG_LEVEL_WARNING >= Parse.getLogLevel()) {
-                                log.warning(
-                                        "Unable to save command for later because storage is full.");
-                            }
-                            return Task.forResult(null);
-                        } else {
-                            if (Parse.LOG_LEVEL_WARNING >= Parse.getLogLevel()) {
-                                log.warning("Deleting old commands to make room in command cache.");
-                            }
-                            int indexToDelete = 0;
-                            while (size > maxCacheSizeBytes && indexToDelete < fileNames.length) {
-                                File file = new File(cachePath, fileNames[indexToDelete++]);
-                                size -= (int) file.length();
-                                removeFile(file);
-                            }
+                ParseCommandLog commands = getLog();
+                if (commands.sizeBytes() + json.length > maxCacheSizeBytes) {
+                    if (preferOldest) {
+                        if (Parse.LOG_LEVEL_WARNING >= Parse.getLogLevel()) {
+                            log.warning(
+                                    "Unable to save command for later because storage is full.");
+                        }
+                        return Task.forResult(null);
+                    } else {
+                        if (Parse.LOG_LEVEL_WARNING >= Parse.getLogLevel()) {
+                            log.warning("Deleting old commands to make room in command cache.");
+                        }
+                        while (commands.sizeBytes() + json.length > maxCacheSizeBytes
+                                && commands.size() > 0) {
+                            removeCommand(commands.oldestId());
                         }
                     }
                 }
 
-                // Get the current time to store in the filename, so that we process them in order.
-                String prefix1 = Long.toHexString(System.currentTimeMillis());
-                if (prefix1.length() < 16) {
-                    char[] zeroes = new char[16 - prefix1.length()];
-                    Arrays.fill(zeroes, '0');
-                    prefix1 = new String(zeroes) + prefix1;
-                }
-
-                // Then add another incrementing number in case we enqueue items faster than the
-                // system's
-                // time granularity.
-                String prefix2 = Integer.toHexString(filenameCounter++);
-                if (prefix2.length() < 8) {
-                    char[] zeroes = new char[8 - prefix2.length()];
-                    Arrays.fill(zeroes, '0');
-                    prefix2 = new String(zeroes) + prefix2;
-                }
-
-                String prefix = "CachedCommand_" + prefix1 + "_" + prefix2 + "_";
-
-                // Get a unique filename to store this command in.
-                File path = File.createTempFile(prefix, "", cachePath);
-
-                // Write the command to that file.
-                pendingTasks.put(path, tcs);
+                // Append the command to the log. It's synced to disk by the run loop, along with
+                // any other commands that are enqueued before it gets to run.
+                long id = commands.add(json);
+                pendingTasks.put(id, tcs);
                 command.retainLocalIds();
-                ParseFileUtils.writeByteArrayToFile(path, json);
 
                 notifyTestHelper(TestHelper.COMMAND_ENQUEUED);
 
@@ -392,13 +389,11 @@ class ParseCommandCache extends ParseEventuallyQueue {
     /** Gets rid of all pending commands. */
     public void clear() {
         synchronized (lock) {
-            File[] files = cachePath.listFiles();
-            if (files == null) {
-                return;
-            }
-            for (File file : files) {
-                removeFile(file);
+            ParseCommandLog commands = getLog();
+            for (long id : commands.ids()) {
+                releaseLocalIds(id);
             }
+            commands.clear();
             pendingTasks.clear();
         }
     }
@@ -415,6 +410,17 @@ class ParseCommandCache extends ParseEventuallyQueue {
         }
     }
 
+    // Must be called while holding lock.
+    private void syncLog() {
+        try {
+            getLog().sync();
+        } catch (IOException e) {
+            if (Parse.LOG_LEVEL_WARNING >= Parse.getLogLevel()) {
+                log.log(Level.WARNING, "Unable to sync command cache.", e);
+            }
+        }
+    }
+
     /**
      * This is kind of like ParseTaskUtils.wait(), except that it gives up the CommandCache's lock
      * while the task is running, and reclaims it before returning.
@@ -454,103 +460,287 @@ class ParseCommandCache extends ParseEventuallyQueue {
         synchronized (lock) {
             unprocessedCommandsExist = false;
 
+            // Make sure the commands that were enqueued since the last run are on disk.
+            syncLog();
+
             if (!isConnected()) {
                 // There's no way to do work when there's no network connection.
                 return;
             }
 
-            String[] fileNames = cachePath.list();
-            if (fileNames == null || fileNames.length == 0) {
-                return;
-            }
-            Arrays.sort(fileNames);
-            for (String fileName : fileNames) {
-                final File file = new File(cachePath, fileName);
-
+            List<Long> ids = getLog().ids();
+            int next = 0;
+            while (next < ids.size()) {
                 // Read one command from the cache.
+                final long id = ids.get(next++);
                 JSONObject json;
                 try {
-                    json = ParseFileUtils.readFileToJSONObject(file);
+                    json = readCommand(id);
                 } catch (FileNotFoundException e) {
-                    // This shouldn't really be possible.
-                    if (Parse.LOG_LEVEL_ERROR >= Parse.getLogLevel()) {
-                        log.log(Level.SEVERE, "File disappeared from cache while being read.", e);
-                    }
+                    // The command was removed while we weren't holding the lock, i.e. to make
+                    // room for newer ones.
                     continue;
                 } catch (IOException e) {
                     if (Parse.LOG_LEVEL_ERROR >= Parse.getLogLevel()) {
-                        log.log(Level.SEVERE, "Unable to read contents of file in cache.", e);
+                        log.log(Level.SEVERE, "Unable to read command in cache.", e);
                     }
-                    removeFile(file);
+                    removeCommand(id);
                     continue;
                 } catch (JSONException e) {
                     if (Parse.LOG_LEVEL_ERROR >= Parse.getLogLevel()) {
                         log.log(Level.SEVERE, "Error parsing JSON found in cache.", e);
                     }
-                    removeFile(file);
+                    removeCommand(id);
                     continue;
                 }
 
                 // Convert the command from a string.
                 final ParseRESTCommand command;
-                final TaskCompletionSource<JSONObject> tcs =
-                        pendingTasks.containsKey(file) ? pendingTasks.get(file) : null;
-
                 try {
                     command = commandFromJSON(json);
                 } catch (JSONException e) {
                     if (Parse.LOG_LEVEL_ERROR >= Parse.getLogLevel()) {
                         log.log(Level.SEVERE, "Unable to create ParseCommand from JSON.", e);
                     }
-                    removeFile(file);
+                    removeCommand(id);
                     continue;
                 }
 
-                try {
-                    Task<JSONObject> commandTask;
-                    if (command == null) {
-                        commandTask = Task.forResult(null);
-                        if (tcs != null) {
-                            tcs.setResult(null);
-                        }
-                        notifyTestHelper(TestHelper.COMMAND_OLD_FORMAT_DISCARDED);
-                    } else {
-                        commandTask =
-                                command.executeAsync(httpClient)
-                                        .continueWithTask(
-                                                task -> {
-                                                    String localId = command.getLocalId();
-                                                    Exception error = task.getError();
-                                                    if (error != null) {
-                                                        if (!(error instanceof ParseException)
-                                                                || ((ParseException) error)
-                                                                                .getCode()
-                                                                        != ParseException
-                                                                                .CONNECTION_FAILED) {
-                                                            if (tcs != null) {
-                                                                tcs.setError(error);
-                                                            }
-                                                        }
-                                                        return task;
-                                                    }
+                List<ParseRESTCommand> commands = new ArrayList<>();
+                List<List<Long>> commandIds = new ArrayList<>();
+                commands.add(command);
+                commandIds.add(new ArrayList<>(Collections.singletonList(id)));
+                if (command == null) {
+                    notifyTestHelper(TestHelper.COMMAND_OLD_FORMAT_DISCARDED);
+                } else {
+                    next = collectBatch(ids, next, commands, commandIds);
+                }
+
+                if (!runCommands(commands, commandIds, retriesRemaining)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the commands that can be sent along with the first one of {@code commands} in a single
+     * /batch request, starting with the command at {@code next}. Those are the object commands up
+     * to the first one that can't be batched, e.g. because it points to an object that's created by
+     * the batch. Successive saves of the same object are merged into one command when possible, and
+     * any other command for an object that's already in the batch ends it, so the commands for each
+     * object still run in order.
+     *
+     * @return The index of the first command that isn't part of the batch.
+     */
+    // Must be called while holding lock.
+    private int collectBatch(
+            List<Long> ids,
+            int next,
+            List<ParseRESTCommand> commands,
+            List<List<Long>> commandIds) {
+        ParseRESTCommand first = commands.get(0);
+        if (!prepareForBatch(first)) {
+            return next;
+        }
+
+        // The index of each object's command in the batch.
+        Map<String, Integer> objects = new HashMap<>();
+        String object = getObjectKey(first);
+        if (object != null) {
+            objects.put(object, 0);
+        }
+
+        while (next < ids.size()
+                && commands.size() < ParseRESTObjectBatchCommand.COMMAND_OBJECT_BATCH_MAX_SIZE) {
+            long id = ids.get(next);
+            ParseRESTCommand command;
+            try {
+                command = commandFromJSON(readCommand(id));
+            } catch (IOException | JSONException e) {
+                // Leave it to the caller to deal with.
+                break;
+            }
+            if (command == null
+                    || !ParseTextUtils.equals(first.getSessionToken(), command.getSessionToken())
+                    || !prepareForBatch(command)) {
+                break;
+            }
+
+            object = getObjectKey(command);
+            Integer index = object != null ? objects.get(object) : null;
+            if (index == null) {
+                if (object != null) {
+                    objects.put(object, commands.size());
+                }
+                commands.add(command);
+                commandIds.add(new ArrayList<>(Collections.singletonList(id)));
+            } else if (mergeInto(commands.get(index), command)) {
+                commandIds.get(index).add(id);
+            } else {
+                break;
+            }
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * Returns whether the command saves or deletes an object, and all the objects it points to have
+     * been created, so it can be sent in a /batch request. If so, its local ids are resolved.
+     */
+    private static boolean prepareForBatch(ParseRESTCommand command) {
+        if (command.method == ParseHttpRequest.Method.GET
+                || command.httpPath == null
+                || !command.httpPath.startsWith("classes/")) {
+            return false;
+        }
+
+        ArrayList<JSONObject> localPointers = new ArrayList<>();
+        try {
+            ParseRESTCommand.getLocalPointersIn(command.jsonParameters, localPointers);
+        } catch (JSONException e) {
+            return false;
+        }
+        LocalIdManager localIdManager = ParseCorePlugins.getInstance().getLocalIdManager();
+        for (JSONObject pointer : localPointers) {
+            if (localIdManager.getObjectId(pointer.optString("localId")) == null) {
+                return false;
+            }
+        }
+        command.resolveLocalIds();
+        return true;
+    }
+
+    /**
+     * Returns a key for the object that a batchable command saves or deletes, or null if it creates
+     * an object that can't be referenced by any other command.
+     */
+    private static String getObjectKey(ParseRESTCommand command) {
+        if (command.getLocalId() != null) {
+            return command.getLocalId();
+        }
+        if (command.method == ParseHttpRequest.Method.POST) {
+            String objectId =
+                    command.jsonParameters != null
+                            ? command.jsonParameters.optString("objectId", null)
+                            : null;
+            return objectId != null ? command.httpPath + "/" + objectId : null;
+        }
+        return command.httpPath;
+    }
+
+    /**
+     * Merges a save into an earlier save of the same object, if the later one only changes fields
+     * that the earlier one doesn't touch, or replaces their values outright.
+     */
+    private static boolean mergeInto(ParseRESTCommand target, ParseRESTCommand command) {
+        if (target.method != command.method
+                || command.method == ParseHttpRequest.Method.DELETE
+                || target.jsonParameters == null
+                || command.jsonParameters == null) {
+            return false;
+        }
 
-                                                    JSONObject json1 = task.getResult();
+        Iterator<String> keys = command.jsonParameters.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = command.jsonParameters.opt(key);
+            if (target.jsonParameters.has(key)
+                    && value instanceof JSONObject
+                    && ((JSONObject) value).has("__op")
+                    && !"Delete".equals(((JSONObject) value).optString("__op"))) {
+                // An increment, add, etc. of a field that's already changed.
+                return false;
+            }
+        }
+
+        try {
+            keys = command.jsonParameters.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                target.jsonParameters.put(key, command.jsonParameters.get(key));
+            }
+        } catch (JSONException e) {
+            // Can't happen, the keys come from the same object.
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Runs the given commands, in a single /batch request if there's more than one, and removes
+     * them from the cache once they have completed. {@code commandIds} lists the ids of the cached
+     * commands that were merged into each command, and a null command is an old format one that is
+     * just discarded.
+     *
+     * @return false if the commands should stop running, e.g. because the run loop is stopping.
+     */
+    // Must be called while holding lock.
+    private boolean runCommands(
+            List<ParseRESTCommand> commands, List<List<Long>> commandIds, int retriesRemaining) {
+        List<Task<JSONObject>> tasks;
+        if (commands.get(0) == null) {
+            tasks = Collections.singletonList(Task.forResult(null));
+        } else {
+            tasks =
+                    ParseRESTObjectBatchCommand.executeBatch(
+                            httpClient, commands, commands.get(0).getSessionToken());
+            if (tasks.size() > 1 && isRejectedBatch(tasks)) {
+                // The server turned down the /batch request itself, e.g. because it's too large
+                // or one of the commands is malformed. Run the commands one at a time instead, so
+                // only the ones that fail on their own are dropped.
+                tasks = executeOneAtATime(commands);
+            }
+        }
+
+        for (int i = 0; i < commands.size(); i++) {
+            final ParseRESTCommand command = commands.get(i);
+            for (long id : commandIds.get(i)) {
+                final TaskCompletionSource<JSONObject> tcs =
+                        pendingTasks.containsKey(id) ? pendingTasks.get(id) : null;
+                try {
+                    Task<JSONObject> commandTask =
+                            tasks.get(i)
+                                    .continueWithTask(
+                                            task -> {
+                                                if (command == null) {
                                                     if (tcs != null) {
-                                                        tcs.setResult(json1);
-                                                    } else if (localId != null) {
-                                                        // If this command created a new objectId,
-                                                        // add it to the map.
-                                                        String objectId =
-                                                                json1.optString("objectId", null);
-                                                        if (objectId != null) {
-                                                            ParseCorePlugins.getInstance()
-                                                                    .getLocalIdManager()
-                                                                    .setObjectId(localId, objectId);
+                                                        tcs.setResult(null);
+                                                    }
+                                                    return task;
+                                                }
+
+                                                String localId = command.getLocalId();
+                                                Exception error = task.getError();
+                                                if (error != null) {
+                                                    if (!(error instanceof ParseException)
+                                                            || ((ParseException) error).getCode()
+                                                                    != ParseException
+                                                                            .CONNECTION_FAILED) {
+                                                        if (tcs != null) {
+                                                            tcs.setError(error);
                                                         }
                                                     }
                                                     return task;
-                                                });
-                    }
+                                                }
+
+                                                JSONObject json = task.getResult();
+                                                if (tcs != null) {
+                                                    tcs.setResult(json);
+                                                } else if (localId != null) {
+                                                    // If this command created a new objectId, add
+                                                    // it to the map.
+                                                    String objectId =
+                                                            json.optString("objectId", null);
+                                                    if (objectId != null) {
+                                                        ParseCorePlugins.getInstance()
+                                                                .getLocalIdManager()
+                                                                .setObjectId(localId, objectId);
+                                                    }
+                                                }
+                                                return task;
+                                            });
 
                     waitForTaskWithoutLock(commandTask);
                     if (tcs != null) {
@@ -558,67 +748,129 @@ class ParseCommandCache extends ParseEventuallyQueue {
                     }
 
                     // The command succeeded. Remove it from the cache.
-                    removeFile(file);
+                    removeCommand(id);
                     notifyTestHelper(TestHelper.COMMAND_SUCCESSFUL);
                 } catch (ParseException e) {
                     if (e.getCode() == ParseException.CONNECTION_FAILED) {
-                        if (retriesRemaining > 0) {
-                            // Reachability says we have a network connection, but we can't actually
-                            // contact
-                            // Parse. Wait N minutes, or until we get signaled again before doing
-                            // anything else.
-                            if (Parse.LOG_LEVEL_INFO >= Parse.getLogLevel()) {
-                                log.info(
-                                        "Network timeout in command cache. Waiting for "
-                                                + timeoutRetryWaitSeconds
-                                                + " seconds and then retrying "
-                                                + retriesRemaining
-                                                + " times.");
-                            }
-                            long currentTime = System.currentTimeMillis();
-                            long waitUntil = currentTime + (long) (timeoutRetryWaitSeconds * 1000);
-                            while (currentTime < waitUntil) {
-                                // We haven't waited long enough, but if we lost the connection,
-                                // or should stop, just quit.
-                                if (!isConnected() || shouldStop) {
-                                    if (Parse.LOG_LEVEL_INFO >= Parse.getLogLevel()) {
-                                        log.info(
-                                                "Aborting wait because runEventually thread should stop.");
-                                    }
-                                    return;
-                                }
-                                try {
-                                    lock.wait(waitUntil - currentTime);
-                                } catch (InterruptedException ie) {
-                                    shouldStop = true;
-                                }
-                                currentTime = System.currentTimeMillis();
-                                if (currentTime
-                                        < (waitUntil - (long) (timeoutRetryWaitSeconds * 1000))) {
-                                    // This situation should be impossible, so it must mean the
-                                    // clock changed.
-                                    currentTime =
-                                            (waitUntil - (long) (timeoutRetryWaitSeconds * 1000));
-                                }
-                            }
-                            maybeRunAllCommandsNow(retriesRemaining - 1);
-                        } else {
-                            setConnected(false);
-
-                            notifyTestHelper(TestHelper.NETWORK_DOWN);
-                        }
+                        // The request didn't go through, so the rest of the commands haven't run
+                        // either. Leave them in the cache for the retry.
+                        return retryAfterConnectionFailure(retriesRemaining);
                     } else {
                         if (Parse.LOG_LEVEL_ERROR >= Parse.getLogLevel()) {
                             log.log(Level.SEVERE, "Failed to run command.", e);
                         }
                         // Delete the command from the cache, even though it failed.
                         // Otherwise, we'll just keep trying it forever.
-                        removeFile(file);
+                        removeCommand(id);
                         notifyTestHelper(TestHelper.COMMAND_FAILED, e);
                     }
                 }
             }
         }
+        return true;
+    }
+
+    /**
+     * Waits for the tasks of a /batch request and returns whether they all failed with the same
+     * error, i.e. the request failed as a whole, for any reason but a connection failure.
+     */
+    // Must be called while holding lock.
+    private boolean isRejectedBatch(List<Task<JSONObject>> tasks) {
+        try {
+            waitForTaskWithoutLock(Task.whenAll(tasks).continueWith(task -> null));
+        } catch (ParseException e) {
+            // Can't happen, the errors of the tasks are swallowed.
+            throw new RuntimeException(e);
+        }
+
+        Exception error = tasks.get(0).getError();
+        if (error == null
+                || (error instanceof ParseException
+                        && ((ParseException) error).getCode()
+                                == ParseException.CONNECTION_FAILED)) {
+            return false;
+        }
+        for (Task<JSONObject> task : tasks) {
+            if (task.getError() != error) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the commands one after the other, each in its own request. Once one fails to connect,
+     * the ones after it fail with the same error without being sent, as they would have in a /batch
+     * request.
+     */
+    private List<Task<JSONObject>> executeOneAtATime(List<ParseRESTCommand> commands) {
+        List<Task<JSONObject>> tasks = new ArrayList<>(commands.size());
+        Task<JSONObject> previous = Task.forResult(null);
+        for (final ParseRESTCommand command : commands) {
+            previous =
+                    previous.continueWithTask(
+                            task -> {
+                                Exception error = task.getError();
+                                if (error instanceof ParseException
+                                        && ((ParseException) error).getCode()
+                                                == ParseException.CONNECTION_FAILED) {
+                                    return Task.forError(error);
+                                }
+                                return command.executeAsync(httpClient);
+                            });
+            tasks.add(previous);
+        }
+        return tasks;
+    }
+
+    /**
+     * Waits before running the commands again after a network timeout, or marks the connection as
+     * down once the retries are exhausted.
+     *
+     * @return false if the wait was aborted because the run loop should stop.
+     */
+    // Must be called while holding lock.
+    private boolean retryAfterConnectionFailure(int retriesRemaining) {
+        if (retriesRemaining > 0) {
+            // Reachability says we have a network connection, but we can't actually contact
+            // Parse. Wait N minutes, or until we get signaled again before doing anything else.
+            if (Parse.LOG_LEVEL_INFO >= Parse.getLogLevel()) {
+                log.info(
+                        "Network timeout in command cache. Waiting for "
+                                + timeoutRetryWaitSeconds
+                                + " seconds and then retrying "
+                                + retriesRemaining
+                                + " times.");
+            }
+            long currentTime = System.currentTimeMillis();
+            long waitUntil = currentTime + (long) (timeoutRetryWaitSeconds * 1000);
+            while (currentTime < waitUntil) {
+                // We haven't waited long enough, but if we lost the connection,
+                // or should stop, just quit.
+                if (!isConnected() || shouldStop) {
+                    if (Parse.LOG_LEVEL_INFO >= Parse.getLogLevel()) {
+                        log.info("Aborting wait because runEventually thread should stop.");
+                    }
+                    return false;
+                }
+                try {
+                    lock.wait(waitUntil - currentTime);
+                } catch (InterruptedException ie) {
+                    shouldStop = true;
+                }
+                currentTime = System.currentTimeMillis();
+                if (currentTime < (waitUntil - (long) (timeoutRetryWaitSeconds * 1000))) {
+                    // This situation should be impossible, so it must mean the clock changed.
+                    currentTime = (waitUntil - (long) (timeoutRetryWaitSeconds * 1000));
+                }
+            }
+            maybeRunAllCommandsNow(retriesRemaining - 1);
+        } else {
+            setConnected(false);
+
+            notifyTestHelper(TestHelper.NETWORK_DOWN);
+        }
+        return true;
     }
 
     /**
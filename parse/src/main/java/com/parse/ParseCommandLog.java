@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of commands, stored in segment files named {@code CommandLog_<sequence>}.
+ *
+ * <p>Each record is {@code <crc32> <type> <id> <length> <payload>}. Commands are added with an
+ * {@code ADD} record and forgotten with a {@code REMOVE} record for their id, so adding and
+ * removing are O(1) and never have to list the directory. Records are written straight to the file
+ * but only synced to disk by {@link #sync()}, so that callers can batch them.
+ *
+ * <p>Segments are deleted once all of their commands and all of the commands before them have been
+ * removed, and the live commands are copied to a new segment once the log is mostly made of removed
+ * ones. A torn record at the end of the log, i.e. from a crash in the middle of a write, is
+ * dropped.
+ *
+ * <p>This class isn't thread safe.
+ */
+class ParseCommandLog {
+
+    private static final String TAG = "com.parse.ParseCommandLog";
+
+    private static final String SEGMENT_PREFIX = "CommandLog_";
+    // The prefix of the files commands used to be stored in, one per command.
+    private static final String LEGACY_PREFIX = "CachedCommand_";
+
+    private static final byte TYPE_ADD = 1;
+    private static final byte TYPE_REMOVE = 2;
+    // crc32 (int), type (byte), id (long), length (int)
+    private static final int HEADER_LENGTH = 4 + 1 + 8 + 4;
+
+    /* package for tests */ static final long MAX_SEGMENT_BYTES = 256 * 1024;
+
+    private final File directory;
+    // The segments, oldest first. The last one is the one that's being appended to.
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    // The commands that haven't been removed, by id, in the order they were added.
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+    private FileOutputStream out;
+    private long nextId = 1;
+    private long nextSegment = 1;
+    private long liveBytes;
+    private long logBytes;
+    private boolean unsynced;
+
+    /**
+     * Opens the log in the given directory, reading any existing segments and migrating any
+     * commands that are still stored in their own files.
+     */
+    ParseCommandLog(File directory) {
+        this.directory = directory;
+        load();
+        migrateLegacyFiles();
+    }
+
+    /** Returns the directory the log is stored in. */
+    File getDirectory() {
+        return directory;
+    }
+
+    /** Returns the number of commands in the log. */
+    int size() {
+        return entries.size();
+    }
+
+    /** Returns the total size of the commands in the log, not counting the log's own overhead. */
+    long sizeBytes() {
+        return liveBytes;
+    }
+
+    /** Returns the ids of the commands in the log, in the order they were added. */
+    List<Long> ids() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /** Returns whether the command with the given id is in the log. */
+    boolean contains(long id) {
+        return entries.containsKey(id);
+    }
+
+    /** Returns the id of the oldest command in the log, or -1 if it's empty. */
+    long oldestId() {
+        return entries.isEmpty() ? -1 : entries.keySet().iterator().next();
+    }
+
+    /**
+     * Appends a command to the log.
+     *
+     * @return The id of the command, which is larger than the ids of all the commands before it.
+     */
+    long add(byte[] data) throws IOException {
+        long id = nextId;
+        Entry entry = write(TYPE_ADD, id, data);
+        nextId++;
+        entry.segment.live++;
+        entries.put(id, entry);
+        liveBytes += data.length;
+        return id;
+    }
+
+    /** Reads the command with the given id. */
+    byte[] read(long id) throws IOException {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            throw new FileNotFoundException("Command " + id + " is not in the log");
+        }
+        byte[] data = new byte[entry.length];
+        RandomAccessFile file = new RandomAccessFile(entry.segment.file, "r");
+        try {
+            file.seek(entry.offset);
+            file.readFully(data);
+        } finally {
+            ParseIOUtils.closeQuietly(file);
+        }
+        return data;
+    }
+
+    /** Removes the command with the given id from the log. Does nothing if it's not there. */
+    void remove(long id) throws IOException {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        liveBytes -= entry.length;
+        entry.segment.live--;
+
+        if (entries.isEmpty()) {
+            // Nothing left to remember, so there's no need for a REMOVE record either.
+            deleteSegments();
+            return;
+        }
+        write(TYPE_REMOVE, id, new byte[0]);
+        compact();
+    }
+
+    /** Removes all of the commands from the log. */
+    void clear() {
+        entries.clear();
+        liveBytes = 0;
+        deleteSegments();
+    }
+
+    /** Makes sure everything that has been written to the log is on disk. */
+    void sync() throws IOException {
+        if (unsynced && out != null) {
+            out.getFD().sync();
+        }
+        unsynced = false;
+    }
+
+    /** Syncs and closes the current segment. The log will reopen it if it's used again. */
+    void close() {
+        try {
+            sync();
+        } catch (IOException e) {
+            PLog.w(TAG, "Unable to sync command log", e);
+        }
+        ParseIOUtils.closeQuietly(out);
+        out = null;
+    }
+
+    private Segment getSegmentForAppend() throws IOException {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.full || segment.size >= MAX_SEGMENT_BYTES) {
+            // Make sure the old segment is complete on disk before moving on
+            close();
+            segment = Segment.create(directory, nextSegment++);
+            segments.addLast(segment);
+        }
+        if (out == null) {
+            directory.mkdirs();
+            out = new FileOutputStream(segment.file, true);
+        }
+        return segment;
+    }
+
+    /** Appends a record, and returns where its data is. */
+    private Entry write(byte type, long id, byte[] data) throws IOException {
+        Segment segment = getSegmentForAppend();
+        long offset = segment.size;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + data.length);
+        buffer.position(4);
+        buffer.put(type).putLong(id).putInt(data.length).put(data);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, buffer.capacity() - 4);
+        buffer.putInt(0, (int) crc.getValue());
+
+        // A single write, so that a crash can only leave a torn record at the end
+        try {
+            out.write(buffer.array());
+        } catch (IOException e) {
+            // Part of the record might have been written, so don't append anything after it.
+            close();
+            segment.full = true;
+            throw e;
+        }
+        unsynced = true;
+        segment.size += buffer.capacity();
+        logBytes += buffer.capacity();
+        return new Entry(segment, offset + HEADER_LENGTH, data.length);
+    }
+
+    private void deleteSegments() {
+        close();
+        for (Segment segment : segments) {
+            ParseFileUtils.deleteQuietly(segment.file);
+        }
+        segments.clear();
+        logBytes = 0;
+    }
+
+    /**
+     * Deletes the segments that are no longer needed, and copies the live commands to a new segment
+     * if most of the log is made of removed ones.
+     */
+    private void compact() throws IOException {
+        // REMOVE records only refer to commands in the same or older segments, so segments can
+        // only be deleted from the oldest one.
+        while (segments.size() > 1 && segments.peekFirst().live == 0) {
+            Segment segment = segments.removeFirst();
+            logBytes -= segment.size;
+            ParseFileUtils.deleteQuietly(segment.file);
+        }
+
+        long liveLogBytes = liveBytes + (long) entries.size() * HEADER_LENGTH;
+        if (logBytes - liveLogBytes <= Math.max(liveLogBytes, MAX_SEGMENT_BYTES)) {
+            return;
+        }
+
+        List<Long> ids = ids();
+        List<byte[]> data = new ArrayList<>(ids.size());
+        for (long id : ids) {
+            data.add(read(id));
+        }
+        List<Segment> oldSegments = new ArrayList<>(segments);
+
+        // Start a new segment and copy the live commands, with the same ids, to it.
+        close();
+        segments.addLast(Segment.create(directory, nextSegment++));
+        entries.clear();
+        for (int i = 0; i < ids.size(); i++) {
+            Entry entry = write(TYPE_ADD, ids.get(i), data.get(i));
+            entry.segment.live++;
+            entries.put(ids.get(i), entry);
+        }
+        // The copies have to be on disk before the originals are deleted.
+        sync();
+
+        for (Segment oldSegment : oldSegments) {
+            segments.remove(oldSegment);
+            logBytes -= oldSegment.size;
+            ParseFileUtils.deleteQuietly(oldSegment.file);
+        }
+    }
+
+    private void load() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (files == null) {
+            return;
+        }
+        // The sequence numbers are fixed width, so the names sort in order.
+        Arrays.sort(files);
+        for (File file : files) {
+            Segment segment;
+            try {
+                segment = Segment.fromFile(file);
+            } catch (NumberFormatException e) {
+                PLog.w(TAG, "Ignoring unexpected file in command log: " + file);
+                continue;
+            }
+            segments.addLast(segment);
+            nextSegment = Math.max(nextSegment, segment.sequence + 1);
+            try {
+                readSegment(segment);
+            } catch (IOException e) {
+                PLog.e(TAG, "Unable to read command log segment " + file, e);
+            }
+            logBytes += segment.size;
+        }
+
+        // Drop the segments that are already obsolete
+        while (!segments.isEmpty() && (entries.isEmpty() || segments.peekFirst().live == 0)) {
+            Segment segment = segments.removeFirst();
+            logBytes -= segment.size;
+            ParseFileUtils.deleteQuietly(segment.file);
+        }
+    }
+
+    private void readSegment(Segment segment) throws IOException {
+        DataInputStream in =
+                new DataInputStream(
+                        new BufferedInputStream(ParseFileUtils.openInputStream(segment.file)));
+        long offset = 0;
+        try {
+            byte[] header = new byte[HEADER_LENGTH];
+            while (true) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    // Either the end of the segment, or a torn header.
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(header);
+                int crc = buffer.getInt();
+                byte type = buffer.get();
+                long id = buffer.getLong();
+                int length = buffer.getInt();
+                if (length < 0 || offset + HEADER_LENGTH + length > segment.file.length()) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                CRC32 actual = new CRC32();
+                actual.update(header, 4, HEADER_LENGTH - 4);
+                actual.update(data);
+                if ((int) actual.getValue() != crc) {
+                    break;
+                }
+
+                if (type == TYPE_ADD) {
+                    Entry entry = new Entry(segment, offset + HEADER_LENGTH, length);
+                    Entry previous = entries.put(id, entry);
+                    if (previous != null) {
+                        // Copied by a compaction that didn't get to delete the original
+                        previous.segment.live--;
+                        liveBytes -= previous.length;
+                    }
+                    segment.live++;
+                    liveBytes += length;
+                    nextId = Math.max(nextId, id + 1);
+                } else if (type == TYPE_REMOVE) {
+                    Entry entry = entries.remove(id);
+                    if (entry != null) {
+                        entry.segment.live--;
+                        liveBytes -= entry.length;
+                    }
+                }
+                offset += HEADER_LENGTH + length;
+            }
+        } finally {
+            ParseIOUtils.closeQuietly(in);
+        }
+
+        segment.size = offset;
+        if (offset < segment.file.length()) {
+            PLog.w(TAG, "Dropping a torn record at the end of " + segment.file);
+            RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+            try {
+                file.setLength(offset);
+            } finally {
+                ParseIOUtils.closeQuietly(file);
+            }
+        }
+    }
+
+    private void migrateLegacyFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(LEGACY_PREFIX));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        // The names start with the time they were created at, so they sort in order.
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                add(ParseFileUtils.readFileToByteArray(file));
+            } catch (IOException e) {
+                PLog.e(TAG, "Unable to migrate command " + file, e);
+                continue;
+            }
+            try {
+                // Don't lose the command if we crash before we're done.
+                sync();
+            } catch (IOException e) {
+                PLog.e(TAG, "Unable to sync command log", e);
+            }
+            ParseFileUtils.deleteQuietly(file);
+        }
+    }
+
+    private static class Segment {
+        private final long sequence;
+        private final File file;
+        private long size;
+        // The number of commands in this segment that haven't been removed.
+        private int live;
+        // Whether nothing should be appended to this segment anymore.
+        private boolean full;
+
+        private Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        private static Segment create(File directory, long sequence) {
+            String name = String.format("%s%016x", SEGMENT_PREFIX, sequence);
+            return new Segment(sequence, new File(directory, name));
+        }
+
+        private static Segment fromFile(File file) {
+            String name = file.getName();
+            return new Segment(Long.parseLong(name.substring(SEGMENT_PREFIX.length()), 16), file);
+        }
+    }
+
+    private static class Entry {
+        private final Segment segment;
+        // Where the command's data starts in the segment.
+        private final long offset;
+        private final int length;
+
+        private Entry(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -81,7 +81,10 @@ class ParseCorePlugins {
         if (objectController.get() == null) {
             // TODO(grantland): Do not rely on Parse global
             objectController.compareAndSet(
-                    null, new NetworkObjectController(ParsePlugins.get().restClient()));
+                    null,
+                    new NetworkObjectController(
+                            ParsePlugins.get().restClient(),
+                            ParsePlugins.get().requestCoalescer()));
         }
         return objectController.get();
     }
@@ -152,7 +155,8 @@ class ParseCorePlugins {
     public ParseQueryController getQueryController() {
         if (queryController.get() == null) {
             NetworkQueryController networkController =
-                    new NetworkQueryController(ParsePlugins.get().restClient());
+                    new NetworkQueryController(
+                            ParsePlugins.get().restClient(), ParsePlugins.get().requestCoalescer());
             ParseQueryController controller;
             // TODO(grantland): Do not rely on Parse global
             if (Parse.isLocalDatastoreEnabled()) {
@@ -176,10 +180,13 @@ class ParseCorePlugins {
     public ParseFileController getFileController() {
         if (fileController.get() == null) {
             // TODO(grantland): Do not rely on Parse global
+            int maxFileCacheBytes = ParsePlugins.get().configuration().maxFileCacheBytes;
             fileController.compareAndSet(
                     null,
                     new ParseFileController(
-                            ParsePlugins.get().restClient(), Parse.getParseCacheDir("files")));
+                            ParsePlugins.get().restClient(),
+                            Parse.getParseCacheDir("files"),
+                            maxFileCacheBytes > 0 ? maxFileCacheBytes : Long.MAX_VALUE));
         }
         return fileController.get();
     }
@@ -14,13 +14,16 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 class ParseCountingByteArrayHttpBody extends ParseByteArrayHttpBody {
-    private static final int DEFAULT_CHUNK_SIZE = 4096;
-    private final ProgressCallback progressCallback;
+    private static final int DEFAULT_CHUNK_SIZE = 32 << 10; // 32KB
+    private final ProgressReporter progressReporter;
 
     public ParseCountingByteArrayHttpBody(
             byte[] content, String contentType, final ProgressCallback progressCallback) {
         super(content, contentType);
-        this.progressCallback = progressCallback;
+        this.progressReporter =
+                progressCallback != null
+                        ? new ProgressReporter(progressCallback, content.length)
+                        : null;
     }
 
     @Override
@@ -35,14 +38,14 @@ class ParseCountingByteArrayHttpBody extends ParseByteArrayHttpBody {
             int length = min(totalLength - position, DEFAULT_CHUNK_SIZE);
 
             out.write(content, position, length);
-            out.flush();
+            position += length;
 
-            if (progressCallback != null) {
-                position += length;
-
-                int progress = 100 * position / totalLength;
-                progressCallback.done(progress);
+            if (progressReporter != null) {
+                progressReporter.report(position);
             }
         }
+        if (progressReporter != null) {
+            progressReporter.complete();
+        }
     }
 }
@@ -15,10 +15,10 @@ import java.io.OutputStream;
 
 class ParseCountingFileHttpBody extends ParseFileHttpBody {
 
-    private static final int DEFAULT_CHUNK_SIZE = 4096;
+    private static final int DEFAULT_CHUNK_SIZE = 32 << 10; // 32KB
     private static final int EOF = -1;
 
-    private final ProgressCallback progressCallback;
+    private final ProgressReporter progressReporter;
 
     public ParseCountingFileHttpBody(File file, ProgressCallback progressCallback) {
         this(file, null, progressCallback);
@@ -27,7 +27,10 @@ class ParseCountingFileHttpBody extends ParseFileHttpBody {
     public ParseCountingFileHttpBody(
             File file, String contentType, ProgressCallback progressCallback) {
         super(file, contentType);
-        this.progressCallback = progressCallback;
+        this.progressReporter =
+                progressCallback != null
+                        ? new ProgressReporter(progressCallback, file.length())
+                        : null;
     }
 
     @Override
@@ -40,17 +43,18 @@ class ParseCountingFileHttpBody extends ParseFileHttpBody {
         try {
             byte[] buffer = new byte[DEFAULT_CHUNK_SIZE];
             int n;
-            long totalLength = file.length();
             long position = 0;
             while (EOF != (n = fileInput.read(buffer))) {
                 output.write(buffer, 0, n);
                 position += n;
 
-                if (progressCallback != null) {
-                    int progress = (int) (100 * position / totalLength);
-                    progressCallback.done(progress);
+                if (progressReporter != null) {
+                    progressReporter.report(position);
                 }
             }
+            if (progressReporter != null) {
+                progressReporter.complete();
+            }
         } finally {
             ParseIOUtils.closeQuietly(fileInput);
         }
@@ -15,10 +15,10 @@ import java.io.OutputStream;
 
 class ParseCountingUriHttpBody extends ParseUriHttpBody {
 
-    private static final int DEFAULT_CHUNK_SIZE = 4096;
+    private static final int DEFAULT_CHUNK_SIZE = 32 << 10; // 32KB
     private static final int EOF = -1;
 
-    private final ProgressCallback progressCallback;
+    private final ProgressReporter progressReporter;
 
     public ParseCountingUriHttpBody(Uri uri, ProgressCallback progressCallback) {
         this(uri, null, progressCallback);
@@ -27,7 +27,10 @@ class ParseCountingUriHttpBody extends ParseUriHttpBody {
     public ParseCountingUriHttpBody(
             Uri uri, String contentType, ProgressCallback progressCallback) {
         super(uri, contentType);
-        this.progressCallback = progressCallback;
+        this.progressReporter =
+                progressCallback != null
+                        ? new ProgressReporter(progressCallback, getContentLength())
+                        : null;
     }
 
     @Override
@@ -41,17 +44,18 @@ class ParseCountingUriHttpBody extends ParseUriHttpBody {
         try {
             byte[] buffer = new byte[DEFAULT_CHUNK_SIZE];
             int n;
-            long totalLength = getContentLength();
             long position = 0;
             while (EOF != (n = fileInput.read(buffer))) {
                 output.write(buffer, 0, n);
                 position += n;
 
-                if (progressCallback != null) {
-                    int progress = (int) (100 * position / totalLength);
-                    progressCallback.done(progress);
+                if (progressReporter != null) {
+                    progressReporter.report(position);
                 }
             }
+            if (progressReporter != null) {
+                progressReporter.complete();
+            }
         } finally {
             ParseIOUtils.closeQuietly(fileInput);
         }
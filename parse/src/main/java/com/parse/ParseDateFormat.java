@@ -14,11 +14,29 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.SimpleTimeZone;
 
-/** This is the currently used date format. It is precise to the millisecond. */
+/**
+ * This is the currently used date format. It is precise to the millisecond.
+ *
+ * <p>Every decoded object goes through here for its {@code createdAt} and {@code updatedAt} and
+ * every date it holds, so dates in the canonical {@code yyyy-MM-dd'T'HH:mm:ss.SSS'Z'} form are
+ * parsed and formatted by hand, without locking or intermediate objects. Anything else, such as
+ * dates before the Gregorian cutover or strings {@link SimpleDateFormat} would leniently accept, is
+ * handed to a shared {@link SimpleDateFormat} so the results stay exactly the same.
+ */
 /* package */ class ParseDateFormat {
     private static final String TAG = "ParseDateFormat";
 
     private static final ParseDateFormat INSTANCE = new ParseDateFormat();
+
+    private static final int LENGTH = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    // SimpleDateFormat uses the Julian calendar before the cutover, so we leave those dates to it
+    private static final int MIN_YEAR = 1583;
+    private static final int MAX_YEAR = 9999;
+    private static final long MIN_TIME = daysFromCivil(MIN_YEAR, 1, 1) * MILLIS_PER_DAY;
+    private static final long MAX_TIME = daysFromCivil(MAX_YEAR + 1, 1, 1) * MILLIS_PER_DAY - 1;
+    private static final long INVALID = Long.MIN_VALUE;
+
     // SimpleDateFormat isn't inherently thread-safe
     private final Object lock = new Object();
     private final DateFormat dateFormat;
@@ -33,7 +51,134 @@ import java.util.SimpleTimeZone;
         return INSTANCE;
     }
 
+    // Days since the epoch of a date in the proleptic Gregorian calendar
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Returns -1 if any of the characters isn't a digit
+    private static int readDigits(String string, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = string.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void writeDigits(char[] chars, int start, int count, int value) {
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /** @return the time of a canonical date string, or {@link #INVALID} if it isn't one. */
+    private static long parseCanonical(String string) {
+        if (string.length() != LENGTH
+                || string.charAt(4) != '-'
+                || string.charAt(7) != '-'
+                || string.charAt(10) != 'T'
+                || string.charAt(13) != ':'
+                || string.charAt(16) != ':'
+                || string.charAt(19) != '.'
+                || string.charAt(23) != 'Z') {
+            return INVALID;
+        }
+        int year = readDigits(string, 0, 4);
+        int month = readDigits(string, 5, 2);
+        int day = readDigits(string, 8, 2);
+        int hour = readDigits(string, 11, 2);
+        int minute = readDigits(string, 14, 2);
+        int second = readDigits(string, 17, 2);
+        int millis = readDigits(string, 20, 3);
+        if (year < MIN_YEAR
+                || month < 1
+                || month > 12
+                || day < 1
+                || day > daysInMonth(year, month)
+                || hour < 0
+                || hour > 23
+                || minute < 0
+                || minute > 59
+                || second < 0
+                || second > 59
+                || millis < 0) {
+            return INVALID;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000L
+                + millis;
+    }
+
+    private static String formatCanonical(long time) {
+        long days = time / MILLIS_PER_DAY;
+        int millisOfDay = (int) (time % MILLIS_PER_DAY);
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        // The inverse of daysFromCivil
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[LENGTH];
+        writeDigits(chars, 0, 4, year);
+        chars[4] = '-';
+        writeDigits(chars, 5, 2, month);
+        chars[7] = '-';
+        writeDigits(chars, 8, 2, day);
+        chars[10] = 'T';
+        writeDigits(chars, 11, 2, millisOfDay / 3600000);
+        chars[13] = ':';
+        writeDigits(chars, 14, 2, millisOfDay / 60000 % 60);
+        chars[16] = ':';
+        writeDigits(chars, 17, 2, millisOfDay / 1000 % 60);
+        chars[19] = '.';
+        writeDigits(chars, 20, 3, millisOfDay % 1000);
+        chars[23] = 'Z';
+        return new String(chars);
+    }
+
     /* package */ Date parse(String dateString) {
+        long time = parseCanonical(dateString);
+        if (time != INVALID) {
+            return new Date(time);
+        }
         synchronized (lock) {
             try {
                 return dateFormat.parse(dateString);
@@ -46,6 +191,10 @@ import java.util.SimpleTimeZone;
     }
 
     /* package */ String format(Date date) {
+        long time = date.getTime();
+        if (time >= MIN_TIME && time <= MAX_TIME) {
+            return formatCanonical(time);
+        }
         synchronized (lock) {
             return dateFormat.format(date);
         }
@@ -10,27 +10,58 @@ package com.parse;
 
 import android.net.Uri;
 import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
 import com.parse.http.ParseHttpRequest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CancellationException;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.json.JSONObject;
 
 // TODO(grantland): Create ParseFileController interface
 class ParseFileController {
 
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    // Partial downloads that haven't been resumed for this long are deleted
+    /* package for tests */ static final long TEMP_FILE_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
     private final Object lock = new Object();
     private final ParseHttpClient restClient;
     private final File cachePath;
-    private final List<String> currentlyDownloadedFilesNames = new ArrayList<>();
+    private final long maxCacheBytes;
+    // Guarded by lock
+    private final Map<String, Download> currentDownloads = new HashMap<>();
 
     private ParseHttpClient fileClient;
 
+    /**
+     * Guards the cache index. Besides listing the cache directory once to load the index and delete
+     * abandoned partial downloads, it is only held for bookkeeping, never while reading, writing or
+     * deleting a file.
+     */
+    private final Object cacheLock = new Object();
+    // Access-ordered, so iteration goes from least to most recently used. Lazily loaded.
+    private LinkedHashMap<String, Long> cacheIndex;
+    private long cacheSize;
+
     public ParseFileController(ParseHttpClient restClient, File cachePath) {
+        this(restClient, cachePath, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxCacheBytes How many bytes the files in the cache may take up before the least
+     *     recently used ones are deleted.
+     */
+    public ParseFileController(ParseHttpClient restClient, File cachePath, long maxCacheBytes) {
         this.restClient = restClient;
         this.cachePath = cachePath;
+        this.maxCacheBytes = maxCacheBytes;
     }
 
     /**
@@ -61,7 +92,7 @@ class ParseFileController {
         if (state.url() == null) {
             return null;
         }
-        return new File(cachePath, state.url() + ".tmp");
+        return new File(cachePath, state.url() + TEMP_FILE_SUFFIX);
     }
 
     public boolean isDataAvailable(ParseFile.State state) {
@@ -69,6 +100,9 @@ class ParseFileController {
     }
 
     public void clearCache() {
+        synchronized (cacheLock) {
+            cacheIndex = null;
+        }
         File[] files = cachePath.listFiles();
         if (files == null) {
             return;
@@ -112,6 +146,7 @@ class ParseFileController {
                             // Write data to cache
                             try {
                                 ParseFileUtils.writeByteArrayToFile(getCacheFile(newState), data);
+                                onCacheFileWritten(getCacheFile(newState));
                             } catch (IOException e) {
                                 // do nothing
                             }
@@ -155,6 +190,7 @@ class ParseFileController {
                             // Write data to cache
                             try {
                                 ParseFileUtils.copyFile(file, getCacheFile(newState));
+                                onCacheFileWritten(getCacheFile(newState));
                             } catch (IOException e) {
                                 // do nothing
                             }
@@ -198,6 +234,7 @@ class ParseFileController {
                             // Write data to cache
                             try {
                                 ParseFileUtils.writeUriToFile(getCacheFile(newState), uri);
+                                onCacheFileWritten(getCacheFile(newState));
                             } catch (IOException e) {
                                 // do nothing
                             }
@@ -207,6 +244,11 @@ class ParseFileController {
                         ParseExecutors.io());
     }
 
+    /**
+     * Gets the file from the cache, or downloads it. Callers that want a file that's already being
+     * downloaded wait for that download, which is only cancelled once every one of them has been. A
+     * download that fails or is cancelled keeps what it got, and the next one resumes from there.
+     */
     public Task<File> fetchAsync(
             final ParseFile.State state,
             @SuppressWarnings("UnusedParameters") String sessionToken,
@@ -215,80 +257,244 @@ class ParseFileController {
         if (cancellationToken != null && cancellationToken.isCancelled()) {
             return Task.cancelled();
         }
-        return Task.call(
-                () -> {
-                    final File cacheFile = getCacheFile(state);
 
-                    synchronized (lock) {
-                        if (currentlyDownloadedFilesNames.contains(state.name())) {
-                            while (currentlyDownloadedFilesNames.contains(state.name())) {
-                                lock.wait();
+        final String name = state.name();
+        final Download download;
+        boolean isNew = false;
+        synchronized (lock) {
+            Download existing = currentDownloads.get(name);
+            if (existing != null) {
+                download = existing;
+            } else {
+                download = new Download();
+                currentDownloads.put(name, download);
+                isNew = true;
+            }
+            download.subscribers++;
+            if (downloadProgressCallback != null) {
+                download.progressCallbacks.add(downloadProgressCallback);
+            }
+        }
+
+        final TaskCompletionSource<File> tcs = new TaskCompletionSource<>();
+        download.result
+                .getTask()
+                .continueWith(
+                        task -> {
+                            if (task.isCancelled()) {
+                                tcs.trySetCancelled();
+                            } else if (task.isFaulted()) {
+                                tcs.trySetError(task.getError());
+                            } else {
+                                tcs.trySetResult(task.getResult());
                             }
+                            return null;
+                        });
+        if (cancellationToken != null) {
+            cancellationToken.continueWith(
+                    task -> {
+                        if (task.isCancelled() && tcs.trySetCancelled()) {
+                            unsubscribe(name, download, downloadProgressCallback);
                         }
+                        return null;
+                    });
+        }
 
-                        if (cacheFile.exists()) {
-                            return cacheFile;
-                        } else {
-                            currentlyDownloadedFilesNames.add(state.name());
-                        }
-                    }
+        if (isNew) {
+            fetchFromCacheOrNetworkAsync(state, download)
+                    .continueWith(
+                            task -> {
+                                synchronized (lock) {
+                                    if (currentDownloads.get(name) == download) {
+                                        currentDownloads.remove(name);
+                                    }
+                                }
+                                if (task.isCancelled()) {
+                                    download.result.trySetCancelled();
+                                } else if (task.isFaulted()) {
+                                    download.result.trySetError(task.getError());
+                                } else {
+                                    download.result.trySetResult(task.getResult());
+                                }
+                                return null;
+                            });
+        }
+        return tcs.getTask();
+    }
 
-                    try {
-                        if (cancellationToken != null && cancellationToken.isCancelled()) {
-                            throw new CancellationException();
-                        }
+    private void unsubscribe(String name, Download download, ProgressCallback callback) {
+        synchronized (lock) {
+            download.progressCallbacks.remove(callback);
+            download.subscribers--;
+            if (download.subscribers > 0) {
+                return;
+            }
+            // No one is waiting anymore, so later callers start a download of their own
+            if (currentDownloads.get(name) == download) {
+                currentDownloads.remove(name);
+            }
+        }
+        download.cancellation.trySetCancelled();
+    }
 
-                        // Generate the temp file path for caching ParseFile content based on
-                        // ParseFile's url
-                        // The reason we do not write to the cacheFile directly is because there
-                        // is no way we can
-                        // verify if a cacheFile is complete or not. If download is interrupted
-                        // in the middle, next
-                        // time when we download the ParseFile, since cacheFile has already
-                        // existed, we will return
-                        // this incomplete cacheFile
-                        final File tempFile = getTempFile(state);
-
-                        // network
-                        final ParseFileRequest request =
-                                new ParseFileRequest(
-                                        ParseHttpRequest.Method.GET, state.url(), tempFile);
-
-                        // We do not need to delete the temp file since we always try to
-                        // overwrite it
-                        Task<Void> downloadTask =
-                                request.executeAsync(
-                                        fileClient(),
-                                        null,
-                                        downloadProgressCallback,
-                                        cancellationToken);
-                        ParseTaskUtils.wait(downloadTask);
-
-                        // If the top-level task was cancelled, don't
-                        // actually set the data -- just move on.
-                        if (cancellationToken != null && cancellationToken.isCancelled()) {
-                            throw new CancellationException();
-                        }
-                        if (downloadTask.isFaulted()) {
-                            ParseFileUtils.deleteQuietly(tempFile);
-                            throw new RuntimeException(downloadTask.getError());
-                        }
+    private Task<File> fetchFromCacheOrNetworkAsync(
+            final ParseFile.State state, final Download download) {
+        final File cacheFile = getCacheFile(state);
+        return Task.call(
+                        () -> {
+                            if (!cacheFile.exists()) {
+                                return false;
+                            }
+                            onCacheFileUsed(cacheFile);
+                            return true;
+                        },
+                        ParseExecutors.io())
+                .onSuccessTask(
+                        task -> {
+                            if (task.getResult()) {
+                                return Task.forResult(cacheFile);
+                            }
 
-                        // Since we give the cacheFile pointer to
-                        // developers, it is not safe to guarantee
-                        // cacheFile always does not exist here, so it is
-                        // better to delete it manually,
-                        // otherwise moveFile may throw an exception.
-                        ParseFileUtils.deleteQuietly(cacheFile);
-                        ParseFileUtils.moveFile(tempFile, cacheFile);
-                        return cacheFile;
-                    } finally {
-                        synchronized (lock) {
-                            currentlyDownloadedFilesNames.remove(state.name());
-                            lock.notifyAll();
-                        }
+                            // Generate the temp file path for caching ParseFile content based on
+                            // ParseFile's url
+                            // The reason we do not write to the cacheFile directly is because there
+                            // is no way we can
+                            // verify if a cacheFile is complete or not. If download is interrupted
+                            // in the middle, next
+                            // time when we download the ParseFile, since cacheFile has already
+                            // existed, we will return
+                            // this incomplete cacheFile
+                            final File tempFile = getTempFile(state);
+                            return downloadAsync(state, tempFile, download)
+                                    .onSuccess(
+                                            task1 -> {
+                                                // Since we give the cacheFile pointer to
+                                                // developers, it is not safe to guarantee
+                                                // cacheFile always does not exist here, so it is
+                                                // better to delete it manually,
+                                                // otherwise moveFile may throw an exception.
+                                                ParseFileUtils.deleteQuietly(cacheFile);
+                                                ParseFileUtils.moveFile(tempFile, cacheFile);
+                                                onCacheFileWritten(cacheFile);
+                                                return cacheFile;
+                                            },
+                                            ParseExecutors.io());
+                        });
+    }
+
+    // Downloads the file into tempFile, resuming from what it already holds
+    private Task<Void> downloadAsync(
+            final ParseFile.State state, final File tempFile, final Download download) {
+        final boolean isResuming = tempFile != null && tempFile.length() > 0;
+        final ParseFileRequest request =
+                new ParseFileRequest(ParseHttpRequest.Method.GET, state.url(), tempFile, true);
+        return request.executeAsync(fileClient(), null, download, download.cancellation.getTask())
+                .continueWithTask(
+                        task -> {
+                            if (task.isFaulted() && isResuming && !tempFile.exists()) {
+                                // The server couldn't serve the rest of the file, so start over
+                                return downloadAsync(state, tempFile, download);
+                            }
+                            return task;
+                        });
+    }
+
+    // region Cache index
+
+    // The sizes of the files in the cache, from least to most recently used. Partial downloads
+    // aren't part of it, but the abandoned ones are deleted when it's loaded.
+    // Must be called while holding cacheLock.
+    private LinkedHashMap<String, Long> getCacheIndex() {
+        if (cacheIndex == null) {
+            cacheIndex = new LinkedHashMap<>(16, 0.75f, true);
+            cacheSize = 0;
+            File[] files = cachePath != null ? cachePath.listFiles() : null;
+            if (files != null) {
+                // We touch files when they're used, so modification times are in LRU order
+                Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+                long expired = System.currentTimeMillis() - TEMP_FILE_MAX_AGE_MILLIS;
+                for (File file : files) {
+                    if (file.isFile() && !file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                        cacheIndex.put(file.getName(), file.length());
+                        cacheSize += file.length();
+                    } else {
+                        deleteExpiredTempFiles(file, expired);
                     }
-                },
-                ParseExecutors.io());
+                }
+            }
+        }
+        return cacheIndex;
+    }
+
+    // Partial downloads are named after their url, so they may be in subdirectories. Downloads
+    // write to them as they go, so the ones that weren't modified since expired were abandoned.
+    private static void deleteExpiredTempFiles(File file, long expired) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteExpiredTempFiles(child, expired);
+            }
+        } else if (file.getName().endsWith(TEMP_FILE_SUFFIX) && file.lastModified() < expired) {
+            ParseFileUtils.deleteQuietly(file);
+        }
+    }
+
+    private void onCacheFileUsed(File file) {
+        // Keeps the order across restarts
+        file.setLastModified(System.currentTimeMillis());
+        synchronized (cacheLock) {
+            LinkedHashMap<String, Long> index = getCacheIndex();
+            if (index.get(file.getName()) == null) {
+                // i.e. written by someone else since the index was loaded
+                index.put(file.getName(), file.length());
+                cacheSize += file.length();
+            }
+        }
+    }
+
+    // Records a file that was written to the cache, evicting the least recently used files beyond
+    // the cache size budget. The file itself is kept even if it's larger than the budget.
+    private void onCacheFileWritten(File file) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (cacheLock) {
+            LinkedHashMap<String, Long> index = getCacheIndex();
+            Long prior = index.put(file.getName(), file.length());
+            if (prior != null) {
+                cacheSize -= prior;
+            }
+            cacheSize += file.length();
+
+            Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+            while (cacheSize > maxCacheBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getKey().equals(file.getName())) {
+                    continue;
+                }
+                iterator.remove();
+                cacheSize -= entry.getValue();
+                evicted.add(entry.getKey());
+            }
+        }
+        for (String name : evicted) {
+            ParseFileUtils.deleteQuietly(new File(cachePath, name));
+        }
+    }
+
+    // endregion
+
+    /** A download shared by every caller that wants the same file while it's in progress. */
+    private static class Download implements ProgressCallback {
+        final TaskCompletionSource<File> result = new TaskCompletionSource<>();
+        final TaskCompletionSource<Void> cancellation = new TaskCompletionSource<>();
+        final List<ProgressCallback> progressCallbacks = new CopyOnWriteArrayList<>();
+        // Guarded by ParseFileController.lock
+        int subscribers;
+
+        @Override
+        public void done(Integer percentDone) {
+            for (ProgressCallback callback : progressCallbacks) {
+                callback.done(percentDone);
+            }
+        }
     }
 }
@@ -14,19 +14,71 @@ import com.parse.http.ParseHttpResponse;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Request returns a byte array of the response and provides a callback the progress of the data
  * read from the network.
+ *
+ * <p>A request that resumes asks only for the bytes that aren't in the temp file yet, and the
+ * server may answer with either those or the whole file.
  */
 class ParseFileRequest extends ParseRequest<Void> {
 
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(?:\\d+|\\*)");
+
     // The temp file is used to save the ParseFile content when we fetch it from server
     private final File tempFile;
+    private final boolean resume;
+    // The offset the bytes we ask for start at, set once the request is built
+    private long rangeStart;
 
     public ParseFileRequest(ParseHttpRequest.Method method, String url, File tempFile) {
+        this(method, url, tempFile, false);
+    }
+
+    /**
+     * @param resume Whether to keep what's in {@code tempFile} and only download the rest of the
+     *     file. If the server can't serve the rest, {@code tempFile} is deleted and the request
+     *     fails, so it can be started over.
+     */
+    public ParseFileRequest(
+            ParseHttpRequest.Method method, String url, File tempFile, boolean resume) {
         super(method, url);
         this.tempFile = tempFile;
+        this.resume = resume;
+    }
+
+    // Looks a response header up regardless of case, since HTTP/2 servers send them in lowercase
+    private static String getHeader(ParseHttpResponse response, String name) {
+        for (Map.Entry<String, String> header : response.getAllHeaders().entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected ParseHttpRequest newRequest(
+            ParseHttpRequest.Method method, String url, ProgressCallback uploadProgressCallback) {
+        ParseHttpRequest request = super.newRequest(method, url, uploadProgressCallback);
+        rangeStart =
+                resume && tempFile != null && method == ParseHttpRequest.Method.GET
+                        ? tempFile.length()
+                        : 0;
+        if (rangeStart == 0) {
+            return request;
+        }
+        // Retries send this same request, so the offset stays the same even if a failed attempt
+        // added to the temp file
+        return new ParseHttpRequest.Builder(request)
+                .addHeader("Range", "bytes=" + rangeStart + "-")
+                .build();
     }
 
     @Override
@@ -35,6 +87,13 @@ class ParseFileRequest extends ParseRequest<Void> {
         int statusCode = response.getStatusCode();
         if (statusCode >= 200 && statusCode < 300 || statusCode == 304) {
             // OK
+        } else if (statusCode == STATUS_RANGE_NOT_SATISFIABLE && rangeStart > 0) {
+            // What we have doesn't belong to the file on the server anymore
+            ParseFileUtils.deleteQuietly(tempFile);
+            return Task.forError(
+                    newPermanentException(
+                            ParseException.CONNECTION_FAILED,
+                            "Download from file server failed. Unable to resume download."));
         } else {
             String action = method == ParseHttpRequest.Method.GET ? "Download from" : "Upload to";
             return Task.forError(
@@ -49,15 +108,35 @@ class ParseFileRequest extends ParseRequest<Void> {
             return null;
         }
 
+        // Only a partial response starts anywhere but at the beginning of the file
+        long start = 0;
+        if (statusCode == STATUS_PARTIAL_CONTENT) {
+            String contentRange = getHeader(response, "Content-Range");
+            Matcher matcher =
+                    contentRange != null ? CONTENT_RANGE.matcher(contentRange.trim()) : null;
+            start = matcher != null && matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+            if (start < 0 || start > tempFile.length()) {
+                return Task.forError(
+                        newTemporaryException(
+                                ParseException.CONNECTION_FAILED,
+                                "Download from file server failed. Unexpected range "
+                                        + contentRange));
+            }
+        }
+        final long offset = start;
+
         return Task.call(
                 () -> {
-                    long totalSize = response.getTotalSize();
-                    long downloadedSize = 0;
+                    long totalSize =
+                            response.getTotalSize() != -1 ? offset + response.getTotalSize() : -1;
+                    long downloadedSize = offset;
                     InputStream responseStream = null;
                     FileOutputStream tempFileStream = null;
                     try {
                         responseStream = response.getContent();
-                        tempFileStream = ParseFileUtils.openOutputStream(tempFile);
+                        tempFileStream = ParseFileUtils.openOutputStream(tempFile, true);
+                        // Drop whatever comes after the offset, i.e. from an earlier attempt
+                        tempFileStream.getChannel().truncate(offset);
 
                         int nRead;
                         byte[] data = new byte[32 << 10]; // 32KB
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Decodes the response of a find command while it is being received.
+ *
+ * <p>Each element of the {@code results} array is read on its own and turned into a {@link
+ * ParseObject} right away, so only one result's JSON is in memory at any time instead of the whole
+ * response body, its {@code String} copy and its {@link JSONObject} tree.
+ */
+class ParseFindResponseDecoder<T extends ParseObject> implements ParseRESTCommand.ContentDecoder {
+
+    private static final String KEY_RESULTS = "results";
+    private static final String KEY_CLASS_NAME = "className";
+
+    private final ParseQuery.State<T> state;
+    private final ParseDecoder decoder;
+    private List<T> results;
+
+    public ParseFindResponseDecoder(ParseQuery.State<T> state, ParseDecoder decoder) {
+        this.state = state;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Whether a response for {@code state} can be decoded as a stream. Responses of queries that
+     * are redirected to another class carry the resulting class name after the results, so we can't
+     * create the objects until we've seen all of it.
+     */
+    /* package */
+    static boolean canDecode(ParseQuery.State<?> state) {
+        return !state.extraOptions().containsKey("redirectClassNameForKey");
+    }
+
+    // Numbers are converted the same way org.json.JSONTokener does
+    private static Object readNumber(String literal) {
+        if (literal.indexOf('.') == -1
+                && literal.indexOf('e') == -1
+                && literal.indexOf('E') == -1) {
+            try {
+                long longValue = Long.parseLong(literal);
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException e) {
+                // Fall through to double
+            }
+        }
+        try {
+            return Double.valueOf(literal);
+        } catch (NumberFormatException e) {
+            return literal;
+        }
+    }
+
+    /* package */
+    static Object readValue(JsonReader reader) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return readNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new MalformedJsonException("Unexpected token " + token);
+        }
+    }
+
+    /* package */
+    static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            object.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return object;
+    }
+
+    /** @return the objects decoded by the last call to {@link #decode(InputStream)}. */
+    public List<T> getResults() {
+        return results;
+    }
+
+    @Override
+    public JSONObject decode(InputStream content) throws IOException, JSONException {
+        List<T> answer = new ArrayList<>();
+        // Everything but the results is kept, so callers still see e.g. the server trace
+        JSONObject response = new JSONObject();
+        JsonReader reader = new JsonReader(new InputStreamReader(content, "UTF-8"));
+        // The reader reports unexpected tokens with IllegalStateExceptions, which are turned into
+        // MalformedJsonExceptions, but those of decoding a result are passed on as they are
+        boolean decodingResult = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (KEY_RESULTS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    String resultClassName = response.optString(KEY_CLASS_NAME, null);
+                    if (resultClassName == null) {
+                        resultClassName = state.className();
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        JSONObject data = readObject(reader);
+                        decodingResult = true;
+                        answer.add(decodeResult(data, resultClassName));
+                        decodingResult = false;
+                    }
+                    reader.endArray();
+                } else {
+                    response.put(name, readValue(reader));
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            if (decodingResult) {
+                throw e;
+            }
+            MalformedJsonException malformed = new MalformedJsonException(e.getMessage());
+            malformed.initCause(e);
+            throw malformed;
+        } finally {
+            reader.close();
+        }
+
+        results = answer;
+        return response;
+    }
+
+    private T decodeResult(JSONObject data, String resultClassName) {
+        T object = ParseObject.fromJSON(data, resultClassName, decoder, state.selectedKeys());
+
+        /*
+         * If there was a $relatedTo constraint on the query, then add any results to the list of
+         * known objects in the relation for offline caching
+         */
+        ParseQuery.RelationConstraint relation =
+                (ParseQuery.RelationConstraint) state.constraints().get("$relatedTo");
+        if (relation != null) {
+            relation.getRelation().addKnownObject(object);
+        }
+        return object;
+    }
+}
@@ -8,7 +8,10 @@
  */
 package com.parse;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
 import com.parse.http.ParseHttpBody;
 import com.parse.http.ParseHttpRequest;
 import com.parse.http.ParseHttpResponse;
@@ -17,6 +20,8 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -30,21 +35,60 @@ import okio.BufferedSink;
 class ParseHttpClient {
 
     private final OkHttpClient okHttpClient;
+    private final boolean async;
     private boolean hasExecuted;
 
     ParseHttpClient(@Nullable OkHttpClient.Builder builder) {
+        this(builder, false, 0);
+    }
+
+    /**
+     * @param async Whether requests are sent with {@link #executeAsync} instead of {@link
+     *     #execute}.
+     * @param maxRequestsPerHost The maximum number of asynchronous requests to a single host that
+     *     run at the same time, or 0 for as many as the blocking requests that run at once.
+     */
+    ParseHttpClient(@Nullable OkHttpClient.Builder builder, boolean async, int maxRequestsPerHost) {
 
         if (builder == null) {
             builder = new OkHttpClient.Builder();
         }
 
-        okHttpClient = builder.build();
+        OkHttpClient client = builder.build();
+        if (async && maxRequestsPerHost <= 0) {
+            // OkHttp's default of 5 would run fewer requests at once than the blocking mode does
+            maxRequestsPerHost = ParseRequest.DEFAULT_MAX_REQUESTS_PER_HOST;
+        }
+        if (maxRequestsPerHost > 0) {
+            // The dispatcher belongs to the builder, and maybe to other clients of the app, so give
+            // ours its own limits. It still runs the calls on the same threads.
+            Dispatcher dispatcher = new Dispatcher(client.dispatcher().executorService());
+            dispatcher.setMaxRequests(client.dispatcher().getMaxRequests());
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+            client = client.newBuilder().dispatcher(dispatcher).build();
+        }
+        okHttpClient = client;
+        this.async = async;
+    }
+
+    /* package for tests */ OkHttpClient okHttpClient() {
+        return okHttpClient;
     }
 
     static ParseHttpClient createClient(@Nullable OkHttpClient.Builder builder) {
         return new ParseHttpClient(builder);
     }
 
+    static ParseHttpClient createClient(
+            @Nullable OkHttpClient.Builder builder, boolean async, int maxRequestsPerHost) {
+        return new ParseHttpClient(builder, async, maxRequestsPerHost);
+    }
+
+    /** Whether requests should be sent with {@link #executeAsync} instead of {@link #execute}. */
+    boolean isAsync() {
+        return async;
+    }
+
     public final ParseHttpResponse execute(ParseHttpRequest request) throws IOException {
         if (!hasExecuted) {
             hasExecuted = true;
@@ -68,6 +112,46 @@ class ParseHttpClient {
         return getResponse(okHttpResponse);
     }
 
+    /**
+     * Enqueues the request on the dispatcher of the {@link OkHttpClient} instead of blocking the
+     * calling thread until the response arrives. The returned task completes on a thread of the
+     * dispatcher, which counts against the limit of requests to the host until it's done, so the
+     * content of the response should be read on another thread.
+     *
+     * @param parseRequest request
+     * @return A task that is resolved with the response.
+     */
+    Task<ParseHttpResponse> executeAsync(ParseHttpRequest parseRequest) {
+        if (!hasExecuted) {
+            hasExecuted = true;
+        }
+        final TaskCompletionSource<ParseHttpResponse> tcs = new TaskCompletionSource<>();
+        Call okHttpCall;
+        try {
+            okHttpCall = okHttpClient.newCall(getRequest(parseRequest));
+        } catch (RuntimeException e) {
+            return Task.forError(e);
+        }
+        okHttpCall.enqueue(
+                new Callback() {
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        tcs.setError(e);
+                    }
+
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        try {
+                            tcs.setResult(getResponse(response));
+                        } catch (RuntimeException e) {
+                            response.close();
+                            tcs.setError(e);
+                        }
+                    }
+                });
+        return tcs.getTask();
+    }
+
     ParseHttpResponse getResponse(Response okHttpResponse) {
         // Status code
         int statusCode = okHttpResponse.code();
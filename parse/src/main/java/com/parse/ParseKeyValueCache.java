@@ -9,15 +9,33 @@
 package com.parse;
 
 import android.content.Context;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-/** Used for ParseQuery caching. */
+/**
+ * Used for ParseQuery caching.
+ *
+ * <p>Each entry is stored in its own file named {@code <date>.<key>}. The set of entries, their
+ * sizes and their LRU order are kept in an in-memory index which is persisted to an append-only
+ * journal next to the cache directory, so lookups and evictions never have to list or stat the
+ * cache directory. The journal is compacted once it holds more redundant operations than live
+ * entries.
+ */
 class ParseKeyValueCache {
 
     // We limit the cache to 2MB because that's about what the default browser
@@ -28,13 +46,44 @@ class ParseKeyValueCache {
     /* package */ static final int DEFAULT_MAX_KEY_VALUE_CACHE_FILES = 1000;
     private static final String TAG = "ParseKeyValueCache";
     private static final String DIR_NAME = "ParseKeyValueCache";
-    /** Prevent multiple threads from modifying the cache at the same time. */
-    private static final Object MUTEX_IO = new Object();
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String JOURNAL_MAGIC = "com.parse.ParseKeyValueCache";
+    private static final String JOURNAL_VERSION = "1";
+    private static final String JOURNAL_PUT = "PUT";
+    private static final String JOURNAL_DEL = "DEL";
+    private static final String JOURNAL_READ = "READ";
+    private static final int MIN_REDUNDANT_OPS_TO_COMPACT = 2000;
+
+    /**
+     * Guards the in-memory index and the journal. It is only held for bookkeeping, never while
+     * reading or writing an entry's file.
+     */
+    private static final Object MUTEX_INDEX = new Object();
+    /**
+     * Prevent multiple threads from doing I/O on the same key at the same time, while letting
+     * different keys proceed in parallel. Always acquired before {@link #MUTEX_INDEX}.
+     */
+    private static final Object[] MUTEX_KEYS = new Object[32];
+
+    static {
+        for (int i = 0; i < MUTEX_KEYS.length; i++) {
+            MUTEX_KEYS[i] = new Object();
+        }
+    }
 
     /* package */ static int maxKeyValueCacheBytes = DEFAULT_MAX_KEY_VALUE_CACHE_BYTES;
     /* package */ static int maxKeyValueCacheFiles = DEFAULT_MAX_KEY_VALUE_CACHE_FILES;
 
     private static File directory;
+    private static File journalFile;
+
+    // Access-ordered, so iteration goes from least to most recently used. Lazily loaded.
+    private static LinkedHashMap<String, Entry> index;
+    private static long totalBytes;
+    private static Writer journalWriter;
+    private static int redundantOps;
+    private static long lastTimestamp;
 
     // Creates a directory to keep cache-type files in.
     // The operating system will automatically clear out these files first
@@ -49,57 +98,284 @@ class ParseKeyValueCache {
         if (!path.isDirectory() && !path.mkdir()) {
             throw new RuntimeException("Could not create ParseKeyValueCache directory");
         }
-        directory = path;
+        synchronized (MUTEX_INDEX) {
+            closeJournal();
+            directory = path;
+            journalFile = new File(path.getParentFile(), path.getName() + JOURNAL_SUFFIX);
+            index = null;
+        }
+        ParseQueryMemoryCache.clear();
     }
 
+    private static Object getKeyMutex(String key) {
+        return MUTEX_KEYS[(key.hashCode() & Integer.MAX_VALUE) % MUTEX_KEYS.length];
+    }
+
+    // Must be called while holding MUTEX_INDEX.
     private static File getKeyValueCacheDir() {
         if (directory != null && !directory.exists()) {
+            // The files are gone (i.e. the user cleared the app cache), so is our index
             directory.mkdir();
+            resetIndex();
+            ParseQueryMemoryCache.clear();
         }
         return directory;
     }
 
-    /** How many files are in the key-value cache. */
-    /* package */
-    static int size() {
-        File[] files = getKeyValueCacheDir().listFiles();
-        if (files == null) {
-            return 0;
+    // Must be called while holding MUTEX_INDEX.
+    private static LinkedHashMap<String, Entry> getIndex() {
+        getKeyValueCacheDir();
+        if (index == null) {
+            loadIndex();
         }
-        return files.length;
+        return index;
     }
 
-    private static File getKeyValueCacheFile(String key) {
-        final String suffix = '.' + key;
-        File[] matches =
-                getKeyValueCacheDir().listFiles((dir, filename) -> filename.endsWith(suffix));
-        return (matches == null || matches.length == 0) ? null : matches[0];
+    // Must be called while holding MUTEX_INDEX.
+    private static void resetIndex() {
+        closeJournal();
+        if (journalFile != null) {
+            journalFile.delete();
+        }
+        index = new LinkedHashMap<>(16, 0.75f, true);
+        totalBytes = 0;
+        redundantOps = 0;
     }
 
-    // Badly formatted files return the epoch
-    private static long getKeyValueCacheAge(File cacheFile) {
-        // Format: <date>.<key>
-        String name = cacheFile.getName();
+    // Must be called while holding MUTEX_INDEX.
+    private static void loadIndex() {
+        index = new LinkedHashMap<>(16, 0.75f, true);
+        totalBytes = 0;
+        redundantOps = 0;
+        if (directory == null) {
+            return;
+        }
+
+        if (journalFile.exists()) {
+            try {
+                readJournal();
+                journalWriter = openJournalWriter(journalFile, true);
+                return;
+            } catch (IOException | RuntimeException e) {
+                PLog.w(TAG, "Unable to read journal, rebuilding it", e);
+                index.clear();
+                totalBytes = 0;
+                redundantOps = 0;
+            }
+        }
+
+        // No usable journal (i.e. first start after an upgrade), so scan the directory once.
+        File[] files = directory.listFiles();
+        if (files != null) {
+            // Sort oldest-first. We used to touch on read so mtime is really LRU.
+            // Sometimes the time of lastModified isn't granular enough, so we resort
+            // to sorting by the file name which is always prepended with time in ms
+            Arrays.sort(
+                    files,
+                    (f1, f2) -> {
+                        int dateCompare = Long.compare(f1.lastModified(), f2.lastModified());
+                        if (dateCompare != 0) {
+                            return dateCompare;
+                        } else {
+                            return f1.getName().compareTo(f2.getName());
+                        }
+                    });
+            for (File file : files) {
+                putEntry(Entry.fromFileName(file.getName(), file.length()));
+            }
+        }
+        rebuildJournal();
+    }
+
+    private static void readJournal() throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader =
+                    new BufferedReader(
+                            new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            if (!JOURNAL_MAGIC.equals(magic) || !JOURNAL_VERSION.equals(version)) {
+                throw new IOException("Unexpected journal header: " + magic + ", " + version);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int firstSpace = line.indexOf(' ');
+                if (firstSpace == -1) {
+                    throw new IOException("Unexpected journal line: " + line);
+                }
+                String op = line.substring(0, firstSpace);
+                String rest = line.substring(firstSpace + 1);
+                if (JOURNAL_PUT.equals(op)) {
+                    // PUT <size> <fileName>
+                    int secondSpace = rest.indexOf(' ');
+                    long size = Long.parseLong(rest.substring(0, secondSpace));
+                    putEntry(Entry.fromFileName(rest.substring(secondSpace + 1), size));
+                } else if (JOURNAL_DEL.equals(op)) {
+                    // DEL <key>
+                    removeEntry(rest);
+                } else if (JOURNAL_READ.equals(op)) {
+                    // READ <key>
+                    index.get(rest);
+                } else {
+                    throw new IOException("Unexpected journal line: " + line);
+                }
+                redundantOps++;
+            }
+            redundantOps -= index.size();
+        } finally {
+            ParseIOUtils.closeQuietly(reader);
+        }
+    }
+
+    private static Writer openJournalWriter(File file, boolean append) throws IOException {
+        return new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"));
+    }
+
+    private static void closeJournal() {
+        ParseIOUtils.closeQuietly(journalWriter);
+        journalWriter = null;
+    }
+
+    // Replaces the journal with the minimal one describing the current index.
+    // Must be called while holding MUTEX_INDEX.
+    private static void rebuildJournal() {
+        closeJournal();
+        if (journalFile == null) {
+            return;
+        }
+
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = openJournalWriter(tempFile, false);
+            writer.write(JOURNAL_MAGIC);
+            writer.write('\n');
+            writer.write(JOURNAL_VERSION);
+            writer.write('\n');
+            for (Entry entry : index.values()) {
+                writer.write(JOURNAL_PUT + ' ' + entry.size + ' ' + entry.fileName + '\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + journalFile);
+            }
+            journalWriter = openJournalWriter(journalFile, true);
+            redundantOps = 0;
+        } catch (IOException e) {
+            PLog.w(TAG, "Unable to write journal", e);
+            ParseIOUtils.closeQuietly(writer);
+            tempFile.delete();
+            journalFile.delete();
+        }
+    }
+
+    // Must be called while holding MUTEX_INDEX, after the index has been updated.
+    private static void appendJournal(String line, boolean flush) {
+        if (journalFile == null) {
+            return;
+        }
+        if (journalWriter == null) {
+            // A previous write failed, so the journal on disk can't be trusted anymore
+            rebuildJournal();
+            return;
+        }
+
         try {
-            return Long.parseLong(name.substring(0, name.indexOf('.')));
-        } catch (NumberFormatException e) {
-            return 0;
+            journalWriter.write(line);
+            journalWriter.write('\n');
+            if (flush) {
+                journalWriter.flush();
+            }
+        } catch (IOException e) {
+            PLog.w(TAG, "Unable to append to journal", e);
+            closeJournal();
+            journalFile.delete();
+            return;
+        }
+
+        redundantOps++;
+        if (redundantOps >= MIN_REDUNDANT_OPS_TO_COMPACT && redundantOps >= index.size()) {
+            rebuildJournal();
         }
     }
 
-    private static File createKeyValueCacheFile(String key) {
-        String filename = String.valueOf(new Date().getTime()) + '.' + key;
-        return new File(getKeyValueCacheDir(), filename);
+    // Must be called while holding MUTEX_INDEX.
+    private static Entry putEntry(Entry entry) {
+        Entry prior = index.put(entry.key, entry);
+        if (prior != null) {
+            totalBytes -= prior.size;
+        }
+        totalBytes += entry.size;
+        return prior;
+    }
+
+    // Must be called while holding MUTEX_INDEX.
+    private static Entry removeEntry(String key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.size;
+        }
+        return entry;
+    }
+
+    // Kicks out least recently used entries until we're within bounds, returning the entries
+    // whose files need to be deleted.
+    // Must be called while holding MUTEX_INDEX.
+    private static List<Entry> trimToSize() {
+        List<Entry> evicted = null;
+        Iterator<Entry> iterator = index.values().iterator();
+        while ((index.size() > maxKeyValueCacheFiles || totalBytes > maxKeyValueCacheBytes)
+                && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            totalBytes -= entry.size;
+            appendJournal(JOURNAL_DEL + ' ' + entry.key, false);
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(entry);
+        }
+        return evicted;
+    }
+
+    // File names are unique per process, so entries for the same key created in the same
+    // millisecond never share a file.
+    // Must be called while holding MUTEX_INDEX.
+    private static long nextTimestamp() {
+        lastTimestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        return lastTimestamp;
+    }
+
+    private static void deleteEntryFile(File dir, Entry entry) {
+        synchronized (getKeyMutex(entry.key)) {
+            new File(dir, entry.fileName).delete();
+        }
+    }
+
+    /** How many files are in the key-value cache. */
+    /* package */
+    static int size() {
+        Parse.waitForInitialization();
+        synchronized (MUTEX_INDEX) {
+            return getIndex().size();
+        }
     }
 
     // Removes all the cache entries.
     /* package */
     static void clearKeyValueCacheDir() {
-        synchronized (MUTEX_IO) {
+        Parse.waitForInitialization();
+        ParseQueryMemoryCache.clear();
+        synchronized (MUTEX_INDEX) {
             File dir = getKeyValueCacheDir();
             if (dir == null) {
                 return;
             }
+            resetIndex();
             File[] entries = dir.listFiles();
             if (entries == null) {
                 return;
@@ -113,60 +389,52 @@ class ParseKeyValueCache {
     // Saves a key-value pair to the cache
     /* package */
     static void saveToKeyValueCache(String key, String value) {
-        synchronized (MUTEX_IO) {
-            File prior = getKeyValueCacheFile(key);
-            if (prior != null) {
-                prior.delete();
+        Parse.waitForInitialization();
+        File dir;
+        Entry prior;
+        List<Entry> evicted;
+        synchronized (getKeyMutex(key)) {
+            long timestamp;
+            synchronized (MUTEX_INDEX) {
+                // Load the index before writing, so a directory scan can't pick up our new file
+                getIndex();
+                dir = directory;
+                timestamp = nextTimestamp();
             }
-            File f = createKeyValueCacheFile(key);
+
+            Entry entry = null;
+            String fileName = String.valueOf(timestamp) + '.' + key;
             try {
-                ParseFileUtils.writeByteArrayToFile(f, value.getBytes("UTF-8"));
+                byte[] bytes = value.getBytes("UTF-8");
+                ParseFileUtils.writeByteArrayToFile(new File(dir, fileName), bytes);
+                entry = new Entry(key, fileName, timestamp, bytes.length);
             } catch (IOException e) {
                 // do nothing
             }
 
-            // Check if we should kick out old cache entries
-            File[] files = getKeyValueCacheDir().listFiles();
-            // We still need this check since dir.mkdir() may fail
-            if (files == null || files.length == 0) {
-                return;
-            }
-
-            int numFiles = files.length;
-            int numBytes = 0;
-            for (File file : files) {
-                numBytes += file.length();
+            synchronized (MUTEX_INDEX) {
+                getIndex();
+                if (entry != null) {
+                    prior = putEntry(entry);
+                    appendJournal(JOURNAL_PUT + ' ' + entry.size + ' ' + entry.fileName, true);
+                } else {
+                    prior = removeEntry(key);
+                    if (prior != null) {
+                        appendJournal(JOURNAL_DEL + ' ' + key, true);
+                    }
+                }
+                // Check if we should kick out old cache entries
+                evicted = trimToSize();
             }
 
-            // If we do not need to clear the cache, simply return
-            if (numFiles <= maxKeyValueCacheFiles && numBytes <= maxKeyValueCacheBytes) {
-                return;
+            if (prior != null && !prior.fileName.equals(fileName)) {
+                new File(dir, prior.fileName).delete();
             }
+        }
 
-            // We need to kick out some cache entries.
-            // Sort oldest-first. We touch on read so mtime is really LRU.
-            // Sometimes (i.e. tests) the time of lastModified isn't granular enough,
-            // so we resort
-            // to sorting by the file name which is always prepended with time in ms
-            Arrays.sort(
-                    files,
-                    (f1, f2) -> {
-                        int dateCompare = Long.compare(f1.lastModified(), f2.lastModified());
-                        if (dateCompare != 0) {
-                            return dateCompare;
-                        } else {
-                            return f1.getName().compareTo(f2.getName());
-                        }
-                    });
-
-            for (File file : files) {
-                numFiles--;
-                numBytes -= file.length();
-                file.delete();
-
-                if (numFiles <= maxKeyValueCacheFiles && numBytes <= maxKeyValueCacheBytes) {
-                    break;
-                }
+        if (evicted != null) {
+            for (Entry entry : evicted) {
+                deleteEntryFile(dir, entry);
             }
         }
     }
@@ -175,10 +443,21 @@ class ParseKeyValueCache {
     // no-op.
     /* package */
     static void clearFromKeyValueCache(String key) {
-        synchronized (MUTEX_IO) {
-            File file = getKeyValueCacheFile(key);
-            if (file != null) {
-                file.delete();
+        Parse.waitForInitialization();
+        ParseQueryMemoryCache.remove(key);
+        synchronized (getKeyMutex(key)) {
+            File dir;
+            Entry entry;
+            synchronized (MUTEX_INDEX) {
+                getIndex();
+                dir = directory;
+                entry = removeEntry(key);
+                if (entry != null) {
+                    appendJournal(JOURNAL_DEL + ' ' + key, true);
+                }
+            }
+            if (entry != null) {
+                new File(dir, entry.fileName).delete();
             }
         }
     }
@@ -187,34 +466,56 @@ class ParseKeyValueCache {
     // Returns null if nothing is there.
     /* package */
     static String loadFromKeyValueCache(final String key, final long maxAgeMilliseconds) {
-        synchronized (MUTEX_IO) {
-            File file = getKeyValueCacheFile(key);
-            if (file == null) {
-                return null;
-            }
+        Parse.waitForInitialization();
+        synchronized (getKeyMutex(key)) {
+            File dir;
+            Entry entry;
+            synchronized (MUTEX_INDEX) {
+                // Looking the entry up marks it as most recently used
+                entry = getIndex().get(key);
+                if (entry == null) {
+                    return null;
+                }
 
-            Date now = new Date();
-            long oldestAcceptableAge = Math.max(0, now.getTime() - maxAgeMilliseconds);
-            if (getKeyValueCacheAge(file) < oldestAcceptableAge) {
-                return null;
+                long oldestAcceptableAge =
+                        Math.max(0, System.currentTimeMillis() - maxAgeMilliseconds);
+                if (entry.timestamp < oldestAcceptableAge) {
+                    return null;
+                }
+                dir = directory;
+                appendJournal(JOURNAL_READ + ' ' + key, false);
             }
 
-            // Update mtime to make the LRU work
-            file.setLastModified(now.getTime());
-
             try {
-                RandomAccessFile f = new RandomAccessFile(file, "r");
+                RandomAccessFile f = new RandomAccessFile(new File(dir, entry.fileName), "r");
                 byte[] bytes = new byte[(int) f.length()];
                 f.readFully(bytes);
                 f.close();
                 return new String(bytes, "UTF-8");
             } catch (IOException e) {
                 PLog.e(TAG, "error reading from cache", e);
+                // The file is unreadable or gone, so forget about it
+                synchronized (MUTEX_INDEX) {
+                    if (getIndex().get(key) == entry) {
+                        removeEntry(key);
+                        appendJournal(JOURNAL_DEL + ' ' + key, true);
+                    }
+                }
                 return null;
             }
         }
     }
 
+    // Returns when the value was saved, or 0 if it's not there.
+    /* package */
+    static long timestampFromKeyValueCache(String key) {
+        Parse.waitForInitialization();
+        synchronized (MUTEX_INDEX) {
+            Entry entry = getIndex().get(key);
+            return entry != null ? entry.timestamp : 0;
+        }
+    }
+
     // Returns null if the value does not exist or is not json
     /* package */
     static JSONObject jsonFromKeyValueCache(String key, long maxAgeMilliseconds) {
@@ -231,4 +532,33 @@ class ParseKeyValueCache {
             return null;
         }
     }
+
+    /** An entry in the in-memory index. */
+    private static class Entry {
+        private final String key;
+        private final String fileName;
+        private final long timestamp;
+        private final long size;
+
+        /* package */ Entry(String key, String fileName, long timestamp, long size) {
+            this.key = key;
+            this.fileName = fileName;
+            this.timestamp = timestamp;
+            this.size = size;
+        }
+
+        // Format: <date>.<key>
+        // Badly formatted files get the epoch as their date
+        /* package */
+        static Entry fromFileName(String fileName, long size) {
+            int dot = fileName.indexOf('.');
+            long timestamp;
+            try {
+                timestamp = Long.parseLong(fileName.substring(0, Math.max(dot, 0)));
+            } catch (NumberFormatException e) {
+                timestamp = 0;
+            }
+            return new Entry(fileName.substring(dot + 1), fileName, timestamp, size);
+        }
+    }
 }
@@ -31,7 +31,6 @@ import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -71,8 +70,8 @@ public class ParseObject implements Parcelable {
     /*
     Internal JSON Keys - Used to store internal data when persisting {@code ParseObject}s locally.
     */
-    private static final String KEY_COMPLETE = "__complete";
-    private static final String KEY_OPERATIONS = "__operations";
+    static final String KEY_COMPLETE = "__complete";
+    static final String KEY_OPERATIONS = "__operations";
     // Array of keys selected when querying for the object. Helps decoding nested {@code
     // ParseObject}s
     // correctly, and helps constructing the {@code State.availableKeys()} set.
@@ -112,6 +111,14 @@ public class ParseObject implements Parcelable {
     final LinkedList<ParseOperationSet> operationSetQueue;
     // Cached State
     private final Map<String, Object> estimatedData;
+    // The keys of estimatedData whose values may lead to dirty ParseObjects or ParseFiles, so
+    // finding dirty children doesn't have to look at every value: the keys whose server values
+    // have children, the keys whose operations put children there, and the keys whose values were
+    // handed out and may have changed in place. A server value is only scanned when it changes.
+    private final Set<String> keysWithChildren = new HashSet<>();
+    private final Set<String> serverKeysWithChildren = new HashSet<>();
+    private State scannedState;
+    private final Set<String> exposedKeys = new HashSet<>();
     private final ParseMulticastDelegate<ParseObject> saveEvent = new ParseMulticastDelegate<>();
     String localId;
     boolean isDeleted;
@@ -613,7 +620,7 @@ public class ParseObject implements Parcelable {
                 // We only need to look at the child object's current estimated data,
                 // because that's the only data that might need to be saved now.
                 collectDirtyChildren(
-                        object.estimatedData, dirtyChildren, dirtyFiles, seen, seenNew);
+                        object.getChildValues(), dirtyChildren, dirtyFiles, seen, seenNew);
 
                 if (object.isDirty(false)) {
                     dirtyChildren.add(object);
@@ -636,11 +643,14 @@ public class ParseObject implements Parcelable {
     }
 
     /**
-     * This saves all of the objects and files reachable from the given object. It does its work in
-     * multiple waves, saving as many as possible in each wave. If there's ever an error, it just
-     * gives up, sets error, and returns NO.
+     * This saves all of the objects and files reachable from the given object. Each object is saved
+     * as soon as the objects and files it points to are, batching together the ones that are ready
+     * at the same time. If there's ever an error, it just gives up and fails with it.
+     *
+     * @see ParseSaveScheduler
      */
     private static Task<Void> deepSaveAsync(final Object object, final String sessionToken) {
+        long startedAt = System.nanoTime();
         Set<ParseObject> objects = new HashSet<>();
         Set<ParseFile> files = new HashSet<>();
         collectDirtyChildren(object, objects, files);
@@ -659,81 +669,10 @@ public class ParseObject implements Parcelable {
         }
         objects.removeAll(users);
 
-        // objects will need to wait for files to be complete since they may be nested children.
-        final AtomicBoolean filesComplete = new AtomicBoolean(false);
-        List<Task<Void>> tasks = new ArrayList<>();
-        for (ParseFile file : files) {
-            tasks.add(file.saveAsync(sessionToken, null, null));
-        }
-        Task<Void> filesTask =
-                Task.whenAll(tasks)
-                        .continueWith(
-                                task -> {
-                                    filesComplete.set(true);
-                                    return null;
-                                });
-
-        // objects will need to wait for users to be complete since they may be nested children.
-        final AtomicBoolean usersComplete = new AtomicBoolean(false);
-        tasks = new ArrayList<>();
-        for (final ParseUser user : users) {
-            tasks.add(user.saveAsync(sessionToken));
-        }
-        Task<Void> usersTask =
-                Task.whenAll(tasks)
-                        .continueWith(
-                                task -> {
-                                    usersComplete.set(true);
-                                    return null;
-                                });
-
-        final Capture<Set<ParseObject>> remaining = new Capture<>(objects);
-        Task<Void> objectsTask =
-                Task.forResult(null)
-                        .continueWhile(
-                                () -> remaining.get().size() > 0,
-                                task -> {
-                                    // Partition the objects into two sets: those that can be save
-                                    // immediately,
-                                    // and those that rely on other objects to be created first.
-                                    final List<ParseObject> current = new ArrayList<>();
-                                    final Set<ParseObject> nextBatch = new HashSet<>();
-                                    for (ParseObject obj : remaining.get()) {
-                                        if (obj.canBeSerialized()) {
-                                            current.add(obj);
-                                        } else {
-                                            nextBatch.add(obj);
-                                        }
-                                    }
-                                    remaining.set(nextBatch);
-
-                                    if (current.size() == 0
-                                            && filesComplete.get()
-                                            && usersComplete.get()) {
-                                        // We do cycle-detection when building the list of objects
-                                        // passed to this function, so
-                                        // this should never get called. But we should check for it
-                                        // anyway, so that we get an
-                                        // exception instead of an infinite loop.
-                                        throw new RuntimeException(
-                                                "Unable to save a ParseObject with a relation to a cycle.");
-                                    }
-
-                                    // Package all save commands together
-                                    if (current.size() == 0) {
-                                        return Task.forResult(null);
-                                    }
-
-                                    return enqueueForAll(
-                                            current,
-                                            toAwait ->
-                                                    saveAllAsync(current, sessionToken, toAwait));
-                                });
-
-        return Task.whenAll(Arrays.asList(filesTask, usersTask, objectsTask));
+        return new ParseSaveScheduler(objects, files, users, sessionToken, startedAt).saveAsync();
     }
 
-    private static <T extends ParseObject> Task<Void> saveAllAsync(
+    /* package */ static <T extends ParseObject> Task<Void> saveAllAsync(
             final List<T> uniqueObjects, final String sessionToken, Task<Void> toAwait) {
         return toAwait.continueWithTask(
                 task -> {
@@ -1882,11 +1821,15 @@ public class ParseObject implements Parcelable {
 
     private boolean hasDirtyChildren() {
         synchronized (mutex) {
+            if (keysWithChildren.isEmpty() && exposedKeys.isEmpty()) {
+                return false;
+            }
+
             // We only need to consider the currently estimated children here,
             // because they're the only ones that might need to be saved in a
             // subsequent call to save, which is the meaning of "dirtiness".
             List<ParseObject> unsavedChildren = new ArrayList<>();
-            collectDirtyChildren(estimatedData, unsavedChildren, null);
+            collectDirtyChildren(getChildValues(), unsavedChildren, null);
             return unsavedChildren.size() > 0;
         }
     }
@@ -2270,7 +2213,7 @@ public class ParseObject implements Parcelable {
              * removed after save is called, but before the unresolved user gets resolved? It
              * won't get saved.
              */
-            task = deepSaveAsync(estimatedData, sessionToken);
+            task = deepSaveAsync(getChildValues(), sessionToken);
         }
 
         return task.onSuccessTask(TaskQueue.<Void>waitFor(toAwait))
@@ -2302,11 +2245,15 @@ public class ParseObject implements Parcelable {
     // ParseCommandCache that it can only return JSONObject result.
     Task<JSONObject> saveAsync(
             ParseHttpClient client, final ParseOperationSet operationSet, String sessionToken) {
-        final ParseRESTCommand command =
-                currentSaveEventuallyCommand(operationSet, PointerEncoder.get(), sessionToken);
+        final ParseRESTCommand command = saveEventuallyCommand(operationSet, sessionToken);
         return command.executeAsync(client);
     }
 
+    /** Returns the command that saves the given {@code saveEventually} operation set. */
+    ParseRESTCommand saveEventuallyCommand(ParseOperationSet operationSet, String sessionToken) {
+        return currentSaveEventuallyCommand(operationSet, PointerEncoder.get(), sessionToken);
+    }
+
     /**
      * Saves this object to the server in a background thread. This is preferable to using {@link
      * #save()}, unless your code is already running from a background thread.
@@ -2383,7 +2330,7 @@ public class ParseObject implements Parcelable {
             // won't necessarily be the current estimatedData. We should resolve
             // this when the multiple save code is added.
             List<ParseObject> unsavedChildren = new ArrayList<>();
-            collectDirtyChildren(estimatedData, unsavedChildren, null);
+            collectDirtyChildren(getChildValues(), unsavedChildren, null);
 
             String localId = null;
             if (getObjectId() == null) {
@@ -2845,38 +2792,39 @@ public class ParseObject implements Parcelable {
         ParseTaskUtils.callbackOnMainThreadAsync(deleteInBackground(), callback);
     }
 
-    /** Returns {@code true} if this object can be serialized for saving. */
-    private boolean canBeSerialized() {
+    /**
+     * Returns the new objects and dirty files this object points to, which have to be saved before
+     * it can be serialized for saving.
+     */
+    /* package */ Set<Object> getSaveDependencies() {
         synchronized (mutex) {
-            final Capture<Boolean> result = new Capture<>(true);
+            final Set<Object> dependencies = new HashSet<>();
 
-            // This method is only used for batching sets of objects for saveAll
-            // and when saving children automatically. Since it's only used to
-            // determine whether or not save should be called on them, it only
-            // needs to examine their current values, so we use estimatedData.
+            // This method is only used when saving children automatically, to determine when
+            // save can be called on them, so it only needs to examine their current values. The
+            // objects they point to are encoded as pointers, so we don't look inside them.
             new ParseTraverser() {
                 @Override
                 protected boolean visit(Object value) {
                     if (value instanceof ParseFile) {
                         ParseFile file = (ParseFile) value;
                         if (file.isDirty()) {
-                            result.set(false);
+                            dependencies.add(file);
                         }
                     }
 
                     if (value instanceof ParseObject) {
                         ParseObject object = (ParseObject) value;
                         if (object.getObjectId() == null) {
-                            result.set(false);
+                            dependencies.add(object);
                         }
                     }
 
-                    // Continue to traverse only if it can still be serialized.
-                    return result.get();
+                    return true;
                 }
-            }.setYieldRoot(false).setTraverseParseObjects(true).traverse(this);
+            }.setYieldRoot(false).setTraverseParseObjects(false).traverse(getChildValues());
 
-            return result.get();
+            return dependencies;
         }
     }
 
@@ -2908,9 +2856,129 @@ public class ParseObject implements Parcelable {
             for (String key : state.keySet()) {
                 estimatedData.put(key, state.get(key));
             }
+            if (scannedState != state) {
+                updateServerKeysWithChildren();
+            }
+            keysWithChildren.clear();
+            keysWithChildren.addAll(serverKeysWithChildren);
             for (ParseOperationSet operations : operationSetQueue) {
                 applyOperations(operations, estimatedData);
+                for (Map.Entry<String, ParseFieldOperation> entry : operations.entrySet()) {
+                    updateKeysWithChildren(entry.getKey(), entry.getValue());
+                }
+            }
+            exposedKeys.retainAll(estimatedData.keySet());
+        }
+    }
+
+    /**
+     * Scans the server values that aren't the same as in the state that was scanned last for
+     * children, so unchanged values, e.g. a large array of pointers, are only scanned once. Must be
+     * called while holding the mutex.
+     */
+    private void updateServerKeysWithChildren() {
+        for (String key : state.keySet()) {
+            Object value = state.get(key);
+            if (scannedState != null && value != null && value == scannedState.get(key)) {
+                continue;
+            }
+            if (value != null && hasChildren(value)) {
+                serverKeysWithChildren.add(key);
+            } else {
+                serverKeysWithChildren.remove(key);
+            }
+        }
+        serverKeysWithChildren.retainAll(state.keySet());
+        scannedState = state;
+    }
+
+    /**
+     * Records whether {@code operation} may have put children in the value of {@code key}. Only the
+     * objects of the operation are looked at, so adding to a large array doesn't walk it. Must be
+     * called while holding the mutex whenever an operation is applied to estimatedData.
+     */
+    private void updateKeysWithChildren(String key, ParseFieldOperation operation) {
+        if (operation instanceof ParseSetOperation) {
+            // The caller still has the value, so it's handed out already
+            Object value = ((ParseSetOperation) operation).getValue();
+            if (mayChangeInPlace(value) || value instanceof ParseFile) {
+                keysWithChildren.add(key);
+            } else {
+                keysWithChildren.remove(key);
+            }
+        } else if (operation instanceof ParseDeleteOperation) {
+            keysWithChildren.remove(key);
+        } else if (operation instanceof ParseAddOperation) {
+            if (hasChildren(((ParseAddOperation) operation).objects)) {
+                keysWithChildren.add(key);
             }
+        } else if (operation instanceof ParseAddUniqueOperation) {
+            if (hasChildren(((ParseAddUniqueOperation) operation).objects)) {
+                keysWithChildren.add(key);
+            }
+        }
+    }
+
+    /** Called when a value in estimatedData is handed out, since it may be changed in place. */
+    private void onValueExposed(String key, Object value) {
+        if (mayChangeInPlace(value)) {
+            exposedKeys.add(key);
+        }
+    }
+
+    /**
+     * Whether children may be added to {@code value} in place, or it may become dirty itself. ACLs
+     * may be given the unresolved current user.
+     */
+    private static boolean mayChangeInPlace(Object value) {
+        return value instanceof List
+                || value instanceof Map
+                || value instanceof JSONArray
+                || value instanceof JSONObject
+                || value instanceof ParseObject
+                || value instanceof ParseACL;
+    }
+
+    private static boolean hasChildren(Object value) {
+        final Capture<Boolean> result = new Capture<>(false);
+        new ParseTraverser() {
+            @Override
+            protected boolean visit(Object object) {
+                // ACLs may point to the unresolved current user.
+                if (object instanceof ParseObject
+                        || object instanceof ParseFile
+                        || object instanceof ParseACL) {
+                    result.set(true);
+                }
+                return !result.get();
+            }
+        }.setYieldRoot(true).traverse(value);
+        return result.get();
+    }
+
+    /** Returns the values that may lead to other {@code ParseObject}s or {@link ParseFile}s. */
+    private List<Object> getChildValues() {
+        synchronized (mutex) {
+            List<Object> values = new ArrayList<>(keysWithChildren.size() + exposedKeys.size());
+            for (String key : keysWithChildren) {
+                values.add(estimatedData.get(key));
+            }
+            for (String key : exposedKeys) {
+                if (!keysWithChildren.contains(key)) {
+                    values.add(estimatedData.get(key));
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Returns the current value of {@code key} for traversals within the SDK. Unlike {@link
+     * #get(String)}, the value isn't considered handed out.
+     */
+    /* package */ Object getEstimatedValue(String key) {
+        synchronized (mutex) {
+            return estimatedData.get(key);
         }
     }
 
@@ -2935,6 +3003,12 @@ public class ParseObject implements Parcelable {
             } else {
                 estimatedData.remove(key);
             }
+            if (operation instanceof ParseSetOperation
+                    || operation instanceof ParseDeleteOperation) {
+                // The value that was handed out isn't there anymore
+                exposedKeys.remove(key);
+            }
+            updateKeysWithChildren(key, operation);
 
             ParseFieldOperation oldOperation = currentOperations().get(key);
             ParseFieldOperation newOperation = operation.mergeWithPrevious(oldOperation);
@@ -3186,6 +3260,8 @@ public class ParseObject implements Parcelable {
 
             if (value instanceof List) {
                 value = PointerOrLocalIdEncoder.get().encode(value);
+            } else {
+                onValueExposed(key, value);
             }
 
             if (!(value instanceof JSONArray)) {
@@ -3209,6 +3285,7 @@ public class ParseObject implements Parcelable {
             if (!(value instanceof List)) {
                 return null;
             }
+            onValueExposed(key, value);
             @SuppressWarnings("unchecked")
             List<T> returnValue = (List<T>) value;
             return returnValue;
@@ -3229,6 +3306,7 @@ public class ParseObject implements Parcelable {
             if (!(value instanceof Map)) {
                 return null;
             }
+            onValueExposed(key, value);
             @SuppressWarnings("unchecked")
             Map<String, V> returnValue = (Map<String, V>) value;
             return returnValue;
@@ -3249,6 +3327,8 @@ public class ParseObject implements Parcelable {
 
             if (value instanceof Map) {
                 value = PointerOrLocalIdEncoder.get().encode(value);
+            } else {
+                onValueExposed(key, value);
             }
 
             if (!(value instanceof JSONObject)) {
@@ -3449,8 +3529,9 @@ public class ParseObject implements Parcelable {
             if (mayCopy && ((ParseACL) acl).isShared()) {
                 ParseACL copy = new ParseACL((ParseACL) acl);
                 estimatedData.put(KEY_ACL, copy);
-                return copy;
+                acl = copy;
             }
+            onValueExposed(KEY_ACL, acl);
             return (ParseACL) acl;
         }
     }
@@ -3538,6 +3619,7 @@ public class ParseObject implements Parcelable {
             if (value instanceof ParseRelation) {
                 ((ParseRelation<?>) value).ensureParentAndKey(this, key);
             }
+            onValueExposed(key, value);
 
             return value;
         }
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import org.json.JSONObject;
 
@@ -52,6 +53,13 @@ class ParsePinningEventuallyQueue extends ParseEventuallyQueue {
      * ParsePinningEventuallyQueue#operationSetTaskQueue}.
      */
     private final ArrayList<String> eventuallyPinUUIDQueue = new ArrayList<>();
+    /** Map of {@link EventuallyPin#getUUID()} to the EventuallyPins in eventuallyPinUUIDQueue. */
+    private final HashMap<String, EventuallyPin> queuedEventuallyPins = new HashMap<>();
+    /**
+     * {@link EventuallyPin#getUUID()} of the saves that were sent along with an earlier eventually
+     * operation in a /batch request, and only have to leave operationSetTaskQueue.
+     */
+    private final HashSet<String> batchedEventuallyPinUUIDs = new HashSet<>();
 
     private final ConnectivityNotifier notifier;
     /** Map of eventually operation UUID to TCS that is resolved when the operation is complete. */
@@ -169,6 +177,7 @@ class ParsePinningEventuallyQueue extends ParseEventuallyQueue {
             pendingEventuallyTasks.clear();
             uuidToOperationSet.clear();
             uuidToEventuallyPin.clear();
+            batchedEventuallyPinUUIDs.clear();
         }
 
         try {
@@ -292,18 +301,24 @@ class ParsePinningEventuallyQueue extends ParseEventuallyQueue {
      */
     private Task<Void> runEventuallyAsync(final EventuallyPin eventuallyPin) {
         final String uuid = eventuallyPin.getUUID();
-        if (eventuallyPinUUIDQueue.contains(uuid)) {
-            // We don't want to enqueue the same operation more than once.
-            return Task.forResult(null);
+        synchronized (taskQueueSyncLock) {
+            if (eventuallyPinUUIDQueue.contains(uuid)) {
+                // We don't want to enqueue the same operation more than once.
+                return Task.forResult(null);
+            }
+            eventuallyPinUUIDQueue.add(uuid);
+            queuedEventuallyPins.put(uuid, eventuallyPin);
         }
-        eventuallyPinUUIDQueue.add(uuid);
 
         operationSetTaskQueue.enqueue(
                 toAwait ->
                         runEventuallyAsync(eventuallyPin, toAwait)
                                 .continueWithTask(
                                         task -> {
-                                            eventuallyPinUUIDQueue.remove(uuid);
+                                            synchronized (taskQueueSyncLock) {
+                                                eventuallyPinUUIDQueue.remove(uuid);
+                                                queuedEventuallyPins.remove(uuid);
+                                            }
                                             return task;
                                         }));
 
@@ -312,52 +327,172 @@ class ParsePinningEventuallyQueue extends ParseEventuallyQueue {
 
     /**
      * Runs the eventually operation. It first waits for a valid connection and if it's a save, it
-     * also waits for the ParseObject to be ready.
+     * also waits for the ParseObject to be ready. Saves that follow it in the queue, and whose
+     * ParseObjects are ready too, are run along with it in a single /batch request.
      *
      * @return A task that is resolved when the eventually operation completes.
      */
     private Task<Void> runEventuallyAsync(
             final EventuallyPin eventuallyPin, final Task<Void> toAwait) {
-        return toAwait.continueWithTask(task -> waitForConnectionAsync())
-                .onSuccessTask(
-                        task ->
-                                waitForOperationSetAndEventuallyPin(null, eventuallyPin)
-                                        .continueWithTask(
-                                                task1 -> {
-                                                    Exception error = task1.getError();
-                                                    if (error != null) {
-                                                        if (error instanceof PauseException) {
-                                                            // Bubble up the PauseException.
-                                                            return task1.makeVoid();
-                                                        }
-
-                                                        if (Parse.LOG_LEVEL_ERROR
-                                                                >= Parse.getLogLevel()) {
-                                                            PLog.e(
-                                                                    TAG,
-                                                                    "Failed to run command.",
-                                                                    error);
-                                                        }
-
-                                                        notifyTestHelper(
-                                                                TestHelper.COMMAND_FAILED, error);
-                                                    } else {
-                                                        notifyTestHelper(
-                                                                TestHelper.COMMAND_SUCCESSFUL);
-                                                    }
+        return toAwait.continueWithTask(
+                task -> {
+                    synchronized (taskQueueSyncLock) {
+                        if (batchedEventuallyPinUUIDs.remove(eventuallyPin.getUUID())) {
+                            // It already ran in the /batch request of an earlier save.
+                            return Task.forResult(null);
+                        }
+                    }
+
+                    return waitForConnectionAsync()
+                            .onSuccessTask(
+                                    task1 -> {
+                                        List<EventuallyPin> pins = new ArrayList<>();
+                                        List<ParseOperationSet> operationSets = new ArrayList<>();
+                                        List<ParseRESTCommand> commands = new ArrayList<>();
+                                        collectBatch(eventuallyPin, pins, operationSets, commands);
+                                        if (commands.size() > 1) {
+                                            return runBatchAsync(pins, operationSets, commands);
+                                        }
 
-                                                    TaskCompletionSource<JSONObject> tcs =
-                                                            pendingOperationSetUUIDTasks.remove(
-                                                                    eventuallyPin.getUUID());
-                                                    if (tcs != null) {
-                                                        if (error != null) {
-                                                            tcs.setError(error);
-                                                        } else {
-                                                            tcs.setResult(task1.getResult());
-                                                        }
-                                                    }
-                                                    return task1.makeVoid();
-                                                }));
+                                        return waitForOperationSetAndEventuallyPin(
+                                                        null, eventuallyPin)
+                                                .continueWithTask(
+                                                        task2 ->
+                                                                completeEventuallyAsync(
+                                                                        eventuallyPin, task2));
+                                    });
+                });
+    }
+
+    /** Notifies the test helper and the caller of {@code enqueueEventuallyAsync} of the result. */
+    private Task<Void> completeEventuallyAsync(EventuallyPin eventuallyPin, Task<JSONObject> task) {
+        Exception error = task.getError();
+        if (error != null) {
+            if (error instanceof PauseException) {
+                // Bubble up the PauseException.
+                return task.makeVoid();
+            }
+
+            if (Parse.LOG_LEVEL_ERROR >= Parse.getLogLevel()) {
+                PLog.e(TAG, "Failed to run command.", error);
+            }
+
+            notifyTestHelper(TestHelper.COMMAND_FAILED, error);
+        } else {
+            notifyTestHelper(TestHelper.COMMAND_SUCCESSFUL);
+        }
+
+        TaskCompletionSource<JSONObject> tcs =
+                pendingOperationSetUUIDTasks.remove(eventuallyPin.getUUID());
+        if (tcs != null) {
+            if (error != null) {
+                tcs.setError(error);
+            } else {
+                tcs.setResult(task.getResult());
+            }
+        }
+        return task.makeVoid();
+    }
+
+    /**
+     * Collects the saves that can be sent in a single /batch request, starting with {@code first}.
+     * Those are the queued saves whose operation sets are already waiting in
+     * waitForOperationSetAndEventuallyPin, up to the first one that isn't, uses another session
+     * token, or points to an object that hasn't been created yet, e.g. one that's created by the
+     * batch. Leaves {@code commands} empty if there's nothing to run along with {@code first}.
+     */
+    private void collectBatch(
+            EventuallyPin first,
+            List<EventuallyPin> pins,
+            List<ParseOperationSet> operationSets,
+            List<ParseRESTCommand> commands) {
+        synchronized (taskQueueSyncLock) {
+            int next = eventuallyPinUUIDQueue.indexOf(first.getUUID());
+            while (next >= 0
+                    && next < eventuallyPinUUIDQueue.size()
+                    && pins.size() < ParseRESTObjectBatchCommand.COMMAND_OBJECT_BATCH_MAX_SIZE) {
+                EventuallyPin pin = queuedEventuallyPins.get(eventuallyPinUUIDQueue.get(next));
+                if (pin == null
+                        || pin.getType() != EventuallyPin.TYPE_SAVE
+                        || !ParseTextUtils.equals(first.getSessionToken(), pin.getSessionToken())) {
+                    break;
+                }
+                ParseOperationSet operationSet = uuidToOperationSet.get(pin.getOperationSetUUID());
+                if (operationSet == null) {
+                    break;
+                }
+                pins.add(pin);
+                operationSets.add(operationSet);
+                next++;
+            }
+        }
+        if (pins.size() < 2) {
+            return;
+        }
+
+        // The commands are built outside of taskQueueSyncLock, since that locks the objects.
+        HashSet<ParseObject> objects = new HashSet<>();
+        for (int i = 0; i < pins.size(); i++) {
+            EventuallyPin pin = pins.get(i);
+            ParseObject object = pin.getObject();
+            if (!objects.add(object)) {
+                // Each save of an object has to wait for the one before it.
+                break;
+            }
+            try {
+                commands.add(
+                        object.saveEventuallyCommand(operationSets.get(i), pin.getSessionToken()));
+            } catch (IllegalStateException e) {
+                // It points to an object that hasn't been created yet.
+                break;
+            }
+        }
+        pins.subList(commands.size(), pins.size()).clear();
+        operationSets.subList(commands.size(), operationSets.size()).clear();
+    }
+
+    /**
+     * Runs the saves collected by {@link #collectBatch} and completes them, along with the joins of
+     * their operation sets in waitForOperationSetAndEventuallyPin.
+     *
+     * @return A task that is resolved when all the saves complete.
+     */
+    private Task<Void> runBatchAsync(
+            final List<EventuallyPin> pins,
+            final List<ParseOperationSet> operationSets,
+            final List<ParseRESTCommand> commands) {
+        final List<TaskCompletionSource<JSONObject>> tcss = new ArrayList<>();
+        synchronized (taskQueueSyncLock) {
+            for (int i = 0; i < pins.size(); i++) {
+                if (i > 0) {
+                    batchedEventuallyPinUUIDs.add(pins.get(i).getUUID());
+                }
+                tcss.add(pendingEventuallyTasks.get(pins.get(i).getOperationSetUUID()));
+            }
+        }
+
+        return processBatch(pins, operationSets, commands)
+                .continueWithTask(
+                        task -> {
+                            List<Task<Void>> tasks = new ArrayList<>();
+                            for (int i = 0; i < pins.size(); i++) {
+                                final EventuallyPin pin = pins.get(i);
+                                Task<JSONObject> processTask =
+                                        task.isFaulted()
+                                                ? Task.forError(task.getError())
+                                                : task.getResult().get(i);
+                                tasks.add(
+                                        completeOperationSetAsync(
+                                                        pin.getOperationSetUUID(),
+                                                        tcss.get(i),
+                                                        processTask)
+                                                .continueWithTask(
+                                                        task1 ->
+                                                                completeEventuallyAsync(
+                                                                        pin, task1)));
+                            }
+                            return Task.whenAll(tasks);
+                        });
     }
 
     /**
@@ -408,24 +543,34 @@ class ParsePinningEventuallyQueue extends ParseEventuallyQueue {
         }
 
         return process(eventuallyPin, operationSet)
-                .continueWithTask(
-                        task -> {
-                            synchronized (taskQueueSyncLock) {
-                                pendingEventuallyTasks.remove(uuid);
-                                uuidToOperationSet.remove(uuid);
-                                uuidToEventuallyPin.remove(uuid);
-                            }
+                .continueWithTask(task -> completeOperationSetAsync(uuid, tcs, task));
+    }
 
-                            Exception error = task.getError();
-                            if (error != null) {
-                                tcs.trySetError(error);
-                            } else if (task.isCancelled()) {
-                                tcs.trySetCancelled();
-                            } else {
-                                tcs.trySetResult(task.getResult());
-                            }
-                            return tcs.getTask();
-                        });
+    /**
+     * Ends the join of an operation set in waitForOperationSetAndEventuallyPin once its eventually
+     * operation has run, and passes the result on to the waiting {@link ParseObject#taskQueue}.
+     */
+    private Task<JSONObject> completeOperationSetAsync(
+            String uuid, TaskCompletionSource<JSONObject> tcs, Task<JSONObject> task) {
+        synchronized (taskQueueSyncLock) {
+            pendingEventuallyTasks.remove(uuid);
+            uuidToOperationSet.remove(uuid);
+            uuidToEventuallyPin.remove(uuid);
+        }
+
+        if (tcs == null) {
+            // The queue was paused while it ran.
+            return task;
+        }
+        Exception error = task.getError();
+        if (error != null) {
+            tcs.trySetError(error);
+        } else if (task.isCancelled()) {
+            tcs.trySetCancelled();
+        } else {
+            tcs.trySetResult(task.getResult());
+        }
+        return tcs.getTask();
     }
 
     /** Invokes the eventually operation. */
@@ -473,43 +618,124 @@ class ParsePinningEventuallyQueue extends ParseEventuallyQueue {
                                             }
                                         }
 
-                                        // Delete the command regardless, even if it failed.
-                                        // Otherwise, we'll just keep
-                                        // trying it forever.
-                                        // We don't have to wait for taskQueue since it will not be
-                                        // enqueued again
-                                        // since this EventuallyPin is still in
-                                        // eventuallyPinUUIDQueue.
-                                        return eventuallyPin
-                                                .unpinInBackground(EventuallyPin.PIN_NAME)
-                                                .continueWithTask(
-                                                        task12 -> {
-                                                            JSONObject result =
-                                                                    executeTask1.getResult();
-                                                            if (type == EventuallyPin.TYPE_SAVE) {
-                                                                return object
-                                                                        .handleSaveEventuallyResultAsync(
-                                                                                result,
-                                                                                operationSet);
-                                                            } else if (type
-                                                                    == EventuallyPin.TYPE_DELETE) {
-                                                                if (executeTask1.isFaulted()) {
-                                                                    return task12;
-                                                                } else {
-                                                                    return object
-                                                                            .handleDeleteEventuallyResultAsync();
-                                                                }
-                                                            } else { // else if (type ==
-                                                                // EventuallyPin.TYPE_COMMAND)
-                                                                // {
-                                                                return task12;
-                                                            }
-                                                        })
-                                                .continueWithTask(task1 -> executeTask1);
+                                        return finishAsync(
+                                                eventuallyPin, operationSet, executeTask1);
                                     });
                         });
     }
 
+    /**
+     * Invokes the saves collected by {@link #collectBatch} in a single /batch request.
+     *
+     * @return A task that is resolved with a task for each save, once they have all completed.
+     */
+    private Task<List<Task<JSONObject>>> processBatch(
+            final List<EventuallyPin> pins,
+            final List<ParseOperationSet> operationSets,
+            final List<ParseRESTCommand> commands) {
+        return waitForConnectionAsync()
+                .onSuccessTask(
+                        task -> {
+                            final List<Task<JSONObject>> executeTasks =
+                                    ParseRESTObjectBatchCommand.executeBatch(
+                                            httpClient, commands, pins.get(0).getSessionToken());
+
+                            return Task.whenAll(executeTasks)
+                                    .continueWithTask(
+                                            task1 -> {
+                                                final List<Task<JSONObject>> tasks =
+                                                        new ArrayList<>();
+                                                Exception error = getBatchError(executeTasks);
+                                                if (error instanceof ParseException
+                                                        && ((ParseException) error).getCode()
+                                                                == ParseException
+                                                                        .CONNECTION_FAILED) {
+                                                    setConnected(false);
+
+                                                    notifyTestHelper(TestHelper.NETWORK_DOWN);
+
+                                                    return processBatch(
+                                                            pins, operationSets, commands);
+                                                } else if (error != null) {
+                                                    // The server turned down the /batch request
+                                                    // itself, so run the saves one at a time
+                                                    // instead, and only drop the ones that fail on
+                                                    // their own.
+                                                    Task<JSONObject> previous =
+                                                            Task.forResult(null);
+                                                    for (int i = 0; i < pins.size(); i++) {
+                                                        final EventuallyPin pin = pins.get(i);
+                                                        final ParseOperationSet operationSet =
+                                                                operationSets.get(i);
+                                                        previous =
+                                                                previous.continueWithTask(
+                                                                        task2 ->
+                                                                                process(
+                                                                                        pin,
+                                                                                        operationSet));
+                                                        tasks.add(previous);
+                                                    }
+                                                } else {
+                                                    for (int i = 0; i < pins.size(); i++) {
+                                                        tasks.add(
+                                                                finishAsync(
+                                                                        pins.get(i),
+                                                                        operationSets.get(i),
+                                                                        executeTasks.get(i)));
+                                                    }
+                                                }
+                                                return Task.whenAll(tasks)
+                                                        .continueWith(task2 -> tasks);
+                                            });
+                        });
+    }
+
+    /**
+     * Returns the error of a /batch request that failed as a whole, or null if each of its commands
+     * got a result of its own.
+     */
+    private static Exception getBatchError(List<Task<JSONObject>> tasks) {
+        Exception error = tasks.get(0).getError();
+        for (Task<JSONObject> task : tasks) {
+            if (task.getError() != error) {
+                return null;
+            }
+        }
+        return error;
+    }
+
+    /** Unpins the eventually operation once it has run, and handles its result. */
+    private Task<JSONObject> finishAsync(
+            final EventuallyPin eventuallyPin,
+            final ParseOperationSet operationSet,
+            final Task<JSONObject> executeTask) {
+        final int type = eventuallyPin.getType();
+        final ParseObject object = eventuallyPin.getObject();
+
+        // Delete the command regardless, even if it failed. Otherwise, we'll just keep trying it
+        // forever.
+        // We don't have to wait for taskQueue since it will not be enqueued again since this
+        // EventuallyPin is still in eventuallyPinUUIDQueue.
+        return eventuallyPin
+                .unpinInBackground(EventuallyPin.PIN_NAME)
+                .continueWithTask(
+                        task -> {
+                            JSONObject result = executeTask.getResult();
+                            if (type == EventuallyPin.TYPE_SAVE) {
+                                return object.handleSaveEventuallyResultAsync(result, operationSet);
+                            } else if (type == EventuallyPin.TYPE_DELETE) {
+                                if (executeTask.isFaulted()) {
+                                    return task;
+                                } else {
+                                    return object.handleDeleteEventuallyResultAsync();
+                                }
+                            } else { // else if (type == EventuallyPin.TYPE_COMMAND) {
+                                return task;
+                            }
+                        })
+                .continueWithTask(task -> executeTask);
+    }
+
     @Override
     /* package */ void simulateReboot() {
         pause();
@@ -29,6 +29,7 @@ public class ParsePlugins {
     File filesDir;
     ParseHttpClient restClient;
     ParseHttpClient fileClient;
+    ParseRequestCoalescer requestCoalescer;
     private Context applicationContext;
     private InstallationId installationId;
 
@@ -96,7 +97,11 @@ public class ParsePlugins {
     ParseHttpClient fileClient() {
         synchronized (lock) {
             if (fileClient == null) {
-                fileClient = ParseHttpClient.createClient(configuration.clientBuilder);
+                fileClient =
+                        ParseHttpClient.createClient(
+                                configuration.clientBuilder,
+                                configuration.asyncRequestsEnabled,
+                                configuration.maxRequestsPerHost);
             }
             return fileClient;
         }
@@ -155,17 +160,31 @@ public class ParsePlugins {
                                                     .build();
                                     return chain.proceed(request);
                                 });
-                restClient = ParseHttpClient.createClient(clientBuilder);
+                restClient =
+                        ParseHttpClient.createClient(
+                                clientBuilder,
+                                configuration.asyncRequestsEnabled,
+                                configuration.maxRequestsPerHost);
             }
             return restClient;
         }
     }
 
+    ParseRequestCoalescer requestCoalescer() {
+        synchronized (lock) {
+            if (requestCoalescer == null && configuration.requestCoalescingEnabled) {
+                requestCoalescer = new ParseRequestCoalescer();
+            }
+            return requestCoalescer;
+        }
+    }
+
     String userAgent() {
         return "Parse Android SDK API Level " + Build.VERSION.SDK_INT;
     }
 
     InstallationId installationId() {
+        Parse.waitForInitialization();
         synchronized (lock) {
             if (installationId == null) {
                 installationId =
@@ -176,6 +195,8 @@ public class ParsePlugins {
     }
 
     File getCacheDir() {
+        // Before taking lock, which Parse#checkCacheApplicationId() needs
+        Parse.waitForInitialization();
         synchronized (lock) {
             if (cacheDir == null) {
                 cacheDir = new File(applicationContext.getCacheDir(), "com.parse");
@@ -185,6 +206,7 @@ public class ParsePlugins {
     }
 
     File getFilesDir() {
+        Parse.waitForInitialization();
         synchronized (lock) {
             if (filesDir == null) {
                 filesDir = new File(applicationContext.getFilesDir(), "com.parse");
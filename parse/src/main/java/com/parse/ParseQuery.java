@@ -16,6 +16,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -446,7 +447,7 @@ public class ParseQuery<T extends ParseObject> {
         ParseTaskUtils.callbackOnMainThreadAsync(task, callback);
     }
 
-    private Task<List<T>> findAsync(final State<T> state) {
+    /* package */ Task<List<T>> findAsync(final State<T> state) {
         final TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
         return perform(
                 () ->
@@ -464,6 +465,35 @@ public class ParseQuery<T extends ParseObject> {
         return ParseQuery.getQueryController().findAsync(state, user, cancellationToken);
     }
 
+    /**
+     * Creates a {@link ParseQueryPager} that fetches the results of this query {@code pageSize} at
+     * a time, for queries with too many results to hold in memory at once.
+     *
+     * @param pageSize The number of objects to fetch per page.
+     * @return A new {@link ParseQueryPager}.
+     * @throws IllegalArgumentException if this query can't be paged through, see {@link
+     *     ParseQueryPager}.
+     */
+    public ParseQueryPager<T> pager(int pageSize) {
+        return new ParseQueryPager<>(this, pageSize);
+    }
+
+    /**
+     * Iterates over the results of this query, fetching them {@code pageSize} at a time with a
+     * {@link ParseQueryPager}. Up to {@code prefetch} pages are requested ahead of the one being
+     * iterated over.
+     *
+     * <p>{@link Iterator#hasNext()} blocks while the next page is fetched, so this must not be used
+     * from the main thread. Errors are thrown from it as {@link UncheckedParseException}s.
+     *
+     * @param pageSize The number of objects to fetch per page.
+     * @param prefetch The number of pages to request ahead.
+     * @return An {@link Iterator} over the results of this query.
+     */
+    public Iterator<T> iterator(int pageSize, int prefetch) {
+        return new ParseQueryIterator<>(pager(pageSize), prefetch);
+    }
+
     /**
      * Retrieves at most one {@link ParseObject} that satisfies this query from the source in a
      * background thread.
@@ -1849,7 +1879,7 @@ public class ParseQuery<T extends ParseObject> {
              * @param constraints The array of queries to or
              * @return this, so you can chain this call.
              */
-            private Builder<T> whereSatifiesAnyOf(List<QueryConstraints> constraints) {
+            /* package */ Builder<T> whereSatifiesAnyOf(List<QueryConstraints> constraints) {
                 where.put("$or", constraints);
                 return this;
             }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import com.parse.boltsinternal.Task;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * A blocking {@link Iterator} over the pages of a {@link ParseQueryPager}, which keeps up to {@code
+ * prefetch} pages requested ahead of the one being iterated over.
+ */
+/* package */ class ParseQueryIterator<T extends ParseObject> implements Iterator<T> {
+
+    private final ParseQueryPager<T> pager;
+    private final int prefetch;
+    private final Queue<Task<List<T>>> pages = new ArrayDeque<>();
+    private Iterator<T> page = Collections.emptyIterator();
+
+    /* package */ ParseQueryIterator(ParseQueryPager<T> pager, int prefetch) {
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("prefetch must not be negative");
+        }
+        this.pager = pager;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext()) {
+            // The pager only knows it ran out once a page comes back short, so some of these
+            // requests may resolve to empty pages without fetching anything
+            while (pages.size() <= prefetch && pager.hasNextPage()) {
+                pages.add(pager.nextPageInBackground());
+            }
+            if (pages.isEmpty()) {
+                return false;
+            }
+            try {
+                page = ParseTaskUtils.wait(pages.remove()).iterator();
+            } catch (ParseException e) {
+                throw new UncheckedParseException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+}
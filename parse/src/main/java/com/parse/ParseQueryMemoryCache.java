@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory tier in front of the query cache on disk, so a cached {@code find} doesn't have to
+ * read a file, parse its JSON and decode every object again.
+ *
+ * <p>Entries are keyed by the cache key of the find command and hold the decoded states of the
+ * results. They're evicted least recently used first once their approximate size, which is
+ * estimated from the size of the JSON they were decoded from, goes over the budget set with {@link
+ * Parse.Configuration.Builder#maxQueryMemoryCacheBytes(int)}.
+ *
+ * <p>Objects handed out are always new instances, so changing the results of one query never
+ * changes the results of another.
+ */
+public class ParseQueryMemoryCache {
+
+    /* package */ static final int DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES = 1024 * 1024;
+
+    // The rough cost of an entry besides the data of its objects
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private static final Object MUTEX = new Object();
+
+    /* package */ static int maxQueryMemoryCacheBytes = DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES;
+
+    // Access-ordered, so iteration goes from least to most recently used. Guarded by MUTEX.
+    private static final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalBytes;
+    private static long hitCount;
+    private static long missCount;
+    private static long evictionCount;
+
+    private ParseQueryMemoryCache() {
+        // do nothing
+    }
+
+    /** @return the number of lookups that were answered from memory. */
+    public static long getHitCount() {
+        synchronized (MUTEX) {
+            return hitCount;
+        }
+    }
+
+    /** @return the number of lookups that had to go to the cache on disk. */
+    public static long getMissCount() {
+        synchronized (MUTEX) {
+            return missCount;
+        }
+    }
+
+    /** @return the number of entries that were dropped to stay within the budget. */
+    public static long getEvictionCount() {
+        synchronized (MUTEX) {
+            return evictionCount;
+        }
+    }
+
+    /** @return the approximate number of bytes held. */
+    public static long size() {
+        synchronized (MUTEX) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Caches the results of a find.
+     *
+     * @param key The cache key of the find command.
+     * @param results The results of the find.
+     * @param timestamp When the results were received, in milliseconds.
+     * @param jsonLength The length of the JSON the results were decoded from.
+     */
+    /* package */ static void put(
+            String key, List<? extends ParseObject> results, long timestamp, int jsonLength) {
+        // Decoded strings take two bytes a char, which roughly makes up for the JSON syntax that
+        // isn't kept
+        long bytes = 2L * jsonLength + ENTRY_OVERHEAD_BYTES;
+        if (bytes > maxQueryMemoryCacheBytes) {
+            // It would only push everything else out before being evicted itself
+            remove(key);
+            return;
+        }
+
+        // Snapshot the results, since the objects we were given are being handed out
+        List<ParseObject.State> states = new ArrayList<>(results.size());
+        for (ParseObject result : results) {
+            states.add(copyState(result.getState()));
+        }
+
+        synchronized (MUTEX) {
+            Entry prior = entries.get(key);
+            if (prior != null && prior.timestamp > timestamp) {
+                // Someone already put newer results
+                return;
+            }
+            if (prior != null) {
+                totalBytes -= prior.bytes;
+            }
+            entries.put(key, new Entry(states, timestamp, bytes));
+            totalBytes += bytes;
+            trimToSize();
+        }
+    }
+
+    /**
+     * Looks up the results of a find.
+     *
+     * @param key The cache key of the find command.
+     * @param maxAgeMilliseconds How old the results may be.
+     * @return new objects for the results, or {@code null} if they aren't held or are too old.
+     */
+    /* package */ static <T extends ParseObject> List<T> get(String key, long maxAgeMilliseconds) {
+        Entry entry;
+        synchronized (MUTEX) {
+            entry = entries.get(key);
+            long oldestAcceptableAge = Math.max(0, System.currentTimeMillis() - maxAgeMilliseconds);
+            if (entry == null || entry.timestamp < oldestAcceptableAge) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+        }
+
+        List<T> results = new ArrayList<>(entry.states.size());
+        for (ParseObject.State state : entry.states) {
+            results.add(ParseObject.from(copyState(state)));
+        }
+        return results;
+    }
+
+    /** Removes the results of a find, if they're held. */
+    /* package */ static void remove(String key) {
+        synchronized (MUTEX) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                totalBytes -= entry.bytes;
+            }
+        }
+    }
+
+    /** Removes every entry. The metrics are kept. */
+    /* package */ static void clear() {
+        synchronized (MUTEX) {
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    /* package for tests */
+    static void resetMetrics() {
+        synchronized (MUTEX) {
+            hitCount = 0;
+            missCount = 0;
+            evictionCount = 0;
+        }
+    }
+
+    // Must be called while holding MUTEX.
+    private static void trimToSize() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxQueryMemoryCacheBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            totalBytes -= entry.bytes;
+            evictionCount++;
+        }
+    }
+
+    // Copies the state along with the mutable values it holds, so the copy shares nothing that
+    // can be changed through a ParseObject.
+    private static ParseObject.State copyState(ParseObject.State state) {
+        ParseObject.State.Init<?> builder = state.newBuilder();
+        for (String key : state.keySet()) {
+            builder.put(key, copyValue(state.get(key)));
+        }
+        return builder.build();
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof ParseObject) {
+            return ParseObject.from(copyState(((ParseObject) value).getState()));
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object item : (List<?>) value) {
+                copy.add(copyValue(item));
+            }
+            return copy;
+        } else if (value instanceof Map) {
+            Map<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> item : ((Map<?, ?>) value).entrySet()) {
+                copy.put(item.getKey(), copyValue(item.getValue()));
+            }
+            return copy;
+        } else if (value instanceof ParseRelation) {
+            // A relation belongs to a single parent, which it picks up when it's first accessed
+            return new ParseRelation<>(((ParseRelation<?>) value).getTargetClass());
+        } else if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            return Arrays.copyOf((byte[]) value, ((byte[]) value).length);
+        } else if (value instanceof ParseGeoPoint) {
+            return new ParseGeoPoint((ParseGeoPoint) value);
+        } else if (value instanceof ParsePolygon) {
+            return new ParsePolygon((ParsePolygon) value);
+        }
+        return value;
+    }
+
+    private static class Entry {
+        private final List<ParseObject.State> states;
+        private final long timestamp;
+        private final long bytes;
+
+        /* package */ Entry(List<ParseObject.State> states, long timestamp, long bytes) {
+            this.states = states;
+            this.timestamp = timestamp;
+            this.bytes = bytes;
+        }
+    }
+}
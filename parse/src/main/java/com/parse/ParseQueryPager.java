@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import com.parse.boltsinternal.Task;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fetches the results of a {@link ParseQuery} one page at a time, so that no more than a page of
+ * results has to be held in memory at once.
+ *
+ * <p>Each page continues after the last object of the previous one (keyset pagination) instead of
+ * skipping over the objects that were already returned, so fetching a page costs the same no matter
+ * how far into the results it is. This requires the query to be sorted by at most one key before
+ * {@code objectId}, which must hold numbers, strings or dates, and such a query can't be an {@code
+ * or} query. Keys sorted after {@code objectId} are ignored, since they can't change the order.
+ * Objects are additionally sorted by {@code objectId} if the order doesn't include it, and objects
+ * without a value for the sort key are not returned. The query's limit, if any, caps the total
+ * number of results, and its skip applies to the first page.
+ *
+ * <p>Pages are fetched with the query, so {@link ParseQuery#cancel()} cancels the page being
+ * fetched. Changes made to the query after the pager is created are not seen by the pager.
+ *
+ * @see ParseQuery#pager(int)
+ */
+public class ParseQueryPager<T extends ParseObject> {
+
+    private final ParseQuery<T> query;
+    private final ParseQuery.State<T> state;
+    private final int pageSize;
+    private final String sortKey;
+    private final boolean descending;
+    private final TaskQueue taskQueue = new TaskQueue();
+
+    // Guarded by this
+    private int count;
+    private boolean hasNextPage = true;
+    private T last;
+
+    /* package */ ParseQueryPager(ParseQuery<T> query, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        ParseQuery.State<T> original = query.getBuilder().build();
+        List<String> order = original.order();
+        if (order.contains("-" + ParseObject.KEY_OBJECT_ID)) {
+            throw new IllegalArgumentException(
+                    "Cannot page through a query sorted by descending objectId");
+        }
+        // objectIds are unique, so the keys sorted after it don't change the order
+        int objectIdIndex = order.indexOf(ParseObject.KEY_OBJECT_ID);
+        List<String> sortKeys = objectIdIndex >= 0 ? order.subList(0, objectIdIndex) : order;
+        if (sortKeys.size() > 1) {
+            throw new IllegalArgumentException(
+                    "Cannot page through a query with several sort keys");
+        }
+
+        ParseQuery.State.Builder<T> builder = new ParseQuery.State.Builder<>(original);
+        if (objectIdIndex < 0) {
+            // Objects with the same sort value are told apart by their objectId
+            builder.addAscendingOrder(ParseObject.KEY_OBJECT_ID);
+        }
+        if (sortKeys.isEmpty()) {
+            sortKey = null;
+            descending = false;
+        } else {
+            if (original.constraints().containsKey("$or")) {
+                throw new IllegalArgumentException(
+                        "Cannot page through an or query sorted by a key other than objectId");
+            }
+            descending = sortKeys.get(0).startsWith("-");
+            sortKey = descending ? sortKeys.get(0).substring(1) : sortKeys.get(0);
+            // An equality constraint on the sort key already implies that it exists
+            Object existing = original.constraints().get(sortKey);
+            if (existing == null || existing instanceof ParseQuery.KeyConstraints) {
+                builder.whereEqualTo(
+                        sortKey, withCondition(original.constraints(), sortKey, "$exists", true));
+            }
+            if (original.selectedKeys() != null) {
+                builder.selectKeys(Collections.singletonList(sortKey));
+            }
+        }
+        this.query = query;
+        this.pageSize = pageSize;
+        state = builder.build();
+    }
+
+    // Adds the condition to a copy of the constraints on the key, leaving the original untouched
+    private static ParseQuery.KeyConstraints withCondition(
+            ParseQuery.QueryConstraints where, String key, String condition, Object value) {
+        ParseQuery.KeyConstraints constraints = new ParseQuery.KeyConstraints();
+        Object existing = where.get(key);
+        if (existing instanceof ParseQuery.KeyConstraints) {
+            constraints.putAll((ParseQuery.KeyConstraints) existing);
+        }
+        constraints.put(condition, value);
+        return constraints;
+    }
+
+    /** Returns {@code false} once a page has come back short, or the query's limit was reached. */
+    public synchronized boolean hasNextPage() {
+        return hasNextPage;
+    }
+
+    /**
+     * Fetches the page after the last one fetched. Calls made before the previous page arrived wait
+     * for it. If there are no more results, resolves to an empty list.
+     *
+     * @return A {@link Task} that will be resolved with the objects of the page.
+     */
+    public Task<List<T>> nextPageInBackground() {
+        return taskQueue.enqueue(toAwait -> toAwait.continueWithTask(task -> fetchNextPageAsync()));
+    }
+
+    private Task<List<T>> fetchNextPageAsync() {
+        final ParseQuery.State<T> pageState;
+        final int pageLimit;
+        synchronized (this) {
+            if (!hasNextPage) {
+                return Task.forResult(Collections.emptyList());
+            }
+            pageLimit = state.limit() >= 0 ? Math.min(pageSize, state.limit() - count) : pageSize;
+            pageState = nextPageState(pageLimit);
+        }
+        return query.findAsync(pageState)
+                .onSuccess(
+                        task -> {
+                            List<T> page = task.getResult();
+                            synchronized (this) {
+                                count += page.size();
+                                if (!page.isEmpty()) {
+                                    last = page.get(page.size() - 1);
+                                }
+                                hasNextPage =
+                                        page.size() >= pageLimit
+                                                && (state.limit() < 0 || count < state.limit())
+                                                && !isSingleObjectQuery();
+                            }
+                            return page;
+                        });
+    }
+
+    // A query for one objectId can't have a second page, and its constraint can't be extended
+    private boolean isSingleObjectQuery() {
+        Object objectId = state.constraints().get(ParseObject.KEY_OBJECT_ID);
+        return objectId != null && !(objectId instanceof ParseQuery.KeyConstraints);
+    }
+
+    // Must be called while holding the lock
+    private ParseQuery.State<T> nextPageState(int pageLimit) {
+        ParseQuery.State.Builder<T> page = new ParseQuery.State.Builder<>(state);
+        page.setLimit(pageLimit);
+        if (last == null) {
+            return page.build();
+        }
+        page.setSkip(0);
+        ParseQuery.QueryConstraints where = state.constraints();
+        String objectId = last.getObjectId();
+        if (sortKey == null) {
+            return page.whereEqualTo(
+                            ParseObject.KEY_OBJECT_ID,
+                            withCondition(where, ParseObject.KEY_OBJECT_ID, "$gt", objectId))
+                    .build();
+        }
+
+        // The rest of the results either lie past the last object's sort value, or share it and
+        // lie past its objectId
+        Object value = sortValue(last);
+        ParseQuery.KeyConstraints pastValue = new ParseQuery.KeyConstraints();
+        pastValue.put(descending ? "$lt" : "$gt", value);
+        ParseQuery.QueryConstraints after = new ParseQuery.QueryConstraints();
+        after.put(sortKey, pastValue);
+        ParseQuery.KeyConstraints pastObjectId = new ParseQuery.KeyConstraints();
+        pastObjectId.put("$gt", objectId);
+        ParseQuery.QueryConstraints tied = new ParseQuery.QueryConstraints();
+        tied.put(sortKey, value);
+        tied.put(ParseObject.KEY_OBJECT_ID, pastObjectId);
+        return page.whereSatifiesAnyOf(Arrays.asList(after, tied)).build();
+    }
+
+    private Object sortValue(T object) {
+        switch (sortKey) {
+            case ParseObject.KEY_CREATED_AT:
+                return object.getCreatedAt();
+            case ParseObject.KEY_UPDATED_AT:
+                return object.getUpdatedAt();
+            default:
+                return object.get(sortKey);
+        }
+    }
+}
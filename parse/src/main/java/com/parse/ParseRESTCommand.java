@@ -8,6 +8,7 @@
  */
 package com.parse;
 
+import android.util.MalformedJsonException;
 import com.parse.boltsinternal.Task;
 import com.parse.http.ParseHttpBody;
 import com.parse.http.ParseHttpRequest;
@@ -50,6 +51,7 @@ class ParseRESTCommand extends ParseRequest<JSONObject> {
     private String installationId;
     private String operationSetUUID;
     private String localId;
+    private ContentDecoder contentDecoder;
 
     public ParseRESTCommand(
             String httpPath,
@@ -261,6 +263,14 @@ class ParseRESTCommand extends ParseRequest<JSONObject> {
         }
     }
 
+    /**
+     * Sets a decoder that reads the content of successful responses as a stream. Error responses
+     * are still parsed as a whole.
+     */
+    /* package */ void setContentDecoder(ContentDecoder decoder) {
+        contentDecoder = decoder;
+    }
+
     @Override
     public Task<JSONObject> executeAsync(
             final ParseHttpClient client,
@@ -275,6 +285,22 @@ class ParseRESTCommand extends ParseRequest<JSONObject> {
     @Override
     protected Task<JSONObject> onResponseAsync(
             ParseHttpResponse response, ProgressCallback downloadProgressCallback) {
+        int status = response.getStatusCode();
+        if (contentDecoder != null && status >= 200 && status < 400) {
+            // Decode successful responses while they're being received instead of buffering them
+            InputStream responseStream = null;
+            try {
+                responseStream = response.getContent();
+                return Task.forResult(contentDecoder.decode(responseStream));
+            } catch (MalformedJsonException | JSONException e) {
+                return Task.forError(newTemporaryException("bad json response", e));
+            } catch (IOException e) {
+                return Task.forError(e);
+            } finally {
+                ParseIOUtils.closeQuietly(responseStream);
+            }
+        }
+
         String content;
         InputStream responseStream = null;
         try {
@@ -528,4 +554,15 @@ class ParseRESTCommand extends ParseRequest<JSONObject> {
             return new ParseRESTCommand(this);
         }
     }
+
+    /** Decodes the content of a successful response while it is being received. */
+    /* package */ interface ContentDecoder {
+
+        /**
+         * Decodes the response content. This may be called again if the request is retried.
+         *
+         * @return the JSON result of the command.
+         */
+        JSONObject decode(InputStream content) throws IOException, JSONException;
+    }
 }
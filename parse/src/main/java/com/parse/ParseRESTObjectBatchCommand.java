@@ -36,8 +36,12 @@ class ParseRESTObjectBatchCommand extends ParseRESTCommand {
         super(httpPath, httpMethod, parameters, sessionToken);
     }
 
-    public static List<Task<JSONObject>> executeBatch(
-            ParseHttpClient client, List<ParseRESTObjectCommand> commands, String sessionToken) {
+    /**
+     * Runs the commands in /batch requests and returns a task for each of them. If a /batch request
+     * fails as a whole, the tasks of all of its commands fail with the same error.
+     */
+    public static <T extends ParseRESTCommand> List<Task<JSONObject>> executeBatch(
+            ParseHttpClient client, List<T> commands, String sessionToken) {
         final int batchSize = commands.size();
         List<Task<JSONObject>> tasks = new ArrayList<>(batchSize);
 
@@ -49,10 +53,9 @@ class ParseRESTObjectBatchCommand extends ParseRESTCommand {
 
         if (batchSize > COMMAND_OBJECT_BATCH_MAX_SIZE) {
             // There's more than the max, split it up into batches
-            List<List<ParseRESTObjectCommand>> batches =
-                    Lists.partition(commands, COMMAND_OBJECT_BATCH_MAX_SIZE);
+            List<List<T>> batches = Lists.partition(commands, COMMAND_OBJECT_BATCH_MAX_SIZE);
             for (int i = 0, size = batches.size(); i < size; i++) {
-                List<ParseRESTObjectCommand> batch = batches.get(i);
+                List<T> batch = batches.get(i);
                 tasks.addAll(executeBatch(client, batch, sessionToken));
             }
             return tasks;
@@ -68,7 +71,7 @@ class ParseRESTObjectBatchCommand extends ParseRESTCommand {
         JSONObject parameters = new JSONObject();
         JSONArray requests = new JSONArray();
         try {
-            for (ParseRESTObjectCommand command : commands) {
+            for (T command : commands) {
                 JSONObject requestParameters = new JSONObject();
                 requestParameters.put("method", command.method.toString());
                 requestParameters.put("path", new URL(server, command.httpPath).getPath());
@@ -103,6 +106,7 @@ class ParseRESTObjectBatchCommand extends ParseRESTCommand {
                                                 tcs.setCancelled();
                                             }
                                         }
+                                        return null;
                                     }
 
                                     JSONObject json = task.getResult();
@@ -111,15 +115,17 @@ class ParseRESTObjectBatchCommand extends ParseRESTCommand {
                                     int resultLength = results.length();
                                     if (resultLength != batchSize) {
                                         // Invalid response, fail all tasks
+                                        Exception error =
+                                                new IllegalStateException(
+                                                        "Batch command result count expected: "
+                                                                + batchSize
+                                                                + " but was: "
+                                                                + resultLength);
                                         for (int i = 0; i < batchSize; i++) {
                                             tcs = tcss.get(i);
-                                            tcs.setError(
-                                                    new IllegalStateException(
-                                                            "Batch command result count expected: "
-                                                                    + batchSize
-                                                                    + " but was: "
-                                                                    + resultLength));
+                                            tcs.setError(error);
                                         }
+                                        return null;
                                     }
 
                                     for (int i = 0; i < batchSize; i++) {
@@ -150,6 +156,12 @@ class ParseRESTObjectBatchCommand extends ParseRESTCommand {
     @Override
     protected Task<JSONObject> onResponseAsync(
             ParseHttpResponse response, ProgressCallback downloadProgressCallback) {
+        int statusCode = response.getStatusCode();
+        if (statusCode < 200 || statusCode >= 300) {
+            // The request failed as a whole, the error is a JSONObject like any other command's
+            return super.onResponseAsync(response, downloadProgressCallback);
+        }
+
         InputStream responseStream = null;
         String content;
         try {
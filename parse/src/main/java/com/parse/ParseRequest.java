@@ -59,6 +59,12 @@ abstract class ParseRequest<Response> {
                     TimeUnit.SECONDS,
                     new LinkedBlockingQueue<>(MAX_QUEUE_SIZE),
                     sThreadFactory);
+    /**
+     * The number of asynchronous requests to a single host that run at once by default, the same as
+     * the blocking requests that {@link #NETWORK_EXECUTOR} runs at once.
+     */
+    /* package */ static final int DEFAULT_MAX_REQUESTS_PER_HOST = CORE_POOL_SIZE;
+
     private static long defaultInitialRetryDelay = DEFAULT_INITIAL_RETRY_DELAY;
     /* package */ ParseHttpRequest.Method method;
     /* package */ String url;
@@ -139,27 +145,40 @@ abstract class ParseRequest<Response> {
             final ParseHttpClient client,
             final ParseHttpRequest request,
             final ProgressCallback downloadProgressCallback) {
-        return Task.<Void>forResult(null)
-                .onSuccessTask(
-                        task -> {
-                            ParseHttpResponse response = client.execute(request);
-                            return onResponseAsync(response, downloadProgressCallback);
-                        },
-                        NETWORK_EXECUTOR)
-                .continueWithTask(
-                        task -> {
-                            if (task.isFaulted()) {
-                                Exception error = task.getError();
-                                if (error instanceof IOException) {
-                                    return Task.forError(
-                                            newTemporaryException("i/o failure", error));
-                                }
-                            }
-                            return task;
-                            // Jump off the network executor so this task continuations won't steal
-                            // network threads
-                        },
-                        Task.BACKGROUND_EXECUTOR);
+        Task<Response> responseTask;
+        if (client.isAsync()) {
+            // No network thread is taken up while waiting for the response. Its content is read on
+            // one, so that the dispatcher thread that received it is free for the next call.
+            responseTask =
+                    client.executeAsync(request)
+                            .onSuccessTask(
+                                    task ->
+                                            onResponseAsync(
+                                                    task.getResult(), downloadProgressCallback),
+                                    NETWORK_EXECUTOR);
+        } else {
+            responseTask =
+                    Task.<Void>forResult(null)
+                            .onSuccessTask(
+                                    task -> {
+                                        ParseHttpResponse response = client.execute(request);
+                                        return onResponseAsync(response, downloadProgressCallback);
+                                    },
+                                    NETWORK_EXECUTOR);
+        }
+        return responseTask.continueWithTask(
+                task -> {
+                    if (task.isFaulted()) {
+                        Exception error = task.getError();
+                        if (error instanceof IOException) {
+                            return Task.forError(newTemporaryException("i/o failure", error));
+                        }
+                    }
+                    return task;
+                    // Jump off the network executor so this task continuations won't steal
+                    // network threads
+                },
+                Task.BACKGROUND_EXECUTOR);
     }
 
     protected abstract Task<Response> onResponseAsync(
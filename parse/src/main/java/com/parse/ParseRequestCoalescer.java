@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * Lets identical read requests that are in flight at the same time share a single request. Queries
+ * and fetches are identified by {@link ParseRESTCommand#getCacheKey()}, which covers the session
+ * token, so requests are only shared between callers with the same permissions.
+ *
+ * <p>Each caller can be cancelled on its own; the shared request is only cancelled once every
+ * caller waiting on it has been.
+ *
+ * @see Parse.Configuration.Builder#enableRequestCoalescing()
+ */
+public class ParseRequestCoalescer {
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private final Map<String, Flight> flights = new HashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong savedRequestCount = new AtomicLong();
+
+    /* package */ ParseRequestCoalescer() {
+        // do nothing
+    }
+
+    /**
+     * @return the number of requests that found an identical request in flight and waited for it
+     *     instead of being sent.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of requests that got their result from an identical request in flight.
+     *     Unlike {@link #getHitCount()}, this leaves out those that were cancelled before it came.
+     */
+    public long getSavedRequestCount() {
+        return savedRequestCount.get();
+    }
+
+    /**
+     * Runs {@code request}, or waits for the identical request that's already in flight.
+     *
+     * @param key Identifies the request.
+     * @param cancellationToken Cancels the returned task. May be {@code null}.
+     * @param request Starts the request, given a token that's cancelled once no one waits for it.
+     * @return A {@link Task} that completes with the result of the request.
+     */
+    /* package */ Task<JSONObject> executeAsync(
+            final String key, Task<Void> cancellationToken, Request request) {
+        final Flight flight;
+        boolean isNew = false;
+        synchronized (lock) {
+            Flight existing = flights.get(key);
+            if (existing != null) {
+                flight = existing;
+                hitCount.incrementAndGet();
+            } else {
+                flight = new Flight();
+                flights.put(key, flight);
+                isNew = true;
+            }
+            flight.subscribers++;
+        }
+
+        final boolean isHit = !isNew;
+        final TaskCompletionSource<JSONObject> tcs = new TaskCompletionSource<>();
+        flight.result
+                .getTask()
+                .continueWith(
+                        task -> {
+                            boolean isSet;
+                            if (task.isCancelled()) {
+                                isSet = tcs.trySetCancelled();
+                            } else if (task.isFaulted()) {
+                                isSet = tcs.trySetError(task.getError());
+                            } else {
+                                isSet = tcs.trySetResult(task.getResult());
+                            }
+                            if (isSet && isHit) {
+                                savedRequestCount.incrementAndGet();
+                            }
+                            return null;
+                        });
+        if (cancellationToken != null) {
+            cancellationToken.continueWith(
+                    task -> {
+                        if (task.isCancelled() && tcs.trySetCancelled()) {
+                            unsubscribe(key, flight);
+                        }
+                        return null;
+                    });
+        }
+
+        if (isNew) {
+            Task<JSONObject> task;
+            try {
+                task = request.executeAsync(flight.cancellation.getTask());
+            } catch (Exception e) {
+                task = Task.forError(e);
+            }
+            task.continueWith(
+                    t -> {
+                        synchronized (lock) {
+                            if (flights.get(key) == flight) {
+                                flights.remove(key);
+                            }
+                        }
+                        if (t.isCancelled()) {
+                            flight.result.trySetCancelled();
+                        } else if (t.isFaulted()) {
+                            flight.result.trySetError(t.getError());
+                        } else {
+                            flight.result.trySetResult(t.getResult());
+                        }
+                        return null;
+                    });
+        }
+        return tcs.getTask();
+    }
+
+    private void unsubscribe(String key, Flight flight) {
+        synchronized (lock) {
+            flight.subscribers--;
+            if (flight.subscribers > 0) {
+                return;
+            }
+            // No one is waiting anymore, so later callers get a request of their own
+            if (flights.get(key) == flight) {
+                flights.remove(key);
+            }
+        }
+        flight.cancellation.trySetCancelled();
+    }
+
+    /* package */ interface Request {
+        Task<JSONObject> executeAsync(Task<Void> cancellationToken);
+    }
+
+    private static class Flight {
+        final TaskCompletionSource<JSONObject> result = new TaskCompletionSource<>();
+        final TaskCompletionSource<Void> cancellation = new TaskCompletionSource<>();
+        // Guarded by ParseRequestCoalescer.lock
+        int subscribers;
+    }
+}
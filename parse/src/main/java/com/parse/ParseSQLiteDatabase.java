@@ -14,11 +14,14 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import com.parse.boltsinternal.Task;
 import com.parse.boltsinternal.TaskCompletionSource;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 class ParseSQLiteDatabase {
 
+    private static final int MAX_CONCURRENT_READS = 3;
+
     /**
      * Database connections are locked to the thread that they are created in when using
      * transactions. We must use a single thread executor to make sure that all transactional DB
@@ -28,6 +31,14 @@ class ParseSQLiteDatabase {
      */
     private static final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
 
+    /**
+     * Read-only sessions of databases that use write-ahead logging run here, in parallel with each
+     * other and with the write session. SQLite only keeps a few read connections, so more threads
+     * wouldn't run more reads at the same time.
+     */
+    private static final ExecutorService readExecutor =
+            Executors.newFixedThreadPool(MAX_CONCURRENT_READS);
+
     /**
      * Queue for all database sessions. All database sessions must be serialized in order for
      * transactions to work correctly.
@@ -38,27 +49,55 @@ class ParseSQLiteDatabase {
     private final Object currentLock = new Object();
     private final TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
     private final int openFlags;
+    private final boolean writeAheadLogging;
+    private final boolean concurrent;
+    private final Executor executor;
     private SQLiteDatabase db;
     private Task<Void> current = null;
 
     /** Creates a Session which opens a database connection and begins a transaction */
-    private ParseSQLiteDatabase(int flags) {
+    private ParseSQLiteDatabase(int flags, boolean writeAheadLogging) {
         // TODO (grantland): if (!writable) -- disable transactions?
-        // TODO (grantland): if (!writable) -- do we have to serialize everything?
         openFlags = flags;
+        this.writeAheadLogging = writeAheadLogging;
+        concurrent =
+                writeAheadLogging
+                        && (flags & SQLiteDatabase.OPEN_READONLY) == SQLiteDatabase.OPEN_READONLY;
 
-        taskQueue.enqueue(
-                toAwait -> {
-                    synchronized (currentLock) {
-                        current = toAwait;
-                    }
-                    return tcs.getTask();
-                });
+        if (concurrent) {
+            // Readers see the last committed state, so they don't have to wait for anyone.
+            executor = readExecutor;
+            current = Task.forResult(null);
+        } else {
+            executor = dbExecutor;
+            taskQueue.enqueue(
+                    toAwait -> {
+                        synchronized (currentLock) {
+                            current = toAwait;
+                        }
+                        return tcs.getTask();
+                    });
+        }
     }
 
     /* protected */
     static Task<ParseSQLiteDatabase> openDatabaseAsync(final SQLiteOpenHelper helper, int flags) {
-        final ParseSQLiteDatabase db = new ParseSQLiteDatabase(flags);
+        return openDatabaseAsync(helper, flags, false);
+    }
+
+    /**
+     * Opens a session.
+     *
+     * @param helper The helper of the database.
+     * @param flags {@link SQLiteDatabase#OPEN_READONLY} or {@link SQLiteDatabase#OPEN_READWRITE}.
+     * @param writeAheadLogging Whether the database uses write-ahead logging. Read-only sessions of
+     *     such databases run in parallel with all other sessions, but can't run transactions.
+     * @return the session.
+     */
+    /* protected */
+    static Task<ParseSQLiteDatabase> openDatabaseAsync(
+            final SQLiteOpenHelper helper, int flags, boolean writeAheadLogging) {
+        final ParseSQLiteDatabase db = new ParseSQLiteDatabase(flags, writeAheadLogging);
         return db.open(helper).continueWithTask(task -> Task.forResult(db));
     }
 
@@ -78,6 +117,16 @@ class ParseSQLiteDatabase {
         }
     }
 
+    /**
+     * Whether this is a read-only session of a database that uses write-ahead logging. Its
+     * statements run outside of a transaction, so each of them sees the changes that other sessions
+     * committed in the meantime: a row found by one statement may be gone by the next, and rows
+     * that other sessions are still writing aren't there yet.
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
     public boolean inTransaction() {
         return db.inTransaction();
     }
@@ -90,12 +139,19 @@ class ParseSQLiteDatabase {
                                         // get*Database() is synchronous and calls through
                                         // SQLiteOpenHelper#onCreate, onUpdate,
                                         // etc.
-                                        return (openFlags & SQLiteDatabase.OPEN_READONLY)
-                                                        == SQLiteDatabase.OPEN_READONLY
-                                                ? helper.getReadableDatabase()
-                                                : helper.getWritableDatabase();
+                                        SQLiteDatabase database =
+                                                (openFlags & SQLiteDatabase.OPEN_READONLY)
+                                                                == SQLiteDatabase.OPEN_READONLY
+                                                        ? helper.getReadableDatabase()
+                                                        : helper.getWritableDatabase();
+                                        if (writeAheadLogging) {
+                                            // Other sessions may be using the same instance, so
+                                            // it's only closed once all of them are done.
+                                            database.acquireReference();
+                                        }
+                                        return database;
                                     },
-                                    dbExecutor)
+                                    executor)
                             .continueWithTask(
                                     task -> {
                                         db = task.getResult();
@@ -112,6 +168,11 @@ class ParseSQLiteDatabase {
      * @see SQLiteDatabase#beginTransaction
      */
     public Task<Void> beginTransactionAsync() {
+        if (concurrent) {
+            // Transactions are bound to a thread, and read-only sessions run on several.
+            throw new IllegalStateException(
+                    "Read-only sessions can't run transactions with write-ahead logging");
+        }
         synchronized (currentLock) {
             current =
                     current.continueWithTask(
@@ -119,7 +180,7 @@ class ParseSQLiteDatabase {
                                 db.beginTransaction();
                                 return task;
                             },
-                            dbExecutor);
+                            executor);
             return current.continueWithTask(
                     task -> {
                         // We want to jump off the dbExecutor
@@ -142,7 +203,7 @@ class ParseSQLiteDatabase {
                                 db.setTransactionSuccessful();
                                 return task;
                             },
-                            dbExecutor);
+                            executor);
             return current.continueWithTask(
                     task -> {
                         // We want to jump off the dbExecutor
@@ -166,7 +227,7 @@ class ParseSQLiteDatabase {
                                 // We want to swallow any exceptions from our Session task
                                 return null;
                             },
-                            dbExecutor);
+                            executor);
             return current.continueWithTask(
                     task -> {
                         // We want to jump off the dbExecutor
@@ -186,13 +247,17 @@ class ParseSQLiteDatabase {
                     current.continueWithTask(
                             task -> {
                                 try {
-                                    db.close();
+                                    if (writeAheadLogging) {
+                                        db.releaseReference();
+                                    } else {
+                                        db.close();
+                                    }
                                 } finally {
                                     tcs.setResult(null);
                                 }
                                 return tcs.getTask();
                             },
-                            dbExecutor);
+                            executor);
             return current.continueWithTask(
                     task -> {
                         // We want to jump off the dbExecutor
@@ -214,7 +279,7 @@ class ParseSQLiteDatabase {
                     current.onSuccess(
                                     task13 ->
                                             db.query(table, select, where, args, null, null, null),
-                                    dbExecutor)
+                                    executor)
                             .onSuccess(
                                     task12 -> {
                                         Cursor cursor = task12.getResult();
@@ -224,7 +289,7 @@ class ParseSQLiteDatabase {
                                         cursor.getCount();
                                         return cursor;
                                     },
-                                    dbExecutor);
+                                    executor);
             current = task.makeVoid();
             return task.continueWithTask(
                     task1 -> {
@@ -247,7 +312,7 @@ class ParseSQLiteDatabase {
                     current.onSuccess(
                             task12 ->
                                     db.insertWithOnConflict(table, null, values, conflictAlgorithm),
-                            dbExecutor);
+                            executor);
             current = task.makeVoid();
             return task.continueWithTask(
                             task1 -> {
@@ -267,7 +332,7 @@ class ParseSQLiteDatabase {
     public Task<Void> insertOrThrowAsync(final String table, final ContentValues values) {
         synchronized (currentLock) {
             Task<Long> task =
-                    current.onSuccess(task12 -> db.insertOrThrow(table, null, values), dbExecutor);
+                    current.onSuccess(task12 -> db.insertOrThrow(table, null, values), executor);
             current = task.makeVoid();
             return task.continueWithTask(
                             task1 -> {
@@ -291,7 +356,7 @@ class ParseSQLiteDatabase {
             final String[] args) {
         synchronized (currentLock) {
             Task<Integer> task =
-                    current.onSuccess(task12 -> db.update(table, values, where, args), dbExecutor);
+                    current.onSuccess(task12 -> db.update(table, values, where, args), executor);
             current = task.makeVoid();
             return task.continueWithTask(
                     task1 -> {
@@ -310,7 +375,7 @@ class ParseSQLiteDatabase {
     public Task<Void> deleteAsync(final String table, final String where, final String[] args) {
         synchronized (currentLock) {
             Task<Integer> task =
-                    current.onSuccess(task12 -> db.delete(table, where, args), dbExecutor);
+                    current.onSuccess(task12 -> db.delete(table, where, args), executor);
             current = task.makeVoid();
             return task.continueWithTask(
                             task1 -> {
@@ -330,7 +395,7 @@ class ParseSQLiteDatabase {
     public Task<Cursor> rawQueryAsync(final String sql, final String[] args) {
         synchronized (currentLock) {
             Task<Cursor> task =
-                    current.onSuccess(task13 -> db.rawQuery(sql, args), dbExecutor)
+                    current.onSuccess(task13 -> db.rawQuery(sql, args), executor)
                             .onSuccess(
                                     task12 -> {
                                         Cursor cursor = task12.getResult();
@@ -341,7 +406,7 @@ class ParseSQLiteDatabase {
                                         cursor.getCount();
                                         return cursor;
                                     },
-                                    dbExecutor);
+                                    executor);
             current = task.makeVoid();
             return task.continueWithTask(
                     task1 -> {
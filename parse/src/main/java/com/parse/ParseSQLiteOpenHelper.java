@@ -16,6 +16,7 @@ import com.parse.boltsinternal.Task;
 abstract class ParseSQLiteOpenHelper {
 
     private final SQLiteOpenHelper helper;
+    private volatile boolean writeAheadLoggingEnabled;
 
     public ParseSQLiteOpenHelper(
             Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
@@ -49,7 +50,30 @@ abstract class ParseSQLiteOpenHelper {
 
     private Task<ParseSQLiteDatabase> getDatabaseAsync(final boolean writable) {
         return ParseSQLiteDatabase.openDatabaseAsync(
-                helper, !writable ? SQLiteDatabase.OPEN_READONLY : SQLiteDatabase.OPEN_READWRITE);
+                helper,
+                !writable ? SQLiteDatabase.OPEN_READONLY : SQLiteDatabase.OPEN_READWRITE,
+                writeAheadLoggingEnabled);
+    }
+
+    /**
+     * Enables or disables write-ahead logging. With write-ahead logging, readable sessions don't
+     * wait for writable ones and run in parallel with them, seeing the data of the last committed
+     * transaction. This should be set before any session is opened.
+     *
+     * @see SQLiteOpenHelper#setWriteAheadLoggingEnabled(boolean)
+     */
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+        helper.setWriteAheadLoggingEnabled(enabled);
+        writeAheadLoggingEnabled = enabled;
+    }
+
+    /**
+     * Closes the database if it's still open, which it is with write-ahead logging.
+     *
+     * @see SQLiteOpenHelper#close()
+     */
+    public void close() {
+        helper.close();
     }
 
     public void onOpen(SQLiteDatabase db) {
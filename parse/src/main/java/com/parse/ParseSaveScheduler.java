@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Saves the dirty objects, files and lazy users collected by a deep save, which may depend on one
+ * another.
+ *
+ * <p>The dependencies are worked out up front: an object waits for the new objects and dirty files
+ * it points to, since it can't be encoded before they have an id or a url. Everything else starts
+ * right away, so files upload while the objects that don't need them are being saved. Objects are
+ * sent as soon as their dependencies are saved, in {@code /batch} requests of up to {@link
+ * ParseRESTObjectBatchCommand#COMMAND_OBJECT_BATCH_MAX_SIZE} objects, with up to {@link
+ * #maxConcurrentBatches} requests running at once.
+ *
+ * <p>Once anything fails, no more batches are sent, and the save fails once the ones in flight are
+ * done.
+ */
+class ParseSaveScheduler {
+
+    /* package */ static final int DEFAULT_MAX_CONCURRENT_SAVE_BATCHES = 4;
+
+    private static final String TAG = "ParseSaveScheduler";
+
+    /* package */ static int maxConcurrentBatches = DEFAULT_MAX_CONCURRENT_SAVE_BATCHES;
+
+    private final String sessionToken;
+    private final Collection<ParseObject> objects;
+    private final Collection<ParseFile> files;
+    private final Collection<ParseUser> users;
+    private final int maxBatches;
+    private final TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
+
+    private final Object lock = new Object();
+    // The objects waiting for each object, file or user. Guarded by lock.
+    private final Map<Object, List<ParseObject>> dependents = new HashMap<>();
+    // The number of dependencies each waiting object has left. Guarded by lock.
+    private final Map<ParseObject, Integer> pendingDependencies = new HashMap<>();
+    // Objects whose dependencies are saved, in the order they got there. Guarded by lock.
+    private final Queue<ParseObject> ready = new ArrayDeque<>();
+    // Every task started so far. Guarded by lock.
+    private final List<Task<Void>> tasks = new ArrayList<>();
+    // Guarded by lock
+    private int pendingFiles;
+    private int pendingUsers;
+    private int unsavedObjects;
+    private int runningBatches;
+    private int batchCount;
+    private boolean isFaulted;
+    private boolean isDone;
+
+    // In nanoseconds, set once the phase is done. Guarded by lock.
+    private final long startedAt;
+    private long plannedAt;
+    private long filesSavedAt;
+    private long usersSavedAt;
+    private long objectsSavedAt;
+
+    /**
+     * @param startedAt When the save started, from {@link System#nanoTime()}, so collecting what to
+     *     save counts towards planning.
+     */
+    /* package */ ParseSaveScheduler(
+            Collection<ParseObject> objects,
+            Collection<ParseFile> files,
+            Collection<ParseUser> users,
+            String sessionToken,
+            long startedAt) {
+        this.objects = objects;
+        this.files = files;
+        this.users = users;
+        this.sessionToken = sessionToken;
+        this.startedAt = startedAt;
+        maxBatches = Math.max(1, maxConcurrentBatches);
+    }
+
+    /** Saves everything and returns a {@link Task} that completes once it's all done. */
+    /* package */ Task<Void> saveAsync() {
+        synchronized (lock) {
+            for (ParseFile file : files) {
+                dependents.put(file, new ArrayList<>());
+            }
+            for (ParseUser user : users) {
+                dependents.put(user, new ArrayList<>());
+            }
+            for (ParseObject object : objects) {
+                dependents.put(object, new ArrayList<>());
+            }
+
+            for (ParseObject object : objects) {
+                Set<Object> dependencies = object.getSaveDependencies();
+                int count = 0;
+                for (Object dependency : dependencies) {
+                    List<ParseObject> waiting = dependents.get(dependency);
+                    if (waiting != null) {
+                        waiting.add(object);
+                    }
+                    // A dependency that isn't saved here never completes, which is reported
+                    // like a cycle once everything else is done.
+                    count++;
+                }
+                if (count == 0) {
+                    ready.add(object);
+                } else {
+                    pendingDependencies.put(object, count);
+                }
+            }
+
+            pendingFiles = files.size();
+            pendingUsers = users.size();
+            unsavedObjects = objects.size();
+            plannedAt = System.nanoTime();
+            filesSavedAt = pendingFiles == 0 ? plannedAt : 0;
+            usersSavedAt = pendingUsers == 0 ? plannedAt : 0;
+            objectsSavedAt = unsavedObjects == 0 ? plannedAt : 0;
+        }
+
+        for (final ParseFile file : files) {
+            start(file, file.saveAsync(sessionToken, null, null));
+        }
+        for (final ParseUser user : users) {
+            start(user, user.saveAsync(sessionToken));
+        }
+        sendReadyBatches();
+        completeIfDone();
+        return tcs.getTask();
+    }
+
+    private void start(final Object saved, Task<Void> task) {
+        synchronized (lock) {
+            tasks.add(task);
+        }
+        task.continueWith(
+                t -> {
+                    onSaved(saved, t);
+                    return null;
+                });
+    }
+
+    /** Sends as many batches of ready objects as there is room for. */
+    private void sendReadyBatches() {
+        List<List<ParseObject>> batches = new ArrayList<>();
+        synchronized (lock) {
+            while (!isFaulted && !ready.isEmpty() && runningBatches < maxBatches) {
+                int size =
+                        Math.min(
+                                ready.size(),
+                                ParseRESTObjectBatchCommand.COMMAND_OBJECT_BATCH_MAX_SIZE);
+                List<ParseObject> batch = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    batch.add(ready.remove());
+                }
+                batches.add(batch);
+                runningBatches++;
+                batchCount++;
+            }
+        }
+
+        // Started without holding the lock, since enqueueing takes the locks of the objects'
+        // task queues.
+        for (final List<ParseObject> batch : batches) {
+            Task<Void> task;
+            try {
+                task =
+                        ParseObject.enqueueForAll(
+                                batch,
+                                toAwait -> ParseObject.saveAllAsync(batch, sessionToken, toAwait));
+            } catch (RuntimeException e) {
+                task = Task.forError(e);
+            }
+            start(batch, task);
+        }
+    }
+
+    private void onSaved(Object saved, Task<Void> task) {
+        synchronized (lock) {
+            if (task.isFaulted() || task.isCancelled()) {
+                isFaulted = true;
+            }
+
+            List<?> savedObjects;
+            if (saved instanceof List) {
+                runningBatches--;
+                savedObjects = (List<?>) saved;
+                unsavedObjects -= savedObjects.size();
+                if (unsavedObjects == 0) {
+                    objectsSavedAt = System.nanoTime();
+                }
+            } else {
+                savedObjects = Collections.singletonList(saved);
+                if (saved instanceof ParseFile) {
+                    if (--pendingFiles == 0) {
+                        filesSavedAt = System.nanoTime();
+                    }
+                } else if (--pendingUsers == 0) {
+                    usersSavedAt = System.nanoTime();
+                }
+            }
+
+            if (!isFaulted) {
+                for (Object object : savedObjects) {
+                    List<ParseObject> waiting = dependents.remove(object);
+                    if (waiting == null) {
+                        continue;
+                    }
+                    for (ParseObject dependent : waiting) {
+                        int count = pendingDependencies.get(dependent) - 1;
+                        if (count == 0) {
+                            pendingDependencies.remove(dependent);
+                            ready.add(dependent);
+                        } else {
+                            pendingDependencies.put(dependent, count);
+                        }
+                    }
+                }
+            }
+        }
+
+        sendReadyBatches();
+        completeIfDone();
+    }
+
+    private void completeIfDone() {
+        final List<Task<Void>> started;
+        final boolean isStuck;
+        synchronized (lock) {
+            boolean canSendMore = !isFaulted && !ready.isEmpty();
+            if (isDone
+                    || pendingFiles > 0
+                    || pendingUsers > 0
+                    || runningBatches > 0
+                    || canSendMore) {
+                return;
+            }
+            isDone = true;
+            started = new ArrayList<>(tasks);
+            isStuck = !isFaulted && unsavedObjects > 0;
+            logTimings();
+        }
+
+        Task.whenAll(started)
+                .continueWith(
+                        task -> {
+                            if (task.isFaulted()) {
+                                tcs.setError(task.getError());
+                            } else if (task.isCancelled()) {
+                                tcs.setCancelled();
+                            } else if (isStuck) {
+                                // We do cycle-detection when collecting the objects to save, so
+                                // this should never happen. But we check for it anyway, so that
+                                // we get an exception instead of a save that never completes.
+                                tcs.setError(
+                                        new RuntimeException(
+                                                "Unable to save a ParseObject with a relation to a cycle."));
+                            } else {
+                                tcs.setResult(null);
+                            }
+                            return null;
+                        });
+    }
+
+    // Must be called while holding lock.
+    private void logTimings() {
+        long now = System.nanoTime();
+        PLog.d(
+                TAG,
+                String.format(
+                        Locale.US,
+                        "Saving %d objects in %d batches, %d files and %d users took %f seconds:\n"
+                                + "Planning took %f seconds\n"
+                                + "Files were saved after %f seconds\n"
+                                + "Users were saved after %f seconds\n"
+                                + "Objects were saved after %f seconds",
+                        objects.size(),
+                        batchCount,
+                        files.size(),
+                        users.size(),
+                        seconds(now),
+                        seconds(plannedAt),
+                        seconds(filesSavedAt),
+                        seconds(usersSavedAt),
+                        seconds(objectsSavedAt)));
+    }
+
+    // The time from the start of the save to the given time, or -1 if the phase never completed.
+    private double seconds(long time) {
+        return time == 0 ? -1 : (time - startedAt) / (1000.0 * 1000.0 * 1000.0);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A {@code ParseStartupListener} is told how long each phase of {@link
+ * Parse#initialize(Parse.Configuration)} took, so startup time can be tracked.
+ *
+ * <p>Phases are reported on the thread that ran them, which is a background thread for the ones
+ * that are deferred with {@link Parse.Configuration.Builder#enableBackgroundInitialization()}.
+ *
+ * @see Parse.Configuration.Builder#startupListener(ParseStartupListener)
+ */
+public interface ParseStartupListener {
+    /** Moving the files of older versions of the SDK to where they're kept now. */
+    String PHASE_MIGRATIONS = "migrations";
+    /** Setting up the network client and the other plugins. */
+    String PHASE_PLUGINS = "plugins";
+    /** Registering the built-in {@link ParseObject} subclasses. */
+    String PHASE_SUBCLASSES = "subclasses";
+    /** Setting up the local datastore, when it's enabled. */
+    String PHASE_LOCAL_DATASTORE = "localDatastore";
+    /** Setting up the Parse cache on disk, when the local datastore isn't enabled. */
+    String PHASE_KEY_VALUE_CACHE = "keyValueCache";
+    /** Making sure the data on disk is for the current application id. */
+    String PHASE_CACHE_APPLICATION_ID = "cacheApplicationId";
+    /** Checking that the push receivers in the manifest aren't exported. */
+    String PHASE_PUSH_RECEIVERS = "pushReceivers";
+
+    /**
+     * Called once a phase is done.
+     *
+     * @param phase One of the {@code PHASE_} constants.
+     * @param durationNanos How long the phase took, in nanoseconds.
+     * @param inBackground Whether the phase ran on a background thread.
+     */
+    void onPhaseCompleted(@NonNull String phase, long durationNanos, boolean inBackground);
+
+    /**
+     * Called once every phase is done.
+     *
+     * @param totalNanos The time from the call to {@link Parse#initialize(Parse.Configuration)}, in
+     *     nanoseconds.
+     */
+    void onStartupCompleted(long totalNanos);
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.Locale;
+
+/**
+ * Times the phases of {@link Parse#initialize(Parse.Configuration)}, logs them and passes them on
+ * to the {@link ParseStartupListener}, if there is one.
+ *
+ * <p>Phases run one after the other, on the thread that called {@code initialize} and then on the
+ * background thread that does the deferred ones, so a single clock is enough.
+ */
+class ParseStartupTimer {
+
+    private static final String TAG = "ParseStartupTimer";
+
+    private final ParseStartupListener listener;
+    private final Thread callerThread;
+    private final long startedAt;
+    private long phaseStartedAt;
+
+    /* package */ ParseStartupTimer(ParseStartupListener listener) {
+        this.listener = listener;
+        callerThread = Thread.currentThread();
+        startedAt = System.nanoTime();
+        phaseStartedAt = startedAt;
+    }
+
+    /**
+     * Restarts the clock of the next phase, for when the phases before it didn't run right before
+     * it, i.e. the first deferred phase.
+     */
+    /* package */ synchronized void startPhase() {
+        phaseStartedAt = System.nanoTime();
+    }
+
+    /** Reports the phase that just ended, which started when the one before it ended. */
+    /* package */ void phaseCompleted(String phase) {
+        long duration;
+        synchronized (this) {
+            long now = System.nanoTime();
+            duration = now - phaseStartedAt;
+            phaseStartedAt = now;
+        }
+        boolean inBackground = Thread.currentThread() != callerThread;
+        PLog.d(
+                TAG,
+                String.format(
+                        Locale.US,
+                        "Startup phase %s took %f seconds%s",
+                        phase,
+                        seconds(duration),
+                        inBackground ? " in the background" : ""));
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onPhaseCompleted(phase, duration, inBackground);
+        } catch (RuntimeException e) {
+            // A broken listener mustn't break initialization
+            PLog.e(TAG, "Error in ParseStartupListener", e);
+        }
+    }
+
+    /** Reports that every phase is done. */
+    /* package */ void completed() {
+        long total = System.nanoTime() - startedAt;
+        PLog.d(TAG, String.format(Locale.US, "Startup took %f seconds", seconds(total)));
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onStartupCompleted(total);
+        } catch (RuntimeException e) {
+            PLog.e(TAG, "Error in ParseStartupListener", e);
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / (1000.0 * 1000.0 * 1000.0);
+    }
+}
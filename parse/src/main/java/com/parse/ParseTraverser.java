@@ -104,7 +104,7 @@ abstract class ParseTraverser {
                     keySet = new HashSet<>(object.keySet());
                 }
                 for (String key : keySet) {
-                    traverseInternal(object.get(key), true, seen);
+                    traverseInternal(object.getEstimatedValue(key), true, seen);
                 }
             }
 
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+/**
+ * Turns the number of bytes written by an upload into calls to a {@link ProgressCallback}, which
+ * are only made when the percentage goes up. A large upload thus makes at most 101 calls instead of
+ * one per chunk, each of which may be posted to the main thread, and a retry doesn't take the
+ * progress back to 0.
+ */
+class ProgressReporter {
+
+    private final ProgressCallback callback;
+    private final long totalLength;
+    // Guarded by this
+    private int lastReported = -1;
+
+    /**
+     * @param totalLength The number of bytes the upload writes, or -1 if unknown, in which case
+     *     only completion is reported.
+     */
+    /* package */ ProgressReporter(ProgressCallback callback, long totalLength) {
+        this.callback = callback;
+        this.totalLength = totalLength;
+    }
+
+    /** Reports that {@code position} bytes have been written so far. */
+    /* package */ void report(long position) {
+        if (totalLength > 0) {
+            report((int) Math.min(100, 100 * position / totalLength));
+        }
+    }
+
+    /** Reports that every byte has been written. */
+    /* package */ void complete() {
+        report(100);
+    }
+
+    private void report(int percentDone) {
+        synchronized (this) {
+            if (percentDone <= lastReported) {
+                return;
+            }
+            lastReported = percentDone;
+        }
+        callback.done(percentDone);
+    }
+}
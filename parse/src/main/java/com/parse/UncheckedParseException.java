@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Wraps a {@link ParseException} where the API can't throw checked exceptions, e.g. in {@link
+ * java.util.Iterator#hasNext()} of {@link ParseQuery#iterator(int, int)}.
+ */
+public class UncheckedParseException extends RuntimeException {
+    private static final long serialVersionUID = 1;
+
+    public UncheckedParseException(@NonNull ParseException cause) {
+        super(cause);
+    }
+
+    /** @return The {@link ParseException} that was wrapped. */
+    @Override
+    public synchronized ParseException getCause() {
+        return (ParseException) super.getCause();
+    }
+}
@@ -9,7 +9,10 @@
 package com.parse;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 
 /** A HashMap where all the values are weak. */
 class WeakValueHashMap<K, V> {
@@ -41,6 +44,24 @@ class WeakValueHashMap<K, V> {
         return value;
     }
 
+    /**
+     * Returns the keys of all values that haven't been collected. Expired references are removed
+     * from the map.
+     */
+    public List<K> keys() {
+        List<K> keys = new ArrayList<>();
+        Iterator<HashMap.Entry<K, WeakReference<V>>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            HashMap.Entry<K, WeakReference<V>> entry = iterator.next();
+            if (entry.getValue().get() == null) {
+                iterator.remove();
+            } else {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
     public void remove(K key) {
         map.remove(key);
     }
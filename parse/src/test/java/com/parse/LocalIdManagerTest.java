@@ -12,7 +12,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import org.json.JSONObject;
 import org.junit.Rule;
 import org.junit.Test;
@@ -77,6 +79,85 @@ public class LocalIdManagerTest {
         assertFalse(manager.clear());
     }
 
+    @Test
+    public void testEntriesSurviveRestart() throws Exception {
+        File root = temporaryFolder.newFolder("test");
+        LocalIdManager manager = new LocalIdManager(root);
+        String localId1 = manager.createLocalId();
+        String localId2 = manager.createLocalId();
+        manager.retainLocalIdOnDisk(localId1);
+        manager.retainLocalIdOnDisk(localId1);
+        manager.setObjectId(localId1, "objectId1");
+        manager.retainLocalIdOnDisk(localId2);
+        manager.releaseLocalIdOnDisk(localId2);
+
+        manager = new LocalIdManager(root);
+        assertEquals("objectId1", manager.getObjectId(localId1));
+        manager.releaseLocalIdOnDisk(localId1);
+        assertEquals("objectId1", manager.getObjectId(localId1));
+        manager.releaseLocalIdOnDisk(localId1);
+        assertNull(manager.getObjectId(localId1));
+        assertFalse(manager.clear());
+    }
+
+    @Test
+    public void testMigratesLegacyFiles() throws Exception {
+        File root = temporaryFolder.newFolder("test");
+        File legacyDir = new File(root, "LocalId");
+        assertTrue(legacyDir.mkdirs());
+        JSONObject json = new JSONObject();
+        json.put("retainCount", 1);
+        json.put("objectId", "objectId1");
+        ParseFileUtils.writeJSONObjectToFile(new File(legacyDir, "local_abc123"), json);
+
+        LocalIdManager manager = new LocalIdManager(root);
+        assertEquals("objectId1", manager.getObjectId("local_abc123"));
+        manager.retainLocalIdOnDisk("local_abc123");
+        assertFalse(legacyDir.exists());
+
+        manager = new LocalIdManager(root);
+        manager.releaseLocalIdOnDisk("local_abc123");
+        assertEquals("objectId1", manager.getObjectId("local_abc123"));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        File root = temporaryFolder.newFolder("test");
+        LocalIdManager manager = new LocalIdManager(root);
+        String localId = manager.createLocalId();
+        manager.retainLocalIdOnDisk(localId);
+        manager.setObjectId(localId, "objectId");
+
+        assertTrue(manager.clear());
+        assertNull(manager.getObjectId(localId));
+        assertNull(new LocalIdManager(root).getObjectId(localId));
+    }
+
+    @Test
+    public void testFailedWriteIsRetried() throws Exception {
+        File root = temporaryFolder.newFolder("test");
+        // Nothing can be written where a directory is in the way
+        File tempFile = new File(root, "LocalId.journal.tmp");
+        assertTrue(tempFile.mkdirs());
+        File blocker = new File(tempFile, "blocker");
+        assertTrue(blocker.createNewFile());
+        LocalIdManager manager = new LocalIdManager(root);
+        String localId1 = manager.createLocalId();
+        String localId2 = manager.createLocalId();
+        manager.retainLocalIdOnDisk(localId1);
+        manager.setObjectId(localId1, "objectId1");
+        assertNull(new LocalIdManager(root).getObjectId(localId1));
+
+        assertTrue(blocker.delete());
+        assertTrue(tempFile.delete());
+        manager.retainLocalIdOnDisk(localId2);
+        manager.setObjectId(localId2, "objectId2");
+
+        manager = new LocalIdManager(root);
+        assertEquals("objectId1", manager.getObjectId(localId1));
+        assertEquals("objectId2", manager.getObjectId(localId2));
+    }
+
     @Test
     public void testLongSerialization() throws Exception {
         long expected = 0x8000000000000000L;
@@ -15,6 +15,7 @@ import static org.mockito.Mockito.when;
 import com.parse.boltsinternal.Task;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -22,7 +23,11 @@ import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
 
+// For android.util.JsonReader
+@RunWith(RobolectricTestRunner.class)
 public class NetworkQueryControllerTest {
 
     private static JSONObject generateBasicMockResponse() throws JSONException {
@@ -112,6 +117,97 @@ public class NetworkQueryControllerTest {
         // TODO(mengyan): Verify PLog is called
     }
 
+    @Test
+    public void testFindAsyncDecodesValuesLikeJSONObject() throws Exception {
+        JSONObject objectJSON = new JSONObject();
+        objectJSON.put("objectId", "testObjectId");
+        objectJSON.put("int", 1);
+        objectJSON.put("long", 1L + Integer.MAX_VALUE);
+        objectJSON.put("double", 1.5);
+        objectJSON.put("bool", true);
+        objectJSON.put("null", JSONObject.NULL);
+        objectJSON.put("array", new JSONArray().put("a").put(2));
+        objectJSON.put("map", new JSONObject().put("key", "value"));
+        JSONObject pointerJSON = new JSONObject();
+        pointerJSON.put("__type", "Pointer");
+        pointerJSON.put("className", "Other");
+        pointerJSON.put("objectId", "otherObjectId");
+        objectJSON.put("pointer", pointerJSON);
+        JSONObject mockResponse = new JSONObject();
+        mockResponse.put("results", new JSONArray().put(objectJSON));
+        ParseHttpClient restClient =
+                ParseTestUtils.mockParseHttpClientWithResponse(mockResponse, 200, "OK");
+        ParseQuery.State mockState = mock(ParseQuery.State.class);
+        when(mockState.className()).thenReturn("Test");
+        when(mockState.selectedKeys()).thenReturn(null);
+        when(mockState.constraints()).thenReturn(new ParseQuery.QueryConstraints());
+
+        NetworkQueryController controller = new NetworkQueryController(restClient);
+        Task<List<ParseObject>> findTask = controller.findAsync(mockState, "sessionToken", null);
+        ParseTaskUtils.wait(findTask);
+        List<ParseObject> objects = findTask.getResult();
+
+        // Same as decoding the response as a whole
+        List<ParseObject> expectedObjects = controller.convertFindResponse(mockState, mockResponse);
+        ParseObject expected = expectedObjects.get(0);
+        ParseObject object = objects.get(0);
+        assertEquals(1, objects.size());
+        assertEquals(expected.keySet(), object.keySet());
+        for (String key : expected.keySet()) {
+            Object expectedValue = expected.get(key);
+            if (expectedValue instanceof ParseObject) {
+                assertEquals(
+                        ((ParseObject) expectedValue).getObjectId(),
+                        ((ParseObject) object.get(key)).getObjectId());
+            } else {
+                assertEquals(expectedValue, object.get(key));
+            }
+        }
+        assertEquals(Integer.class, object.get("int").getClass());
+        assertEquals(Long.class, object.get("long").getClass());
+    }
+
+    @Test
+    public void testFindAsyncWithRedirectClassName() throws Exception {
+        JSONObject mockResponse = generateBasicMockResponse();
+        mockResponse.put("className", "Redirected");
+        ParseHttpClient restClient =
+                ParseTestUtils.mockParseHttpClientWithResponse(mockResponse, 200, "OK");
+        ParseQuery.State mockState = mock(ParseQuery.State.class);
+        when(mockState.className()).thenReturn("Test");
+        when(mockState.selectedKeys()).thenReturn(null);
+        when(mockState.constraints()).thenReturn(new ParseQuery.QueryConstraints());
+        when(mockState.extraOptions())
+                .thenReturn(Collections.singletonMap("redirectClassNameForKey", "key"));
+
+        NetworkQueryController controller = new NetworkQueryController(restClient);
+        Task<List<ParseObject>> findTask = controller.findAsync(mockState, "sessionToken", null);
+        ParseTaskUtils.wait(findTask);
+        List<ParseObject> objects = findTask.getResult();
+
+        verifyBasicParseObjects(mockResponse, objects, "Redirected");
+    }
+
+    @Test(expected = ParseException.class)
+    public void testFindAsyncWithBadJSON() throws Exception {
+        JSONObject mockResponse = new JSONObject();
+        mockResponse.put("results", new JSONArray().put("notAnObject"));
+        ParseHttpClient restClient =
+                ParseTestUtils.mockParseHttpClientWithResponse(mockResponse, 200, "OK");
+        ParseQuery.State mockState = mock(ParseQuery.State.class);
+        when(mockState.className()).thenReturn("Test");
+        when(mockState.constraints()).thenReturn(new ParseQuery.QueryConstraints());
+
+        // Don't retry
+        ParseRequest.setDefaultInitialRetryDelay(1L);
+        try {
+            NetworkQueryController controller = new NetworkQueryController(restClient);
+            ParseTaskUtils.wait(controller.findAsync(mockState, "sessionToken", null));
+        } finally {
+            ParseRequest.setDefaultInitialRetryDelay(ParseRequest.DEFAULT_INITIAL_RETRY_DELAY);
+        }
+    }
+
     // TODO(mengyan): Add testFindAsyncWithCachePolicy to verify command is added to
     // ParseKeyValueCache
 
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class OfflineIndexesTest {
+
+    private static JSONObject completeJson() throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("__complete", true);
+        // There's always a current operation set, even without pending operations
+        json.put("__operations", new JSONArray().put(new JSONObject().put("__uuid", "uuid")));
+        return json;
+    }
+
+    @Test
+    public void testIsIndexed() {
+        OfflineIndexes indexes =
+                new OfflineIndexes(Collections.singletonMap("TestObject", Arrays.asList("name")));
+
+        assertTrue(indexes.isIndexed("TestObject", "name"));
+        assertFalse(indexes.isIndexed("TestObject", "other"));
+        assertFalse(indexes.isIndexed("Other", "name"));
+        assertFalse(OfflineIndexes.NONE.isIndexed("TestObject", "name"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsKeysStoredDifferently() {
+        new OfflineIndexes(Collections.singletonMap("TestObject", Arrays.asList("createdAt")));
+    }
+
+    @Test
+    public void testGetValues() throws Exception {
+        JSONObject json = completeJson();
+        json.put("name", "foo");
+        json.put("count", 3);
+        json.put("score", 1.5);
+        json.put("flag", true);
+        json.put("nothing", JSONObject.NULL);
+        json.put("tags", new JSONArray().put("a").put(2).put(JSONObject.NULL));
+        json.put("date", new JSONObject().put("__type", "Date"));
+
+        assertEquals(Collections.singletonList("foo"), OfflineIndexes.getValues(json, "name"));
+        assertEquals(Collections.singletonList(3L), OfflineIndexes.getValues(json, "count"));
+        assertEquals(Collections.singletonList(1.5), OfflineIndexes.getValues(json, "score"));
+        assertEquals(Collections.singletonList(null), OfflineIndexes.getValues(json, "flag"));
+        assertEquals(Collections.emptyList(), OfflineIndexes.getValues(json, "nothing"));
+        assertEquals(Collections.emptyList(), OfflineIndexes.getValues(json, "missing"));
+        assertEquals(Arrays.asList("a", 2L), OfflineIndexes.getValues(json, "tags"));
+        assertEquals(Collections.singletonList(null), OfflineIndexes.getValues(json, "date"));
+    }
+
+    @Test
+    public void testGetValuesOfStaleObjects() throws Exception {
+        JSONObject incomplete = new JSONObject().put("name", "foo");
+        assertEquals(Collections.singletonList(null), OfflineIndexes.getValues(incomplete, "name"));
+
+        JSONObject withOperations = completeJson().put("name", "foo").put("count", 1);
+        withOperations.getJSONArray("__operations").put(new JSONObject().put("count", 2));
+        assertEquals(
+                Collections.singletonList(null), OfflineIndexes.getValues(withOperations, "count"));
+        // Operations on other keys don't matter
+        assertEquals(
+                Collections.singletonList("foo"), OfflineIndexes.getValues(withOperations, "name"));
+    }
+
+    @Test
+    public void testGetRows() throws Exception {
+        OfflineIndexes indexes =
+                new OfflineIndexes(
+                        Collections.singletonMap("TestObject", Arrays.asList("name", "tags")));
+        JSONObject json = completeJson();
+        json.put("name", "foo");
+        json.put("tags", new JSONArray().put(1).put(true));
+        json.put("other", "bar");
+
+        List<ContentValues> rows = indexes.getRows("uuid1", "TestObject", json);
+
+        assertEquals(3, rows.size());
+        for (ContentValues row : rows) {
+            assertEquals("uuid1", row.getAsString("uuid"));
+            assertEquals("TestObject", row.getAsString("className"));
+            if (row.getAsString("key").equals("name")) {
+                assertEquals("foo", row.getAsString("value"));
+            } else {
+                assertEquals("tags", row.getAsString("key"));
+                assertTrue(row.containsKey("value"));
+            }
+        }
+        assertTrue(indexes.getRows("uuid2", "Other", json).isEmpty());
+    }
+
+    @Test
+    public void testGetGeoPoints() throws Exception {
+        JSONObject json = completeJson();
+        json.put(
+                "point",
+                new JSONObject()
+                        .put("__type", "GeoPoint")
+                        .put("latitude", 37.5)
+                        .put("longitude", -122.25));
+        json.put("name", "foo");
+        json.put("nothing", JSONObject.NULL);
+
+        List<ParseGeoPoint> points = OfflineIndexes.getGeoPoints(json, "point");
+        assertEquals(1, points.size());
+        assertEquals(37.5, points.get(0).getLatitude(), 0);
+        assertEquals(-122.25, points.get(0).getLongitude(), 0);
+        // Values that aren't points are left to the matcher
+        assertEquals(Collections.singletonList(null), OfflineIndexes.getGeoPoints(json, "name"));
+        assertEquals(Collections.emptyList(), OfflineIndexes.getGeoPoints(json, "nothing"));
+        assertEquals(Collections.emptyList(), OfflineIndexes.getGeoPoints(json, "missing"));
+
+        JSONObject incomplete = new JSONObject().put("point", json.get("point"));
+        assertEquals(
+                Collections.singletonList(null), OfflineIndexes.getGeoPoints(incomplete, "point"));
+    }
+
+    @Test
+    public void testGetGeoRows() throws Exception {
+        OfflineIndexes indexes =
+                new OfflineIndexes(
+                        Collections.<String, List<String>>emptyMap(),
+                        Collections.singletonMap("TestObject", Arrays.asList("point", "other")));
+        JSONObject json = completeJson();
+        json.put(
+                "point",
+                new JSONObject()
+                        .put("__type", "GeoPoint")
+                        .put("latitude", 10)
+                        .put("longitude", 20));
+        json.put("other", "bar");
+
+        assertTrue(indexes.isGeoIndexed("TestObject", "point"));
+        assertFalse(indexes.isIndexed("TestObject", "point"));
+        List<ContentValues> rows = indexes.getGeoRows("uuid1", "TestObject", json);
+
+        assertEquals(2, rows.size());
+        for (ContentValues row : rows) {
+            assertEquals("uuid1", row.getAsString("uuid"));
+            assertEquals("TestObject", row.getAsString("className"));
+            if (row.getAsString("key").equals("point")) {
+                assertEquals(10, row.getAsDouble("latitude"), 0);
+                assertEquals(20, row.getAsDouble("longitude"), 0);
+            } else {
+                assertEquals("other", row.getAsString("key"));
+                assertTrue(row.containsKey("latitude"));
+                assertNull(row.getAsDouble("latitude"));
+            }
+        }
+        assertTrue(indexes.getGeoRows("uuid2", "Other", json).isEmpty());
+    }
+}
@@ -13,6 +13,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -549,6 +550,189 @@ public class OfflineQueryLogicTest {
         assertFalse(matches(logic, query, object));
     }
 
+    @Test
+    public void testMatchesAllStartingWithDoesNotChangeQuery() throws Exception {
+        ParseObject object = new ParseObject("TestObject");
+        object.put("foo", Arrays.asList("foo", "bar"));
+
+        ParseQuery.KeyConstraints constraint = buildStartsWithRegexKeyConstraint("foo");
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("foo", "$all", Collections.singletonList(constraint))
+                        .build();
+
+        OfflineQueryLogic logic = new OfflineQueryLogic(null);
+        assertTrue(matches(logic, query, object));
+        assertTrue(matches(logic, query, object));
+        assertEquals(buildStartsWithRegex("foo"), constraint.get("$regex"));
+    }
+
+    @Test
+    public void testMatchesInWithArrayValue() throws ParseException {
+        ParseObject object = new ParseObject("TestObject");
+        object.put("foo", Arrays.asList("bar", "baz"));
+
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("foo", "$in", Arrays.asList("baz", "qux"))
+                        .build();
+        OfflineQueryLogic logic = new OfflineQueryLogic(null);
+        assertTrue(matches(logic, query, object));
+
+        object.put("foo", Collections.singletonList("qux"));
+        assertTrue(matches(logic, query, object));
+
+        object.put("foo", Collections.singletonList("bar"));
+        assertFalse(matches(logic, query, object));
+
+        query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("foo", "$nin", Arrays.asList("baz", "qux"))
+                        .build();
+        assertTrue(matches(logic, query, object));
+    }
+
+    @Test
+    public void testMatchesRegex() throws Exception {
+        ParseObject objectA = new ParseObject("TestObject");
+        objectA.put("foo", "Bar");
+        ParseObject objectB = new ParseObject("TestObject");
+        objectB.put("foo", "qux");
+
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("foo", "$regex", "^b")
+                        .addCondition("foo", "$options", "i")
+                        .build();
+
+        // The same matcher is applied to every object
+        OfflineQueryLogic logic = new OfflineQueryLogic(null);
+        OfflineQueryLogic.ConstraintMatcher<ParseObject> matcher = logic.createMatcher(query, null);
+        assertTrue(ParseTaskUtils.wait(matcher.matchesAsync(objectA, null)));
+        assertFalse(ParseTaskUtils.wait(matcher.matchesAsync(objectB, null)));
+        assertFalse(ParseTaskUtils.wait(matcher.matchesAsync(new ParseObject("TestObject"), null)));
+    }
+
+    @Test
+    public void testMatchesRegexInvalidOptions() throws Exception {
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("foo", "$regex", "^b")
+                        .addCondition("foo", "$options", "z")
+                        .build();
+
+        // Invalid options are only reported when there's a value to match
+        OfflineQueryLogic logic = new OfflineQueryLogic(null);
+        assertFalse(matches(logic, query, new ParseObject("TestObject")));
+
+        ParseObject object = new ParseObject("TestObject");
+        object.put("foo", "bar");
+        thrown.expect(hasParseErrorCode(ParseException.INVALID_QUERY));
+        matches(logic, query, object);
+    }
+
+    @Test
+    public void testMatchesDottedKey() throws Exception {
+        ParseObject object = new ParseObject("TestObject");
+        Map<String, Object> map = new HashMap<>();
+        map.put("bar", Collections.singletonMap("baz", "qux"));
+        object.put("foo", map);
+
+        OfflineQueryLogic logic = new OfflineQueryLogic(null);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("foo.bar.baz", "qux")
+                        .build();
+        assertTrue(matches(logic, query, object));
+
+        query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("foo.bar.baz", "quux")
+                        .build();
+        assertFalse(matches(logic, query, object));
+
+        // Only Maps and JSONObjects can be dotted into
+        object.put("foo", "bar");
+        thrown.expect(hasParseErrorCode(ParseException.INVALID_QUERY));
+        matches(logic, query, object);
+    }
+
+    @Test
+    public void testMatchesInQuery() throws Exception {
+        ParseObject inner = new ParseObject("Inner");
+        ParseObject otherInner = new ParseObject("Inner");
+        OfflineStore store = mock(OfflineStore.class);
+        when(store.findAsync(
+                        any(ParseQuery.State.class),
+                        nullable(ParseUser.class),
+                        nullable(ParsePin.class),
+                        nullable(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.forResult(Collections.singletonList(inner)));
+
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereMatchesQuery("foo", new ParseQuery.State.Builder<>("Inner"))
+                        .build();
+        OfflineQueryLogic logic = new OfflineQueryLogic(store);
+        OfflineQueryLogic.ConstraintMatcher<ParseObject> matcher = logic.createMatcher(query, null);
+
+        ParseObject object = new ParseObject("TestObject");
+        object.put("foo", inner);
+        assertTrue(ParseTaskUtils.wait(matcher.matchesAsync(object, null)));
+        object.put("foo", Arrays.asList(otherInner, inner));
+        assertTrue(ParseTaskUtils.wait(matcher.matchesAsync(object, null)));
+        object.put("foo", otherInner);
+        assertFalse(ParseTaskUtils.wait(matcher.matchesAsync(object, null)));
+        assertFalse(ParseTaskUtils.wait(matcher.matchesAsync(new ParseObject("TestObject"), null)));
+
+        // The subquery only runs once
+        verify(store, times(1))
+                .findAsync(
+                        any(ParseQuery.State.class),
+                        nullable(ParseUser.class),
+                        nullable(ParsePin.class),
+                        nullable(ParseSQLiteDatabase.class));
+    }
+
+    @Test
+    public void testMatchesKeyInQuery() throws Exception {
+        ParseObject innerA = new ParseObject("Inner");
+        innerA.put("bar", "A");
+        ParseObject innerB = new ParseObject("Inner");
+        innerB.put("bar", 1);
+        OfflineStore store = mock(OfflineStore.class);
+        when(store.findAsync(
+                        any(ParseQuery.State.class),
+                        nullable(ParseUser.class),
+                        nullable(ParsePin.class),
+                        nullable(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.forResult(Arrays.asList(innerA, innerB)));
+
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereMatchesKeyInQuery(
+                                "foo", "bar", new ParseQuery.State.Builder<>("Inner"))
+                        .build();
+        OfflineQueryLogic logic = new OfflineQueryLogic(store);
+
+        ParseObject object = new ParseObject("TestObject");
+        object.put("foo", "A");
+        assertTrue(matches(logic, query, object));
+        // Numbers match across types
+        object.put("foo", 1L);
+        assertTrue(matches(logic, query, object));
+        object.put("foo", "B");
+        assertFalse(matches(logic, query, object));
+        assertFalse(matches(logic, query, new ParseObject("TestObject")));
+
+        query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereDoesNotMatchKeyInQuery(
+                                "foo", "bar", new ParseQuery.State.Builder<>("Inner"))
+                        .build();
+        assertTrue(matches(logic, query, object));
+    }
+
     // region matchesWithin
 
     /**
@@ -1023,6 +1207,47 @@ public class OfflineQueryLogicTest {
         assertEquals("grantland", objects.get(2).getString("name"));
     }
 
+    @Test
+    public void testSortKeepsFirstResults() throws ParseException {
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").addAscendingOrder("key").build();
+
+        List<ParseObject> results = generateParseObjects("key", new Object[] {3, 1, 2, 1, 5});
+
+        OfflineQueryLogic.sort(results, query, 3);
+
+        assertEquals(3, results.size());
+        // Equal results stay in the order they were found in
+        assertEquals(1, results.get(0).getInt("id"));
+        assertEquals(3, results.get(1).getInt("id"));
+        assertEquals(2, results.get(2).getInt("id"));
+
+        OfflineQueryLogic.sort(results, query, 0);
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testSortWithGeoQueryKeepsNearest() throws ParseException {
+        ParseGeoPoint fb = new ParseGeoPoint(37.481689f, -122.154949f);
+
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").whereNear("point", fb).build();
+
+        List<ParseObject> objects =
+                generateParseObjects(
+                        "point",
+                        new Object[] {
+                            new ParseGeoPoint(37.774929f, -122.419416f),
+                            new ParseGeoPoint(40.712784f, -74.005941f),
+                            new ParseGeoPoint(37.452960f, -122.181725f)
+                        });
+
+        OfflineQueryLogic.sort(objects, query, 2);
+        assertEquals(2, objects.size());
+        assertEquals(2, objects.get(0).getInt("id"));
+        assertEquals(0, objects.get(1).getInt("id"));
+    }
+
     // endregion
 
     // region fetchIncludes
@@ -1077,8 +1302,8 @@ public class OfflineQueryLogicTest {
     @Test
     public void testFetchIncludesParseObject() throws ParseException {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), any(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), any(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseSQLiteDatabase db = mock(ParseSQLiteDatabase.class);
 
@@ -1090,16 +1315,46 @@ public class OfflineQueryLogicTest {
         object.put("foo", unfetchedObject);
 
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, db));
-        verify(store).fetchLocallyAsync(object, db);
-        verify(store).fetchLocallyAsync(unfetchedObject, db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(object), db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(unfetchedObject), db);
+        verifyNoMoreInteractions(store);
+    }
+
+    @Test
+    public void testFetchIncludesOfManyObjectsTogether() throws ParseException {
+        OfflineStore store = mock(OfflineStore.class);
+        when(store.fetchAllLocallyAsync(anyCollection(), any(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
+
+        ParseSQLiteDatabase db = mock(ParseSQLiteDatabase.class);
+
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").include("foo.bar").build();
+
+        ParseObject shared = new ParseObject("TestObject");
+        ParseObject other = new ParseObject("TestObject");
+        ParseObject bar = new ParseObject("TestObject");
+        shared.put("bar", bar);
+        other.put("bar", bar);
+        ParseObject object1 = new ParseObject("TestObject");
+        object1.put("foo", shared);
+        ParseObject object2 = new ParseObject("TestObject");
+        object2.put("foo", Arrays.asList(shared, other));
+
+        ParseTaskUtils.wait(
+                OfflineQueryLogic.fetchIncludesAsync(
+                        store, Arrays.asList(object1, object2), query, db));
+        verify(store).fetchAllLocallyAsync(Arrays.asList(object1, object2), db);
+        verify(store).fetchAllLocallyAsync(Arrays.asList(shared, other), db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(bar), db);
         verifyNoMoreInteractions(store);
     }
 
     @Test
     public void testFetchIncludesCollection() throws ParseException {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), any(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), any(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseSQLiteDatabase db = mock(ParseSQLiteDatabase.class);
 
@@ -1113,16 +1368,16 @@ public class OfflineQueryLogicTest {
         when(object.get("foo")).thenReturn(objects);
 
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, db));
-        verify(store).fetchLocallyAsync(object, db);
-        verify(store).fetchLocallyAsync(unfetchedObject, db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(object), db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(unfetchedObject), db);
         verifyNoMoreInteractions(store);
     }
 
     @Test
     public void testFetchIncludesJSONArray() throws ParseException {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), any(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), any(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseSQLiteDatabase db = mock(ParseSQLiteDatabase.class);
 
@@ -1136,16 +1391,16 @@ public class OfflineQueryLogicTest {
         when(object.get("foo")).thenReturn(objects);
 
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, db));
-        verify(store).fetchLocallyAsync(object, db);
-        verify(store).fetchLocallyAsync(unfetchedObject, db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(object), db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(unfetchedObject), db);
         verifyNoMoreInteractions(store);
     }
 
     @Test
     public void testFetchIncludesMap() throws ParseException {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), any(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), any(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseSQLiteDatabase db = mock(ParseSQLiteDatabase.class);
 
@@ -1159,16 +1414,16 @@ public class OfflineQueryLogicTest {
         when(object.get("foo")).thenReturn(objects);
 
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, db));
-        verify(store).fetchLocallyAsync(object, db);
-        verify(store).fetchLocallyAsync(unfetchedObject, db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(object), db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(unfetchedObject), db);
         verifyNoMoreInteractions(store);
     }
 
     @Test
     public void testFetchIncludesJSONObject() throws Exception {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), any(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), any(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseSQLiteDatabase db = mock(ParseSQLiteDatabase.class);
 
@@ -1182,16 +1437,16 @@ public class OfflineQueryLogicTest {
         when(object.get("foo")).thenReturn(objects);
 
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, db));
-        verify(store).fetchLocallyAsync(object, db);
-        verify(store).fetchLocallyAsync(unfetchedObject, db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(object), db);
+        verify(store).fetchAllLocallyAsync(Collections.singletonList(unfetchedObject), db);
         verifyNoMoreInteractions(store);
     }
 
     @Test
     public void testFetchIncludesNull() throws ParseException {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseQuery.State<ParseObject> query =
                 new ParseQuery.State.Builder<>("TestObject").include("foo").build();
@@ -1202,14 +1457,14 @@ public class OfflineQueryLogicTest {
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, null));
         // only itself
         verify(store, times(1))
-                .fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class));
+                .fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class));
     }
 
     @Test
     public void testFetchIncludesNonParseObject() throws ParseException {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseQuery.State<ParseObject> query =
                 new ParseQuery.State.Builder<>("TestObject").include("foo").build();
@@ -1221,7 +1476,7 @@ public class OfflineQueryLogicTest {
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, null));
         // only itself
         verify(store, times(1))
-                .fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class));
+                .fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class));
     }
 
     // endregion
@@ -1229,8 +1484,8 @@ public class OfflineQueryLogicTest {
     @Test
     public void testFetchIncludesDoesNotExist() throws ParseException {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseQuery.State<ParseObject> query =
                 new ParseQuery.State.Builder<>("TestObject").include("foo").build();
@@ -1240,14 +1495,14 @@ public class OfflineQueryLogicTest {
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, null));
         // only itself
         verify(store, times(1))
-                .fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class));
+                .fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class));
     }
 
     @Test
     public void testFetchIncludesNestedNull() throws Exception {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseQuery.State<ParseObject> query =
                 new ParseQuery.State.Builder<>("TestObject").include("foo.bar").build();
@@ -1258,14 +1513,14 @@ public class OfflineQueryLogicTest {
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, null));
         // only itself
         verify(store, times(1))
-                .fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class));
+                .fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class));
     }
 
     @Test
     public void testFetchIncludesNestedNonParseObject() throws Exception {
         OfflineStore store = mock(OfflineStore.class);
-        when(store.fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class)))
-                .thenReturn(Task.<ParseObject>forResult(null));
+        when(store.fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class)))
+                .thenReturn(Task.<Void>forResult(null));
 
         ParseQuery.State<ParseObject> query =
                 new ParseQuery.State.Builder<>("TestObject").include("foo.bar").build();
@@ -1277,6 +1532,6 @@ public class OfflineQueryLogicTest {
         ParseTaskUtils.wait(OfflineQueryLogic.fetchIncludesAsync(store, object, query, null));
         // only itself
         verify(store, times(1))
-                .fetchLocallyAsync(any(ParseObject.class), nullable(ParseSQLiteDatabase.class));
+                .fetchAllLocallyAsync(anyCollection(), nullable(ParseSQLiteDatabase.class));
     }
 }
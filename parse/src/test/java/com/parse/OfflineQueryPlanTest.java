@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+
+/** Unit tests for OfflineQueryPlan. */
+public class OfflineQueryPlanTest {
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    private static OfflineQueryPlan plan(ParseQuery.State.Builder<ParseObject> builder) {
+        ParseQuery.State<ParseObject> state = builder.build();
+        return OfflineQueryPlan.create(
+                state.className(), state.constraints(), OfflineIndexes.NONE, true);
+    }
+
+    private static OfflineQueryPlan indexedPlan(
+            ParseQuery.State.Builder<ParseObject> builder, boolean jsonSupported) {
+        OfflineIndexes indexes =
+                new OfflineIndexes(
+                        Collections.singletonMap("TestObject", Arrays.asList("name", "count")));
+        ParseQuery.State<ParseObject> state = builder.build();
+        return OfflineQueryPlan.create(
+                state.className(), state.constraints(), indexes, jsonSupported);
+    }
+
+    @Test
+    public void testNoPlanWithoutConstraints() {
+        assertNull(plan(new ParseQuery.State.Builder<>("TestObject")));
+    }
+
+    @Test
+    public void testNoPlanForUnsupportedConstraints() {
+        ParseQuery.State.Builder<ParseObject> builder =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("createdAt", new Date())
+                        .whereEqualTo("pointer", ParseObject.createWithoutData("Other", "id"))
+                        .whereEqualTo("nested.key", "value")
+                        .addCondition("name", "$ne", "foo")
+                        .addCondition("name", "$regex", "^foo")
+                        .addCondition("string", "$gt", "a")
+                        .addCondition("big", "$lt", Long.MAX_VALUE);
+
+        assertNull(plan(builder));
+    }
+
+    @Test
+    public void testEqualTo() {
+        OfflineQueryPlan plan =
+                plan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereEqualTo("name", "foo")
+                                .whereEqualTo("count", 3)
+                                .whereEqualTo("flag", true));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains("json_extract(json,'$.name')=?"));
+        assertTrue(where.contains("json_extract(json,'$.count')=3"));
+        assertTrue(where.contains("json_type(json,'$.flag')='true'"));
+        // Arrays contain values, so they're always kept
+        assertTrue(where.contains("json_type(json,'$.name') IN ('array','object')"));
+        assertEquals(Collections.singletonList("foo"), plan.getArgs(NONE, NONE));
+    }
+
+    @Test
+    public void testContainedIn() {
+        OfflineQueryPlan plan =
+                plan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .addCondition("name", "$in", Arrays.asList("foo", "bar", 1.5)));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains("json_extract(json,'$.name')=1.5"));
+        assertEquals(Arrays.asList("foo", "bar"), plan.getArgs(NONE, NONE));
+    }
+
+    @Test
+    public void testContainedInWithUnsupportedValue() {
+        assertNull(
+                plan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .addCondition("name", "$in", Arrays.asList("foo", new Date()))));
+    }
+
+    @Test
+    public void testRanges() {
+        OfflineQueryPlan plan =
+                plan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .addCondition("count", "$gte", 1)
+                                .addCondition("count", "$lt", 10.5));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains("json_extract(json,'$.count')>=1"));
+        assertTrue(where.contains("json_extract(json,'$.count')<10.5"));
+        // Anything that isn't a number is left to the matcher
+        assertTrue(where.contains("json_type(json,'$.count') NOT IN ('integer','real')"));
+        assertTrue(plan.getArgs(NONE, NONE).isEmpty());
+    }
+
+    @Test
+    public void testExists() {
+        OfflineQueryPlan plan =
+                plan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .addCondition("a", "$exists", true)
+                                .addCondition("b", "$exists", false));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains("json_type(json,'$.a') IS NOT NULL"));
+        assertTrue(where.contains("json_type(json,'$.b') IS NULL"));
+    }
+
+    @Test
+    public void testAlwaysKeepsRowsThatMayBeStale() {
+        OfflineQueryPlan plan =
+                plan(new ParseQuery.State.Builder<>("TestObject").whereEqualTo("name", "foo"));
+
+        assertNotNull(plan);
+        String where =
+                plan.getWhere("A.uuid", Arrays.asList("uuid1", "uuid2"), Arrays.asList("id1"));
+        assertTrue(where.contains("'$.__complete') IS NOT 1"));
+        assertTrue(where.contains("instr(json_extract(json,'$.__operations'),'\"name\":')>0"));
+        assertTrue(where.contains("A.uuid IN (?,?)"));
+        assertTrue(where.contains("objectId IN (?)"));
+        assertFalse(where.contains(" uuid IN"));
+        assertEquals(
+                Arrays.asList("foo", "uuid1", "uuid2", "id1"),
+                plan.getArgs(Arrays.asList("uuid1", "uuid2"), Arrays.asList("id1")));
+    }
+
+    @Test
+    public void testNoPlanWithoutJsonForKeysNotIndexed() {
+        assertNull(
+                indexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject").whereEqualTo("other", "foo"),
+                        false));
+        assertNull(
+                indexedPlan(
+                        new ParseQuery.State.Builder<>("Other").whereEqualTo("name", "foo"),
+                        false));
+    }
+
+    @Test
+    public void testIndexedEqualTo() {
+        OfflineQueryPlan plan =
+                indexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereEqualTo("name", "foo")
+                                .whereEqualTo("other", "bar"),
+                        false);
+
+        assertNotNull(plan);
+        String where = plan.getWhere("A.uuid", NONE, NONE);
+        assertEquals(
+                "((A.uuid IN (SELECT uuid FROM ParseObjectValues WHERE className=? AND key=? AND"
+                        + " (value IS NULL OR value=?))) OR json IS NULL)",
+                where);
+        assertEquals(Arrays.asList("TestObject", "name", "foo"), plan.getArgs(NONE, NONE));
+    }
+
+    @Test
+    public void testIndexedContainedInAndRanges() {
+        OfflineQueryPlan plan =
+                indexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .addCondition("name", "$in", Arrays.asList("foo", true, 2))
+                                .addCondition("count", "$lt", 10),
+                        false);
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains("(value IS NULL OR value=? OR value=2)"));
+        assertTrue(
+                where.contains(
+                        "(value IS NULL OR typeof(value) NOT IN ('integer','real') OR value<10)"));
+        assertTrue(plan.getArgs(NONE, NONE).contains("foo"));
+        assertEquals(5, plan.getArgs(NONE, NONE).size());
+    }
+
+    @Test
+    public void testIndexedAndJsonPredicates() {
+        OfflineQueryPlan plan =
+                indexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .addCondition("name", "$in", Arrays.asList("foo"))
+                                .addCondition("name", "$exists", true)
+                                .whereEqualTo("other", "bar"),
+                        true);
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", Collections.singletonList("uuid1"), NONE);
+        // Operators the index can't evaluate fall back to the JSON
+        assertTrue(where.contains("json_type(json,'$.name') IS NOT NULL"));
+        assertTrue(where.contains("json_extract(json,'$.other')=?"));
+        assertFalse(where.contains("json_extract(json,'$.name')=?"));
+        assertTrue(where.contains(") AND uuid IN (SELECT uuid FROM ParseObjectValues"));
+        assertEquals(
+                Arrays.asList("bar", "TestObject", "name", "foo", "uuid1"),
+                plan.getArgs(Collections.singletonList("uuid1"), NONE));
+    }
+
+    private static OfflineQueryPlan geoIndexedPlan(ParseQuery.State.Builder<ParseObject> builder) {
+        OfflineIndexes indexes =
+                new OfflineIndexes(
+                        Collections.<String, List<String>>emptyMap(),
+                        Collections.singletonMap("TestObject", Arrays.asList("point")));
+        ParseQuery.State<ParseObject> state = builder.build();
+        return OfflineQueryPlan.create(state.className(), state.constraints(), indexes, false);
+    }
+
+    @Test
+    public void testGeoIndexedWithinBox() {
+        OfflineQueryPlan plan =
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereWithin(
+                                        "point",
+                                        new ParseGeoPoint(10, 20),
+                                        new ParseGeoPoint(30, 40)));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(
+                where.startsWith(
+                        "((uuid IN (SELECT uuid FROM ParseObjectGeoPoints WHERE className=? AND"
+                                + " key=? AND (latitude IS NULL OR (latitude>=9.99"));
+        assertTrue(where.contains(" AND latitude<=30.0"));
+        assertTrue(where.contains(" AND longitude>=19.99"));
+        assertTrue(where.contains(" AND longitude<=40.0"));
+        assertEquals(Arrays.asList("TestObject", "point"), plan.getArgs(NONE, NONE));
+    }
+
+    @Test
+    public void testGeoIndexedWithinPolygon() {
+        OfflineQueryPlan plan =
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereGeoWithin(
+                                        "point",
+                                        Arrays.asList(
+                                                new ParseGeoPoint(0, 0),
+                                                new ParseGeoPoint(10, 5),
+                                                new ParseGeoPoint(0, 10))));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains(" AND latitude<=10.0"));
+        assertTrue(where.contains(" AND longitude<=10.0"));
+    }
+
+    @Test
+    public void testGeoIndexedNear() {
+        ParseGeoPoint point = new ParseGeoPoint(0, 0);
+        OfflineQueryPlan plan =
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereNear("point", point)
+                                .maxDistance("point", 0.1));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains("latitude<=5.7"));
+        assertTrue(where.contains(" AND longitude>=-5.7"));
+
+        // Without a distance, every point is near
+        assertNull(
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject").whereNear("point", point)));
+    }
+
+    @Test
+    public void testGeoIndexedNearWraps() {
+        OfflineQueryPlan plan =
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereNear("point", new ParseGeoPoint(0, 179))
+                                .maxDistance("point", 0.1));
+
+        assertNotNull(plan);
+        String where = plan.getWhere("uuid", NONE, NONE);
+        assertTrue(where.contains(" AND (longitude>=173.27"));
+        assertTrue(where.contains(" OR longitude<=-175.2"));
+
+        // Circles over a pole span every longitude
+        plan =
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereNear("point", new ParseGeoPoint(89, 0))
+                                .maxDistance("point", 0.1));
+
+        assertNotNull(plan);
+        assertFalse(plan.getWhere("uuid", NONE, NONE).contains("longitude"));
+    }
+
+    @Test
+    public void testGeoIndexedLeavesInvalidConstraintsToTheMatcher() {
+        assertNull(
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereWithin(
+                                        "point",
+                                        new ParseGeoPoint(10, 40),
+                                        new ParseGeoPoint(30, 20))));
+        assertNull(
+                geoIndexedPlan(
+                        new ParseQuery.State.Builder<>("TestObject")
+                                .whereGeoIntersects("point", new ParseGeoPoint(0, 0))));
+    }
+}
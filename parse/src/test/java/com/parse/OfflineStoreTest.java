@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import com.parse.boltsinternal.Task;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class OfflineStoreTest extends ResetPluginsParseTest {
+
+    private OfflineStore store;
+    private OfflineIndexes indexes = OfflineIndexes.NONE;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ParseObject.registerParseSubclasses();
+        store = new OfflineStore(RuntimeEnvironment.application);
+        Parse.setLocalDatastore(store);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        ParseObject.unregisterParseSubclasses();
+        store.clearDatabase(RuntimeEnvironment.application);
+    }
+
+    private static OfflineIndexes indexesOf(String... keys) {
+        return new OfflineIndexes(Collections.singletonMap("TestObject", Arrays.asList(keys)));
+    }
+
+    // A new store doesn't know about any objects in memory, so it has to look at the database.
+    private OfflineStore reopen(OfflineIndexes indexes) {
+        this.indexes = indexes;
+        OfflineStore store = new OfflineStore(RuntimeEnvironment.application, indexes);
+        Parse.setLocalDatastore(store);
+        return store;
+    }
+
+    private int countValues(String where) throws ParseException {
+        // Sessions are serialized, so this waits for the store to be done with the database.
+        ParseSQLiteDatabase db =
+                ParseTaskUtils.wait(
+                        new OfflineSQLiteOpenHelper(RuntimeEnvironment.application, indexes)
+                                .getReadableDatabaseAsync());
+        try {
+            Cursor cursor =
+                    ParseTaskUtils.wait(
+                            db.rawQueryAsync(
+                                    "SELECT COUNT(*) FROM ParseObjectValues WHERE " + where, null));
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            ParseTaskUtils.wait(db.closeAsync());
+        }
+    }
+
+    private List<ParseObject> pinObjects(int count) throws ParseException {
+        List<ParseObject> objects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ParseObject object = ParseObject.create("TestObject");
+            object.setState(
+                    new ParseObject.State.Builder("TestObject")
+                            .objectId("id" + i)
+                            .put("index", i)
+                            .put("name", i % 2 == 0 ? "even" : "odd")
+                            .isComplete(true)
+                            .build());
+            objects.add(object);
+        }
+        ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+        return objects;
+    }
+
+    @Test
+    public void testFindWithConstraints() throws Exception {
+        pinObjects(10);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("name", "even")
+                        .addCondition("index", "$gte", 4)
+                        .orderByAscending("index")
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(3, results.size());
+        assertEquals(4, results.get(0).getInt("index"));
+        assertEquals(6, results.get(1).getInt("index"));
+        assertEquals(8, results.get(2).getInt("index"));
+    }
+
+    @Test
+    public void testFindWithSubquery() throws Exception {
+        pinObjects(10);
+        ParseQuery.State.Builder<ParseObject> odd =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("name", "odd")
+                        .addCondition("index", "$lt", 5);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereMatchesKeyInQuery("index", "index", odd)
+                        .orderByAscending("index")
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(2, results.size());
+        assertEquals(1, results.get(0).getInt("index"));
+        assertEquals(3, results.get(1).getInt("index"));
+    }
+
+    @Test
+    public void testFindWithLimitWithoutOrder() throws Exception {
+        pinObjects(10);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("index", "$gt", 2)
+                        .setSkip(2)
+                        .setLimit(3)
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync("pin", query, null));
+
+        assertEquals(3, results.size());
+        for (ParseObject object : results) {
+            assertTrue(object.getInt("index") > 2);
+        }
+    }
+
+    @Test
+    public void testCountIgnoresLimit() throws Exception {
+        pinObjects(10);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("name", "odd")
+                        .setLimit(1)
+                        .build();
+
+        int count = ParseTaskUtils.wait(store.countFromPinAsync(null, query, null));
+
+        assertEquals(5, count);
+    }
+
+    @Test
+    public void testFindSeesChangesInMemory() throws Exception {
+        List<ParseObject> objects = pinObjects(4);
+        ParseObject changed = objects.get(1);
+        changed.put("name", "changed");
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("name", "changed")
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(1, results.size());
+        assertSame(changed, results.get(0));
+    }
+
+    @Test
+    public void testFindWithWriteAheadLogging() throws Exception {
+        store = new OfflineStore(RuntimeEnvironment.application, OfflineIndexes.NONE, true);
+        Parse.setLocalDatastore(store);
+        List<ParseObject> objects = pinObjects(6);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").whereEqualTo("name", "odd").build();
+
+        // Queries don't wait for pins that are still in progress
+        Task<Void> pinTask = store.pinAllObjectsAsync("other", objects, false);
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync("pin", query, null));
+        ParseTaskUtils.wait(pinTask);
+
+        assertEquals(3, results.size());
+        assertEquals(
+                6,
+                (int)
+                        ParseTaskUtils.wait(
+                                store.countFromPinAsync(
+                                        "other",
+                                        new ParseQuery.State.Builder<>("TestObject").build(),
+                                        null)));
+    }
+
+    @Test
+    public void testFindFetchesObjectsInBatches() throws Exception {
+        // More objects than fit in a single query
+        pinObjects(1010);
+        store = reopen(OfflineIndexes.NONE);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").whereEqualTo("name", "odd").build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync("pin", query, null));
+
+        assertEquals(505, results.size());
+        for (ParseObject object : results) {
+            assertTrue(object.isDataAvailable());
+            assertEquals(1, object.getInt("index") % 2);
+            assertSame(object, ParseObject.createWithoutData("TestObject", object.getObjectId()));
+        }
+    }
+
+    // Finds in a read-only session with write-ahead logging, and unpins "pin" once the first
+    // queries of the find are done.
+    private List<ParseObject> findWhileUnpinning(ParseQuery.State<ParseObject> query, int queries)
+            throws ParseException {
+        return findWhileWriting(query, queries, () -> store.unpinAllObjectsAsync("pin"));
+    }
+
+    // Finds in a read-only session with write-ahead logging, and runs the write once the first
+    // queries of the find are done.
+    private List<ParseObject> findWhileWriting(
+            ParseQuery.State<ParseObject> query, int queries, Callable<Task<Void>> write)
+            throws ParseException {
+        // A new store reads the objects from their rows
+        store = new OfflineStore(RuntimeEnvironment.application, OfflineIndexes.NONE, true);
+        Parse.setLocalDatastore(store);
+        OfflineSQLiteOpenHelper helper =
+                new OfflineSQLiteOpenHelper(RuntimeEnvironment.application, indexes);
+        helper.setWriteAheadLoggingEnabled(true);
+        ParseSQLiteDatabase db = spy(ParseTaskUtils.wait(helper.getReadableDatabaseAsync()));
+        assertTrue(db.isConcurrent());
+        final AtomicInteger count = new AtomicInteger();
+        doAnswer(
+                        invocation -> {
+                            Task<?> task = (Task<?>) invocation.callRealMethod();
+                            if (count.incrementAndGet() == queries) {
+                                task.waitForCompletion();
+                                ParseTaskUtils.wait(write.call());
+                            }
+                            return task;
+                        })
+                .when(db)
+                .queryAsync(anyString(), any(String[].class), anyString(), any(String[].class));
+        try {
+            return ParseTaskUtils.wait(store.findAsync(query, null, null, db));
+        } finally {
+            ParseTaskUtils.wait(db.closeAsync());
+        }
+    }
+
+    @Test
+    public void testFindWithWriteAheadLoggingWhileObjectsAreUnpinned() throws Exception {
+        store = new OfflineStore(RuntimeEnvironment.application, OfflineIndexes.NONE, true);
+        Parse.setLocalDatastore(store);
+        pinObjects(6);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").whereEqualTo("name", "odd").build();
+
+        // Between finding their uuids and reading their rows
+        List<ParseObject> results = findWhileUnpinning(query, 1);
+
+        assertEquals(0, results.size());
+    }
+
+    @Test
+    public void testFindWithWriteAheadLoggingWhileObjectsArePinnedAgain() throws Exception {
+        store = new OfflineStore(RuntimeEnvironment.application, OfflineIndexes.NONE, true);
+        Parse.setLocalDatastore(store);
+        pinObjects(6);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").whereEqualTo("name", "odd").build();
+        ParseObject object = ParseObject.createWithoutData("TestObject", "id6");
+        object.put("name", "even");
+
+        // Saving the pin again rewrites the rows of its objects under new uuids
+        List<ParseObject> results =
+                findWhileWriting(
+                        query,
+                        1,
+                        () ->
+                                store.pinAllObjectsAsync(
+                                        "pin", Collections.singletonList(object), false));
+
+        assertEquals(3, results.size());
+    }
+
+    @Test
+    public void testFindWithWriteAheadLoggingWhilePointersAreUnpinned() throws Exception {
+        store = new OfflineStore(RuntimeEnvironment.application, OfflineIndexes.NONE, true);
+        Parse.setLocalDatastore(store);
+        ParseObject parent = ParseObject.create("Parent");
+        List<ParseObject> children = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ParseObject child = ParseObject.create("TestObject");
+            child.put("parent", parent);
+            children.add(child);
+        }
+        ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", children, true));
+        ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject").build();
+
+        // Between reading the rows of the children and the row of their parent
+        List<ParseObject> results = findWhileUnpinning(query, 2);
+
+        assertEquals(0, results.size());
+    }
+
+    @Test
+    public void testFindKeepsMoreObjectsInMemoryThanFitInAQuery() throws Exception {
+        // The index is used without JSON1, and there are too many objects in memory to keep their
+        // rows in the query itself
+        store = reopen(indexesOf("name"));
+        List<ParseObject> objects = pinObjects(1010);
+        ParseObject changed = objects.get(1);
+        changed.put("name", "even");
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").whereEqualTo("name", "even").build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(506, results.size());
+        assertTrue(results.contains(changed));
+        for (ParseObject object : results) {
+            assertEquals("even", object.getString("name"));
+        }
+    }
+
+    @Test
+    public void testFindWithLimitKeepsTheOrderOfTheRows() throws Exception {
+        // The rows of the objects in memory are looked up on their own, as above
+        store = reopen(indexesOf("name"));
+        List<ParseObject> objects = pinObjects(1010);
+        objects.get(1).put("name", "even");
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("name", "even")
+                        .setLimit(3)
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(objects.subList(0, 3), results);
+    }
+
+    @Test
+    public void testFindFetchesPointersToNewObjects() throws Exception {
+        ParseObject parent = ParseObject.create("Parent");
+        parent.put("name", "parent");
+        List<ParseObject> children = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ParseObject child = ParseObject.create("TestObject");
+            child.put("index", i);
+            child.put("parent", parent);
+            children.add(child);
+        }
+        ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", children, true));
+        store = reopen(OfflineIndexes.NONE);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").orderByAscending("index").build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync("pin", query, null));
+
+        assertEquals(3, results.size());
+        ParseObject fetchedParent = results.get(0).getParseObject("parent");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, results.get(i).getInt("index"));
+            assertSame(fetchedParent, results.get(i).getParseObject("parent"));
+        }
+        ParseTaskUtils.wait(store.fetchLocallyAsync(fetchedParent));
+        assertEquals("parent", fetchedParent.getString("name"));
+    }
+
+    @Test
+    public void testFindFetchesIncludes() throws Exception {
+        ParseObject savedParent = ParseObject.create("Parent");
+        savedParent.setState(
+                new ParseObject.State.Builder("Parent")
+                        .objectId("parentId")
+                        .put("name", "saved")
+                        .isComplete(true)
+                        .build());
+        ParseObject newParent = ParseObject.create("Parent");
+        newParent.put("name", "new");
+        List<ParseObject> children = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ParseObject child = ParseObject.create("TestObject");
+            child.put("index", i);
+            child.put("parent", i % 2 == 0 ? savedParent : newParent);
+            children.add(child);
+        }
+        ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", children, true));
+        store = reopen(OfflineIndexes.NONE);
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .include("parent")
+                        .orderByAscending("index")
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync("pin", query, null));
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < 4; i++) {
+            ParseObject parent = results.get(i).getParseObject("parent");
+            assertTrue(parent.isDataAvailable());
+            assertEquals(i % 2 == 0 ? "saved" : "new", parent.getString("name"));
+            assertSame(results.get(i % 2).getParseObject("parent"), parent);
+        }
+    }
+
+    @Test
+    public void testFindWithIndexes() throws Exception {
+        store = reopen(indexesOf("name", "index"));
+        pinObjects(10);
+        store = reopen(indexesOf("name", "index"));
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("name", "$in", Arrays.asList("even", "none"))
+                        .addCondition("index", "$lt", 5)
+                        .orderByAscending("index")
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync("pin", query, null));
+
+        assertEquals(3, results.size());
+        assertEquals(0, results.get(0).getInt("index"));
+        assertEquals(2, results.get(1).getInt("index"));
+        assertEquals(4, results.get(2).getInt("index"));
+        assertEquals(20, countValues("className = 'TestObject'"));
+    }
+
+    @Test
+    public void testFindWithIndexesSeesPendingOperations() throws Exception {
+        store = reopen(indexesOf("name"));
+        List<ParseObject> objects = pinObjects(4);
+        objects.get(1).put("name", "changed");
+        ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+        store = reopen(indexesOf("name"));
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereEqualTo("name", "changed")
+                        .build();
+
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(1, results.size());
+        assertEquals("id1", results.get(0).getObjectId());
+        assertEquals(1, countValues("key = 'name' AND value IS NULL"));
+    }
+
+    @Test
+    public void testIndexesAreBuiltAndDropped() throws Exception {
+        pinObjects(6);
+        assertEquals(0, countValues("1"));
+
+        store = reopen(indexesOf("index"));
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .addCondition("index", "$gte", 3)
+                        .build();
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+        assertEquals(3, results.size());
+        assertEquals(6, countValues("key = 'index'"));
+
+        store = reopen(OfflineIndexes.NONE);
+        results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+        assertEquals(3, results.size());
+        assertEquals(0, countValues("1"));
+    }
+
+    @Test
+    public void testIndexedValuesAreDeletedWithObjects() throws Exception {
+        store = reopen(indexesOf("name"));
+        List<ParseObject> objects = pinObjects(4);
+        assertEquals(4, countValues("1"));
+
+        ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+
+        assertEquals(0, countValues("1"));
+    }
+
+    @Test
+    public void testFindWithGeoIndex() throws Exception {
+        OfflineIndexes geoIndexes =
+                new OfflineIndexes(
+                        Collections.<String, List<String>>emptyMap(),
+                        Collections.singletonMap("TestObject", Arrays.asList("point")));
+        store = reopen(geoIndexes);
+        List<ParseObject> objects = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ParseObject object = ParseObject.create("TestObject");
+            object.setState(
+                    new ParseObject.State.Builder("TestObject")
+                            .objectId("id" + i)
+                            .put("index", i)
+                            .put("point", new ParseGeoPoint(i, 9 - i))
+                            .isComplete(true)
+                            .build());
+            objects.add(object);
+        }
+        ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+        store = reopen(geoIndexes);
+
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereNear("point", new ParseGeoPoint(0, 9))
+                        .maxDistance("point", Math.toRadians(4))
+                        .setLimit(2)
+                        .build();
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(2, results.size());
+        assertEquals(0, results.get(0).getInt("index"));
+        assertEquals(1, results.get(1).getInt("index"));
+
+        query =
+                new ParseQuery.State.Builder<>("TestObject")
+                        .whereWithin("point", new ParseGeoPoint(2, 2), new ParseGeoPoint(4, 9))
+                        .orderByAscending("index")
+                        .build();
+        results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(3, results.size());
+        assertEquals(2, results.get(0).getInt("index"));
+        assertEquals(4, results.get(2).getInt("index"));
+    }
+
+    @Test
+    public void testUpgradeFromVersion4() throws Exception {
+        SQLiteDatabase db =
+                RuntimeEnvironment.application.openOrCreateDatabase("ParseOfflineStore", 0, null);
+        db.execSQL(
+                "CREATE TABLE ParseObjects (uuid TEXT PRIMARY KEY, className TEXT NOT NULL,"
+                        + " objectId TEXT, json TEXT, isDeletingEventually INTEGER DEFAULT 0,"
+                        + " UNIQUE(className, objectId));");
+        db.execSQL(
+                "CREATE TABLE Dependencies (key TEXT NOT NULL, uuid TEXT NOT NULL,"
+                        + " PRIMARY KEY(key, uuid));");
+        for (int i = 0; i < 3; i++) {
+            ContentValues values = new ContentValues();
+            values.put("uuid", "uuid" + i);
+            values.put("className", "TestObject");
+            values.put("objectId", "id" + i);
+            values.put(
+                    "json",
+                    new JSONObject()
+                            .put("className", "TestObject")
+                            .put("objectId", "id" + i)
+                            .put("__complete", true)
+                            .put(
+                                    "__operations",
+                                    new JSONArray().put(new JSONObject().put("__uuid", "op" + i)))
+                            .put("__isDeletingEventually", 0)
+                            .put("index", i)
+                            .toString());
+            db.insert("ParseObjects", null, values);
+        }
+        db.setVersion(4);
+        db.close();
+
+        store = reopen(indexesOf("index"));
+        ParseQuery.State<ParseObject> query =
+                new ParseQuery.State.Builder<>("TestObject").whereEqualTo("index", 1).build();
+        List<ParseObject> results = ParseTaskUtils.wait(store.findFromPinAsync(null, query, null));
+
+        assertEquals(1, results.size());
+        assertEquals("id1", results.get(0).getObjectId());
+        assertEquals(3, countValues("key = 'index'"));
+    }
+}
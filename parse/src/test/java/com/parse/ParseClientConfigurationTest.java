@@ -9,8 +9,11 @@
 package com.parse;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -50,4 +53,87 @@ public class ParseClientConfigurationTest {
         Parse.Configuration configuration = builder.build();
         assertEquals(configuration.server, "http://myserver.com/missingslash/");
     }
+
+    @Test
+    public void testBuilderAsyncRequests() {
+        Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+        builder.enableAsyncRequests();
+        builder.maxRequestsPerHost(8);
+        Parse.Configuration configuration = builder.build();
+        assertTrue(configuration.asyncRequestsEnabled);
+        assertEquals(configuration.maxRequestsPerHost, 8);
+    }
+
+    @Test
+    public void testBuilderRequestCoalescing() {
+        Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+        assertFalse(builder.build().requestCoalescingEnabled);
+        builder.enableRequestCoalescing();
+        assertTrue(builder.build().requestCoalescingEnabled);
+    }
+
+    @Test
+    public void testBuilderBackgroundInitialization() {
+        Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+        assertFalse(builder.build().backgroundInitializationEnabled);
+        builder.enableBackgroundInitialization();
+        assertTrue(builder.build().backgroundInitializationEnabled);
+    }
+
+    @Test
+    public void testBuilderStartupListener() {
+        Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+        assertNull(builder.build().startupListener);
+        ParseStartupListener listener = mock(ParseStartupListener.class);
+        builder.startupListener(listener);
+        assertSame(listener, builder.build().startupListener);
+    }
+
+    @Test
+    public void testBuilderMaxQueryMemoryCacheBytes() {
+        Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+        assertEquals(
+                Parse.Configuration.Builder.DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES,
+                builder.build().maxQueryMemoryCacheBytes);
+        builder.maxQueryMemoryCacheBytes(0);
+        assertEquals(0, builder.build().maxQueryMemoryCacheBytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderInvalidMaxQueryMemoryCacheBytes() {
+        new Parse.Configuration.Builder(null).maxQueryMemoryCacheBytes(-1);
+    }
+
+    @Test
+    public void testBuilderMaxFileCacheBytes() {
+        Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+        assertEquals(0, builder.build().maxFileCacheBytes);
+        builder.maxFileCacheBytes(1024);
+        assertEquals(1024, builder.build().maxFileCacheBytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderInvalidMaxFileCacheBytes() {
+        new Parse.Configuration.Builder(null).maxFileCacheBytes(0);
+    }
+
+    @Test
+    public void testBuilderMaxConcurrentSaveBatches() {
+        Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+        assertEquals(
+                Parse.Configuration.Builder.DEFAULT_MAX_CONCURRENT_SAVE_BATCHES,
+                builder.build().maxConcurrentSaveBatches);
+        builder.maxConcurrentSaveBatches(1);
+        assertEquals(1, builder.build().maxConcurrentSaveBatches);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderInvalidMaxConcurrentSaveBatches() {
+        new Parse.Configuration.Builder(null).maxConcurrentSaveBatches(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderInvalidMaxRequestsPerHost() {
+        new Parse.Configuration.Builder(null).maxRequestsPerHost(0);
+    }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import com.parse.boltsinternal.Task;
+import com.parse.http.ParseHttpRequest;
+import com.parse.http.ParseHttpResponse;
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParseCommandCacheTest {
+
+    private ParseHttpClient client;
+    private ParseCommandCache cache;
+
+    private static ParseHttpResponse response(String content) {
+        return response(200, content);
+    }
+
+    private static ParseHttpResponse response(int statusCode, String content) {
+        byte[] bytes = content.getBytes();
+        return new ParseHttpResponse.Builder()
+                .setContent(new ByteArrayInputStream(bytes))
+                .setStatusCode(statusCode)
+                .setTotalSize(bytes.length)
+                .setContentType("application/json")
+                .build();
+    }
+
+    private static JSONObject body(ParseHttpRequest request) throws Exception {
+        return new JSONObject(
+                new String(ParseIOUtils.toByteArray(request.getBody().getContent()), "UTF-8"));
+    }
+
+    private static ParseRESTCommand updateCommand(String httpPath, JSONObject operations) {
+        return new ParseRESTCommand(httpPath, ParseHttpRequest.Method.PUT, operations, null);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Shadows.shadowOf(RuntimeEnvironment.application)
+                .grantPermissions(Manifest.permission.ACCESS_NETWORK_STATE);
+        Parse.Configuration configuration =
+                new Parse.Configuration.Builder(RuntimeEnvironment.application)
+                        .applicationId(BuildConfig.LIBRARY_PACKAGE_NAME)
+                        .server("https://api.parse.com/1")
+                        .build();
+        ParsePlugins.set(ParseTestUtils.mockParsePlugins(configuration));
+        ParseRESTCommand.server = new URL("https://api.parse.com/1/");
+
+        client = mock(ParseHttpClient.class);
+        cache = new ParseCommandCache(RuntimeEnvironment.application, client);
+        // Queue up the commands before running any of them.
+        cache.setConnected(false);
+    }
+
+    @After
+    public void tearDown() {
+        cache.pause();
+        cache.clear();
+        cache.onDestroy();
+        ParseRESTCommand.server = null;
+        ParseCorePlugins.getInstance().reset();
+        ParsePlugins.reset();
+    }
+
+    @Test
+    public void testIndependentCommandsAreBatched() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenReturn(
+                        response(
+                                "[{\"success\":{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}},"
+                                        + "{\"success\":{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}}]"));
+        Task<JSONObject> first =
+                cache.enqueueEventuallyAsync(
+                        updateCommand("classes/Foo/a", new JSONObject("{\"name\":\"a\"}")), null);
+        Task<JSONObject> second =
+                cache.enqueueEventuallyAsync(
+                        updateCommand("classes/Foo/b", new JSONObject("{\"name\":\"b\"}")), null);
+
+        cache.setConnected(true);
+        ParseTaskUtils.wait(first);
+        ParseTaskUtils.wait(second);
+
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(1)).execute(captor.capture());
+        ParseHttpRequest request = captor.getValue();
+        assertEquals("https://api.parse.com/1/batch", request.getUrl());
+        JSONArray requests = body(request).getJSONArray("requests");
+        assertEquals(2, requests.length());
+        assertEquals("/1/classes/Foo/a", requests.getJSONObject(0).getString("path"));
+        assertEquals("/1/classes/Foo/b", requests.getJSONObject(1).getString("path"));
+    }
+
+    @Test
+    public void testRejectedBatchRunsCommandsOneAtATime() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenReturn(
+                        response(400, "{\"code\":107,\"error\":\"invalid JSON\"}"),
+                        response("{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}"),
+                        response(400, "{\"code\":101,\"error\":\"object not found\"}"));
+        Task<JSONObject> first =
+                cache.enqueueEventuallyAsync(
+                        updateCommand("classes/Foo/a", new JSONObject("{\"name\":\"a\"}")), null);
+        Task<JSONObject> second =
+                cache.enqueueEventuallyAsync(
+                        updateCommand("classes/Foo/b", new JSONObject("{\"name\":\"b\"}")), null);
+
+        cache.setConnected(true);
+        second.waitForCompletion();
+
+        assertEquals("2015-01-01T00:00:00.000Z", ParseTaskUtils.wait(first).getString("updatedAt"));
+        assertEquals(
+                ParseException.OBJECT_NOT_FOUND, ((ParseException) second.getError()).getCode());
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(3)).execute(captor.capture());
+        List<ParseHttpRequest> requests = captor.getAllValues();
+        assertEquals("https://api.parse.com/1/batch", requests.get(0).getUrl());
+        assertEquals("https://api.parse.com/1/classes/Foo/a", requests.get(1).getUrl());
+        assertEquals("https://api.parse.com/1/classes/Foo/b", requests.get(2).getUrl());
+    }
+
+    @Test
+    public void testSuccessiveSavesOfAnObjectAreMerged() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenAnswer(invocation -> response("{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}"));
+        Task<JSONObject> first =
+                cache.enqueueEventuallyAsync(
+                        updateCommand(
+                                "classes/Foo/a", new JSONObject("{\"name\":\"a\",\"count\":1}")),
+                        null);
+        Task<JSONObject> second =
+                cache.enqueueEventuallyAsync(
+                        updateCommand(
+                                "classes/Foo/a",
+                                new JSONObject(
+                                        "{\"count\":2,\"score\":{\"__op\":\"Increment\",\"amount\":1}}")),
+                        null);
+
+        cache.setConnected(true);
+        ParseTaskUtils.wait(first);
+        ParseTaskUtils.wait(second);
+
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(1)).execute(captor.capture());
+        ParseHttpRequest request = captor.getValue();
+        assertEquals("https://api.parse.com/1/classes/Foo/a", request.getUrl());
+        JSONObject body = body(request);
+        assertEquals("a", body.getString("name"));
+        assertEquals(2, body.getInt("count"));
+        assertEquals("Increment", body.getJSONObject("score").getString("__op"));
+    }
+
+    @Test
+    public void testSavesThatCantBeMergedRunInOrder() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenAnswer(invocation -> response("{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}"));
+        String increment = "{\"score\":{\"__op\":\"Increment\",\"amount\":1}}";
+        Task<JSONObject> first =
+                cache.enqueueEventuallyAsync(
+                        updateCommand("classes/Foo/a", new JSONObject(increment)), null);
+        Task<JSONObject> second =
+                cache.enqueueEventuallyAsync(
+                        updateCommand("classes/Foo/a", new JSONObject(increment)), null);
+
+        cache.setConnected(true);
+        ParseTaskUtils.wait(first);
+        ParseTaskUtils.wait(second);
+
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(2)).execute(captor.capture());
+        for (ParseHttpRequest request : captor.getAllValues()) {
+            assertEquals("https://api.parse.com/1/classes/Foo/a", request.getUrl());
+            assertEquals(1, body(request).getJSONObject("score").getInt("amount"));
+        }
+    }
+
+    @Test
+    public void testCommandsPointingToNewObjectsWaitForThem() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenReturn(
+                        response(
+                                "{\"objectId\":\"newId\",\"createdAt\":\"2015-01-01T00:00:00.000Z\"}"),
+                        response("{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}"));
+        String localId = ParseCorePlugins.getInstance().getLocalIdManager().createLocalId();
+        ParseRESTCommand create =
+                new ParseRESTCommand(
+                        "classes/Foo",
+                        ParseHttpRequest.Method.POST,
+                        new JSONObject("{\"name\":\"new\"}"),
+                        null);
+        create.setLocalId(localId);
+        JSONObject pointer = new JSONObject();
+        pointer.put("__type", "Pointer");
+        pointer.put("className", "Foo");
+        pointer.put("localId", localId);
+        ParseRESTCommand update =
+                updateCommand("classes/Bar/b", new JSONObject().put("foo", pointer));
+
+        cache.enqueueEventuallyAsync(create, null);
+        // No one is waiting for the create anymore, so the cache maps the localId itself.
+        cache.simulateReboot();
+        Task<JSONObject> second = cache.enqueueEventuallyAsync(update, null);
+
+        cache.setConnected(true);
+        ParseTaskUtils.wait(second);
+
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(2)).execute(captor.capture());
+        List<ParseHttpRequest> requests = captor.getAllValues();
+        assertEquals("https://api.parse.com/1/classes/Foo", requests.get(0).getUrl());
+        assertEquals("https://api.parse.com/1/classes/Bar/b", requests.get(1).getUrl());
+        JSONObject foo = body(requests.get(1)).getJSONObject("foo");
+        assertEquals("newId", foo.getString("objectId"));
+        assertFalse(foo.has("localId"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParseCommandLogTest {
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File directory;
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ParseCommandLog reopen(ParseCommandLog log) {
+        log.close();
+        return new ParseCommandLog(directory);
+    }
+
+    private File[] segments() {
+        return directory.listFiles((dir, name) -> name.startsWith("CommandLog_"));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder("CommandCache");
+    }
+
+    @Test
+    public void testAddReadAndRemove() throws Exception {
+        ParseCommandLog log = new ParseCommandLog(directory);
+        long first = log.add(bytes("first"));
+        long second = log.add(bytes("second"));
+
+        assertTrue(second > first);
+        assertEquals(2, log.size());
+        assertEquals(11, log.sizeBytes());
+        assertEquals(first, log.oldestId());
+        assertArrayEquals(bytes("second"), log.read(second));
+
+        log.remove(first);
+
+        assertFalse(log.contains(first));
+        assertEquals(1, log.size());
+        assertEquals(6, log.sizeBytes());
+        assertEquals(second, log.oldestId());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testReadRemovedCommand() throws Exception {
+        ParseCommandLog log = new ParseCommandLog(directory);
+        long id = log.add(bytes("command"));
+        log.add(bytes("other"));
+        log.remove(id);
+
+        log.read(id);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        ParseCommandLog log = new ParseCommandLog(directory);
+        long first = log.add(bytes("first"));
+        long second = log.add(bytes("second"));
+        long third = log.add(bytes("third"));
+        log.remove(second);
+
+        log = reopen(log);
+
+        assertEquals(Arrays.asList(first, third), log.ids());
+        assertArrayEquals(bytes("first"), log.read(first));
+        assertArrayEquals(bytes("third"), log.read(third));
+        assertEquals(10, log.sizeBytes());
+        // New commands still go after the old ones
+        assertTrue(log.add(bytes("fourth")) > third);
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        ParseCommandLog log = new ParseCommandLog(directory);
+        long first = log.add(bytes("first"));
+        log.add(bytes("second"));
+        log.close();
+        File segment = segments()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        log = new ParseCommandLog(directory);
+
+        assertEquals(Arrays.asList(first), log.ids());
+        long third = log.add(bytes("third"));
+        log = reopen(log);
+        assertEquals(Arrays.asList(first, third), log.ids());
+        assertArrayEquals(bytes("third"), log.read(third));
+    }
+
+    @Test
+    public void testRemovingEverythingDeletesTheLog() throws Exception {
+        ParseCommandLog log = new ParseCommandLog(directory);
+        long first = log.add(bytes("first"));
+        long second = log.add(bytes("second"));
+        log.remove(first);
+        log.remove(second);
+
+        assertEquals(0, segments().length);
+        assertEquals(0, reopen(log).size());
+    }
+
+    @Test
+    public void testRemovedCommandsAreCompacted() throws Exception {
+        ParseCommandLog log = new ParseCommandLog(directory);
+        byte[] data = new byte[1024];
+        long kept = log.add(bytes("kept"));
+        int count = (int) (4 * ParseCommandLog.MAX_SEGMENT_BYTES / data.length);
+        for (int i = 0; i < count; i++) {
+            long id = log.add(data);
+            log.remove(id);
+        }
+
+        // The removed commands don't take up more than a few segments
+        long total = 0;
+        for (File segment : segments()) {
+            total += segment.length();
+        }
+        assertTrue(total <= 3 * ParseCommandLog.MAX_SEGMENT_BYTES);
+
+        log = reopen(log);
+        assertEquals(Arrays.asList(kept), log.ids());
+        assertArrayEquals(bytes("kept"), log.read(kept));
+    }
+
+    @Test
+    public void testMigratesLegacyFiles() throws Exception {
+        ParseFileUtils.writeByteArrayToFile(
+                new File(directory, "CachedCommand_0000000000000002_00000000_1"), bytes("second"));
+        ParseFileUtils.writeByteArrayToFile(
+                new File(directory, "CachedCommand_0000000000000001_00000000_2"), bytes("first"));
+
+        ParseCommandLog log = new ParseCommandLog(directory);
+
+        List<Long> ids = log.ids();
+        assertEquals(2, ids.size());
+        assertArrayEquals(bytes("first"), log.read(ids.get(0)));
+        assertArrayEquals(bytes("second"), log.read(ids.get(1)));
+        assertEquals(1, directory.list().length);
+    }
+}
@@ -11,10 +11,22 @@ package com.parse;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SimpleTimeZone;
 import org.junit.Test;
 
 public class ParseDateFormatTest {
+
+    private static DateFormat simpleDateFormat() {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        return format;
+    }
+
     @Test
     public void testParse() {
         String string = "2015-05-13T11:08:01.123Z";
@@ -35,4 +47,51 @@ public class ParseDateFormatTest {
         String string = ParseDateFormat.getInstance().format(date);
         assertEquals("2015-05-13T11:08:01.123Z", string);
     }
+
+    @Test
+    public void testFormatAndParseMatchSimpleDateFormat() throws Exception {
+        DateFormat expected = simpleDateFormat();
+        Random random = new Random(42);
+        long[] times = new long[1000];
+        // 1583-01-01, the epoch, the leap days of 2000 and 2100, 9999-12-31T23:59:59.999
+        long[] edges = {-12212553600000L, -1, 0, 951782400000L, 4107456000000L, 253402300799999L};
+        System.arraycopy(edges, 0, times, 0, edges.length);
+        for (int i = edges.length; i < times.length; i++) {
+            // Anywhere from 1583 to 9999
+            times[i] = -12212553600000L + (long) (random.nextDouble() * 265614854400000L);
+        }
+
+        for (long time : times) {
+            Date date = new Date(time);
+            String string = ParseDateFormat.getInstance().format(date);
+            assertEquals(expected.format(date), string);
+            assertEquals(date, ParseDateFormat.getInstance().parse(string));
+        }
+    }
+
+    @Test
+    public void testDatesOutsideTheCanonicalRange() throws Exception {
+        DateFormat expected = simpleDateFormat();
+        // Before the Gregorian cutover and after the year 9999
+        long[] times = {-30610224000000L, -12219292800001L, 253402300800000L};
+
+        for (long time : times) {
+            Date date = new Date(time);
+            String string = ParseDateFormat.getInstance().format(date);
+            assertEquals(expected.format(date), string);
+            assertEquals(expected.parse(string), ParseDateFormat.getInstance().parse(string));
+        }
+    }
+
+    @Test
+    public void testParseLenientDates() throws Exception {
+        DateFormat expected = simpleDateFormat();
+        String[] strings = {
+            "2015-02-29T00:00:00.000Z", "2015-13-01T00:00:00.000Z", "2015-05-13T11:08:01.1234Z",
+        };
+
+        for (String string : strings) {
+            assertEquals(expected.parse(string), ParseDateFormat.getInstance().parse(string));
+        }
+    }
 }
@@ -24,6 +24,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
 import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
 import com.parse.http.ParseHttpRequest;
 import com.parse.http.ParseHttpResponse;
 import java.io.ByteArrayInputStream;
@@ -31,14 +32,25 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
 import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 
 // For org.json
 public class ParseFileControllerTest {
@@ -301,6 +313,55 @@ public class ParseFileControllerTest {
         assertTrue(file.exists());
     }
 
+    @Test
+    public void testSaveAsyncRetriesDroppedUpload() throws Exception {
+        // TODO(grantland): Remove once we no longer rely on retry logic.
+        ParseRequest.setDefaultInitialRetryDelay(1L);
+
+        byte[] data = new byte[1024 * 1024];
+        Arrays.fill(data, (byte) '1');
+        File file = new File(temporaryFolder.getRoot(), "upload");
+        ParseFileUtils.writeByteArrayToFile(file, data);
+
+        MockWebServer server = new MockWebServer();
+        server.enqueue(
+                new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY));
+        server.enqueue(
+                new MockResponse()
+                        .setResponseCode(201)
+                        .setBody("{\"name\":\"new_file_name\",\"url\":\"http://example.com\"}"));
+        server.start();
+        try {
+            ParseRESTCommand.server = server.url("/").url();
+
+            File root = new File(temporaryFolder.getRoot(), "cache");
+            ParseFileController controller =
+                    new ParseFileController(
+                            ParseHttpClient.createClient(new OkHttpClient.Builder()), root);
+            List<Integer> progress = Collections.synchronizedList(new ArrayList<>());
+            ParseFile.State state = new ParseFile.State.Builder().name("file_name").build();
+            ParseFile.State result =
+                    ParseTaskUtils.wait(
+                            controller.saveAsync(state, file, null, progress::add, null));
+
+            assertEquals("new_file_name", result.name());
+            RecordedRequest request;
+            RecordedRequest lastRequest = null;
+            while ((request = server.takeRequest(1, TimeUnit.SECONDS)) != null) {
+                lastRequest = request;
+            }
+            assertEquals(data.length, lastRequest.getBodySize());
+            assertEquals(2, server.getRequestCount());
+            // The retry doesn't take progress back, nor report the same percentage twice
+            for (int i = 1; i < progress.size(); i++) {
+                assertTrue(progress.get(i) > progress.get(i - 1));
+            }
+            assertEquals(Integer.valueOf(100), progress.get(progress.size() - 1));
+        } finally {
+            server.shutdown();
+        }
+    }
+
     // endregion
 
     // region testFetchAsync
@@ -457,5 +518,148 @@ public class ParseFileControllerTest {
         assertFalse(controller.getTempFile(state).exists());
     }
 
+    @Test
+    public void testFetchAsyncResumesPartialDownload() throws Exception {
+        ParseHttpResponse mockResponse =
+                new ParseHttpResponse.Builder()
+                        .setStatusCode(206)
+                        .setTotalSize(2L)
+                        .setHeaders(Collections.singletonMap("content-range", "bytes 3-4/5"))
+                        .setContent(new ByteArrayInputStream("lo".getBytes()))
+                        .build();
+
+        ParseHttpClient fileClient = mock(ParseHttpClient.class);
+        when(fileClient.execute(any(ParseHttpRequest.class))).thenReturn(mockResponse);
+        File root = temporaryFolder.getRoot();
+        ParseFileController controller = new ParseFileController(null, root).fileClient(fileClient);
+
+        ParseFile.State state = new ParseFile.State.Builder().name("file_name").url("url").build();
+        ParseFileUtils.writeStringToFile(controller.getTempFile(state), "hel", "UTF-8");
+        File result = ParseTaskUtils.wait(controller.fetchAsync(state, null, null, null));
+
+        ArgumentCaptor<ParseHttpRequest> request = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(fileClient, times(1)).execute(request.capture());
+        assertEquals("bytes=3-", request.getValue().getHeader("Range"));
+        assertEquals("hello", ParseFileUtils.readFileToString(result, "UTF-8"));
+        assertFalse(controller.getTempFile(state).exists());
+    }
+
+    @Test
+    public void testFetchAsyncRestartsWhenRangeIsIgnored() throws Exception {
+        byte[] data = "hello".getBytes();
+        ParseHttpResponse mockResponse =
+                new ParseHttpResponse.Builder()
+                        .setStatusCode(200)
+                        .setTotalSize((long) data.length)
+                        .setContent(new ByteArrayInputStream(data))
+                        .build();
+
+        ParseHttpClient fileClient = mock(ParseHttpClient.class);
+        when(fileClient.execute(any(ParseHttpRequest.class))).thenReturn(mockResponse);
+        File root = temporaryFolder.getRoot();
+        ParseFileController controller = new ParseFileController(null, root).fileClient(fileClient);
+
+        ParseFile.State state = new ParseFile.State.Builder().name("file_name").url("url").build();
+        ParseFileUtils.writeStringToFile(controller.getTempFile(state), "xyz", "UTF-8");
+        File result = ParseTaskUtils.wait(controller.fetchAsync(state, null, null, null));
+
+        assertEquals("hello", ParseFileUtils.readFileToString(result, "UTF-8"));
+    }
+
+    @Test
+    public void testFetchAsyncCancellingOneCallerKeepsTheDownload() throws Exception {
+        byte[] data = "hello".getBytes();
+        ParseHttpResponse mockResponse =
+                new ParseHttpResponse.Builder()
+                        .setStatusCode(200)
+                        .setTotalSize((long) data.length)
+                        .setContent(new ByteArrayInputStream(data))
+                        .build();
+
+        CountDownLatch responseLatch = new CountDownLatch(1);
+        ParseHttpClient fileClient = mock(ParseHttpClient.class);
+        when(fileClient.execute(any(ParseHttpRequest.class)))
+                .thenAnswer(
+                        invocation -> {
+                            responseLatch.await();
+                            return mockResponse;
+                        });
+        File root = new File(temporaryFolder.getRoot(), "cache");
+        ParseFileController controller = new ParseFileController(null, root).fileClient(fileClient);
+        ParseFile.State state = new ParseFile.State.Builder().name("file_name").url("url").build();
+
+        TaskCompletionSource<Void> cancellation = new TaskCompletionSource<>();
+        Task<File> first = controller.fetchAsync(state, null, null, cancellation.getTask());
+        Task<File> second = controller.fetchAsync(state, null, null, null);
+        cancellation.setCancelled();
+        responseLatch.countDown();
+
+        assertTrue(first.isCancelled());
+        File result = ParseTaskUtils.wait(second);
+        assertEquals("hello", ParseFileUtils.readFileToString(result, "UTF-8"));
+        verify(fileClient, times(1)).execute(any(ParseHttpRequest.class));
+    }
+
+    @Test
+    public void testFetchAsyncEvictsLeastRecentlyUsed() throws Exception {
+        byte[] data = "hello".getBytes();
+        ParseHttpResponse mockResponse =
+                new ParseHttpResponse.Builder()
+                        .setStatusCode(200)
+                        .setTotalSize((long) data.length)
+                        .setContent(new ByteArrayInputStream(data))
+                        .build();
+
+        ParseHttpClient fileClient = mock(ParseHttpClient.class);
+        when(fileClient.execute(any(ParseHttpRequest.class))).thenReturn(mockResponse);
+        File root = temporaryFolder.getRoot();
+        ParseFileController controller =
+                new ParseFileController(null, root, 12).fileClient(fileClient);
+
+        File older = new File(root, "older");
+        ParseFileUtils.writeStringToFile(older, "12345", "UTF-8");
+        older.setLastModified(System.currentTimeMillis() - 10000);
+        File newer = new File(root, "newer");
+        ParseFileUtils.writeStringToFile(newer, "12345", "UTF-8");
+
+        ParseFile.State state = new ParseFile.State.Builder().name("file_name").url("url").build();
+        ParseTaskUtils.wait(controller.fetchAsync(state, null, null, null));
+
+        assertFalse(older.exists());
+        assertTrue(newer.exists());
+        assertTrue(controller.getCacheFile(state).exists());
+    }
+
+    @Test
+    public void testFetchAsyncDeletesAbandonedPartialDownloads() throws Exception {
+        ParseHttpClient fileClient = mock(ParseHttpClient.class);
+        File root = temporaryFolder.getRoot();
+        ParseFileController controller = new ParseFileController(null, root).fileClient(fileClient);
+
+        File abandoned =
+                controller.getTempFile(
+                        new ParseFile.State.Builder()
+                                .name("abandoned")
+                                .url("https://example.com/files/abandoned")
+                                .build());
+        ParseFileUtils.writeStringToFile(abandoned, "hel", "UTF-8");
+        abandoned.setLastModified(
+                System.currentTimeMillis() - ParseFileController.TEMP_FILE_MAX_AGE_MILLIS - 1000);
+        File recent =
+                controller.getTempFile(
+                        new ParseFile.State.Builder()
+                                .name("recent")
+                                .url("https://example.com/files/recent")
+                                .build());
+        ParseFileUtils.writeStringToFile(recent, "hel", "UTF-8");
+        ParseFileUtils.writeStringToFile(new File(root, "cached_file_name"), "hello", "UTF-8");
+
+        ParseFile.State state = new ParseFile.State.Builder().name("cached_file_name").build();
+        ParseTaskUtils.wait(controller.fetchAsync(state, null, null, null));
+
+        assertFalse(abandoned.exists());
+        assertTrue(recent.exists());
+    }
+
     // endregion
 }
@@ -12,8 +12,10 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.parse.boltsinternal.Task;
 import com.parse.http.ParseHttpRequest;
 import com.parse.http.ParseHttpResponse;
 import java.io.ByteArrayOutputStream;
@@ -21,8 +23,10 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
+import okhttp3.Dispatcher;
 import okhttp3.Headers;
 import okhttp3.OkHttpClient;
+import okhttp3.Response;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -64,6 +68,79 @@ public class ParseHttpClientTest {
                 200, "OK", "Success", ParseHttpClient.createClient(new OkHttpClient.Builder()));
     }
 
+    @Test
+    public void testParseOkHttpClientExecuteAsync() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setStatus("HTTP/1.1 200 OK").setBody("Success"));
+        server.start();
+        ParseHttpClient client = ParseHttpClient.createClient(new OkHttpClient.Builder(), true, 2);
+        ParseHttpRequest parseRequest =
+                new ParseHttpRequest.Builder()
+                        .setUrl(server.url("/").toString())
+                        .setMethod(ParseHttpRequest.Method.GET)
+                        .build();
+
+        assertTrue(client.isAsync());
+        ParseHttpResponse parseResponse = ParseTaskUtils.wait(client.executeAsync(parseRequest));
+
+        assertEquals("GET", server.takeRequest().getMethod());
+        assertEquals(200, parseResponse.getStatusCode());
+        assertArrayEquals(
+                "Success".getBytes(), ParseIOUtils.toByteArray(parseResponse.getContent()));
+
+        server.shutdown();
+    }
+
+    @Test
+    public void testParseOkHttpClientExecuteAsyncWithBrokenResponse() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setStatus("HTTP/1.1 200 OK").setBody("Success"));
+        server.start();
+        final RuntimeException error = new IllegalStateException();
+        ParseHttpClient client =
+                new ParseHttpClient(new OkHttpClient.Builder(), true, 0) {
+                    @Override
+                    ParseHttpResponse getResponse(Response okHttpResponse) {
+                        throw error;
+                    }
+                };
+        ParseHttpRequest parseRequest =
+                new ParseHttpRequest.Builder()
+                        .setUrl(server.url("/").toString())
+                        .setMethod(ParseHttpRequest.Method.GET)
+                        .build();
+
+        try {
+            Task<ParseHttpResponse> task = client.executeAsync(parseRequest);
+            task.waitForCompletion();
+
+            assertSame(error, task.getError());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxRequestsPerHostKeepsDispatcherOfBuilder() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(3);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder().dispatcher(dispatcher);
+
+        ParseHttpClient.createClient(builder, true, 2);
+
+        assertEquals(3, dispatcher.getMaxRequestsPerHost());
+        assertSame(dispatcher, builder.build().dispatcher());
+    }
+
+    @Test
+    public void testAsyncClientRunsAsManyRequestsPerHostAsTheNetworkPool() {
+        ParseHttpClient client = ParseHttpClient.createClient(new OkHttpClient.Builder(), true, 0);
+
+        assertEquals(
+                ParseRequest.DEFAULT_MAX_REQUESTS_PER_HOST,
+                client.okHttpClient().dispatcher().getMaxRequestsPerHost());
+    }
+
     private void doSingleParseHttpClientExecuteWithResponse(
             int responseCode, String responseStatus, String responseContent, ParseHttpClient client)
             throws Exception {
@@ -11,6 +11,7 @@ package com.parse;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.parse.boltsinternal.Task;
@@ -83,6 +84,100 @@ public class ParseKeyValueCacheTest {
                 ParseFileUtils.readFileToByteArray(keyValueCacheDir.listFiles()[0]));
     }
 
+    @Test
+    public void testSaveAndLoad() {
+        ParseKeyValueCache.saveToKeyValueCache("key", "value");
+        ParseKeyValueCache.saveToKeyValueCache("key", "value2");
+
+        assertEquals(1, ParseKeyValueCache.size());
+        assertEquals(1, keyValueCacheDir.listFiles().length);
+        assertEquals("value2", ParseKeyValueCache.loadFromKeyValueCache("key", Long.MAX_VALUE));
+        assertNull(ParseKeyValueCache.loadFromKeyValueCache("missing", Long.MAX_VALUE));
+
+        ParseKeyValueCache.clearFromKeyValueCache("key");
+        assertEquals(0, ParseKeyValueCache.size());
+        assertEquals(0, keyValueCacheDir.listFiles().length);
+    }
+
+    @Test
+    public void testLoadForgetsEntryWhoseFileIsGone() {
+        ParseKeyValueCache.saveToKeyValueCache("key", "value");
+        for (File file : keyValueCacheDir.listFiles()) {
+            assertTrue(file.delete());
+        }
+
+        assertNull(ParseKeyValueCache.loadFromKeyValueCache("key", Long.MAX_VALUE));
+        assertEquals(0, ParseKeyValueCache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ParseKeyValueCache.maxKeyValueCacheFiles = 2;
+
+        ParseKeyValueCache.saveToKeyValueCache("a", "a");
+        ParseKeyValueCache.saveToKeyValueCache("b", "b");
+        // Reading "a" makes "b" the least recently used entry
+        assertEquals("a", ParseKeyValueCache.loadFromKeyValueCache("a", Long.MAX_VALUE));
+        ParseKeyValueCache.saveToKeyValueCache("c", "c");
+
+        assertEquals(2, ParseKeyValueCache.size());
+        assertEquals(2, keyValueCacheDir.listFiles().length);
+        assertEquals("a", ParseKeyValueCache.loadFromKeyValueCache("a", Long.MAX_VALUE));
+        assertNull(ParseKeyValueCache.loadFromKeyValueCache("b", Long.MAX_VALUE));
+        assertEquals("c", ParseKeyValueCache.loadFromKeyValueCache("c", Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testEvictsByBytes() {
+        ParseKeyValueCache.maxKeyValueCacheBytes = 10;
+
+        ParseKeyValueCache.saveToKeyValueCache("a", "12345");
+        ParseKeyValueCache.saveToKeyValueCache("b", "12345");
+        ParseKeyValueCache.saveToKeyValueCache("c", "12345");
+
+        assertEquals(2, ParseKeyValueCache.size());
+        assertNull(ParseKeyValueCache.loadFromKeyValueCache("a", Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testIndexIsRestoredFromJournal() {
+        ParseKeyValueCache.maxKeyValueCacheFiles = 2;
+        ParseKeyValueCache.saveToKeyValueCache("a", "a");
+        ParseKeyValueCache.saveToKeyValueCache("b", "b");
+        ParseKeyValueCache.loadFromKeyValueCache("a", Long.MAX_VALUE);
+
+        // Simulate a restart
+        ParseKeyValueCache.initialize(keyValueCacheDir);
+
+        assertEquals(2, ParseKeyValueCache.size());
+        ParseKeyValueCache.saveToKeyValueCache("c", "c");
+        assertEquals("a", ParseKeyValueCache.loadFromKeyValueCache("a", Long.MAX_VALUE));
+        assertNull(ParseKeyValueCache.loadFromKeyValueCache("b", Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testIndexIsRebuiltFromExistingFiles() throws Exception {
+        // Files written before there was a journal
+        ParseFileUtils.writeStringToFile(
+                new File(keyValueCacheDir, System.currentTimeMillis() + ".key"), "value", "UTF-8");
+        ParseKeyValueCache.initialize(keyValueCacheDir);
+
+        assertEquals(1, ParseKeyValueCache.size());
+        assertEquals("value", ParseKeyValueCache.loadFromKeyValueCache("key", Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testLoadExpired() throws Exception {
+        ParseFileUtils.writeStringToFile(
+                new File(keyValueCacheDir, (System.currentTimeMillis() - 10000) + ".key"),
+                "value",
+                "UTF-8");
+        ParseKeyValueCache.initialize(keyValueCacheDir);
+
+        assertNull(ParseKeyValueCache.loadFromKeyValueCache("key", 1000));
+        assertEquals("value", ParseKeyValueCache.loadFromKeyValueCache("key", Long.MAX_VALUE));
+    }
+
     @Test
     public void testGetSizeWithoutCacheDir() {
         // Delete the cache folder(Simulate users clear the app cache)
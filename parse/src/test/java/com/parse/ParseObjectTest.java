@@ -17,6 +17,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
@@ -33,9 +34,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -917,6 +920,161 @@ public class ParseObjectTest extends ResetPluginsParseTest {
 
     // endregion
 
+    // region testDirtyChildren
+
+    @Test
+    public void testIsDirtyFollowsChildrenFromServer() {
+        ParseObject parent =
+                ParseObject.from(
+                        new ParseObject.State.Builder("Parent")
+                                .objectId("parentId")
+                                .put("name", "parent")
+                                .put(
+                                        "children",
+                                        new ArrayList<>(
+                                                Collections.singletonList(
+                                                        ParseObject.createWithoutData(
+                                                                "Child", "childId"))))
+                                .build());
+        assertFalse(parent.isDirty());
+
+        ParseObject child = parent.<ParseObject>getList("children").get(0);
+        child.put("key", "value");
+        assertTrue(parent.isDirty());
+        assertFalse(parent.isDirty(false));
+
+        child.revert();
+        assertFalse(parent.isDirty());
+    }
+
+    @Test
+    public void testIsDirtyFollowsChildrenAddedInPlace() {
+        ParseObject parent =
+                ParseObject.from(
+                        new ParseObject.State.Builder("Parent")
+                                .objectId("parentId")
+                                .put("tags", new ArrayList<>(Arrays.asList("a", "b")))
+                                .build());
+        assertFalse(parent.isDirty());
+
+        parent.getList("tags").add(new ParseObject("Child"));
+        assertTrue(parent.isDirty());
+    }
+
+    @Test
+    public void testIsDirtyFollowsChildrenChangedThroughAnotherReference() {
+        ParseObject child = ParseObject.createWithoutData("Child", "childId");
+        ParseObject parent =
+                ParseObject.from(
+                        new ParseObject.State.Builder("Parent")
+                                .objectId("parentId")
+                                .put("child", child)
+                                .build());
+        assertFalse(parent.isDirty());
+
+        child.put("key", "value");
+        assertTrue(parent.isDirty());
+    }
+
+    @Test
+    public void testSaveSavesChildrenChangedThroughAnotherReference() throws Exception {
+        mockCurrentUserController();
+        final List<String> savedObjectIds = new ArrayList<>();
+        ParseObjectController objectController = mock(ParseObjectController.class);
+        when(objectController.saveAllAsync(anyList(), anyList(), nullable(String.class), anyList()))
+                .thenAnswer(
+                        invocation -> {
+                            List<Task<ParseObject.State>> tasks = new ArrayList<>();
+                            for (ParseObject.State state :
+                                    (List<ParseObject.State>) invocation.getArgument(0)) {
+                                savedObjectIds.add(state.objectId());
+                                tasks.add(Task.forResult(state));
+                            }
+                            return tasks;
+                        });
+        when(objectController.saveAsync(
+                        any(ParseObject.State.class), any(ParseOperationSet.class),
+                        nullable(String.class), any(ParseDecoder.class)))
+                .thenReturn(Task.forResult(null));
+        ParseCorePlugins.getInstance().registerObjectController(objectController);
+        ParseObject child = ParseObject.createWithoutData("Child", "childId");
+        ParseObject parent =
+                ParseObject.from(
+                        new ParseObject.State.Builder("Parent")
+                                .objectId("parentId")
+                                .put("child", child)
+                                .build());
+
+        child.put("key", "value");
+        parent.save();
+
+        assertEquals(Collections.singletonList("childId"), savedObjectIds);
+        assertFalse(child.isDirty());
+    }
+
+    @Test
+    public void testUnchangedServerValuesAreScannedOnce() {
+        final AtomicInteger iterations = new AtomicInteger();
+        List<ParseObject> children =
+                new ArrayList<ParseObject>() {
+                    @Override
+                    public Iterator<ParseObject> iterator() {
+                        iterations.incrementAndGet();
+                        return super.iterator();
+                    }
+                };
+        for (int i = 0; i < 1000; i++) {
+            children.add(ParseObject.createWithoutData("Child", "child" + i));
+        }
+        ParseObject.State state =
+                new ParseObject.State.Builder("Parent")
+                        .objectId("parentId")
+                        .put("children", children)
+                        .build();
+        ParseObject parent = ParseObject.from(state);
+        int scans = iterations.get();
+        parent.setState(state.newBuilder().put("name", "parent").build());
+        parent.put("name", "child");
+        parent.add("tags", "tag");
+        parent.revert();
+
+        assertEquals(scans, iterations.get());
+    }
+
+    @Test
+    public void testIsDirtyFollowsChildrenAdded() {
+        ParseObject parent = ParseObject.createWithoutData("Parent", "parentId");
+        ParseObject child = ParseObject.createWithoutData("Child", "childId");
+        parent.add("children", child);
+        parent.setState(
+                new ParseObject.State.Builder("Parent")
+                        .objectId("parentId")
+                        .put("children", Collections.singletonList(child))
+                        .build());
+
+        child.put("key", "value");
+        assertTrue(parent.isDirty());
+    }
+
+    @Test
+    public void testIsDirtyForgetsReplacedChildren() {
+        ParseObject parent = ParseObject.createWithoutData("Parent", "parentId");
+        ParseObject child = new ParseObject("Child");
+        parent.put("child", child);
+        parent.put("child", "replaced");
+        parent.setState(
+                new ParseObject.State.Builder("Parent")
+                        .objectId("parentId")
+                        .put("child", "replaced")
+                        .build());
+        parent.revert();
+
+        assertTrue(child.isDirty());
+        assertFalse(parent.isDirty());
+    }
+
+    // endregion
+
     @Test
     public void testParcelWhileDeletingWithLDSEnabled() throws Exception {
         mockCurrentUserController();
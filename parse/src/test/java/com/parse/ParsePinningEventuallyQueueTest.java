@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import com.parse.boltsinternal.Task;
+import com.parse.http.ParseHttpRequest;
+import com.parse.http.ParseHttpResponse;
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParsePinningEventuallyQueueTest extends ResetPluginsParseTest {
+
+    private OfflineStore store;
+    private ParseHttpClient client;
+    private ParsePinningEventuallyQueue queue;
+
+    private static ParseHttpResponse response(String content) {
+        return response(200, content);
+    }
+
+    private static ParseHttpResponse response(int statusCode, String content) {
+        byte[] bytes = content.getBytes();
+        return new ParseHttpResponse.Builder()
+                .setContent(new ByteArrayInputStream(bytes))
+                .setStatusCode(statusCode)
+                .setTotalSize(bytes.length)
+                .setContentType("application/json")
+                .build();
+    }
+
+    private static JSONObject body(ParseHttpRequest request) throws Exception {
+        return new JSONObject(
+                new String(ParseIOUtils.toByteArray(request.getBody().getContent()), "UTF-8"));
+    }
+
+    private static ParseObject existingObject(String objectId, String name) {
+        ParseObject object = ParseObject.createWithoutData("Foo", objectId);
+        object.put("name", name);
+        return object;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Shadows.shadowOf(RuntimeEnvironment.application)
+                .grantPermissions(Manifest.permission.ACCESS_NETWORK_STATE);
+        Parse.Configuration configuration =
+                new Parse.Configuration.Builder(RuntimeEnvironment.application)
+                        .applicationId(BuildConfig.LIBRARY_PACKAGE_NAME)
+                        .server("https://api.parse.com/1")
+                        .build();
+        ParsePlugins.set(ParseTestUtils.mockParsePlugins(configuration));
+        ParseRESTCommand.server = new URL("https://api.parse.com/1/");
+
+        ParseCurrentUserController userController = mock(ParseCurrentUserController.class);
+        when(userController.getAsync()).thenReturn(Task.<ParseUser>forResult(null));
+        when(userController.getAsync(anyBoolean())).thenReturn(Task.<ParseUser>forResult(null));
+        ParseCorePlugins.getInstance().registerCurrentUserController(userController);
+
+        ParseObject.registerParseSubclasses();
+        store = new OfflineStore(RuntimeEnvironment.application);
+        Parse.setLocalDatastore(store);
+
+        client = mock(ParseHttpClient.class);
+        queue = new ParsePinningEventuallyQueue(RuntimeEnvironment.application, client);
+        // Queue up the saves before running any of them.
+        queue.setConnected(false);
+        Parse.eventuallyQueue = queue;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.clear();
+        queue.onDestroy();
+        Parse.eventuallyQueue = null;
+        ParseRESTCommand.server = null;
+        ParseObject.unregisterParseSubclasses();
+        store.clearDatabase(RuntimeEnvironment.application);
+        super.tearDown();
+    }
+
+    @Test
+    public void testReadySavesAreBatched() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenAnswer(
+                        invocation -> {
+                            ParseHttpRequest request = invocation.getArgument(0);
+                            if (request.getUrl().endsWith("/batch")) {
+                                return response(
+                                        "[{\"success\":{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}},"
+                                                + "{\"success\":{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}}]");
+                            }
+                            return response("{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}");
+                        });
+        ParseObject a = existingObject("a", "a");
+        ParseObject b = existingObject("b", "b");
+        Task<Void> first = a.saveEventually();
+        Task<Void> second = b.saveEventually();
+        assertTrue(queue.getTestHelper().waitFor(ParseCommandCache.TestHelper.COMMAND_ENQUEUED, 2));
+
+        queue.setConnected(true);
+        ParseTaskUtils.wait(first);
+        ParseTaskUtils.wait(second);
+
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(1)).execute(captor.capture());
+        ParseHttpRequest request = captor.getValue();
+        assertEquals("https://api.parse.com/1/batch", request.getUrl());
+        JSONArray requests = body(request).getJSONArray("requests");
+        assertEquals(2, requests.length());
+        assertEquals("/1/classes/Foo/a", requests.getJSONObject(0).getString("path"));
+        assertEquals("a", requests.getJSONObject(0).getJSONObject("body").getString("name"));
+        assertEquals("/1/classes/Foo/b", requests.getJSONObject(1).getString("path"));
+        assertEquals("b", requests.getJSONObject(1).getJSONObject("body").getString("name"));
+        assertFalse(a.isDirty());
+        assertFalse(b.isDirty());
+        assertEquals(0, queue.pendingCount());
+    }
+
+    @Test
+    public void testRejectedBatchRunsSavesOneAtATime() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenReturn(
+                        response(400, "{\"code\":107,\"error\":\"invalid JSON\"}"),
+                        response("{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}"),
+                        response(400, "{\"code\":101,\"error\":\"object not found\"}"));
+        ParseObject a = existingObject("a", "a");
+        ParseObject b = existingObject("b", "b");
+        Task<Void> first = a.saveEventually();
+        Task<Void> second = b.saveEventually();
+        assertTrue(queue.getTestHelper().waitFor(ParseCommandCache.TestHelper.COMMAND_ENQUEUED, 2));
+
+        queue.setConnected(true);
+        ParseTaskUtils.wait(first);
+        second.waitForCompletion();
+
+        assertEquals(
+                ParseException.OBJECT_NOT_FOUND, ((ParseException) second.getError()).getCode());
+        assertFalse(a.isDirty());
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(3)).execute(captor.capture());
+        List<ParseHttpRequest> requests = captor.getAllValues();
+        assertEquals("https://api.parse.com/1/batch", requests.get(0).getUrl());
+        assertEquals("https://api.parse.com/1/classes/Foo/a", requests.get(1).getUrl());
+        assertEquals("https://api.parse.com/1/classes/Foo/b", requests.get(2).getUrl());
+        assertEquals(0, queue.pendingCount());
+    }
+
+    @Test
+    public void testSavesPointingToNewObjectsWaitForThem() throws Exception {
+        when(client.execute(any(ParseHttpRequest.class)))
+                .thenReturn(
+                        response(
+                                "{\"objectId\":\"newId\",\"createdAt\":\"2015-01-01T00:00:00.000Z\"}"),
+                        response("{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}"));
+        ParseObject child = new ParseObject("Bar");
+        child.put("name", "child");
+        ParseObject parent = existingObject("p", "parent");
+        parent.put("child", child);
+        // Saves the child first.
+        Task<Void> task = parent.saveEventually();
+        assertTrue(queue.getTestHelper().waitFor(ParseCommandCache.TestHelper.COMMAND_ENQUEUED, 2));
+
+        queue.setConnected(true);
+        ParseTaskUtils.wait(task);
+
+        ArgumentCaptor<ParseHttpRequest> captor = ArgumentCaptor.forClass(ParseHttpRequest.class);
+        verify(client, times(2)).execute(captor.capture());
+        List<ParseHttpRequest> requests = captor.getAllValues();
+        assertEquals("https://api.parse.com/1/classes/Bar", requests.get(0).getUrl());
+        assertEquals("https://api.parse.com/1/classes/Foo/p", requests.get(1).getUrl());
+        assertEquals("newId", body(requests.get(1)).getJSONObject("child").getString("objectId"));
+        assertEquals("newId", child.getObjectId());
+        assertFalse(parent.isDirty());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParseQueryMemoryCacheTest {
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static List<ParseObject> results(String objectId) {
+        ParseObject object = ParseObject.createWithoutData("TestObject", objectId);
+        object.setState(
+                object.getState()
+                        .newBuilder()
+                        .put("tags", new ArrayList<>(Arrays.asList("a", "b")))
+                        .build());
+        return Collections.singletonList(object);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ParseKeyValueCache.initialize(temporaryFolder.newFolder("ParseKeyValueCache"));
+        ParseQueryMemoryCache.resetMetrics();
+    }
+
+    @After
+    public void tearDown() {
+        ParseKeyValueCache.clearKeyValueCacheDir();
+        ParseQueryMemoryCache.maxQueryMemoryCacheBytes =
+                ParseQueryMemoryCache.DEFAULT_MAX_QUERY_MEMORY_CACHE_BYTES;
+        ParseCorePlugins.getInstance().reset();
+    }
+
+    @Test
+    public void testGetReturnsCopies() {
+        List<ParseObject> results = results("a");
+        ParseQueryMemoryCache.put("key", results, System.currentTimeMillis(), 100);
+        results.get(0).getList("tags").add("c");
+
+        List<ParseObject> first = ParseQueryMemoryCache.get("key", Long.MAX_VALUE);
+        List<ParseObject> second = ParseQueryMemoryCache.get("key", Long.MAX_VALUE);
+        assertEquals(1, first.size());
+        assertEquals("a", first.get(0).getObjectId());
+        assertEquals(Arrays.asList("a", "b"), first.get(0).getList("tags"));
+        assertNotSame(first.get(0), second.get(0));
+
+        first.get(0).getList("tags").add("c");
+        assertEquals(Arrays.asList("a", "b"), second.get(0).getList("tags"));
+        assertEquals(2, ParseQueryMemoryCache.getHitCount());
+    }
+
+    @Test
+    public void testMaxAge() {
+        ParseQueryMemoryCache.put("key", results("a"), System.currentTimeMillis() - 1000, 100);
+
+        assertNull(ParseQueryMemoryCache.get("key", 500));
+        assertEquals(1, ParseQueryMemoryCache.get("key", 5000).size());
+        assertEquals(1, ParseQueryMemoryCache.getMissCount());
+        assertEquals(1, ParseQueryMemoryCache.getHitCount());
+    }
+
+    @Test
+    public void testOlderResultsDontReplaceNewerOnes() {
+        long now = System.currentTimeMillis();
+        ParseQueryMemoryCache.put("key", results("new"), now, 100);
+        ParseQueryMemoryCache.put("key", results("old"), now - 1000, 100);
+
+        List<ParseObject> results = ParseQueryMemoryCache.get("key", Long.MAX_VALUE);
+        assertEquals("new", results.get(0).getObjectId());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        // Room for two entries, of 2 * 200 + 128 bytes each
+        ParseQueryMemoryCache.maxQueryMemoryCacheBytes = 1200;
+        long now = System.currentTimeMillis();
+        ParseQueryMemoryCache.put("key1", results("a"), now, 200);
+        ParseQueryMemoryCache.put("key2", results("b"), now, 200);
+        ParseQueryMemoryCache.get("key1", Long.MAX_VALUE);
+        ParseQueryMemoryCache.put("key3", results("c"), now, 200);
+
+        assertNull(ParseQueryMemoryCache.get("key2", Long.MAX_VALUE));
+        assertEquals(1, ParseQueryMemoryCache.get("key1", Long.MAX_VALUE).size());
+        assertEquals(1, ParseQueryMemoryCache.get("key3", Long.MAX_VALUE).size());
+        assertEquals(1, ParseQueryMemoryCache.getEvictionCount());
+    }
+
+    @Test
+    public void testNothingIsKeptWithoutBudget() {
+        ParseQueryMemoryCache.maxQueryMemoryCacheBytes = 0;
+        ParseQueryMemoryCache.put("key", results("a"), System.currentTimeMillis(), 100);
+
+        assertNull(ParseQueryMemoryCache.get("key", Long.MAX_VALUE));
+        assertEquals(0, ParseQueryMemoryCache.size());
+    }
+
+    @Test
+    public void testClearingTheKeyValueCacheClearsMemory() {
+        long now = System.currentTimeMillis();
+        ParseQueryMemoryCache.put("key1", results("a"), now, 100);
+        ParseQueryMemoryCache.put("key2", results("b"), now, 100);
+
+        ParseKeyValueCache.clearFromKeyValueCache("key1");
+        assertNull(ParseQueryMemoryCache.get("key1", Long.MAX_VALUE));
+        assertEquals(1, ParseQueryMemoryCache.get("key2", Long.MAX_VALUE).size());
+
+        ParseKeyValueCache.clearKeyValueCacheDir();
+        assertNull(ParseQueryMemoryCache.get("key2", Long.MAX_VALUE));
+        assertEquals(0, ParseQueryMemoryCache.size());
+    }
+}
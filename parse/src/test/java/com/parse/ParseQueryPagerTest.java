@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.parse.boltsinternal.Task;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseQueryPagerTest {
+
+    private final List<ParseQuery.State<ParseObject>> states = new ArrayList<>();
+
+    private static ParseObject object(String objectId, int score) {
+        ParseObject object = ParseObject.createWithoutData("TestObject", objectId);
+        object.put("score", score);
+        return object;
+    }
+
+    @Before
+    public void setUp() {
+        ParseTestUtils.setTestParseUser();
+    }
+
+    @After
+    public void tearDown() {
+        ParseCorePlugins.getInstance().reset();
+    }
+
+    // Answers each find with the next page of the given results, recording the states it was given
+    @SuppressWarnings("unchecked")
+    private void registerController(final List<ParseObject> results) {
+        ParseQueryController controller = mock(ParseQueryController.class);
+        when(controller.findAsync(
+                        any(ParseQuery.State.class), any(ParseUser.class), any(Task.class)))
+                .thenAnswer(
+                        invocation -> {
+                            ParseQuery.State<ParseObject> state = invocation.getArgument(0);
+                            int from = 0;
+                            for (ParseQuery.State<ParseObject> previous : states) {
+                                from += previous.limit();
+                            }
+                            states.add(state);
+                            int to = Math.min(from + state.limit(), results.size());
+                            return Task.forResult(
+                                    new ArrayList<>(results.subList(Math.min(from, to), to)));
+                        });
+        ParseCorePlugins.getInstance().registerQueryController(controller);
+    }
+
+    @Test
+    public void testPagesByObjectId() throws Exception {
+        List<ParseObject> results =
+                Arrays.asList(
+                        object("a", 1),
+                        object("b", 2),
+                        object("c", 3),
+                        object("d", 4),
+                        object("e", 5));
+        registerController(results);
+
+        ParseQueryPager<ParseObject> pager = new ParseQuery<>("TestObject").pager(2);
+        assertEquals(results.subList(0, 2), ParseTaskUtils.wait(pager.nextPageInBackground()));
+        assertEquals(results.subList(2, 4), ParseTaskUtils.wait(pager.nextPageInBackground()));
+        assertTrue(pager.hasNextPage());
+        assertEquals(results.subList(4, 5), ParseTaskUtils.wait(pager.nextPageInBackground()));
+        assertFalse(pager.hasNextPage());
+        assertEquals(Collections.emptyList(), ParseTaskUtils.wait(pager.nextPageInBackground()));
+
+        assertEquals(3, states.size());
+        assertEquals(Collections.singletonList("objectId"), states.get(0).order());
+        assertFalse(states.get(0).constraints().containsKey("objectId"));
+        Map<?, ?> objectId = (Map<?, ?>) states.get(2).constraints().get("objectId");
+        assertEquals("d", objectId.get("$gt"));
+    }
+
+    @Test
+    public void testPagesBySortKey() throws Exception {
+        registerController(Arrays.asList(object("a", 3), object("b", 2), object("c", 2)));
+
+        ParseQueryPager<ParseObject> pager =
+                new ParseQuery<>("TestObject").orderByDescending("score").pager(2);
+        ParseTaskUtils.wait(pager.nextPageInBackground());
+        ParseTaskUtils.wait(pager.nextPageInBackground());
+
+        assertEquals(Arrays.asList("-score", "objectId"), states.get(0).order());
+        Map<?, ?> score = (Map<?, ?>) states.get(0).constraints().get("score");
+        assertEquals(true, score.get("$exists"));
+
+        List<?> or = (List<?>) states.get(1).constraints().get("$or");
+        Map<?, ?> after = (Map<?, ?>) or.get(0);
+        assertEquals(2, ((Map<?, ?>) after.get("score")).get("$lt"));
+        Map<?, ?> tied = (Map<?, ?>) or.get(1);
+        assertEquals(2, tied.get("score"));
+        assertEquals("b", ((Map<?, ?>) tied.get("objectId")).get("$gt"));
+    }
+
+    @Test
+    public void testKeepsOrderThatStartsWithObjectId() throws Exception {
+        registerController(Arrays.asList(object("a", 3), object("b", 2), object("c", 1)));
+
+        ParseQueryPager<ParseObject> pager =
+                new ParseQuery<>("TestObject")
+                        .orderByAscending("objectId")
+                        .addAscendingOrder("score")
+                        .pager(2);
+        ParseTaskUtils.wait(pager.nextPageInBackground());
+        ParseTaskUtils.wait(pager.nextPageInBackground());
+
+        assertEquals(Arrays.asList("objectId", "score"), states.get(0).order());
+        assertFalse(states.get(0).constraints().containsKey("score"));
+        Map<?, ?> objectId = (Map<?, ?>) states.get(1).constraints().get("objectId");
+        assertEquals("b", objectId.get("$gt"));
+    }
+
+    @Test
+    public void testLimitCapsResults() throws Exception {
+        registerController(
+                Arrays.asList(object("a", 1), object("b", 2), object("c", 3), object("d", 4)));
+
+        ParseQueryPager<ParseObject> pager = new ParseQuery<>("TestObject").setLimit(3).pager(2);
+        ParseTaskUtils.wait(pager.nextPageInBackground());
+        assertEquals(1, ParseTaskUtils.wait(pager.nextPageInBackground()).size());
+
+        assertFalse(pager.hasNextPage());
+        assertEquals(1, states.get(1).limit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeveralSortKeysAreRejected() {
+        new ParseQuery<>("TestObject").orderByAscending("score").addAscendingOrder("name").pager(2);
+    }
+
+    @Test
+    public void testIterator() {
+        List<ParseObject> results =
+                Arrays.asList(object("a", 1), object("b", 2), object("c", 3), object("d", 4));
+        registerController(results);
+
+        List<ParseObject> iterated = new ArrayList<>();
+        Iterator<ParseObject> iterator = new ParseQuery<>("TestObject").iterator(3, 1);
+        while (iterator.hasNext()) {
+            iterated.add(iterator.next());
+        }
+
+        assertEquals(results, iterated);
+        assertEquals(2, states.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testIteratorThrowsUncheckedParseException() {
+        ParseException error = new ParseException(ParseException.CONNECTION_FAILED, "offline");
+        ParseQueryController controller = mock(ParseQueryController.class);
+        when(controller.findAsync(
+                        any(ParseQuery.State.class), any(ParseUser.class), any(Task.class)))
+                .thenReturn(Task.forError(error));
+        ParseCorePlugins.getInstance().registerQueryController(controller);
+
+        Iterator<ParseObject> iterator = new ParseQuery<>("TestObject").iterator(3, 0);
+        try {
+            iterator.hasNext();
+            fail("Should have thrown");
+        } catch (UncheckedParseException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+}
@@ -518,6 +518,36 @@ public class ParseRESTCommandTest {
         verify(mockResponseStream, times(1)).close();
     }
 
+    @Test
+    public void testOnResponseWithMalformedStreamedContent() throws Exception {
+        ParseRESTCommand command = new ParseRESTCommand.Builder().build();
+        ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("Test").build();
+        command.setContentDecoder(new ParseFindResponseDecoder<>(state, ParseDecoder.get()));
+
+        Task<JSONObject> responseTask =
+                command.onResponseAsync(newMockParseHttpResponse(200, "{\"results\":[1]}"), null);
+        responseTask.waitForCompletion();
+
+        assertTrue(responseTask.getError() instanceof ParseException);
+        assertEquals(
+                ParseException.CONNECTION_FAILED,
+                ((ParseException) responseTask.getError()).getCode());
+    }
+
+    @Test
+    public void testOnResponsePassesOnStreamedDecodingErrors() throws Exception {
+        ParseRESTCommand command = new ParseRESTCommand.Builder().build();
+        IllegalStateException error = new IllegalStateException("Decoding bug");
+        command.setContentDecoder(
+                content -> {
+                    throw error;
+                });
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Decoding bug");
+        command.onResponseAsync(newMockParseHttpResponse(200, "{}"), null);
+    }
+
     @Test
     public void testSaveObjectCommandUpdate() {
         ParseObject.State state = mock(ParseObject.State.class);
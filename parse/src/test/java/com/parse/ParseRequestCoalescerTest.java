@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParseRequestCoalescerTest {
+
+    private final List<Task<Void>> tokens = new ArrayList<>();
+    private final TaskCompletionSource<JSONObject> response = new TaskCompletionSource<>();
+
+    private Task<JSONObject> execute(
+            ParseRequestCoalescer coalescer, String key, Task<Void> cancellationToken) {
+        return coalescer.executeAsync(
+                key,
+                cancellationToken,
+                token -> {
+                    tokens.add(token);
+                    return response.getTask();
+                });
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneRequest() {
+        ParseRequestCoalescer coalescer = new ParseRequestCoalescer();
+        Task<JSONObject> first = execute(coalescer, "key", null);
+        Task<JSONObject> second = execute(coalescer, "key", null);
+        assertEquals(1, tokens.size());
+        assertEquals(1, coalescer.getHitCount());
+
+        JSONObject json = new JSONObject();
+        response.setResult(json);
+        assertSame(json, first.getResult());
+        assertSame(json, second.getResult());
+        assertEquals(1, coalescer.getSavedRequestCount());
+
+        // Once done, the next request is sent again
+        execute(coalescer, "key", null);
+        assertEquals(2, tokens.size());
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotShared() {
+        ParseRequestCoalescer coalescer = new ParseRequestCoalescer();
+        execute(coalescer, "key1", null);
+        execute(coalescer, "key2", null);
+
+        assertEquals(2, tokens.size());
+        assertEquals(0, coalescer.getHitCount());
+    }
+
+    @Test
+    public void testErrorsAreShared() {
+        ParseRequestCoalescer coalescer = new ParseRequestCoalescer();
+        Task<JSONObject> first = execute(coalescer, "key", null);
+        Task<JSONObject> second = execute(coalescer, "key", null);
+
+        ParseException error = new ParseException(ParseException.CONNECTION_FAILED, "failed");
+        response.setError(error);
+        assertSame(error, first.getError());
+        assertSame(error, second.getError());
+    }
+
+    @Test
+    public void testCancellingOneCallerKeepsTheRequest() {
+        ParseRequestCoalescer coalescer = new ParseRequestCoalescer();
+        TaskCompletionSource<Void> cancellation = new TaskCompletionSource<>();
+        Task<JSONObject> first = execute(coalescer, "key", cancellation.getTask());
+        Task<JSONObject> second = execute(coalescer, "key", null);
+
+        cancellation.setCancelled();
+        assertTrue(first.isCancelled());
+        assertFalse(tokens.get(0).isCancelled());
+
+        response.setResult(new JSONObject());
+        assertTrue(second.isCompleted());
+        assertFalse(second.isCancelled());
+        assertEquals(1, coalescer.getHitCount());
+        assertEquals(1, coalescer.getSavedRequestCount());
+    }
+
+    @Test
+    public void testCancellingEveryCallerCancelsTheRequest() {
+        ParseRequestCoalescer coalescer = new ParseRequestCoalescer();
+        TaskCompletionSource<Void> cancellation1 = new TaskCompletionSource<>();
+        TaskCompletionSource<Void> cancellation2 = new TaskCompletionSource<>();
+        execute(coalescer, "key", cancellation1.getTask());
+        execute(coalescer, "key", cancellation2.getTask());
+
+        cancellation1.setCancelled();
+        cancellation2.setCancelled();
+        assertTrue(tokens.get(0).isCancelled());
+        assertEquals(0, coalescer.getSavedRequestCount());
+
+        // A new caller doesn't join the cancelled request
+        execute(coalescer, "key", null);
+        assertEquals(2, tokens.size());
+    }
+}
@@ -10,14 +10,18 @@ package com.parse;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
 import com.parse.http.ParseHttpBody;
 import com.parse.http.ParseHttpRequest;
 import com.parse.http.ParseHttpResponse;
@@ -26,6 +30,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -95,6 +100,59 @@ public class ParseRequestTest {
         verify(mockHttpClient, times(5)).execute(any(ParseHttpRequest.class));
     }
 
+    @Test
+    public void testRetryLogicWithAsyncClient() throws Exception {
+        ParseHttpClient mockHttpClient = mock(ParseHttpClient.class);
+        when(mockHttpClient.isAsync()).thenReturn(true);
+        when(mockHttpClient.executeAsync(any(ParseHttpRequest.class)))
+                .thenReturn(Task.forError(new IOException()));
+
+        TestParseRequest request =
+                new TestParseRequest(ParseHttpRequest.Method.GET, "http://parse.com");
+        Task<String> task = request.executeAsync(mockHttpClient);
+        task.waitForCompletion();
+
+        assertTrue(task.getError() instanceof ParseException);
+        assertEquals(
+                ParseException.CONNECTION_FAILED, ((ParseException) task.getError()).getCode());
+        verify(mockHttpClient, times(5)).executeAsync(any(ParseHttpRequest.class));
+        verify(mockHttpClient, never()).execute(any(ParseHttpRequest.class));
+    }
+
+    @Test
+    public void testAsyncResponseIsReadOffTheDispatcherThread() throws Exception {
+        ParseHttpResponse mockResponse =
+                new ParseHttpResponse.Builder()
+                        .setStatusCode(200)
+                        .setContent(new ByteArrayInputStream(data))
+                        .build();
+        TaskCompletionSource<ParseHttpResponse> responseTcs = new TaskCompletionSource<>();
+        ParseHttpClient mockHttpClient = mock(ParseHttpClient.class);
+        when(mockHttpClient.isAsync()).thenReturn(true);
+        when(mockHttpClient.executeAsync(any(ParseHttpRequest.class)))
+                .thenReturn(responseTcs.getTask());
+
+        final AtomicReference<Thread> readingThread = new AtomicReference<>();
+        TestParseRequest request =
+                new TestParseRequest(ParseHttpRequest.Method.GET, "http://parse.com") {
+                    @Override
+                    protected Task<String> onResponseAsync(
+                            ParseHttpResponse response, ProgressCallback downloadProgressCallback) {
+                        readingThread.set(Thread.currentThread());
+                        return Task.forResult(null);
+                    }
+                };
+        Task<String> task = request.executeAsync(mockHttpClient);
+        Thread dispatcherThread = new Thread(() -> responseTcs.setResult(mockResponse));
+        dispatcherThread.start();
+        dispatcherThread.join();
+        task.waitForCompletion();
+
+        assertFalse(task.isFaulted());
+        assertNotNull(readingThread.get());
+        assertNotSame(dispatcherThread, readingThread.get());
+    }
+
     // TODO(grantland): Move to ParseFileRequestTest or ParseCountingByteArrayHttpBodyTest
     @Test
     public void testDownloadProgress() throws Exception {
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import com.parse.boltsinternal.Task;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParseSQLiteDatabaseTest {
+
+    private static final String DATABASE_NAME = "ParseSQLiteDatabaseTest";
+
+    private ParseSQLiteOpenHelper helper;
+
+    @Before
+    public void setUp() {
+        helper =
+                new ParseSQLiteOpenHelper(RuntimeEnvironment.application, DATABASE_NAME, null, 1) {
+                    @Override
+                    public void onCreate(SQLiteDatabase db) {
+                        db.execSQL("CREATE TABLE Items (name TEXT);");
+                    }
+
+                    @Override
+                    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                        // do nothing
+                    }
+                };
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    private static Task<Void> insert(ParseSQLiteDatabase db, String name) {
+        ContentValues values = new ContentValues();
+        values.put("name", name);
+        return db.insertOrThrowAsync("Items", values);
+    }
+
+    private static int count(ParseSQLiteDatabase db) throws ParseException {
+        Cursor cursor = ParseTaskUtils.wait(db.rawQueryAsync("SELECT COUNT(*) FROM Items", null));
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testReadableSessionsWaitForWritableSessions() throws Exception {
+        ParseSQLiteDatabase writer = ParseTaskUtils.wait(helper.getWritableDatabaseAsync());
+        ParseTaskUtils.wait(insert(writer, "foo"));
+
+        Task<ParseSQLiteDatabase> readerTask = helper.getReadableDatabaseAsync();
+        assertFalse(readerTask.waitForCompletion(100, TimeUnit.MILLISECONDS));
+
+        ParseTaskUtils.wait(writer.closeAsync());
+        ParseSQLiteDatabase reader = ParseTaskUtils.wait(readerTask);
+        assertEquals(1, count(reader));
+        ParseTaskUtils.wait(reader.closeAsync());
+    }
+
+    @Test
+    public void testReadableSessionsRunWithWriteAheadLogging() throws Exception {
+        helper.setWriteAheadLoggingEnabled(true);
+        ParseSQLiteDatabase writer = ParseTaskUtils.wait(helper.getWritableDatabaseAsync());
+        ParseTaskUtils.wait(writer.beginTransactionAsync());
+        ParseTaskUtils.wait(insert(writer, "foo"));
+
+        Task<ParseSQLiteDatabase> readerTask = helper.getReadableDatabaseAsync();
+        assertTrue(readerTask.waitForCompletion(10, TimeUnit.SECONDS));
+        ParseSQLiteDatabase reader = readerTask.getResult();
+        // The transaction hasn't been committed yet
+        assertEquals(0, count(reader));
+        ParseTaskUtils.wait(reader.closeAsync());
+
+        ParseTaskUtils.wait(writer.setTransactionSuccessfulAsync());
+        ParseTaskUtils.wait(writer.endTransactionAsync());
+        ParseTaskUtils.wait(writer.closeAsync());
+
+        reader = ParseTaskUtils.wait(helper.getReadableDatabaseAsync());
+        assertEquals(1, count(reader));
+        ParseTaskUtils.wait(reader.closeAsync());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadableSessionsCantRunTransactionsWithWriteAheadLogging() throws Exception {
+        helper.setWriteAheadLoggingEnabled(true);
+        ParseSQLiteDatabase reader = ParseTaskUtils.wait(helper.getReadableDatabaseAsync());
+        try {
+            reader.beginTransactionAsync();
+        } finally {
+            ParseTaskUtils.wait(reader.closeAsync());
+        }
+    }
+}
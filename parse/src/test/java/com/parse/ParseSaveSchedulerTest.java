@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.parse.boltsinternal.Task;
+import com.parse.boltsinternal.TaskCompletionSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParseSaveSchedulerTest extends ResetPluginsParseTest {
+
+    private final List<List<ParseObject.State>> batches = new ArrayList<>();
+    private final List<List<TaskCompletionSource<ParseObject.State>>> responses = new ArrayList<>();
+    private final Semaphore batchSent = new Semaphore(0);
+    private int objectIds;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ParseCurrentUserController userController = mock(ParseCurrentUserController.class);
+        when(userController.getAsync()).thenReturn(Task.<ParseUser>forResult(null));
+        ParseCorePlugins.getInstance().registerCurrentUserController(userController);
+
+        ParseObjectController objectController = mock(ParseObjectController.class);
+        when(objectController.saveAllAsync(anyList(), anyList(), nullable(String.class), anyList()))
+                .thenAnswer(
+                        invocation -> {
+                            List<ParseObject.State> states = invocation.getArgument(0);
+                            List<TaskCompletionSource<ParseObject.State>> tcss = new ArrayList<>();
+                            List<Task<ParseObject.State>> tasks = new ArrayList<>();
+                            for (int i = 0; i < states.size(); i++) {
+                                TaskCompletionSource<ParseObject.State> tcs =
+                                        new TaskCompletionSource<>();
+                                tcss.add(tcs);
+                                tasks.add(tcs.getTask());
+                            }
+                            synchronized (batches) {
+                                batches.add(states);
+                                responses.add(tcss);
+                            }
+                            batchSent.release();
+                            return tasks;
+                        });
+        ParseCorePlugins.getInstance().registerObjectController(objectController);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        ParseSaveScheduler.maxConcurrentBatches =
+                ParseSaveScheduler.DEFAULT_MAX_CONCURRENT_SAVE_BATCHES;
+    }
+
+    private List<ParseObject.State> awaitBatch(int index) throws InterruptedException {
+        assertTrue(batchSent.tryAcquire(10, TimeUnit.SECONDS));
+        synchronized (batches) {
+            return batches.get(index);
+        }
+    }
+
+    private void completeBatch(int index) {
+        List<ParseObject.State> states;
+        List<TaskCompletionSource<ParseObject.State>> tcss;
+        synchronized (batches) {
+            states = batches.get(index);
+            tcss = responses.get(index);
+        }
+        for (int i = 0; i < states.size(); i++) {
+            tcss.get(i)
+                    .setResult(
+                            new ParseObject.State.Builder(states.get(i).className())
+                                    .objectId("id" + objectIds++)
+                                    .build());
+        }
+    }
+
+    private int batchCount() {
+        synchronized (batches) {
+            return batches.size();
+        }
+    }
+
+    @Test
+    public void testObjectsWaitForWhatTheyPointTo() throws Exception {
+        TaskCompletionSource<ParseFile.State> fileTcs = new TaskCompletionSource<>();
+        ParseFileController fileController = mock(ParseFileController.class);
+        when(fileController.saveAsync(
+                        any(ParseFile.State.class),
+                        any(byte[].class),
+                        nullable(String.class),
+                        nullable(ProgressCallback.class),
+                        nullable(Task.class)))
+                .thenReturn(fileTcs.getTask());
+        ParseCorePlugins.getInstance().registerFileController(fileController);
+
+        ParseObject leaf = new ParseObject("Leaf");
+        ParseObject withFile = new ParseObject("WithFile");
+        withFile.put("file", new ParseFile("name", "hello".getBytes(), "text/plain"));
+        ParseObject parent = new ParseObject("Parent");
+        parent.put("children", Arrays.asList(leaf, withFile));
+
+        Task<Void> task = ParseObject.saveAllInBackground(Collections.singletonList(parent));
+
+        // Only the leaf can be saved while the file uploads
+        List<ParseObject.State> first = awaitBatch(0);
+        assertEquals(1, first.size());
+        assertEquals("Leaf", first.get(0).className());
+        completeBatch(0);
+        assertEquals(1, batchCount());
+
+        fileTcs.setResult(new ParseFile.State.Builder().name("name").url("url").build());
+        List<ParseObject.State> second = awaitBatch(1);
+        assertEquals(1, second.size());
+        assertEquals("WithFile", second.get(0).className());
+        completeBatch(1);
+
+        List<ParseObject.State> third = awaitBatch(2);
+        assertEquals("Parent", third.get(0).className());
+        completeBatch(2);
+
+        ParseTaskUtils.wait(task);
+        assertNotNull(parent.getObjectId());
+        assertNotNull(leaf.getObjectId());
+        assertNotNull(withFile.getObjectId());
+    }
+
+    @Test
+    public void testBatchesAreLimited() throws Exception {
+        ParseSaveScheduler.maxConcurrentBatches = 1;
+
+        List<ParseObject> objects = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            objects.add(new ParseObject("TestObject"));
+        }
+        Task<Void> task = ParseObject.saveAllInBackground(objects);
+
+        assertEquals(
+                ParseRESTObjectBatchCommand.COMMAND_OBJECT_BATCH_MAX_SIZE, awaitBatch(0).size());
+        assertEquals(1, batchCount());
+        completeBatch(0);
+
+        assertEquals(10, awaitBatch(1).size());
+        completeBatch(1);
+
+        ParseTaskUtils.wait(task);
+        for (ParseObject object : objects) {
+            assertNotNull(object.getObjectId());
+        }
+    }
+
+    @Test
+    public void testFailureStopsLaterBatches() throws Exception {
+        ParseObject child = new ParseObject("Child");
+        ParseObject parent = new ParseObject("Parent");
+        parent.put("child", child);
+
+        Task<Void> task = ParseObject.saveAllInBackground(Collections.singletonList(parent));
+
+        awaitBatch(0);
+        ParseException error = new ParseException(ParseException.CONNECTION_FAILED, "failed");
+        responses.get(0).get(0).setError(error);
+
+        task.waitForCompletion();
+        assertTrue(task.isFaulted());
+        assertEquals(1, batchCount());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParseStartupTimerTest {
+
+    @Test
+    public void testPhasesAreReported() {
+        ParseStartupListener listener = mock(ParseStartupListener.class);
+        ParseStartupTimer timer = new ParseStartupTimer(listener);
+
+        timer.phaseCompleted(ParseStartupListener.PHASE_PLUGINS);
+        timer.completed();
+
+        verify(listener)
+                .onPhaseCompleted(eq(ParseStartupListener.PHASE_PLUGINS), anyLong(), eq(false));
+        verify(listener).onStartupCompleted(anyLong());
+    }
+
+    @Test
+    public void testPhasesOnAnotherThreadAreInBackground() throws Exception {
+        ParseStartupListener listener = mock(ParseStartupListener.class);
+        final ParseStartupTimer timer = new ParseStartupTimer(listener);
+
+        Thread thread =
+                new Thread(() -> timer.phaseCompleted(ParseStartupListener.PHASE_MIGRATIONS));
+        thread.start();
+        thread.join();
+
+        verify(listener)
+                .onPhaseCompleted(eq(ParseStartupListener.PHASE_MIGRATIONS), anyLong(), eq(true));
+    }
+
+    @Test
+    public void testListenerErrorsAreIgnored() {
+        ParseStartupListener listener = mock(ParseStartupListener.class);
+        doThrow(new RuntimeException())
+                .when(listener)
+                .onPhaseCompleted(anyString(), anyLong(), anyBoolean());
+        doThrow(new RuntimeException()).when(listener).onStartupCompleted(anyLong());
+        ParseStartupTimer timer = new ParseStartupTimer(listener);
+
+        timer.phaseCompleted(ParseStartupListener.PHASE_PLUGINS);
+        timer.completed();
+    }
+
+    @Test
+    public void testBackgroundInitializationDefersDiskWork() {
+        ParseStartupListener listener = mock(ParseStartupListener.class);
+        Parse.Configuration configuration =
+                new Parse.Configuration.Builder(RuntimeEnvironment.application)
+                        .applicationId(BuildConfig.LIBRARY_PACKAGE_NAME)
+                        .server("https://api.parse.com/1")
+                        .enableLocalDataStore()
+                        .enableBackgroundInitialization()
+                        .startupListener(listener)
+                        .build();
+        ParsePlugins plugins = mock(ParsePlugins.class);
+        when(plugins.configuration()).thenReturn(configuration);
+        when(plugins.applicationContext()).thenReturn(RuntimeEnvironment.application);
+
+        try {
+            Parse.initialize(configuration, plugins);
+            verify(listener)
+                    .onPhaseCompleted(
+                            eq(ParseStartupListener.PHASE_PUSH_RECEIVERS), anyLong(), eq(false));
+
+            Parse.waitForInitialization();
+            verify(listener)
+                    .onPhaseCompleted(
+                            eq(ParseStartupListener.PHASE_MIGRATIONS), anyLong(), eq(true));
+            verify(listener)
+                    .onPhaseCompleted(
+                            eq(ParseStartupListener.PHASE_CACHE_APPLICATION_ID),
+                            anyLong(),
+                            eq(true));
+            verify(listener, timeout(10000)).onStartupCompleted(anyLong());
+        } finally {
+            ParseCorePlugins.getInstance().reset();
+            ParsePlugins.reset();
+            Parse.destroy();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ProgressReporterTest {
+
+    private final List<Integer> history = new ArrayList<>();
+
+    @Test
+    public void testReportsOnlyWhenThePercentageGoesUp() {
+        ProgressReporter reporter = new ProgressReporter(history::add, 1000);
+        for (long position = 0; position <= 1000; position++) {
+            reporter.report(position);
+        }
+        reporter.complete();
+
+        assertEquals(101, history.size());
+        assertEquals(Integer.valueOf(0), history.get(0));
+        assertEquals(Integer.valueOf(100), history.get(100));
+    }
+
+    @Test
+    public void testRetryDoesNotGoBack() {
+        ProgressReporter reporter = new ProgressReporter(history::add, 100);
+        reporter.report(50);
+        // A retry writes everything again
+        reporter.report(10);
+        reporter.report(60);
+
+        assertEquals(Arrays.asList(50, 60), history);
+    }
+
+    @Test
+    public void testUnknownLengthOnlyReportsCompletion() {
+        ProgressReporter reporter = new ProgressReporter(history::add, -1);
+        reporter.report(10);
+        reporter.complete();
+
+        assertEquals(Collections.singletonList(100), history);
+    }
+}
@@ -3,26 +3,56 @@
 
 package com.parse.rxjava
 
+import com.parse.boltsinternal.CancellationTokenSource
 import com.parse.boltsinternal.Task
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Single
+import java.util.concurrent.CancellationException
 
+/**
+ * Emits the result of this task once it completes, without blocking the subscribing thread.
+ * Disposing stops the result from being delivered, but doesn't cancel the work behind the task.
+ */
 fun <T> Task<T>.toSingle(): Single<T> {
-    return Single.defer {
-        this.waitForCompletion()
-        if (isFaulted) {
-            throw error
-        }
-        Single.just(result)
-    }
+    return toSingle {}
 }
 
+/**
+ * Completes once this task completes, without blocking the subscribing thread. Disposing stops the
+ * completion from being delivered, but doesn't cancel the work behind the task.
+ */
 fun Task<Void>.toCompletable(): Completable {
-    return Completable.defer {
-        this.waitForCompletion()
-        if (isFaulted) {
-            throw error
+    return Completable.create { emitter ->
+        val cts = CancellationTokenSource()
+        emitter.setCancellable { cts.cancel() }
+        continueWith({ task ->
+            when {
+                task.isCancelled -> emitter.tryOnError(CancellationException())
+                task.isFaulted -> emitter.tryOnError(task.error)
+                else -> emitter.onComplete()
+            }
+            null
+        }, cts.token)
+    }
+}
+
+/** Like [toSingle], and also calls [onDispose] if the subscription is disposed before the result. */
+internal fun <T> Task<T>.toSingle(onDispose: () -> Unit): Single<T> {
+    return Single.create { emitter ->
+        val cts = CancellationTokenSource()
+        emitter.setCancellable {
+            cts.cancel()
+            if (!isCompleted) {
+                onDispose()
+            }
         }
-        Completable.complete()
+        continueWith({ task ->
+            when {
+                task.isCancelled -> emitter.tryOnError(CancellationException())
+                task.isFaulted -> emitter.tryOnError(task.error)
+                else -> emitter.onSuccess(task.result)
+            }
+            null
+        }, cts.token)
     }
 }
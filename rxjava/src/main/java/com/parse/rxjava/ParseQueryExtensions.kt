@@ -0,0 +1,60 @@
+@file:JvmName("ParseRxJavaQueryUtils")
+@file:Suppress("unused")
+
+package com.parse.rxjava
+
+import com.parse.ParseObject
+import com.parse.ParseQuery
+import com.parse.ParseQueryPager
+import io.reactivex.rxjava3.core.Flowable
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Single
+
+// The query runs on subscription. Disposing before it finishes calls ParseQuery.cancel(), which
+// cancels every request the query is running, including those of other subscriptions.
+
+/** Finds the objects that satisfy this query, see [ParseQuery.findInBackground]. */
+fun <T : ParseObject> ParseQuery<T>.findAsSingle(): Single<List<T>> {
+    return Single.defer { findInBackground().toSingle { cancel() } }
+}
+
+/**
+ * Emits each of the objects that satisfy this query, then completes. Pages are fetched one after
+ * the other as in [findAsFlowable], as fast as they arrive, since an [Observable] can't slow down
+ * its source.
+ */
+@JvmOverloads
+fun <T : ParseObject> ParseQuery<T>.findAsObservable(pageSize: Int = 100): Observable<T> {
+    return findAsFlowable(pageSize).toObservable()
+}
+
+/**
+ * Emits each of the objects that satisfy this query as they're requested, then completes. The
+ * objects are fetched [pageSize] at a time with a [ParseQueryPager], and no more than one page is
+ * fetched ahead of the one the subscriber is on, so memory stays bounded however many objects there
+ * are. Unlike [findAsSingle], this emits every object that satisfies the query, up to its limit if
+ * it has one. Queries the pager can't page through signal an [IllegalArgumentException].
+ */
+@JvmOverloads
+fun <T : ParseObject> ParseQuery<T>.findAsFlowable(pageSize: Int = 100): Flowable<T> {
+    return Flowable.defer {
+        val pager = pager(pageSize)
+        Single.defer { pager.nextPageInBackground().toSingle { cancel() } }
+            .repeatUntil { !pager.hasNextPage() }
+    }.concatMapIterable({ it }, 1)
+}
+
+/** Finds the first object that satisfies this query, see [ParseQuery.getFirstInBackground]. */
+fun <T : ParseObject> ParseQuery<T>.getFirstAsSingle(): Single<T> {
+    return Single.defer { getFirstInBackground().toSingle { cancel() } }
+}
+
+/** Gets the object with the given id, see [ParseQuery.getInBackground]. */
+fun <T : ParseObject> ParseQuery<T>.getAsSingle(objectId: String): Single<T> {
+    return Single.defer { getInBackground(objectId).toSingle { cancel() } }
+}
+
+/** Counts the objects that satisfy this query, see [ParseQuery.countInBackground]. */
+fun <T : ParseObject> ParseQuery<T>.countAsSingle(): Single<Int> {
+    return Single.defer { countInBackground().toSingle { cancel() } }
+}